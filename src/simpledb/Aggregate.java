@@ -1,13 +1,22 @@
 package simpledb;
 
 import java.util.*;
+import java.util.concurrent.Callable;
 
 /**
  * The Aggregation operator that computes an aggregate (e.g., sum, avg, max,
  * min).  Note that we only support aggregates over a single column, grouped
  * by a single column.
+ * <p>
+ * When the child is an {@link Exchange}, the aggregate is computed in two
+ * phases: each of the exchange's inputs is aggregated into its own partial
+ * {@link Aggregator} on a worker thread, and the partial results are then
+ * merged into the final one with {@link Aggregator#merge}.
+ * <p>
+ * The child is read a {@link TupleBatch} at a time, through a
+ * {@link BatchAdapter} if it does not support batches itself.
  */
-public class Aggregate extends Operator {
+public class Aggregate extends Operator implements BatchDbIterator {
 
     private final DbIterator child;
     private final int afield;
@@ -15,6 +24,7 @@ public class Aggregate extends Operator {
     private final Aggregator.Op aop;
 
     private DbIterator aggregateIterator;
+    private TupleBatch batch;
 
     /**
      * Constructor.  
@@ -56,25 +66,70 @@ public class Aggregate extends Operator {
         throws NoSuchElementException, DbException, TransactionAbortedException {
         if (aggregateIterator == null) {
             Aggregator aggregator;
-            Type afieldType = child.getTupleDesc().getFieldType(afield);
-            Type gfieldType = gfield == Aggregator.NO_GROUPING ?
-                    null : child.getTupleDesc().getFieldType(gfield);
-            if (afieldType.equals(Type.INT_TYPE)) {
-                aggregator = new IntegerAggregator(gfield, gfieldType, afield, aop);
+            if (child instanceof Exchange) {
+                aggregator = aggregateInParallel(((Exchange) child).getChildren());
             } else {
-                aggregator = new StringAggregator(gfield, gfieldType, afield, aop);
-            }
-
-            child.open();
-            while (child.hasNext()) {
-                Tuple tuple = child.next();
-                aggregator.mergeTupleIntoGroup(tuple);
+                aggregator = aggregate(child);
             }
             aggregateIterator = aggregator.iterator();
         }
         aggregateIterator.open();
     }
 
+    public DbIterator getChild() {
+        return child;
+    }
+
+    /** @return a new, empty aggregator computing this operator's aggregate over its child */
+    Aggregator newAggregator() {
+        Type afieldType = child.getTupleDesc().getFieldType(afield);
+        Type gfieldType = gfield == Aggregator.NO_GROUPING ?
+                null : child.getTupleDesc().getFieldType(gfield);
+        if (afieldType.equals(Type.INT_TYPE)) {
+            return new IntegerAggregator(gfield, gfieldType, afield, aop);
+        } else {
+            return new StringAggregator(gfield, gfieldType, afield, aop);
+        }
+    }
+
+    /** Merges every tuple of input into a new aggregator. */
+    private Aggregator aggregate(DbIterator input) throws DbException, TransactionAbortedException {
+        Aggregator aggregator = newAggregator();
+        BatchDbIterator batches = BatchAdapter.of(input);
+        input.open();
+        TupleBatch b;
+        while ((b = batches.nextBatch()) != null) {
+            aggregator.mergeBatch(b);
+        }
+        return aggregator;
+    }
+
+    /** Aggregates each input on its own worker thread, then merges the partial aggregates. */
+    private Aggregator aggregateInParallel(DbIterator[] inputs)
+        throws DbException, TransactionAbortedException {
+        ArrayList<Callable<Aggregator>> tasks = new ArrayList<Callable<Aggregator>>();
+        for (final DbIterator input : inputs) {
+            tasks.add(new Callable<Aggregator>() {
+                public Aggregator call() throws Exception {
+                    try {
+                        return aggregate(input);
+                    } finally {
+                        input.close();
+                    }
+                }
+            });
+        }
+        Aggregator result = null;
+        for (Aggregator partial : Exchange.runAll(tasks)) {
+            if (result == null) {
+                result = partial;
+            } else {
+                result.merge(partial);
+            }
+        }
+        return result;
+    }
+
     /**
      * Returns the next tuple.  If there is a group by field, then 
      * the first field is the field by which we are
@@ -87,6 +142,13 @@ public class Aggregate extends Operator {
         return aggregateIterator.hasNext() ? aggregateIterator.next() : null;
     }
 
+    public TupleBatch nextBatch() throws TransactionAbortedException, DbException {
+        if (batch == null) {
+            batch = new TupleBatch(aggregateIterator.getTupleDesc());
+        }
+        return BatchAdapter.fill(aggregateIterator, batch);
+    }
+
     public void rewind() throws DbException, TransactionAbortedException {
         close();
         open();
@@ -116,6 +178,9 @@ public class Aggregate extends Operator {
     }
 
     public void close() {
-        aggregateIterator.close();
+        // open may have failed before computing the aggregate
+        if (aggregateIterator != null) {
+            aggregateIterator.close();
+        }
     }
 }
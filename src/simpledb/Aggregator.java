@@ -40,6 +40,26 @@ public interface Aggregator {
      */
     public void mergeTupleIntoGroup(Tuple tup);
 
+    /**
+     * Merge every selected row of a batch into the aggregate, as if each row
+     * had been passed to {@link #mergeTupleIntoGroup}.
+     *
+     * @param batch rows containing an aggregate field and a group-by field
+     */
+    public void mergeBatch(TupleBatch batch);
+
+    /**
+     * Merge the partial aggregates computed by another aggregator into this
+     * one, as if every tuple merged into other had been merged into this
+     * aggregator instead.  Used to combine the results of aggregators that
+     * each saw part of the input, e.g. on different worker threads.
+     *
+     * @param other an aggregator of the same class, constructed with the
+     *   same arguments as this one
+     * @throws IllegalArgumentException if other computes a different aggregate
+     */
+    public void merge(Aggregator other);
+
     /**
      * Create a DbIterator over group aggregate results.
      * @see simpledb.TupleIterator for a possible helper
@@ -0,0 +1,70 @@
+package simpledb;
+
+import java.util.NoSuchElementException;
+
+/**
+ * BatchAdapter lets batch operators read a child that only supports
+ * tuple-at-a-time iteration: nextBatch() fills a batch by calling the
+ * child's next().  All other methods are passed through to the child, so an
+ * operator may open, rewind and close either the adapter or the child.
+ */
+public class BatchAdapter implements BatchDbIterator {
+
+    private final DbIterator child;
+    private TupleBatch batch;
+
+    public BatchAdapter(DbIterator child) {
+        this.child = child;
+    }
+
+    /** @return it as a BatchDbIterator, wrapping it in an adapter if necessary */
+    public static BatchDbIterator of(DbIterator it) {
+        return it instanceof BatchDbIterator ? (BatchDbIterator) it : new BatchAdapter(it);
+    }
+
+    /**
+     * Fills batch with tuples from it until the batch is full or it is
+     * exhausted; used by operators that build their batches from tuples.
+     *
+     * @return batch, or null if it returned no tuples
+     */
+    static TupleBatch fill(DbIterator it, TupleBatch batch)
+        throws DbException, TransactionAbortedException {
+        batch.clear();
+        while (!batch.isFull() && it.hasNext()) {
+            batch.add(it.next());
+        }
+        return batch.size() == 0 ? null : batch;
+    }
+
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (batch == null) {
+            batch = new TupleBatch(child.getTupleDesc());
+        }
+        return fill(child, batch);
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+    }
+
+    public boolean hasNext() throws DbException, TransactionAbortedException {
+        return child.hasNext();
+    }
+
+    public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
+        return child.next();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void close() {
+        child.close();
+    }
+}
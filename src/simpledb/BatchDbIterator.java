@@ -0,0 +1,23 @@
+package simpledb;
+
+/**
+ * BatchDbIterator is implemented by operators that can return their output
+ * a {@link TupleBatch} at a time, so that the cost of the calls between
+ * operators is paid once per batch rather than once per tuple.
+ * <p>
+ * Once opened, a BatchDbIterator must be read either with nextBatch() or
+ * with hasNext()/next(), not both.  Operators whose children are not batch
+ * iterators read them through a {@link BatchAdapter}.
+ */
+public interface BatchDbIterator extends DbIterator {
+
+    /**
+     * Returns the next batch of tuples.  The batch is owned by this iterator
+     * and is overwritten by the next call to nextBatch(), rewind() or close().
+     * A returned batch always has at least one selected row.
+     *
+     * @return the next batch, or null if there are no more tuples
+     * @throws IllegalStateException If the iterator has not been opened
+     */
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException;
+}
@@ -0,0 +1,143 @@
+package simpledb;
+import java.util.*;
+
+/**
+ * The BlockNestedLoopJoin operator implements the relational join operation
+ * by caching the outer relation in memory a block at a time.
+ * <p>
+ * A block holds as many outer tuples as would fit on a configurable number of
+ * pages.  The inner relation is scanned once per block, rather than once per
+ * outer tuple as in {@link Join}, and every inner tuple is checked against the
+ * whole block.  This makes it suitable for arbitrary (including non-equality)
+ * join predicates.
+ */
+public class BlockNestedLoopJoin extends Operator {
+
+    /** Default number of pages' worth of outer tuples held in a block. */
+    public static final int DEFAULT_BLOCK_PAGES = 32;
+
+    private final JoinPredicate predicate;
+    private final DbIterator child1;
+    private final DbIterator child2;
+    private final TupleDesc tupleDesc;
+    private final PredicateCompiler.CompiledJoin compiled;
+    private final int blockTuples;
+
+    private final ArrayList<Tuple> block;
+    private Tuple tuple2;
+    private int blockPos;
+
+    /**
+     * Constructor.  Accepts two children to join and the predicate to join
+     * them on, using a block of {@link #DEFAULT_BLOCK_PAGES} pages.
+     *
+     * @param p The predicate to use to join the children
+     * @param child1 Iterator for the left(outer) relation to join
+     * @param child2 Iterator for the right(inner) relation to join
+     */
+    public BlockNestedLoopJoin(JoinPredicate p, DbIterator child1, DbIterator child2) {
+        this(p, child1, child2, DEFAULT_BLOCK_PAGES);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param p The predicate to use to join the children
+     * @param child1 Iterator for the left(outer) relation to join
+     * @param child2 Iterator for the right(inner) relation to join
+     * @param blockPages The number of pages' worth of outer tuples to cache
+     */
+    public BlockNestedLoopJoin(JoinPredicate p, DbIterator child1, DbIterator child2, int blockPages) {
+        if (blockPages < 1) {
+            throw new IllegalArgumentException("block must hold at least one page");
+        }
+        this.predicate = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.tupleDesc = TupleDesc.combine(child1.getTupleDesc(), child2.getTupleDesc());
+        this.compiled = PredicateCompiler.compile(p, child1.getTupleDesc(), child2.getTupleDesc());
+        this.blockTuples = tuplesPerBlock(child1.getTupleDesc(), blockPages);
+        this.block = new ArrayList<Tuple>();
+    }
+
+    /**
+     * Returns the number of tuples of the given schema that fit in a block of
+     * the given number of pages, using the same slot layout as {@link HeapPage}.
+     */
+    public static int tuplesPerBlock(TupleDesc td, int blockPages) {
+        int tuplesPerPage = BufferPool.PAGE_SIZE * 8 / (td.getSize() * 8 + 1);
+        return Math.max(1, tuplesPerPage) * blockPages;
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return predicate;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return tupleDesc;
+    }
+
+    public void open()
+        throws DbException, NoSuchElementException, TransactionAbortedException {
+        child1.open();
+        child2.open();
+        block.clear();
+        tuple2 = null;
+        blockPos = 0;
+        loadBlock();
+    }
+
+    public void close() {
+        super.close();
+        child1.close();
+        child2.close();
+        block.clear();
+        tuple2 = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        close();
+        open();
+    }
+
+    /**
+     * Returns the next tuple generated by the join, or null if there are no
+     * more tuples.  As with {@link Join}, returned tuples are the
+     * concatenation of the joining tuples from child1 and child2; tuples are
+     * produced block by block, so their order differs from that of Join.
+     *
+     * @return The next matching tuple.
+     * @see JoinPredicate#filter
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (!block.isEmpty()) {
+            if (tuple2 != null) {
+                while (blockPos < block.size()) {
+                    Tuple tuple1 = block.get(blockPos++);
+                    if (compiled.test(tuple1, tuple2)) {
+                        return Tuple.combine(tuple1, tuple2, tupleDesc);
+                    }
+                }
+            }
+            if (child2.hasNext()) {
+                tuple2 = child2.next();
+                blockPos = 0;
+            } else {
+                tuple2 = null;
+                loadBlock();
+                if (!block.isEmpty()) {
+                    child2.rewind();
+                }
+            }
+        }
+        return null;
+    }
+
+    /** Replaces the current block with the next block of outer tuples. */
+    private void loadBlock() throws DbException, TransactionAbortedException {
+        block.clear();
+        while (block.size() < blockTuples && child1.hasNext()) {
+            block.add(child1.next());
+        }
+    }
+}
@@ -105,7 +105,10 @@ public class BufferPool {
         }
 
         private synchronized Set<PageId> pageLockedByTid(TransactionId tid) {
-            return tidToPages.get(tid);
+            // a copy, as the locks may be released while the caller iterates;
+            // a transaction aborted before it locked anything has none
+            Set<PageId> pids = tidToPages.get(tid);
+            return pids == null ? new HashSet<PageId>() : new HashSet<PageId>(pids);
         }
 
         private synchronized Set<TransactionId> getWaitingForTids(TransactionId transactionId) {
@@ -147,6 +150,31 @@ public class BufferPool {
         }
     }
 
+    /**
+     * Counts of the pages one thread has requested with {@link #getPage},
+     * which {@link ProfiledIterator} reads before and after each call to an
+     * operator to attribute the requests to it.
+     */
+    public static class PageCounters {
+        /** Requests for pages that were already cached */
+        public long hits;
+        /** Requests for pages that had to be read */
+        public long misses;
+        /** Nanoseconds spent waiting for page locks */
+        public long lockWaitNanos;
+    }
+
+    private static final ThreadLocal<PageCounters> COUNTERS = new ThreadLocal<PageCounters>() {
+        @Override protected PageCounters initialValue() {
+            return new PageCounters();
+        }
+    };
+
+    /** @return the counts of the pages the calling thread has requested */
+    public static PageCounters threadCounters() {
+        return COUNTERS.get();
+    }
+
     /** Bytes per page, including header. */
     public static final int PAGE_SIZE = 4096;
 
@@ -200,15 +228,25 @@ public class BufferPool {
      */
     public Page getPage(TransactionId tid, PageId pid, Permissions perm)
         throws TransactionAbortedException, DbException {
-        while (!lockManager.acquireLock(tid, pid, perm));
+        PageCounters counters = COUNTERS.get();
+        if (!lockManager.acquireLock(tid, pid, perm)) {
+            long start = System.nanoTime();
+            try {
+                while (!lockManager.acquireLock(tid, pid, perm));
+            } finally {
+                counters.lockWaitNanos += System.nanoTime() - start;
+            }
+        }
 
         synchronized (LOCK) {
             timestamp++;
             latestUsedTimestamp.put(pid, timestamp);
 
             if (cachedPageIndex.containsKey(pid)) {
+                counters.hits++;
                 return pagePool[cachedPageIndex.get(pid)];
             }
+            counters.misses++;
 
             if (idlePageIdx.size() == 0) {
                 evictPage();
@@ -276,6 +314,7 @@ public class BufferPool {
                 }
             }
         }
+        TableStats.transactionComplete(tid, commit);
         transactionComplete(tid);
     }
 
@@ -289,6 +328,9 @@ public class BufferPool {
      * their markDirty bit, and updates cached versions of any pages that have 
      * been dirtied so that future requests see up-to-date pages. 
      *
+     * Also updates the table's statistics, if they are being maintained,
+     * once tid commits; see {@link TableStats#maintain}.
+     *
      * @param tid the transaction adding the tuple
      * @param tableId the table to add the tuple to
      * @param t the tuple to add
@@ -300,6 +342,7 @@ public class BufferPool {
         for (Page page : pages) {
             page.markDirty(true, tid);
         }
+        TableStats.tupleInserted(tid, tableId, t);
     }
 
     /**
@@ -312,14 +355,24 @@ public class BufferPool {
      * been dirtied, as it is not possible that a new page was created during the deletion
      * (note difference from insertTuple).
      *
+     * Also updates the table's statistics, if they are being maintained,
+     * once tid commits.
+     *
      * @param tid the transaction adding the tuple.
      * @param t the tuple to add
      */
     public  void deleteTuple(TransactionId tid, Tuple t)
         throws DbException, TransactionAbortedException {
         DbFile file = Database.getCatalog().getDbFile(t.getRecordId().getPageId().getTableId());
+        // a scan over some of the columns of a ColumnFile returns partial
+        // tuples, but the statistics count the whole row
+        Tuple row = t;
+        if (file instanceof ColumnFile && TableStats.isMaintained(file.getId())) {
+            row = ((ColumnFile) file).readRow(tid, t.getRecordId());
+        }
         Page page = file.deleteTuple(tid, t);
         page.markDirty(true, tid);
+        TableStats.tupleDeleted(tid, file.getId(), row);
     }
 
     /**
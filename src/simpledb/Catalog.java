@@ -164,8 +164,25 @@ public class Catalog {
                 Type[] typeAr = types.toArray(new Type[0]);
                 String[] namesAr = names.toArray(new String[0]);
                 TupleDesc t = new TupleDesc(typeAr, namesAr);
-                HeapFile tabHf = new HeapFile(new File(name + ".dat"), t);
-                addTable(tabHf,name,primaryKey);
+                //an optional storage annotation follows the field list
+                String storage = line.substring(line.indexOf(")") + 1).trim().toLowerCase();
+                DbFile tabFile;
+                if (storage.isEmpty() || storage.equals("heap")) {
+                    tabFile = new HeapFile(new File(name + ".dat"), t);
+                } else if (storage.equals("columnar")) {
+                    File dir = new File(name + ".col");
+                    File dat = new File(name + ".dat");
+                    if (!dir.exists() && dat.exists()) {
+                        tabFile = ColumnFile.fromHeapFile(new HeapFile(dat, t), dir);
+                    } else {
+                        tabFile = new ColumnFile(dir, t);
+                    }
+                } else {
+                    System.out.println("Unknown storage " + storage);
+                    System.exit(0);
+                    return;
+                }
+                addTable(tabFile,name,primaryKey);
                 System.out.println("Added table : " + name + " with schema " + t);
             }
         } catch (IOException e) {
@@ -0,0 +1,275 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * A Checkpoint watches an input that a join reads in full before it returns
+ * anything, such as the build side of a {@link HashJoin} or an input of a
+ * sort-merge join, and counts the tuples it actually has so that they can
+ * be compared with the optimizer's estimate.  {@link LogicalPlan} places
+ * checkpoints when re-optimization is enabled; see
+ * {@link Query#setReoptimizationFactor}.
+ * <p>
+ * When the input is exhausted and its cardinality is more than a factor
+ * away from the estimate, the checkpoint throws a {@link Deviation}, so that
+ * the joins not yet done can be planned again knowing the input's real
+ * size.  It keeps the input's tuples, which the join holds in memory
+ * anyway, so that the new plan can start from them instead of computing
+ * them again.  A checkpoint that was not allowed to keep all of them, or
+ * that was disarmed because the query has started returning tuples, only
+ * counts them.
+ * <p>
+ * An input that is an {@link Exchange} is watched by a tap on each of its
+ * children, so that it is still read in parallel; see {@link #wrap}.
+ */
+public class Checkpoint {
+
+    /**
+     * Thrown by the operator that finishes reading an input whose
+     * cardinality deviates from the estimate.
+     */
+    public static class Deviation extends DbException {
+        private static final long serialVersionUID = 1L;
+
+        private final transient Checkpoint checkpoint;
+
+        Deviation(Checkpoint c) {
+            super("input " + c.getTables() + " has " + c.getRows() + " tuples, "
+                    + Math.round(c.getEstimate()) + " were estimated");
+            checkpoint = c;
+        }
+
+        /** @return the checkpoint whose input deviated */
+        public Checkpoint getCheckpoint() {
+            return checkpoint;
+        }
+    }
+
+    private final List<String> tables;
+    private final double estimate;
+    private final double factor;
+    private final int maxTuples;
+    private volatile boolean armed = true;
+
+    private TupleDesc td;
+    private int parts;
+    private int finished;
+    private long rows;
+    // the input's tuples, or null if there were more than maxTuples
+    private ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+
+    /**
+     * Constructor.
+     *
+     * @param tables the aliases of the tables the input joins
+     * @param estimate the estimated number of tuples in the input
+     * @param factor how many times larger or smaller than estimate the
+     *   input must be to deviate; at least 1
+     * @param maxTuples the most tuples to keep
+     */
+    public Checkpoint(List<String> tables, double estimate, double factor, int maxTuples) {
+        if (factor < 1) {
+            throw new IllegalArgumentException("deviation factor must be at least 1");
+        }
+        this.tables = new ArrayList<String>(tables);
+        this.estimate = estimate;
+        this.factor = factor;
+        this.maxTuples = maxTuples;
+    }
+
+    /**
+     * Returns an iterator over input that counts its tuples for this
+     * checkpoint.  An {@link Exchange} is returned as a new exchange whose
+     * children are each counted.  Must be called once per checkpoint.
+     */
+    public DbIterator wrap(DbIterator input) {
+        synchronized (this) {
+            if (td != null) {
+                throw new IllegalStateException("checkpoint already wraps an input");
+            }
+            td = input.getTupleDesc();
+        }
+        if (input instanceof Exchange) {
+            DbIterator[] children = ((Exchange) input).getChildren();
+            DbIterator[] taps = new DbIterator[children.length];
+            for (int i = 0; i < children.length; i++) {
+                taps[i] = new Tap(children[i]);
+            }
+            return new Exchange(taps);
+        }
+        return new Tap(input);
+    }
+
+    /** @return the aliases of the tables the input joins */
+    public List<String> getTables() {
+        return Collections.unmodifiableList(tables);
+    }
+
+    /** @return the estimated number of tuples in the input */
+    public double getEstimate() {
+        return estimate;
+    }
+
+    /** @return the schema of the input */
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /** @return whether the input has been read to the end */
+    public synchronized boolean isComplete() {
+        return parts > 0 && finished == parts;
+    }
+
+    /** @return the number of tuples in the input, or -1 if it has not been read to the end */
+    public synchronized long getRows() {
+        return isComplete() ? rows : -1;
+    }
+
+    /** @return whether the input was read to the end, and its tuples kept */
+    public synchronized boolean hasTuples() {
+        return isComplete() && tuples != null;
+    }
+
+    /**
+     * @return an iterator over the input's tuples, which must have been kept
+     * @throws IllegalStateException if they were not
+     */
+    public DbIterator replay() {
+        List<Tuple> kept;
+        synchronized (this) {
+            if (!hasTuples()) {
+                throw new IllegalStateException("checkpoint did not keep its input");
+            }
+            kept = tuples;
+        }
+        return new Replay(kept);
+    }
+
+    /** @return whether the input was read to the end and its size is more than the factor away from the estimate */
+    public synchronized boolean deviates() {
+        if (!isComplete() || estimate < 0) {
+            return false;
+        }
+        double actual = Math.max(1, rows);
+        double expected = Math.max(1, estimate);
+        return actual > expected * factor || expected > actual * factor;
+    }
+
+    /** Stops the checkpoint from throwing a {@link Deviation}, for instance once the query has returned tuples. */
+    public void disarm() {
+        armed = false;
+    }
+
+    private synchronized void register() {
+        parts++;
+    }
+
+    /** Adds the tuples a tap read to the input's, and checks the input once every tap has finished. */
+    private synchronized void finish(long n, ArrayList<Tuple> read) throws Deviation {
+        rows += n;
+        if (tuples != null && read != null && tuples.size() + read.size() <= maxTuples) {
+            tuples.addAll(read);
+        } else {
+            tuples = null;
+        }
+        finished++;
+        if (armed && hasTuples() && deviates()) {
+            throw new Deviation(this);
+        }
+    }
+
+    /** Counts the tuples of one part of the input on their first complete pass. */
+    private class Tap extends Operator {
+        private final DbIterator child;
+        private boolean done;
+        private long count;
+        private ArrayList<Tuple> read;
+
+        Tap(DbIterator child) {
+            this.child = child;
+            register();
+        }
+
+        public TupleDesc getTupleDesc() {
+            return child.getTupleDesc();
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            child.open();
+            restart();
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            super.close();
+            child.rewind();
+            restart();
+        }
+
+        public void close() {
+            super.close();
+            child.close();
+        }
+
+        private void restart() {
+            if (!done) {
+                count = 0;
+                read = new ArrayList<Tuple>();
+            }
+        }
+
+        protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+            if (!child.hasNext()) {
+                if (!done) {
+                    done = true;
+                    ArrayList<Tuple> r = read;
+                    read = null;
+                    finish(count, r);
+                }
+                return null;
+            }
+            Tuple t = child.next();
+            if (!done) {
+                count++;
+                if (read != null) {
+                    read.add(t);
+                    if (read.size() > maxTuples) {
+                        read = null;
+                    }
+                }
+            }
+            return t;
+        }
+    }
+
+    /** Returns the kept tuples of the input. */
+    private class Replay extends Operator {
+        private final List<Tuple> kept;
+        private Iterator<Tuple> it;
+
+        Replay(List<Tuple> kept) {
+            this.kept = kept;
+        }
+
+        public TupleDesc getTupleDesc() {
+            return td;
+        }
+
+        public void open() {
+            it = kept.iterator();
+        }
+
+        public void rewind() {
+            super.close();
+            it = kept.iterator();
+        }
+
+        public void close() {
+            super.close();
+            it = null;
+        }
+
+        protected Tuple fetchNext() {
+            return it.hasNext() ? it.next() : null;
+        }
+    }
+}
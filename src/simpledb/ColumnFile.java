@@ -0,0 +1,429 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * ColumnFile is an implementation of a DbFile that stores each column of a
+ * table in its own chain of {@link ColumnPage}s, so that a scan that needs
+ * only some of the columns reads only their pages (see {@link ColumnScan}).
+ * <p>
+ * The file is a directory holding one file per column chain:
+ * <ul>
+ * <li><code>c<i>i</i>.dat</code> holds the values of column i, in row order,
+ * compressed as {@link ColumnPage} describes; a page holds as many rows as
+ * fit in its encoding, so the pages of different columns hold different rows.
+ * <li><code>deleted.dat</code> holds one bit per row, set if the row has
+ * been deleted.
+ * <li><code>delta.dat</code> is a row-oriented {@link HeapFile}, the delta
+ * store, that holds the tuples inserted since the column chains were written.
+ * </ul>
+ * The column chains are written once, by {@link #write} or
+ * {@link #fromHeapFile}, and are read-only afterwards: inserts go to the
+ * delta store and deletes set the row's bit.  Pages of all three kinds are
+ * read and locked through the BufferPool like any other page; delta pages
+ * have HeapPageIds whose table id is this file's id.
+ */
+public class ColumnFile implements DbFile {
+
+    private static final String DELETED_FILE = "deleted.dat";
+    private static final String DELTA_FILE = "delta.dat";
+
+    private final File dir;
+    private final TupleDesc tupleDescription;
+    private final HeapFile delta;
+    // for each column, the first row of each of its pages, then the number of rows
+    private final int[][] firstRows;
+    private final int numRows;
+
+    /**
+     * Opens the column file stored in the specified directory.  A directory
+     * that does not exist is an empty table.
+     *
+     * @param dir the directory holding the column chains
+     * @param td the schema of the table
+     */
+    public ColumnFile(File dir, TupleDesc td) {
+        this.dir = dir;
+        this.tupleDescription = td;
+        final int id = getId();
+        this.delta = new HeapFile(new File(dir, DELTA_FILE), td) {
+            public int getId() {
+                return id;
+            }
+        };
+        this.firstRows = new int[td.numFields()][];
+        for (int i = 0; i < firstRows.length; i++) {
+            firstRows[i] = readFirstRows(i);
+        }
+        this.numRows = firstRows.length == 0 ? 0 : firstRows[0][firstRows[0].length - 1];
+    }
+
+    /**
+     * Writes the tuples as the column chains of a new column file in dir,
+     * replacing any column file already there.
+     *
+     * @param dir the directory to write to; it is created if necessary
+     * @param td the schema of the tuples
+     * @param tuples the rows of the table
+     * @return the new column file
+     */
+    public static ColumnFile write(File dir, TupleDesc td, Iterator<Tuple> tuples) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("could not create " + dir);
+        }
+        new File(dir, DELETED_FILE).delete();
+        new File(dir, DELTA_FILE).delete();
+        int n = td.numFields();
+        ColumnPage.Builder[] pages = new ColumnPage.Builder[n];
+        OutputStream[] out = new OutputStream[n];
+        try {
+            for (int i = 0; i < n; i++) {
+                out[i] = new BufferedOutputStream(new FileOutputStream(columnFile(dir, i)));
+                pages[i] = new ColumnPage.Builder(td.getFieldType(i));
+            }
+            while (tuples.hasNext()) {
+                Tuple t = tuples.next();
+                for (int i = 0; i < n; i++) {
+                    // each column's pages fill up at their own pace
+                    if (!pages[i].add(t.getField(i))) {
+                        out[i].write(pages[i].build());
+                        pages[i] = new ColumnPage.Builder(td.getFieldType(i));
+                        pages[i].add(t.getField(i));
+                    }
+                }
+            }
+            for (int i = 0; i < n; i++) {
+                if (pages[i].size() > 0) {
+                    out[i].write(pages[i].build());
+                }
+            }
+        } finally {
+            for (OutputStream o : out) {
+                if (o != null) {
+                    o.close();
+                }
+            }
+        }
+        return new ColumnFile(dir, td);
+    }
+
+    /**
+     * Converts a heap file into a new column file in dir.  The heap file is
+     * read directly from disk, so it need not be in the catalog.
+     *
+     * @see #write
+     */
+    public static ColumnFile fromHeapFile(HeapFile hf, File dir) throws IOException {
+        final TupleDesc td = hf.getTupleDesc();
+        final RandomAccessFile raf = new RandomAccessFile(hf.getFile(), "r");
+        final int numPages = (int) (raf.length() / BufferPool.PAGE_SIZE);
+        try {
+            return write(dir, td, new Iterator<Tuple>() {
+                private int pageNo = 0;
+                private Iterator<Tuple> page = Collections.<Tuple>emptyList().iterator();
+
+                public boolean hasNext() {
+                    while (!page.hasNext() && pageNo < numPages) {
+                        try {
+                            byte[] data = new byte[BufferPool.PAGE_SIZE];
+                            raf.seek((long) pageNo * BufferPool.PAGE_SIZE);
+                            raf.readFully(data);
+                            page = new HeapPage(new HeapPageId(0, pageNo), data, td).iterator();
+                        } catch (IOException e) {
+                            throw new NoSuchElementException("error reading heap file: " + e.getMessage());
+                        }
+                        pageNo++;
+                    }
+                    return page.hasNext();
+                }
+
+                public Tuple next() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    return page.next();
+                }
+
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+            });
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static File columnFile(File dir, int column) {
+        return new File(dir, "c" + column + ".dat");
+    }
+
+    /** @return the first row of each page of the column's chain, then the number of rows in it */
+    private int[] readFirstRows(int column) {
+        File f = columnFile(dir, column);
+        int pages = (int) (f.length() / BufferPool.PAGE_SIZE);
+        int[] rows = new int[pages + 1];
+        if (pages == 0) {
+            return rows;
+        }
+        try {
+            // each page starts with the number of values on it
+            RandomAccessFile raf = new RandomAccessFile(f, "r");
+            try {
+                for (int p = 0; p < pages; p++) {
+                    raf.seek((long) p * BufferPool.PAGE_SIZE);
+                    rows[p + 1] = rows[p] + raf.readInt();
+                }
+            } finally {
+                raf.close();
+            }
+        } catch (IOException e) {
+            throw new NoSuchElementException("error reading " + f + ": " + e.getMessage());
+        }
+        return rows;
+    }
+
+    /** @return the directory holding the column chains */
+    public File getDirectory() {
+        return dir;
+    }
+
+    /**
+     * Returns an ID uniquely identifying this ColumnFile, the hash of the
+     * absolute name of its directory.
+     */
+    public int getId() {
+        return dir.getAbsoluteFile().hashCode();
+    }
+
+    public TupleDesc getTupleDesc() {
+        return tupleDescription;
+    }
+
+    /** @return the number of rows in the column chains, including deleted ones */
+    public int numRows() {
+        return numRows;
+    }
+
+    /** @return the number of pages in the column chains and the delta store */
+    public int numPages() {
+        int pages = delta.numPages();
+        for (int[] rows : firstRows) {
+            pages += rows.length - 1;
+        }
+        return pages;
+    }
+
+    /** @return the row-oriented store holding tuples inserted after the column chains were written */
+    HeapFile getDelta() {
+        return delta;
+    }
+
+    /**
+     * @return the type of the values in the given column chain, or null for
+     *   the chain marking deleted rows
+     */
+    Type columnType(int column) {
+        return column == tupleDescription.numFields() ? null : tupleDescription.getFieldType(column);
+    }
+
+    /** @return the page of the given column chain holding row */
+    ColumnPageId pageOf(int column, int row) {
+        if (column == tupleDescription.numFields()) {
+            return new ColumnPageId(getId(), column, row / ColumnPage.MAX_ROWS);
+        }
+        int[] rows = firstRows[column];
+        // pages are never empty, so the first rows are strictly increasing
+        int p = Arrays.binarySearch(rows, 0, rows.length - 1, row);
+        return new ColumnPageId(getId(), column, p >= 0 ? p : -p - 2);
+    }
+
+    /** @return the first row on the given page */
+    int firstRow(ColumnPageId pid) {
+        if (pid.getColumn() == tupleDescription.numFields()) {
+            return pid.pageno() * ColumnPage.MAX_ROWS;
+        }
+        return firstRows[pid.getColumn()][pid.pageno()];
+    }
+
+    /** @return the row after the last row on the given page */
+    int endRow(ColumnPageId pid) {
+        if (pid.getColumn() == tupleDescription.numFields()) {
+            return (pid.pageno() + 1) * ColumnPage.MAX_ROWS;
+        }
+        return firstRows[pid.getColumn()][pid.pageno() + 1];
+    }
+
+    // see DbFile.java for javadocs
+    public synchronized Page readPage(PageId pid) {
+        if (pid instanceof HeapPageId) {
+            return delta.readPage(pid);
+        }
+        ColumnPageId cpid = (ColumnPageId) pid;
+        File f = cpid.getColumn() == tupleDescription.numFields() ?
+                new File(dir, DELETED_FILE) : columnFile(dir, cpid.getColumn());
+        byte[] data = ColumnPage.createEmptyPageData();
+        try {
+            long offset = (long) cpid.pageno() * BufferPool.PAGE_SIZE;
+            // pages of the deleted-row chain past the end of its file have no rows deleted
+            if (offset + BufferPool.PAGE_SIZE <= f.length()) {
+                RandomAccessFile raf = new RandomAccessFile(f, "r");
+                try {
+                    raf.seek(offset);
+                    raf.readFully(data);
+                } finally {
+                    raf.close();
+                }
+            }
+            return new ColumnPage(cpid, columnType(cpid.getColumn()), data);
+        } catch (IOException e) {
+            throw new NoSuchElementException("error reading " + f + ": " + e.getMessage());
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public synchronized void writePage(Page page) throws IOException {
+        if (page instanceof HeapPage) {
+            delta.writePage(page);
+            return;
+        }
+        ColumnPageId cpid = (ColumnPageId) page.getId();
+        if (cpid.getColumn() != tupleDescription.numFields()) {
+            throw new IOException("column chains are read-only");
+        }
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("could not create " + dir);
+        }
+        RandomAccessFile raf = new RandomAccessFile(new File(dir, DELETED_FILE), "rw");
+        try {
+            raf.seek((long) cpid.pageno() * BufferPool.PAGE_SIZE);
+            raf.write(page.getPageData());
+        } finally {
+            raf.close();
+        }
+    }
+
+    /** Adds the tuple to the delta store. */
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+        throws DbException, IOException, TransactionAbortedException {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("could not create " + dir);
+        }
+        return delta.insertTuple(tid, t);
+    }
+
+    /**
+     * Deletes the tuple from the delta store, or marks its row of the column
+     * chains as deleted.
+     */
+    public Page deleteTuple(TransactionId tid, Tuple t)
+        throws DbException, TransactionAbortedException {
+        RecordId rid = t.getRecordId();
+        if (isDelta(rid)) {
+            // a scan over some of the columns returns partial tuples, but
+            // HeapPage deletes by comparing whole tuples
+            HeapPage page = (HeapPage) Database.getBufferPool().getPage(
+                    tid, rid.getPageId(), Permissions.READ_WRITE);
+            page.deleteTuple(stored(page, rid));
+            return page;
+        }
+        int row = rowOf(rid);
+        int deletedColumn = tupleDescription.numFields();
+        ColumnPage page = (ColumnPage) Database.getBufferPool().getPage(
+                tid, pageOf(deletedColumn, row), Permissions.READ_WRITE);
+        int slot = row % ColumnPage.MAX_ROWS;
+        if (page.isDeleted(slot)) {
+            throw new DbException("tuple already deleted");
+        }
+        page.setDeleted(slot, true);
+        return page;
+    }
+
+    /**
+     * Reads the whole row a tuple returned by a scan of this file refers
+     * to, which may be a partial tuple of some of its columns.
+     *
+     * @param rid the record id of the tuple
+     * @return the row, with all of the file's columns in order
+     */
+    public Tuple readRow(TransactionId tid, RecordId rid)
+        throws DbException, TransactionAbortedException {
+        if (isDelta(rid)) {
+            HeapPage page = (HeapPage) Database.getBufferPool().getPage(
+                    tid, rid.getPageId(), Permissions.READ_ONLY);
+            return stored(page, rid);
+        }
+        int row = rowOf(rid);
+        Tuple t = new Tuple(tupleDescription);
+        for (int column = 0; column < tupleDescription.numFields(); column++) {
+            ColumnPageId pid = pageOf(column, row);
+            ColumnPage page = (ColumnPage) Database.getBufferPool().getPage(
+                    tid, pid, Permissions.READ_ONLY);
+            t.setField(column, page.getField(row - firstRow(pid)));
+        }
+        t.setRecordId(rid);
+        return t;
+    }
+
+    /** @return whether rid is a row of the delta store, rather than of the column chains */
+    private boolean isDelta(RecordId rid) throws DbException {
+        if (rid == null || rid.getPageId().getTableId() != getId()) {
+            throw new DbException("tuple is not stored in this file");
+        }
+        return rid.getPageId() instanceof HeapPageId;
+    }
+
+    /** @return the tuple stored on a page of the delta store with the given record id */
+    private static Tuple stored(HeapPage page, RecordId rid) throws DbException {
+        Iterator<Tuple> it = page.iterator();
+        while (it.hasNext()) {
+            Tuple stored = it.next();
+            if (rid.equals(stored.getRecordId())) {
+                return stored;
+            }
+        }
+        throw new DbException("tuple not found");
+    }
+
+    /** @return the row of the column chains rid refers to */
+    private int rowOf(RecordId rid) throws DbException {
+        ColumnPageId pid = (ColumnPageId) rid.getPageId();
+        if (pid.getColumn() != 0 || pid.pageno() >= firstRows[0].length - 1
+                || rid.tupleno() < 0 || firstRow(pid) + rid.tupleno() >= endRow(pid)) {
+            throw new DbException("no such row " + rid);
+        }
+        return firstRow(pid) + rid.tupleno();
+    }
+
+    // see DbFile.java for javadocs
+    public DbFileIterator iterator(TransactionId tid) {
+        int[] columns = new int[tupleDescription.numFields()];
+        for (int i = 0; i < columns.length; i++) {
+            columns[i] = i;
+        }
+        return new ColumnFileIterator(this, tid, columns, new Predicate[0]);
+    }
+
+    /**
+     * Returns an iterator over the given columns of the rows of this file.
+     * Only the pages of those columns are read.
+     *
+     * @param columns the columns to return, in the order they appear in the returned tuples
+     */
+    public DbFileIterator iterator(TransactionId tid, int[] columns) {
+        return new ColumnFileIterator(this, tid, columns, new Predicate[0]);
+    }
+
+    /**
+     * Returns an iterator over the given columns of the rows of this file
+     * that satisfy all of the filters.  The filters are evaluated on the
+     * encoded pages of their columns (see {@link ColumnPage#filter}), and the
+     * pages of the other columns are only read for pages with matching rows.
+     *
+     * @param columns the columns to return, in the order they appear in the returned tuples
+     * @param filters predicates whose field numbers are columns of this file
+     */
+    public DbFileIterator iterator(TransactionId tid, int[] columns, Predicate[] filters) {
+        return new ColumnFileIterator(this, tid, columns, filters);
+    }
+}
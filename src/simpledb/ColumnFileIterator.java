@@ -0,0 +1,216 @@
+package simpledb;
+
+import java.util.BitSet;
+
+/**
+ * Helper class that iterates over some of the columns of the rows of a
+ * {@link ColumnFile} that satisfy a set of filters: first the rows of the
+ * column chains that have not been deleted, then the tuples of the delta
+ * store.
+ * <p>
+ * The filters are evaluated a page at a time on the encoded pages of their
+ * columns, and the iterator skips straight to the next row that passes the
+ * filters on all of those pages, so pages of the other columns holding no
+ * such row are not read at all.
+ * <p>
+ * Tuples from the column chains carry a RecordId naming the row's page in
+ * the chain of column 0 and its position on that page, which is what
+ * {@link ColumnFile#deleteTuple} expects.
+ */
+public class ColumnFileIterator extends AbstractDbFileIterator {
+
+    /** The page of one column chain the iterator is on, and the rows it holds. */
+    private static class Cursor {
+        final int column;
+        ColumnPageId pid;
+        int start;
+        int end;
+        ColumnPage page;
+        // for a filter's column, the rows of the page that pass the filter
+        BitSet matches;
+
+        Cursor(int column) {
+            this.column = column;
+        }
+    }
+
+    private final ColumnFile file;
+    private final TransactionId transactionId;
+    private final int[] columns;
+    private final Predicate[] filters;
+    private final TupleDesc td;
+    private final boolean allColumns;
+
+    private boolean open;
+    private int row;
+    private Cursor[] columnCursors;
+    private Cursor[] filterCursors;
+    private Cursor deletedCursor;
+    private Cursor ridCursor;
+    private DbFileIterator delta;
+
+    /**
+     * @param columns the columns to return, in the order they appear in the returned tuples
+     * @param filters predicates whose field numbers are columns of the file
+     */
+    public ColumnFileIterator(ColumnFile file, TransactionId tid, int[] columns, Predicate[] filters) {
+        this.file = file;
+        this.transactionId = tid;
+        this.columns = columns.clone();
+        this.filters = filters.clone();
+        TupleDesc fileTd = file.getTupleDesc();
+        Type[] types = new Type[columns.length];
+        String[] names = new String[columns.length];
+        boolean identity = columns.length == fileTd.numFields();
+        for (int i = 0; i < columns.length; i++) {
+            types[i] = fileTd.getFieldType(columns[i]);
+            names[i] = fileTd.getFieldName(columns[i]);
+            identity &= columns[i] == i;
+        }
+        this.allColumns = identity;
+        this.td = identity ? fileTd : new TupleDesc(types, names);
+    }
+
+    /** @return the schema of the returned tuples */
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        open = true;
+        row = 0;
+        columnCursors = new Cursor[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            columnCursors[i] = new Cursor(columns[i]);
+        }
+        filterCursors = new Cursor[filters.length];
+        for (int i = 0; i < filters.length; i++) {
+            filterCursors[i] = new Cursor(filters[i].getField());
+        }
+        deletedCursor = new Cursor(file.getTupleDesc().numFields());
+        ridCursor = new Cursor(0);
+        delta = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        close();
+        open();
+    }
+
+    public void close() {
+        super.close();
+        if (delta != null) {
+            delta.close();
+            delta = null;
+        }
+        open = false;
+    }
+
+    protected Tuple readNext() throws DbException, TransactionAbortedException {
+        if (!open) {
+            return null;
+        }
+        while (row < file.numRows()) {
+            int r = row;
+            row = nextCandidate(r);
+            if (row == r) {
+                row++;
+                if (!isDeleted(r)) {
+                    return readRow(r);
+                }
+            }
+        }
+        if (delta == null) {
+            // an empty delta store is not read, so that scanning does not create its first page
+            if (file.getDelta().numPages() == 0) {
+                return null;
+            }
+            delta = file.getDelta().iterator(transactionId);
+            delta.open();
+        }
+        while (delta.hasNext()) {
+            Tuple t = delta.next();
+            if (passes(t)) {
+                return allColumns ? t : project(t);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return r if row r passes all of the filters, or else a later row
+     *   before which no row passes them
+     */
+    private int nextCandidate(int r) throws DbException, TransactionAbortedException {
+        for (int i = 0; i < filters.length; i++) {
+            Cursor c = filterCursors[i];
+            ColumnPage page = page(c, r);
+            if (c.matches == null) {
+                c.matches = page.filter(filters[i].getOperator(), filters[i].getOperand());
+            }
+            int next = c.matches.nextSetBit(r - c.start);
+            if (next < 0) {
+                return c.end;
+            }
+            if (c.start + next > r) {
+                return c.start + next;
+            }
+        }
+        return r;
+    }
+
+    private boolean passes(Tuple t) {
+        for (Predicate p : filters) {
+            if (!p.filter(t)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean isDeleted(int r) throws DbException, TransactionAbortedException {
+        ColumnPage page = page(deletedCursor, r);
+        return page.isDeleted(r - deletedCursor.start);
+    }
+
+    private Tuple readRow(int r) throws DbException, TransactionAbortedException {
+        Tuple t = new Tuple(td);
+        for (int i = 0; i < columns.length; i++) {
+            Cursor c = columnCursors[i];
+            t.setField(i, page(c, r).getField(r - c.start));
+        }
+        locate(ridCursor, r);
+        t.setRecordId(new RecordId(ridCursor.pid, r - ridCursor.start));
+        return t;
+    }
+
+    /** Moves c to the page of its column holding row r, if it is not already there. */
+    private void locate(Cursor c, int r) {
+        if (c.pid != null && r >= c.start && r < c.end) {
+            return;
+        }
+        c.pid = file.pageOf(c.column, r);
+        c.start = file.firstRow(c.pid);
+        c.end = file.endRow(c.pid);
+        c.page = null;
+        c.matches = null;
+    }
+
+    /** @return the page of c's column holding row r */
+    private ColumnPage page(Cursor c, int r) throws DbException, TransactionAbortedException {
+        locate(c, r);
+        if (c.page == null) {
+            c.page = (ColumnPage) Database.getBufferPool().getPage(transactionId, c.pid, Permissions.READ_ONLY);
+        }
+        return c.page;
+    }
+
+    private Tuple project(Tuple t) {
+        Tuple out = new Tuple(td);
+        for (int i = 0; i < columns.length; i++) {
+            out.setField(i, t.getField(columns[i]));
+        }
+        out.setRecordId(t.getRecordId());
+        return out;
+    }
+}
@@ -0,0 +1,554 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * ColumnPage stores one page of one column of a {@link ColumnFile}, and
+ * implements the Page interface that is used by BufferPool.
+ * <p>
+ * A page of a column starts with a four byte count of the values on it and a
+ * one byte {@link Encoding}, followed by the values in that encoding.  The
+ * encoding is chosen by a {@link Builder} when the column file is written,
+ * as whichever stores the page's values in the fewest bytes, and a page
+ * holds as many values as fit encoded, up to {@link #MAX_ROWS}.  The rows
+ * on a page of a column are consecutive, so the column file keeps the first
+ * row of each page to find the page holding a row.
+ * <p>
+ * Pages are kept encoded in memory, except for DELTA pages, and
+ * {@link #filter} evaluates a predicate on the encoded values: once per
+ * dictionary entry or run instead of once per row, and on the
+ * frame-of-reference codes without adding the base back in.
+ * <p>
+ * The chain that marks deleted rows has no Type; its pages hold one bit for
+ * each of MAX_ROWS rows.
+ */
+public class ColumnPage implements Page {
+
+    /** The ways the values on a page can be stored. */
+    public enum Encoding {
+        /** each value serialized as in a {@link HeapPage} tuple */
+        PLAIN,
+        /** ints only: the minimum value, then each value minus it, bit-packed */
+        FRAME_OF_REFERENCE,
+        /** the distinct values, then each value's index among them, bit-packed */
+        DICTIONARY,
+        /** the values of each run of equal values, then the row ending each run */
+        RUN_LENGTH,
+        /** ints only: the first value, then the differences between successive values, as frame-of-reference */
+        DELTA
+    }
+
+    /** The maximum number of rows on a page; pages of the deleted-row chain cover exactly this many. */
+    public static final int MAX_ROWS = (BufferPool.PAGE_SIZE - 4) * 8;
+
+    private static final int HEADER_SIZE = 5;
+
+    private final ColumnPageId pid;
+    private final Type type;
+    private final int count;
+    private final Encoding encoding;
+    // the values stored on the page: one per row (PLAIN and DELTA), one
+    // per dictionary entry (DICTIONARY), or one per run (RUN_LENGTH)
+    private int[] ints;
+    private Field[] fields;
+    // FRAME_OF_REFERENCE and DICTIONARY: the bit-packed code of each row
+    private int base;
+    private int bits;
+    private long[] packed;
+    // RUN_LENGTH: the row after the last row of each run
+    private int[] runEnds;
+
+    private final byte[] data;
+    private byte[] deleted;
+    private byte[] oldData;
+
+    private TransactionId dirtyTransactionId;
+
+    /**
+     * Create a ColumnPage from a set of bytes of data read from disk.
+     *
+     * @param id the id of the page
+     * @param type the type of the column's values, or null for a page of
+     *   the chain marking deleted rows
+     * @param data the page's contents, as returned by {@link #getPageData}
+     */
+    public ColumnPage(ColumnPageId id, Type type, byte[] data) throws IOException {
+        this.pid = id;
+        this.type = type;
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        count = dis.readInt();
+        if (type == null) {
+            this.encoding = null;
+            this.data = null;
+            deleted = new byte[BufferPool.PAGE_SIZE - 4];
+            dis.readFully(deleted);
+            setBeforeImage();
+            return;
+        }
+        // column chains are never modified, so the page keeps the bytes it was read from
+        this.data = data;
+        int e = dis.readByte();
+        if (e < 0 || e >= Encoding.values().length) {
+            throw new IOException("unknown encoding " + e);
+        }
+        encoding = Encoding.values()[e];
+        switch (encoding) {
+            case PLAIN:
+                readValues(dis, count);
+                break;
+            case FRAME_OF_REFERENCE:
+                base = dis.readInt();
+                bits = dis.readByte();
+                packed = readPacked(dis, count, bits);
+                break;
+            case DICTIONARY:
+                readValues(dis, dis.readInt());
+                bits = dis.readByte();
+                packed = readPacked(dis, count, bits);
+                break;
+            case RUN_LENGTH:
+                int runs = dis.readInt();
+                readValues(dis, runs);
+                runEnds = new int[runs];
+                for (int i = 0; i < runs; i++) {
+                    runEnds[i] = dis.readInt();
+                }
+                break;
+            case DELTA:
+                // successive values can only be found by adding up the deltas, so decode them all
+                ints = new int[count];
+                if (count > 0) {
+                    ints[0] = dis.readInt();
+                    long minDelta = dis.readLong();
+                    int deltaBits = dis.readByte();
+                    long[] deltas = readPacked(dis, count - 1, deltaBits);
+                    for (int i = 1; i < count; i++) {
+                        ints[i] = (int) (ints[i - 1] + minDelta + unpack(deltas, deltaBits, i - 1));
+                    }
+                }
+                break;
+        }
+        dis.close();
+        oldData = data;
+    }
+
+    private void readValues(DataInputStream dis, int n) throws IOException {
+        if (type == Type.INT_TYPE) {
+            ints = new int[n];
+            for (int i = 0; i < n; i++) {
+                ints[i] = dis.readInt();
+            }
+        } else {
+            fields = new Field[n];
+            try {
+                for (int i = 0; i < n; i++) {
+                    fields[i] = type.parse(dis);
+                }
+            } catch (java.text.ParseException e) {
+                throw new IOException("parsing error: " + e.getMessage());
+            }
+        }
+    }
+
+    private static long[] readPacked(DataInputStream dis, int n, int bits) throws IOException {
+        long[] words = new long[words(n, bits)];
+        for (int i = 0; i < words.length; i++) {
+            words[i] = dis.readLong();
+        }
+        return words;
+    }
+
+    /** @return a byte array corresponding to an empty ColumnPage */
+    public static byte[] createEmptyPageData() {
+        return new byte[BufferPool.PAGE_SIZE];
+    }
+
+    public ColumnPageId getId() {
+        return pid;
+    }
+
+    /** @return the number of values on this page */
+    public int getNumValues() {
+        return count;
+    }
+
+    /** @return the encoding of the values on this page, or null for a page of the deleted-row chain */
+    public Encoding getEncoding() {
+        return encoding;
+    }
+
+    /** @return the i-th value on this page, which must be an int */
+    public int getInt(int i) {
+        switch (encoding) {
+            case FRAME_OF_REFERENCE:
+                return base + (int) unpack(packed, bits, i);
+            case DICTIONARY:
+                return ints[(int) unpack(packed, bits, i)];
+            case RUN_LENGTH:
+                return ints[run(i)];
+            default:
+                return ints[i];
+        }
+    }
+
+    /** @return the i-th value on this page */
+    public Field getField(int i) {
+        if (type == Type.INT_TYPE) {
+            return new IntField(getInt(i));
+        }
+        switch (encoding) {
+            case DICTIONARY:
+                return fields[(int) unpack(packed, bits, i)];
+            case RUN_LENGTH:
+                return fields[run(i)];
+            default:
+                return fields[i];
+        }
+    }
+
+    /** @return the run holding value i of a RUN_LENGTH page */
+    private int run(int i) {
+        int k = Arrays.binarySearch(runEnds, i);
+        return k >= 0 ? k + 1 : -k - 1;
+    }
+
+    /**
+     * Compares every value on this page to operand, as
+     * {@link Field#compare} would.
+     *
+     * @return the positions of the values for which the comparison is true
+     */
+    public BitSet filter(Predicate.Op op, Field operand) {
+        BitSet result = new BitSet(count);
+        switch (encoding) {
+            case DICTIONARY: {
+                boolean[] match = new boolean[type == Type.INT_TYPE ? ints.length : fields.length];
+                int matches = 0;
+                for (int k = 0; k < match.length; k++) {
+                    match[k] = matches(k, op, operand);
+                    matches += match[k] ? 1 : 0;
+                }
+                if (matches == match.length) {
+                    result.set(0, count);
+                } else if (matches > 0) {
+                    for (int i = 0; i < count; i++) {
+                        if (match[(int) unpack(packed, bits, i)]) {
+                            result.set(i);
+                        }
+                    }
+                }
+                break;
+            }
+            case RUN_LENGTH: {
+                int start = 0;
+                for (int k = 0; k < runEnds.length; k++) {
+                    if (matches(k, op, operand)) {
+                        result.set(start, runEnds[k]);
+                    }
+                    start = runEnds[k];
+                }
+                break;
+            }
+            case FRAME_OF_REFERENCE: {
+                // compare the codes to the operand's code, which may be out of their range
+                long target = (long) ((IntField) operand).getValue() - base;
+                for (int i = 0; i < count; i++) {
+                    if (compare(unpack(packed, bits, i), op, target)) {
+                        result.set(i);
+                    }
+                }
+                break;
+            }
+            default:
+                for (int i = 0; i < count; i++) {
+                    if (type == Type.INT_TYPE ? Predicate.compare(ints[i], op, ((IntField) operand).getValue())
+                            : fields[i].compare(op, operand)) {
+                        result.set(i);
+                    }
+                }
+        }
+        return result;
+    }
+
+    /** @return true if stored value k compares true to operand */
+    private boolean matches(int k, Predicate.Op op, Field operand) {
+        return type == Type.INT_TYPE ? Predicate.compare(ints[k], op, ((IntField) operand).getValue())
+                : fields[k].compare(op, operand);
+    }
+
+    private static boolean compare(long v1, Predicate.Op op, long v2) {
+        return Predicate.compare(Long.signum(v1 - v2), op, 0);
+    }
+
+    /** @return true if row i of this page of the deleted-row chain is marked deleted */
+    public boolean isDeleted(int i) {
+        return ((deleted[i / 8] >> (i % 8)) & 1) == 1;
+    }
+
+    /** Marks row i of this page of the deleted-row chain as deleted or not. */
+    public void setDeleted(int i, boolean value) {
+        if (value) {
+            deleted[i / 8] |= (1 << (i % 8));
+        } else {
+            deleted[i / 8] &= ~(1 << (i % 8));
+        }
+    }
+
+    /** Return a view of this page before it was modified -- used by recovery */
+    public ColumnPage getBeforeImage() {
+        try {
+            return new ColumnPage(pid, type, oldData);
+        } catch (IOException e) {
+            // should never happen -- we parsed it OK before!
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public void setBeforeImage() {
+        oldData = getPageData().clone();
+    }
+
+    public byte[] getPageData() {
+        if (data != null) {
+            return data;
+        }
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(BufferPool.PAGE_SIZE);
+        DataOutputStream dos = new DataOutputStream(baos);
+        try {
+            dos.writeInt(count);
+            dos.write(deleted);
+            dos.flush();
+        } catch (IOException e) {
+            // writes to a byte array do not fail
+            throw new IllegalStateException(e);
+        }
+        return baos.toByteArray();
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        dirtyTransactionId = dirty ? tid : null;
+    }
+
+    public TransactionId isDirty() {
+        return dirtyTransactionId;
+    }
+
+    /** @return the number of bits needed to store values in [0, range] */
+    private static int bitsFor(long range) {
+        return 64 - Long.numberOfLeadingZeros(range);
+    }
+
+    /** @return the number of longs holding n values of the given width */
+    private static int words(long n, int bits) {
+        return (int) ((n * bits + 63) / 64);
+    }
+
+    /** @return value i of the given width in words */
+    private static long unpack(long[] words, int bits, int i) {
+        if (bits == 0) {
+            return 0;
+        }
+        long bit = (long) i * bits;
+        int w = (int) (bit >>> 6);
+        int offset = (int) (bit & 63);
+        long v = words[w] >>> offset;
+        if (offset + bits > 64) {
+            v |= words[w + 1] << (64 - offset);
+        }
+        return v & ((1L << bits) - 1);
+    }
+
+    private static void writePacked(DataOutputStream dos, long[] values, int n, int bits) throws IOException {
+        long[] words = new long[words(n, bits)];
+        for (int i = 0; i < n && bits > 0; i++) {
+            long bit = (long) i * bits;
+            int w = (int) (bit >>> 6);
+            int offset = (int) (bit & 63);
+            words[w] |= values[i] << offset;
+            if (offset + bits > 64) {
+                words[w + 1] |= values[i] >>> (64 - offset);
+            }
+        }
+        for (long word : words) {
+            dos.writeLong(word);
+        }
+    }
+
+    /**
+     * Builder collects the values of one page of a column while a column
+     * file is written, tracking the size of the page in every encoding so
+     * that it can tell when the next value would no longer fit.
+     */
+    static class Builder {
+        private final Type type;
+        private int n;
+        private int[] ints = new int[1024];
+        private Field[] fields = new Field[1024];
+        private final Set<Field> distinct = new HashSet<Field>();
+        private int runs;
+        private long min, max;
+        private long minDelta, maxDelta;
+
+        Builder(Type type) {
+            this.type = type;
+        }
+
+        /** @return the number of values added */
+        int size() {
+            return n;
+        }
+
+        /**
+         * Appends a value to the page, if the page can hold it.
+         *
+         * @return false, without adding the value, if the page is full
+         */
+        boolean add(Field f) {
+            if (n == MAX_ROWS) {
+                return false;
+            }
+            long v = type == Type.INT_TYPE ? ((IntField) f).getValue() : 0;
+            int newDistinct = distinct.size() + (distinct.contains(f) ? 0 : 1);
+            int newRuns = runs + (n > 0 && fields[n - 1].equals(f) ? 0 : 1);
+            long newMin = n == 0 ? v : Math.min(min, v);
+            long newMax = n == 0 ? v : Math.max(max, v);
+            long newMinDelta = minDelta, newMaxDelta = maxDelta;
+            if (n > 0) {
+                long delta = v - ints[n - 1];
+                newMinDelta = n == 1 ? delta : Math.min(minDelta, delta);
+                newMaxDelta = n == 1 ? delta : Math.max(maxDelta, delta);
+            }
+            Encoding best = best(n + 1, newMax - newMin, newMaxDelta - newMinDelta, newDistinct, newRuns);
+            if (size(best, n + 1, newMax - newMin, newMaxDelta - newMinDelta, newDistinct, newRuns)
+                    > BufferPool.PAGE_SIZE - HEADER_SIZE) {
+                return false;
+            }
+            if (n == fields.length) {
+                fields = Arrays.copyOf(fields, 2 * n);
+                ints = Arrays.copyOf(ints, 2 * n);
+            }
+            fields[n] = f;
+            ints[n] = (int) v;
+            n++;
+            distinct.add(f);
+            runs = newRuns;
+            min = newMin;
+            max = newMax;
+            minDelta = newMinDelta;
+            maxDelta = newMaxDelta;
+            return true;
+        }
+
+        /** @return the encoding that stores n values with the given statistics in the fewest bytes */
+        private Encoding best(int n, long range, long deltaRange, int distinct, int runs) {
+            Encoding best = null;
+            long bestSize = Long.MAX_VALUE;
+            for (Encoding e : Encoding.values()) {
+                long size = size(e, n, range, deltaRange, distinct, runs);
+                if (size < bestSize) {
+                    best = e;
+                    bestSize = size;
+                }
+            }
+            return best;
+        }
+
+        /** @return the number of bytes after the header taken by n values in encoding e */
+        private long size(Encoding e, int n, long range, long deltaRange, int distinct, int runs) {
+            int len = type.getLen();
+            switch (e) {
+                case PLAIN:
+                    return (long) n * len;
+                case DICTIONARY:
+                    return 4 + (long) distinct * len + 1 + 8L * words(n, bitsFor(distinct - 1));
+                case RUN_LENGTH:
+                    return 4 + (long) runs * (len + 4);
+                case FRAME_OF_REFERENCE:
+                    return type != Type.INT_TYPE ? Long.MAX_VALUE : 4 + 1 + 8L * words(n, bitsFor(range));
+                case DELTA:
+                    return type != Type.INT_TYPE || bitsFor(deltaRange) > 32 ? Long.MAX_VALUE
+                            : 4 + 8 + 1 + 8L * words(n - 1, bitsFor(deltaRange));
+                default:
+                    return Long.MAX_VALUE;
+            }
+        }
+
+        /** @return the data of a page holding the values added, in the best encoding for them */
+        byte[] build() {
+            Encoding e = best(n, max - min, maxDelta - minDelta, distinct.size(), runs);
+            ByteArrayOutputStream baos = new ByteArrayOutputStream(BufferPool.PAGE_SIZE);
+            DataOutputStream dos = new DataOutputStream(baos);
+            try {
+                dos.writeInt(n);
+                dos.writeByte(e.ordinal());
+                long[] codes = new long[n];
+                switch (e) {
+                    case PLAIN:
+                        for (int i = 0; i < n; i++) {
+                            fields[i].serialize(dos);
+                        }
+                        break;
+                    case FRAME_OF_REFERENCE:
+                        for (int i = 0; i < n; i++) {
+                            codes[i] = ints[i] - min;
+                        }
+                        dos.writeInt((int) min);
+                        dos.writeByte(bitsFor(max - min));
+                        writePacked(dos, codes, n, bitsFor(max - min));
+                        break;
+                    case DICTIONARY: {
+                        Map<Field, Integer> dictionary = new LinkedHashMap<Field, Integer>();
+                        Field[] values = new Field[distinct.size()];
+                        for (int i = 0; i < n; i++) {
+                            Integer code = dictionary.get(fields[i]);
+                            if (code == null) {
+                                code = dictionary.size();
+                                dictionary.put(fields[i], code);
+                                values[code] = fields[i];
+                            }
+                            codes[i] = code;
+                        }
+                        dos.writeInt(values.length);
+                        for (Field f : values) {
+                            f.serialize(dos);
+                        }
+                        dos.writeByte(bitsFor(values.length - 1));
+                        writePacked(dos, codes, n, bitsFor(values.length - 1));
+                        break;
+                    }
+                    case RUN_LENGTH: {
+                        int[] ends = new int[runs];
+                        int k = 0;
+                        dos.writeInt(runs);
+                        for (int i = 0; i < n; i++) {
+                            if (i == n - 1 || !fields[i].equals(fields[i + 1])) {
+                                fields[i].serialize(dos);
+                                ends[k++] = i + 1;
+                            }
+                        }
+                        for (int end : ends) {
+                            dos.writeInt(end);
+                        }
+                        break;
+                    }
+                    case DELTA:
+                        for (int i = 1; i < n; i++) {
+                            codes[i - 1] = (long) ints[i] - ints[i - 1] - minDelta;
+                        }
+                        dos.writeInt(ints[0]);
+                        dos.writeLong(minDelta);
+                        dos.writeByte(bitsFor(maxDelta - minDelta));
+                        writePacked(dos, codes, n - 1, bitsFor(maxDelta - minDelta));
+                        break;
+                }
+                dos.write(new byte[BufferPool.PAGE_SIZE - dos.size()]);
+                dos.flush();
+            } catch (IOException ex) {
+                // writes to a byte array do not fail
+                throw new IllegalStateException(ex);
+            }
+            return baos.toByteArray();
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package simpledb;
+
+/** Unique identifier for ColumnPage objects: a page of one column of a ColumnFile. */
+public class ColumnPageId implements PageId {
+
+    private final int tableId;
+    private final int column;
+    private final int pageNo;
+
+    /**
+     * Constructor. Create a page id structure for a specific page of a
+     * specific column of a specific table.
+     *
+     * @param tableId The table that is being referenced
+     * @param column The column of the table, or the table's number of
+     *   fields for the page chain that marks deleted rows
+     * @param pageNo The page number of the page in its column's chain
+     */
+    public ColumnPageId(int tableId, int column, int pageNo) {
+        this.tableId = tableId;
+        this.column = column;
+        this.pageNo = pageNo;
+    }
+
+    public int getTableId() {
+        return tableId;
+    }
+
+    /** @return the column this page belongs to */
+    public int getColumn() {
+        return column;
+    }
+
+    public int pageno() {
+        return pageNo;
+    }
+
+    public int hashCode() {
+        return (tableId * 31 + column) * 10000 + pageNo;
+    }
+
+    public boolean equals(Object o) {
+        if (o == null || this.getClass() != o.getClass()) {
+            return false;
+        }
+        ColumnPageId that = (ColumnPageId) o;
+        return tableId == that.tableId && column == that.column && pageNo == that.pageNo;
+    }
+
+    public int[] serialize() {
+        return new int[]{ tableId, column, pageNo };
+    }
+}
@@ -0,0 +1,140 @@
+package simpledb;
+import java.util.*;
+
+/**
+ * ColumnScan is a sequential scan over some of the columns of a table stored
+ * in a {@link ColumnFile}.  Only the pages of the requested columns are read,
+ * so a query that references few columns of a wide table reads a fraction of
+ * it.  Like {@link SeqScan}, it can also return its tuples a
+ * {@link TupleBatch} at a time.
+ * <p>
+ * A ColumnScan can also apply filters on columns of the table, which it
+ * evaluates on the encoded pages of those columns, as
+ * {@link ColumnFile#iterator(TransactionId, int[], Predicate[])} describes;
+ * the filtered columns need not be among the returned ones.
+ */
+public class ColumnScan implements BatchDbIterator {
+
+    private final TransactionId transactionId;
+    private final int tableId;
+    private final String tableAlias;
+    private final int[] columns;
+    private final Predicate[] filters;
+
+    private DbFileIterator tableIterator;
+    private TupleBatch batch;
+
+    /**
+     * Creates a scan over the given columns of the specified table as a part
+     * of the specified transaction.
+     *
+     * @param transactionId The transaction this scan is running as a part of.
+     * @param tableId the table to scan; must be stored in a ColumnFile
+     * @param tableAlias the alias of this table; the returned tupleDesc has
+     *         fields with name tableAlias.fieldName
+     * @param columns the columns of the table to return, in the order they
+     *         appear in the returned tuples
+     * @throws IllegalArgumentException if the table is not a ColumnFile
+     */
+    public ColumnScan(TransactionId transactionId, int tableId, String tableAlias, int[] columns) {
+        this(transactionId, tableId, tableAlias, columns, new Predicate[0]);
+    }
+
+    /**
+     * Creates a scan over the given columns of the rows of the specified
+     * table that satisfy all of the filters.
+     *
+     * @param filters predicates whose field numbers are columns of the table
+     * @see #ColumnScan(TransactionId, int, String, int[])
+     */
+    public ColumnScan(TransactionId transactionId, int tableId, String tableAlias, int[] columns,
+            Predicate[] filters) {
+        DbFile file = Database.getCatalog().getDbFile(tableId);
+        if (!(file instanceof ColumnFile)) {
+            throw new IllegalArgumentException("column scans require a ColumnFile");
+        }
+        this.transactionId = transactionId;
+        this.tableId = tableId;
+        this.tableAlias = tableAlias;
+        this.columns = columns.clone();
+        this.filters = filters.clone();
+        tableIterator = ((ColumnFile) file).iterator(transactionId, this.columns, this.filters);
+    }
+
+    /** @return the id of the table this scans */
+    public int getTableId() {
+        return tableId;
+    }
+
+    /** @return the alias of the table this scans */
+    public String getAlias() {
+        return tableAlias;
+    }
+
+    /** @return the columns of the table this returns, in order */
+    public int[] getColumns() {
+        return columns.clone();
+    }
+
+    /** @return the filters the scanned rows satisfy */
+    public Predicate[] getFilters() {
+        return filters.clone();
+    }
+
+    /** @return a scan of the same columns that also applies filter */
+    public ColumnScan withFilter(Predicate filter) {
+        Predicate[] f = Arrays.copyOf(filters, filters.length + 1);
+        f[filters.length] = filter;
+        return new ColumnScan(transactionId, tableId, tableAlias, columns, f);
+    }
+
+    public void open()
+        throws DbException, TransactionAbortedException {
+        tableIterator.open();
+    }
+
+    /**
+     * Returns the TupleDesc with the names of the scanned columns, prefixed
+     * with the tableAlias string from the constructor.
+     */
+    public TupleDesc getTupleDesc() {
+        TupleDesc tupleDesc = Database.getCatalog().getDbFile(tableId).getTupleDesc();
+        Type[] fieldTypes = new Type[columns.length];
+        String[] fieldNames = new String[columns.length];
+        for (int i = 0; i < columns.length; ++i) {
+            String name = tupleDesc.getFieldName(columns[i]);
+            fieldNames[i] = tableAlias == null || tableAlias.isEmpty() ? name : tableAlias + "." + name;
+            fieldTypes[i] = tupleDesc.getFieldType(columns[i]);
+        }
+        return new TupleDesc(fieldTypes, fieldNames);
+    }
+
+    public boolean hasNext() throws TransactionAbortedException, DbException {
+        return tableIterator.hasNext();
+    }
+
+    public Tuple next()
+        throws NoSuchElementException, TransactionAbortedException, DbException {
+        return tableIterator.next();
+    }
+
+    public TupleBatch nextBatch() throws TransactionAbortedException, DbException {
+        if (batch == null) {
+            batch = new TupleBatch(getTupleDesc());
+        }
+        batch.clear();
+        while (!batch.isFull() && tableIterator.hasNext()) {
+            batch.add(tableIterator.next());
+        }
+        return batch.size() == 0 ? null : batch;
+    }
+
+    public void close() {
+        tableIterator.close();
+    }
+
+    public void rewind()
+        throws DbException, NoSuchElementException, TransactionAbortedException {
+        tableIterator.rewind();
+    }
+}
@@ -0,0 +1,21 @@
+package simpledb;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+
+/**
+ * The class {@link PredicateCompiler} copies for each join predicate it
+ * compiles; see {@link CompiledPredicateTemplate}.
+ */
+final class CompiledJoinPredicateTemplate implements PredicateCompiler.CompiledJoin {
+
+    private static final MethodHandle HANDLE = PredicateCompiler.classData(MethodHandles.lookup());
+
+    public boolean test(Tuple t1, Tuple t2) {
+        try {
+            return (boolean) HANDLE.invokeExact(t1, t2);
+        } catch (Throwable e) {
+            throw PredicateCompiler.unchecked(e);
+        }
+    }
+}
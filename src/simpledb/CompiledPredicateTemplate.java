@@ -0,0 +1,24 @@
+package simpledb;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+
+/**
+ * The class {@link PredicateCompiler} copies for each predicate it
+ * compiles.  Each copy is a hidden class whose HANDLE is the predicate's
+ * method handle, so that the JIT treats the handle as a constant and
+ * inlines it into test.  PredicateCompiler loads this class to find its
+ * class file, but never initializes or instantiates it; only the copies run.
+ */
+final class CompiledPredicateTemplate implements PredicateCompiler.Compiled {
+
+    private static final MethodHandle HANDLE = PredicateCompiler.classData(MethodHandles.lookup());
+
+    public boolean test(Tuple t) {
+        try {
+            return (boolean) HANDLE.invokeExact(t);
+        } catch (Throwable e) {
+            throw PredicateCompiler.unchecked(e);
+        }
+    }
+}
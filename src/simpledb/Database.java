@@ -14,6 +14,7 @@ public class Database {
 	private static Database _instance = new Database();
     private final Catalog _catalog;
     private BufferPool _bufferpool; 
+    private final SelectivityFeedback _feedback;
 
     private final static String LOGFILENAME = "log";
     private LogFile _logfile;
@@ -21,6 +22,7 @@ public class Database {
     private Database() {
     	_catalog = new Catalog();
     	_bufferpool = new BufferPool(BufferPool.DEFAULT_PAGES);
+        _feedback = new SelectivityFeedback();
     	try {
             _logfile = new LogFile(new File(LOGFILENAME));
         } catch(IOException e) {
@@ -46,6 +48,11 @@ public class Database {
         return _instance._catalog;
     }
 
+    /** Return the selectivities observed by earlier queries of the static Database instance*/
+    public static SelectivityFeedback getSelectivityFeedback() {
+        return _instance._feedback;
+    }
+
     /** Method used for testing -- create a new instance of the
         buffer pool and return it
     */
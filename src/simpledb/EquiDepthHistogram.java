@@ -0,0 +1,452 @@
+package simpledb;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * An equi-depth histogram over a single field of any type, with a list of
+ * the field's most common values.
+ * <p>
+ * The histogram is built from a uniform sample of the field's values.  The
+ * values that are much more frequent than average are kept in the
+ * most-common-value (MCV) list along with the fraction of rows holding
+ * each.  The remaining values are split into buckets that each hold the
+ * same fraction of rows, so that a skewed column gets narrow buckets where
+ * its values are dense instead of one bucket holding most of them.
+ * <p>
+ * Within a bucket, values are assumed to be spread evenly: int values
+ * linearly, and strings by their first few characters after the prefix
+ * the bucket's bounds share.  Strings are compared as a whole rather than
+ * by a fixed number of leading characters, so columns whose values share a
+ * long prefix are still told apart.
+ * <p>
+ * The histogram keeps the number of rows of each MCV and bucket rather
+ * than fractions, so that it can be kept up to date as rows are added and
+ * removed with {@link #addValue} and {@link #removeValue}: the bounds stay
+ * as they were built, except that the first and last buckets are
+ * stretched to take in values beyond them, and the buckets drift from
+ * equal depth until the histogram is rebuilt.
+ */
+public class EquiDepthHistogram {
+
+    /** Fraction of the rows not in the MCV list assumed to match a LIKE pattern. */
+    static final double LIKE_SELECTIVITY = 0.1;
+
+    /** How many times the average frequency a value must have to be in the MCV list. */
+    private static final double MCV_FACTOR = 1.25;
+
+    private final Type type;
+    // the most common values, in decreasing order of frequency when
+    // built, and the number of rows holding each
+    private final Field[] mcvs;
+    private final double[] mcvRows;
+    // bucket i holds the values in [bounds[i], bounds[i+1]) and, for the
+    // last bucket, bounds[i+1] itself, and bucketRows[i] rows
+    private final Field[] bounds;
+    private final double[] bucketRows;
+    // the rows the histogram describes, those of them not in the MCV list,
+    // and the number of distinct values the latter hold
+    private double rows;
+    private double restRows;
+    private double restDistinct;
+
+    private EquiDepthHistogram(Type type, Field[] mcvs, double[] mcvRows, Field[] bounds,
+            double[] bucketRows, double restDistinct) {
+        this.type = type;
+        this.mcvs = mcvs;
+        this.mcvRows = mcvRows;
+        this.bounds = bounds;
+        this.bucketRows = bucketRows;
+        this.restDistinct = restDistinct;
+        for (double r : mcvRows) {
+            rows += r;
+        }
+        for (double r : bucketRows) {
+            restRows += r;
+        }
+        rows += restRows;
+    }
+
+    /**
+     * Builds a histogram from a sample of a field's values, describing as
+     * many rows as the sample holds.
+     *
+     * @see #build(Type, List, int, int, double, double)
+     */
+    public static EquiDepthHistogram build(Type type, List<Field> sample, int buckets, int maxMcvs,
+            double distinct) {
+        return build(type, sample, buckets, maxMcvs, distinct, sample.size());
+    }
+
+    /**
+     * Builds a histogram from a sample of a field's values.
+     *
+     * @param type the type of the field
+     * @param sample a uniform sample of the field's values; it is sorted in place
+     * @param buckets the most buckets the histogram may have
+     * @param maxMcvs the most values the MCV list may hold
+     * @param distinct an estimate of the number of distinct values of the
+     *        field in the whole table
+     * @param rows the number of rows in the whole table, which each sampled
+     *        value stands for an equal share of
+     */
+    public static EquiDepthHistogram build(Type type, List<Field> sample, int buckets, int maxMcvs,
+            double distinct, double rows) {
+        if (sample.isEmpty()) {
+            return new EquiDepthHistogram(type, new Field[0], new double[0], new Field[0], new double[0], 0);
+        }
+        final HashMap<Field, Integer> counts = new HashMap<Field, Integer>();
+        for (Field f : sample) {
+            Integer c = counts.get(f);
+            counts.put(f, c == null ? 1 : c + 1);
+        }
+        ArrayList<Field> values = new ArrayList<Field>(counts.keySet());
+        Collections.sort(values, new Comparator<Field>() {
+            public int compare(Field a, Field b) {
+                return counts.get(b) - counts.get(a);
+            }
+        });
+
+        // if the sample holds few enough values, they are all kept; otherwise
+        // only those well above the average frequency
+        int n = sample.size();
+        double scale = rows / n;
+        int numMcvs = values.size();
+        if (numMcvs > maxMcvs) {
+            double threshold = Math.max(2, MCV_FACTOR * n / values.size());
+            numMcvs = 0;
+            while (numMcvs < maxMcvs && counts.get(values.get(numMcvs)) >= threshold) {
+                numMcvs++;
+            }
+        }
+        Field[] mcvs = new Field[numMcvs];
+        double[] mcvRows = new double[numMcvs];
+        HashSet<Field> mcvSet = new HashSet<Field>();
+        int mcvSampled = 0;
+        for (int i = 0; i < numMcvs; i++) {
+            mcvs[i] = values.get(i);
+            mcvRows[i] = counts.get(mcvs[i]) * scale;
+            mcvSet.add(mcvs[i]);
+            mcvSampled += counts.get(mcvs[i]);
+        }
+
+        ArrayList<Field> rest = new ArrayList<Field>(n - mcvSampled);
+        for (Field f : sample) {
+            if (!mcvSet.contains(f)) {
+                rest.add(f);
+            }
+        }
+        Field[] bounds = new Field[0];
+        double[] bucketRows = new double[0];
+        if (!rest.isEmpty()) {
+            Collections.sort(rest, new Comparator<Field>() {
+                public int compare(Field a, Field b) {
+                    return EquiDepthHistogram.compare(a, b);
+                }
+            });
+            int b = Math.max(1, Math.min(buckets, rest.size() - 1));
+            bounds = new Field[b + 1];
+            for (int i = 0; i <= b; i++) {
+                bounds[i] = rest.get((int) ((long) i * (rest.size() - 1) / b));
+            }
+            bucketRows = new double[b];
+            Arrays.fill(bucketRows, rest.size() * scale / b);
+        }
+        double restDistinct = Math.max(values.size() - numMcvs, distinct - numMcvs);
+        return new EquiDepthHistogram(type, mcvs, mcvRows, bounds, bucketRows, Math.max(1, restDistinct));
+    }
+
+    private static int compare(Field a, Field b) {
+        if (a.compare(Predicate.Op.LESS_THAN, b)) {
+            return -1;
+        }
+        return a.equals(b) ? 0 : 1;
+    }
+
+    /** @return the number of values in the MCV list */
+    public int numMcvs() {
+        return mcvs.length;
+    }
+
+    /** @return the number of buckets the values not in the MCV list are split into */
+    public int numBuckets() {
+        return bucketRows.length;
+    }
+
+    /** @return the number of rows the histogram describes */
+    public double numRows() {
+        return rows;
+    }
+
+    /** Counts a row holding v, which was added to the table. */
+    public void addValue(Field v) {
+        change(v, 1);
+    }
+
+    /**
+     * Stops counting a row holding v, which was removed from the table.
+     * No count drops below zero, as the row may not have been counted if
+     * the histogram was built from a sample.
+     */
+    public void removeValue(Field v) {
+        change(v, -1);
+    }
+
+    private void change(Field v, double delta) {
+        for (int i = 0; i < mcvs.length; i++) {
+            if (mcvs[i].equals(v)) {
+                delta = Math.max(delta, -mcvRows[i]);
+                mcvRows[i] += delta;
+                rows += delta;
+                return;
+            }
+        }
+        if (bucketRows.length == 0) {
+            // nothing to stretch: the row only counts toward the total
+            rows = Math.max(0, rows + delta);
+            return;
+        }
+        int last = bounds.length - 1;
+        if (delta > 0 && compare(v, bounds[0]) < 0) {
+            bounds[0] = v;
+        } else if (delta > 0 && compare(v, bounds[last]) > 0) {
+            bounds[last] = v;
+        }
+        int b = bucketRows.length - 1;
+        if (compare(v, bounds[last]) < 0) {
+            b = Math.max(0, upperBound(v) - 1);
+        }
+        delta = Math.max(delta, -bucketRows[b]);
+        bucketRows[b] += delta;
+        restRows += delta;
+        rows += delta;
+    }
+
+    /**
+     * Sets the number of distinct values of the field in the whole table,
+     * as estimated since the histogram was built.
+     */
+    public void setDistinct(double distinct) {
+        restDistinct = Math.max(1, distinct - mcvs.length);
+    }
+
+    /**
+     * Estimate the selectivity of predicate <tt>field op v</tt>.
+     *
+     * @param op Operator
+     * @param v Value, of the histogram's type
+     * @return the estimated fraction of rows that satisfy the predicate
+     */
+    public double estimateSelectivity(Predicate.Op op, Field v) {
+        double s;
+        switch (op) {
+            case EQUALS:
+                s = equal(v);
+                break;
+            case NOT_EQUALS:
+                s = 1 - equal(v);
+                break;
+            case LESS_THAN:
+                s = less(v);
+                break;
+            case LESS_THAN_OR_EQ:
+                s = less(v) + equal(v);
+                break;
+            case GREATER_THAN:
+                s = 1 - less(v) - equal(v);
+                break;
+            case GREATER_THAN_OR_EQ:
+                s = 1 - less(v);
+                break;
+            case LIKE:
+                s = like(v);
+                break;
+            default:
+                s = 1;
+        }
+        return Math.max(0, Math.min(1, s));
+    }
+
+    /** @return the fraction of rows equal to v */
+    private double equal(Field v) {
+        if (rows == 0) {
+            return 0;
+        }
+        for (int i = 0; i < mcvs.length; i++) {
+            if (mcvs[i].equals(v)) {
+                return mcvRows[i] / rows;
+            }
+        }
+        if (bounds.length == 0 || compare(v, bounds[0]) < 0 || compare(v, bounds[bounds.length - 1]) > 0) {
+            return 0;
+        }
+        return restRows / rows / restDistinct;
+    }
+
+    /** @return the fraction of rows less than v */
+    private double less(Field v) {
+        if (rows == 0) {
+            return 0;
+        }
+        double s = 0;
+        for (int i = 0; i < mcvs.length; i++) {
+            if (compare(mcvs[i], v) < 0) {
+                s += mcvRows[i];
+            }
+        }
+        if (bounds.length == 0 || compare(v, bounds[0]) <= 0) {
+            return s / rows;
+        }
+        int last = bounds.length - 1;
+        if (compare(v, bounds[last]) > 0) {
+            return (s + restRows) / rows;
+        }
+        // the bucket holding v: bounds[lo] < v <= bounds[lo + 1]
+        int lo = lowerBound(v) - 1;
+        for (int i = 0; i < lo; i++) {
+            s += bucketRows[i];
+        }
+        return (s + bucketRows[lo] * position(bounds[lo], bounds[lo + 1], v)) / rows;
+    }
+
+    /** @return the first i with bounds[i] >= v, or bounds.length if there is none */
+    private int lowerBound(Field v) {
+        int lo = 0;
+        int hi = bounds.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compare(bounds[mid], v) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /** @return the first i with bounds[i] > v, or bounds.length if there is none */
+    private int upperBound(Field v) {
+        int lo = 0;
+        int hi = bounds.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compare(bounds[mid], v) <= 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /** @return the fraction of rows matching the LIKE pattern v */
+    private double like(Field v) {
+        if (type == Type.INT_TYPE) {
+            return equal(v);
+        }
+        if (rows == 0) {
+            return 0;
+        }
+        double s = 0;
+        for (int i = 0; i < mcvs.length; i++) {
+            if (mcvs[i].compare(Predicate.Op.LIKE, v)) {
+                s += mcvRows[i];
+            }
+        }
+        return (s + restRows * LIKE_SELECTIVITY) / rows;
+    }
+
+    /** @return where v lies between lo and hi, from 0 to 1 */
+    private static double position(Field lo, Field hi, Field v) {
+        double l;
+        double h;
+        double x;
+        if (lo instanceof IntField) {
+            l = ((IntField) lo).getValue();
+            h = ((IntField) hi).getValue();
+            x = ((IntField) v).getValue();
+        } else {
+            String a = ((StringField) lo).getValue();
+            String b = ((StringField) hi).getValue();
+            int prefix = 0;
+            while (prefix < a.length() && prefix < b.length() && a.charAt(prefix) == b.charAt(prefix)) {
+                prefix++;
+            }
+            l = scalar(a, prefix);
+            h = scalar(b, prefix);
+            x = scalar(((StringField) v).getValue(), prefix);
+        }
+        if (h <= l) {
+            return 0.5;
+        }
+        return Math.max(0, Math.min(1, (x - l) / (h - l)));
+    }
+
+    /** @return the characters of s after the first prefix ones, as a fraction in [0, 1) */
+    private static double scalar(String s, int prefix) {
+        double x = 0;
+        double scale = 1;
+        for (int i = prefix; i < s.length() && i < prefix + 6; i++) {
+            scale /= 256;
+            x += Math.min(s.charAt(i), 255) * scale;
+        }
+        return x;
+    }
+
+    /** Writes the histogram to out, to be read back with {@link #read}. */
+    void write(DataOutputStream out) throws IOException {
+        out.writeInt(mcvs.length);
+        for (int i = 0; i < mcvs.length; i++) {
+            mcvs[i].serialize(out);
+            out.writeDouble(mcvRows[i]);
+        }
+        out.writeInt(bounds.length);
+        for (Field f : bounds) {
+            f.serialize(out);
+        }
+        for (double r : bucketRows) {
+            out.writeDouble(r);
+        }
+        out.writeDouble(restDistinct);
+    }
+
+    /** Reads a histogram over a field of the given type written by {@link #write}. */
+    static EquiDepthHistogram read(Type type, DataInputStream in) throws IOException {
+        try {
+            Field[] mcvs = new Field[in.readInt()];
+            double[] mcvRows = new double[mcvs.length];
+            for (int i = 0; i < mcvs.length; i++) {
+                mcvs[i] = type.parse(in);
+                mcvRows[i] = in.readDouble();
+            }
+            Field[] bounds = new Field[in.readInt()];
+            for (int i = 0; i < bounds.length; i++) {
+                bounds[i] = type.parse(in);
+            }
+            double[] bucketRows = new double[Math.max(0, bounds.length - 1)];
+            for (int i = 0; i < bucketRows.length; i++) {
+                bucketRows[i] = in.readDouble();
+            }
+            return new EquiDepthHistogram(type, mcvs, mcvRows, bounds, bucketRows, in.readDouble());
+        } catch (java.text.ParseException e) {
+            throw new IOException("cannot parse saved histogram: " + e.getMessage());
+        }
+    }
+
+    /**
+     * @return A string describing this histogram, for debugging purposes
+     */
+    public String toString() {
+        StringBuilder sb = new StringBuilder("EquiDepthHistogram(mcvs:");
+        for (int i = 0; i < mcvs.length; i++) {
+            sb.append(" ").append(mcvs[i]).append("=").append(mcvRows[i]);
+        }
+        sb.append(", buckets:");
+        for (int i = 0; i < bucketRows.length; i++) {
+            sb.append(" [").append(bounds[i]).append(", ").append(bounds[i + 1]).append("]=").append(bucketRows[i]);
+        }
+        return sb.append(")").toString();
+    }
+}
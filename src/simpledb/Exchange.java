@@ -0,0 +1,252 @@
+package simpledb;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Exchange is a gather operator: it runs each of its children on its own
+ * worker thread and returns the union of their tuples, in no particular
+ * order, to the thread that calls next().
+ * <p>
+ * Workers hand tuples to the consumer in batches through a bounded queue, so
+ * a slow consumer blocks the workers instead of letting them buffer the
+ * whole input.  An error in any worker is rethrown by next().  The children
+ * are opened and closed by their worker threads and must not share state
+ * that is not thread-safe.
+ */
+public class Exchange extends Operator {
+
+    /** Default number of tuple batches the queue holds before workers block. */
+    public static final int DEFAULT_QUEUE_CAPACITY = 64;
+
+    /** Number of tuples a worker collects before handing them to the consumer. */
+    static final int BATCH_SIZE = 256;
+
+    /** How long a blocked worker waits before checking whether it was cancelled. */
+    static final long POLL_MILLIS = 100;
+
+    private static final ExecutorService WORKERS = Executors.newCachedThreadPool(new ThreadFactory() {
+        private final AtomicInteger count = new AtomicInteger();
+
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "simpledb-exchange-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    });
+
+    /** A batch that marks the end of one worker's output. */
+    static final List<Tuple> END = Collections.unmodifiableList(new ArrayList<Tuple>());
+
+    private final DbIterator[] children;
+    private final int queueCapacity;
+
+    private BlockingQueue<List<Tuple>> queue;
+    private final ArrayList<Future<?>> workers = new ArrayList<Future<?>>();
+    private volatile boolean cancelled;
+    private volatile Exception failure;
+    private int running;
+    private Iterator<Tuple> batch;
+
+    /**
+     * Constructor.
+     *
+     * @param children the inputs to gather; all must have the same TupleDesc
+     */
+    public Exchange(DbIterator[] children) {
+        this(children, DEFAULT_QUEUE_CAPACITY);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param children the inputs to gather; all must have the same TupleDesc
+     * @param queueCapacity the number of tuple batches buffered between the workers and the consumer
+     */
+    public Exchange(DbIterator[] children, int queueCapacity) {
+        if (children.length == 0) {
+            throw new IllegalArgumentException("an exchange needs at least one child");
+        }
+        this.children = children.clone();
+        this.queueCapacity = queueCapacity;
+    }
+
+    /** The thread pool exchange workers run on. */
+    static ExecutorService workers() {
+        return WORKERS;
+    }
+
+    /** @return the inputs this exchange gathers */
+    public DbIterator[] getChildren() {
+        return children.clone();
+    }
+
+    public TupleDesc getTupleDesc() {
+        return children[0].getTupleDesc();
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        stopWorkers();
+        queue = new ArrayBlockingQueue<List<Tuple>>(queueCapacity);
+        cancelled = false;
+        failure = null;
+        batch = null;
+        running = children.length;
+        for (final DbIterator child : children) {
+            workers.add(WORKERS.submit(new Runnable() {
+                public void run() {
+                    produce(child);
+                }
+            }));
+        }
+    }
+
+    public void close() {
+        super.close();
+        stopWorkers();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        close();
+        open();
+    }
+
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        while (true) {
+            if (batch != null && batch.hasNext()) {
+                return batch.next();
+            }
+            if (running == 0 || queue == null) {
+                return null;
+            }
+            List<Tuple> next;
+            try {
+                next = queue.take();
+            } catch (InterruptedException e) {
+                throw new DbException("interrupted while waiting for exchange workers");
+            }
+            if (next == END) {
+                running--;
+                rethrow(failure);
+            } else {
+                batch = next.iterator();
+            }
+        }
+    }
+
+    private void produce(DbIterator child) {
+        try {
+            child.open();
+            ArrayList<Tuple> buffer = new ArrayList<Tuple>(BATCH_SIZE);
+            while (!cancelled && child.hasNext()) {
+                buffer.add(child.next());
+                if (buffer.size() == BATCH_SIZE) {
+                    put(buffer);
+                    buffer = new ArrayList<Tuple>(BATCH_SIZE);
+                }
+            }
+            if (!buffer.isEmpty()) {
+                put(buffer);
+            }
+        } catch (InterruptedException e) {
+            // cancelled
+        } catch (Exception e) {
+            if (failure == null) {
+                failure = e;
+            }
+        } finally {
+            child.close();
+            try {
+                put(END);
+            } catch (InterruptedException e) {
+                // cancelled
+            }
+        }
+    }
+
+    /** Blocks until the batch is queued or the exchange is closed. */
+    private void put(List<Tuple> b) throws InterruptedException {
+        while (!cancelled) {
+            if (queue.offer(b, POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+                return;
+            }
+        }
+    }
+
+    private void stopWorkers() {
+        cancelled = true;
+        awaitAll(workers);
+        workers.clear();
+        if (queue != null) {
+            queue.clear();
+        }
+        batch = null;
+        running = 0;
+    }
+
+    /** Waits for the given worker tasks to finish, ignoring their outcome. */
+    static void awaitAll(List<Future<?>> tasks) {
+        boolean interrupted = false;
+        for (Future<?> f : tasks) {
+            while (true) {
+                try {
+                    f.get();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    break;
+                } catch (CancellationException e) {
+                    break;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** Runs the tasks on the exchange worker pool and returns their results in order. */
+    static <T> List<T> runAll(List<Callable<T>> tasks) throws DbException, TransactionAbortedException {
+        ArrayList<Future<T>> futures = new ArrayList<Future<T>>();
+        for (Callable<T> task : tasks) {
+            futures.add(WORKERS.submit(task));
+        }
+        ArrayList<T> results = new ArrayList<T>();
+        Exception failure = null;
+        for (Future<T> f : futures) {
+            try {
+                results.add(f.get());
+            } catch (ExecutionException e) {
+                if (failure == null) {
+                    failure = e.getCause() instanceof Exception ?
+                        (Exception) e.getCause() : new DbException(e.getCause().toString());
+                }
+            } catch (InterruptedException e) {
+                if (failure == null) {
+                    failure = new DbException("interrupted while waiting for exchange workers");
+                }
+            }
+        }
+        rethrow(failure);
+        return results;
+    }
+
+    /** Rethrows an exception caught on a worker thread on the consumer's thread. */
+    static void rethrow(Exception e) throws DbException, TransactionAbortedException {
+        if (e == null) {
+            return;
+        }
+        if (e instanceof TransactionAbortedException) {
+            throw (TransactionAbortedException) e;
+        }
+        if (e instanceof DbException) {
+            throw (DbException) e;
+        }
+        if (e instanceof RuntimeException) {
+            throw (RuntimeException) e;
+        }
+        throw new DbException("exchange worker failed: " + e);
+    }
+}
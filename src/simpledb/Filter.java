@@ -2,12 +2,19 @@ package simpledb;
 import java.util.*;
 
 /**
- * Filter is an operator that implements a relational select.
+ * Filter is an operator that implements a relational select.  The
+ * predicate is compiled for the child's schema by {@link PredicateCompiler}.
+ * <p>
+ * When read a batch at a time, Filter evaluates the predicate over the whole
+ * batch and only narrows the batch's selection vector; comparisons of an
+ * integer column with a constant run as a tight loop over the column.
  */
-public class Filter extends Operator {
+public class Filter extends Operator implements BatchDbIterator {
 
     private final Predicate predicate;
     private final DbIterator child;
+    private final BatchDbIterator batchChild;
+    private final PredicateCompiler.Compiled compiled;
 
     /**
      * Constructor accepts a predicate to apply and a child
@@ -19,6 +26,16 @@ public class Filter extends Operator {
     public Filter(Predicate p, DbIterator child) {
         this.predicate = p;
         this.child = child;
+        this.batchChild = BatchAdapter.of(child);
+        this.compiled = PredicateCompiler.compile(p, child.getTupleDesc());
+    }
+
+    public Predicate getPredicate() {
+        return predicate;
+    }
+
+    public DbIterator getChild() {
+        return child;
     }
 
     public TupleDesc getTupleDesc() {
@@ -51,10 +68,50 @@ public class Filter extends Operator {
         throws NoSuchElementException, TransactionAbortedException, DbException {
         while (child.hasNext()) {
             Tuple tuple = child.next();
-            if (predicate.filter(tuple)) {
+            if (compiled.test(tuple)) {
                 return tuple;
             }
         }
         return null;
     }
+
+    /**
+     * Returns the next batch of the child's tuples that has at least one
+     * tuple passing the predicate, with only those tuples selected.
+     */
+    public TupleBatch nextBatch() throws TransactionAbortedException, DbException {
+        TupleBatch batch;
+        while ((batch = batchChild.nextBatch()) != null) {
+            if (select(batch) > 0) {
+                return batch;
+            }
+        }
+        return null;
+    }
+
+    /** Narrows the batch's selection to the rows passing the predicate. */
+    private int select(TupleBatch batch) {
+        int field = predicate.getField();
+        Predicate.Op op = predicate.getOperator();
+        Field operand = predicate.getOperand();
+        int[] rows = batch.selectionBuffer();
+        int n;
+        int[] column = batch.intColumn(field);
+        if (column != null && operand instanceof IntField) {
+            int v = ((IntField) operand).getValue();
+            int[] selection = batch.getSelection();
+            n = selection == null ? IntKernels.select(column, batch.size(), op, v, rows)
+                    : IntKernels.select(column, selection, batch.size(), op, v, rows);
+        } else {
+            n = 0;
+            for (int i = 0, size = batch.size(); i < size; ++i) {
+                int r = batch.row(i);
+                if (batch.getField(field, r).compare(op, operand)) {
+                    rows[n++] = r;
+                }
+            }
+        }
+        batch.setSelection(rows, n);
+        return n;
+    }
 }
@@ -0,0 +1,344 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * HashAggregate is an aggregation operator that groups on any number of
+ * columns and computes several aggregates in a single pass over its child.
+ * <p>
+ * Groups are kept in an in-memory hash table whose size is bounded by a
+ * memory budget.  Once the table is full, tuples belonging to groups that
+ * are not already in the table are hash partitioned into {@link SpillFile}s.
+ * After the groups in memory have been returned, each partition is
+ * aggregated the same way, using a different hash function so that a
+ * partition that is still too large splits further when it spills again.
+ * <p>
+ * The output has one column per group-by field, in the order given, followed
+ * by one integer column per aggregate.  Aggregates over string fields only
+ * support COUNT.
+ */
+public class HashAggregate extends Operator {
+
+    /** Default number of pages' worth of memory the group table may use. */
+    public static final int DEFAULT_MEMORY_PAGES = BufferPool.DEFAULT_PAGES;
+
+    /** Number of partitions tuples are split into when the group table is full. */
+    static final int SPILL_PARTITIONS = 16;
+
+    /** Partitions spilled this many times are aggregated in memory regardless of the budget. */
+    static final int MAX_SPILL_DEPTH = 8;
+
+    /** Rough per-group cost, in bytes, of the hash entry, key and state objects. */
+    private static final int GROUP_OVERHEAD = 96;
+
+    private final DbIterator child;
+    private final int[] groupFields;
+    private final int[] aggFields;
+    private final Aggregator.Op[] ops;
+    private final TupleDesc td;
+    private final int maxGroups;
+
+    private final HashMap<GroupKey, long[]> groups;
+    private final ArrayDeque<Partition> pending = new ArrayDeque<Partition>();
+    private SpillFile[] spills;
+    private int passDepth;
+    private Iterator<Map.Entry<GroupKey, long[]>> output;
+
+    /**
+     * Constructor.
+     *
+     * @param child The DbIterator that is feeding us tuples.
+     * @param groupFields The columns over which we are grouping the result; empty if there is no grouping
+     * @param aggFields The columns over which we are computing aggregates
+     * @param ops The aggregation operator to apply to each of aggFields
+     */
+    public HashAggregate(DbIterator child, int[] groupFields, int[] aggFields, Aggregator.Op[] ops) {
+        this(child, groupFields, aggFields, ops, DEFAULT_MEMORY_PAGES);
+    }
+
+    /**
+     * Constructor with a memory bound.
+     *
+     * @param child The DbIterator that is feeding us tuples.
+     * @param groupFields The columns over which we are grouping the result; empty if there is no grouping
+     * @param aggFields The columns over which we are computing aggregates
+     * @param ops The aggregation operator to apply to each of aggFields
+     * @param memoryPages the number of pages' worth of memory the group table may use
+     * @throws IllegalArgumentException if aggFields and ops differ in length, or a
+     *   string field is aggregated with anything but COUNT
+     */
+    public HashAggregate(DbIterator child, int[] groupFields, int[] aggFields, Aggregator.Op[] ops,
+            int memoryPages) {
+        this(child, groupFields, aggFields, ops, memoryPages, 0);
+    }
+
+    /**
+     * Constructor with a memory bound and an estimate of the number of
+     * groups, which the group table is sized for up front so that it is not
+     * rehashed as it fills.
+     *
+     * @param expectedGroups the estimated number of groups, or 0 if unknown
+     * @see #HashAggregate(DbIterator, int[], int[], Aggregator.Op[], int)
+     */
+    public HashAggregate(DbIterator child, int[] groupFields, int[] aggFields, Aggregator.Op[] ops,
+            int memoryPages, int expectedGroups) {
+        if (aggFields.length != ops.length) {
+            throw new IllegalArgumentException("one operator is required per aggregate field");
+        }
+        if (memoryPages < 1) {
+            throw new IllegalArgumentException("the group table must have at least one page");
+        }
+        TupleDesc childTd = child.getTupleDesc();
+        Type[] types = new Type[groupFields.length + aggFields.length];
+        String[] names = new String[types.length];
+        for (int i = 0; i < groupFields.length; ++i) {
+            types[i] = childTd.getFieldType(groupFields[i]);
+            names[i] = childTd.getFieldName(groupFields[i]);
+        }
+        for (int i = 0; i < aggFields.length; ++i) {
+            if (childTd.getFieldType(aggFields[i]) != Type.INT_TYPE && ops[i] != Aggregator.Op.COUNT) {
+                throw new IllegalArgumentException("only COUNT is supported over string fields");
+            }
+            types[groupFields.length + i] = Type.INT_TYPE;
+            names[groupFields.length + i] = Aggregate.nameOfAggregatorOp(ops[i])
+                    + "(" + childTd.getFieldName(aggFields[i]) + ")";
+        }
+        this.child = child;
+        this.groupFields = groupFields.clone();
+        this.aggFields = aggFields.clone();
+        this.ops = ops.clone();
+        this.td = new TupleDesc(types, names);
+        this.maxGroups = groupCapacity(childTd, groupFields, aggFields.length, memoryPages);
+        int initialGroups = Math.min(Math.max(expectedGroups, 0), maxGroups);
+        this.groups = new HashMap<GroupKey, long[]>(Math.max(16, (int) (initialGroups / 0.75f) + 1));
+    }
+
+    /**
+     * @return the number of groups, grouped on groupFields of childTd with
+     *   numAggregates aggregates, whose state fits in memoryPages pages
+     */
+    static int groupCapacity(TupleDesc childTd, int[] groupFields, int numAggregates, int memoryPages) {
+        int groupBytes = GROUP_OVERHEAD + 16 * numAggregates;
+        for (int f : groupFields) {
+            groupBytes += childTd.getFieldType(f).getLen();
+        }
+        return Math.max(1, (int) ((long) memoryPages * BufferPool.PAGE_SIZE / groupBytes));
+    }
+
+    /** @return the columns the output is grouped on */
+    public int[] getGroupFields() {
+        return groupFields.clone();
+    }
+
+    /** @return the columns aggregated, in output order */
+    public int[] getAggregateFields() {
+        return aggFields.clone();
+    }
+
+    /** @return the operator applied to each aggregate field */
+    public Aggregator.Op[] getAggregateOps() {
+        return ops.clone();
+    }
+
+    /**
+     * Returns the TupleDesc of this HashAggregate: the group-by fields
+     * followed by one column per aggregate, named "aggName(aop) (child field name)".
+     */
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void open()
+        throws NoSuchElementException, DbException, TransactionAbortedException {
+        discard();
+        child.open();
+        startPass(0);
+        while (child.hasNext()) {
+            add(child.next());
+        }
+        endPass();
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+        discard();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        close();
+        open();
+    }
+
+    /**
+     * Returns the next group.  Groups held in memory are returned first, then
+     * the spilled partitions are aggregated and returned one by one.
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (output != null) {
+            if (output.hasNext()) {
+                Map.Entry<GroupKey, long[]> group = output.next();
+                return makeTuple(group.getKey(), group.getValue());
+            }
+            Partition p = pending.poll();
+            if (p == null) {
+                output = null;
+                break;
+            }
+            startPass(p.depth);
+            SpillFile.Reader reader = p.file.reader();
+            try {
+                while (reader.hasNext()) {
+                    add(reader.next());
+                }
+            } finally {
+                reader.close();
+                p.file.delete();
+            }
+            endPass();
+        }
+        return null;
+    }
+
+    private void startPass(int depth) {
+        groups.clear();
+        spills = null;
+        passDepth = depth;
+    }
+
+    /** Merges a tuple into its group, or spills it if its group does not fit in memory. */
+    private void add(Tuple t) throws DbException {
+        GroupKey key = new GroupKey(t, groupFields);
+        long[] state = groups.get(key);
+        if (state == null) {
+            if (groups.size() >= maxGroups && passDepth < MAX_SPILL_DEPTH) {
+                spill(key, t);
+                return;
+            }
+            state = new long[2 * ops.length];
+            groups.put(key, state);
+        }
+        for (int i = 0; i < ops.length; ++i) {
+            long count = state[2 * i];
+            if (ops[i] != Aggregator.Op.COUNT) {
+                int v = ((IntField) t.getField(aggFields[i])).getValue();
+                long current = state[2 * i + 1];
+                switch (ops[i]) {
+                    case MIN:
+                        state[2 * i + 1] = count == 0 ? v : Math.min(current, v);
+                        break;
+                    case MAX:
+                        state[2 * i + 1] = count == 0 ? v : Math.max(current, v);
+                        break;
+                    default:
+                        state[2 * i + 1] = current + v;
+                        break;
+                }
+            }
+            state[2 * i] = count + 1;
+        }
+    }
+
+    private void spill(GroupKey key, Tuple t) throws DbException {
+        if (spills == null) {
+            spills = new SpillFile[SPILL_PARTITIONS];
+        }
+        int partition = LongHashTable.hash(key.hash + passDepth * 0x9E3779B97F4A7C15L) & (SPILL_PARTITIONS - 1);
+        if (spills[partition] == null) {
+            spills[partition] = new SpillFile(child.getTupleDesc());
+        }
+        spills[partition].add(t);
+    }
+
+    private void endPass() throws DbException {
+        if (spills != null) {
+            for (SpillFile f : spills) {
+                if (f != null) {
+                    f.finish();
+                    pending.add(new Partition(f, passDepth + 1));
+                }
+            }
+            spills = null;
+        }
+        output = groups.entrySet().iterator();
+    }
+
+    private Tuple makeTuple(GroupKey key, long[] state) {
+        Tuple t = new Tuple(td);
+        for (int i = 0; i < key.fields.length; ++i) {
+            t.setField(i, key.fields[i]);
+        }
+        for (int i = 0; i < ops.length; ++i) {
+            long count = state[2 * i];
+            long value = state[2 * i + 1];
+            int result;
+            switch (ops[i]) {
+                case COUNT:
+                    result = (int) count;
+                    break;
+                case AVG:
+                    result = (int) (value / count);
+                    break;
+                default:
+                    result = (int) value;
+                    break;
+            }
+            t.setField(key.fields.length + i, new IntField(result));
+        }
+        return t;
+    }
+
+    private void discard() {
+        groups.clear();
+        output = null;
+        if (spills != null) {
+            for (SpillFile f : spills) {
+                if (f != null) {
+                    f.delete();
+                }
+            }
+            spills = null;
+        }
+        for (Partition p : pending) {
+            p.file.delete();
+        }
+        pending.clear();
+    }
+
+    /** The values of the group-by fields of a tuple. */
+    private static final class GroupKey {
+        final Field[] fields;
+        final int hash;
+
+        GroupKey(Tuple t, int[] groupFields) {
+            fields = new Field[groupFields.length];
+            for (int i = 0; i < groupFields.length; ++i) {
+                fields[i] = t.getField(groupFields[i]);
+            }
+            hash = Arrays.hashCode(fields);
+        }
+
+        public int hashCode() {
+            return hash;
+        }
+
+        public boolean equals(Object o) {
+            if (!(o instanceof GroupKey)) {
+                return false;
+            }
+            GroupKey other = (GroupKey) o;
+            return hash == other.hash && Arrays.equals(fields, other.fields);
+        }
+    }
+
+    /** A spilled partition still to be aggregated. */
+    private static final class Partition {
+        final SpillFile file;
+        final int depth;
+
+        Partition(SpillFile file, int depth) {
+            this.file = file;
+            this.depth = depth;
+        }
+    }
+}
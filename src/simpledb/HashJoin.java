@@ -0,0 +1,131 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * HashJoin implements an equality join by building a {@link JoinHashTable}
+ * over the inner (right) relation and probing it with each tuple of the
+ * outer (left) relation.
+ * <p>
+ * A HashJoin may also be given a table that is shared with other HashJoins.
+ * The planner uses this to split the probe side across worker threads: each
+ * partition of the outer relation is joined by its own HashJoin against the
+ * one shared table, and the results are gathered by an {@link Exchange}.
+ * The table is built by whichever probe opens first, in parallel when the
+ * inner relation is itself an Exchange.
+ */
+public class HashJoin extends Operator {
+
+    private final JoinPredicate predicate;
+    private final DbIterator child1;
+    private final JoinHashTable table;
+    private final boolean ownsTable;
+    private final TupleDesc tupleDesc;
+
+    private Tuple tuple1;
+    private Iterator<Tuple> matches;
+
+    /**
+     * Constructor.  Accepts two children to join and the predicate to join
+     * them on.
+     *
+     * @param p The predicate to use to join the children; must be EQUALS
+     * @param child1 Iterator for the left(outer) relation to join
+     * @param child2 Iterator for the right(inner) relation to join
+     * @throws IllegalArgumentException if the predicate is not an equality
+     */
+    public HashJoin(JoinPredicate p, DbIterator child1, DbIterator child2) {
+        this(p, child1, new JoinHashTable(child2, p.getField2()), true);
+    }
+
+    /**
+     * Constructor for a probe against a table shared with other HashJoins.
+     *
+     * @param p The predicate to use to join the children; must be EQUALS
+     * @param child1 Iterator for the left(outer) relation to join
+     * @param table the hash table over the right(inner) relation, on p's second field
+     * @throws IllegalArgumentException if the predicate is not an equality, or
+     *   the table is not on the predicate's second field
+     */
+    public HashJoin(JoinPredicate p, DbIterator child1, JoinHashTable table) {
+        this(p, child1, table, false);
+    }
+
+    private HashJoin(JoinPredicate p, DbIterator child1, JoinHashTable table, boolean ownsTable) {
+        if (p.getOperator() != Predicate.Op.EQUALS) {
+            throw new IllegalArgumentException("hash join requires an equality predicate");
+        }
+        if (table.getField() != p.getField2()) {
+            throw new IllegalArgumentException("hash table is not on the join field");
+        }
+        this.predicate = p;
+        this.child1 = child1;
+        this.table = table;
+        this.ownsTable = ownsTable;
+        this.tupleDesc = TupleDesc.combine(child1.getTupleDesc(), table.getTupleDesc());
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return predicate;
+    }
+
+    /** @return the left(outer) relation, which probes the hash table */
+    public DbIterator getChild1() {
+        return child1;
+    }
+
+    /** @return the hash table over the inner relation */
+    public JoinHashTable getHashTable() {
+        return table;
+    }
+
+    /** Discards the hash table if this join built it for itself, as close() does. */
+    void releaseTable() {
+        if (ownsTable) {
+            table.clear();
+        }
+    }
+
+    public TupleDesc getTupleDesc() {
+        return tupleDesc;
+    }
+
+    public void open()
+        throws DbException, NoSuchElementException, TransactionAbortedException {
+        table.build();
+        child1.open();
+        tuple1 = null;
+        matches = null;
+    }
+
+    public void close() {
+        super.close();
+        child1.close();
+        releaseTable();
+        tuple1 = null;
+        matches = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        super.close();
+        child1.rewind();
+        tuple1 = null;
+        matches = null;
+    }
+
+    /**
+     * Returns the next tuple generated by the join, or null if there are no
+     * more tuples.  As with {@link Join}, each result is the concatenation of
+     * the outer and inner tuples.
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (matches == null || !matches.hasNext()) {
+            if (!child1.hasNext()) {
+                return null;
+            }
+            tuple1 = child1.next();
+            matches = table.lookup(tuple1.getField(predicate.getField1())).iterator();
+        }
+        return Tuple.combine(tuple1, matches.next(), tupleDesc);
+    }
+}
@@ -139,6 +139,15 @@ public class HeapFile implements DbFile {
     public DbFileIterator iterator(TransactionId tid) {
         return new HeapFileIterator(this, tid);
     }
+
+    /**
+     * Returns an iterator over the tuples on pages [firstPage, endPage) of
+     * this file.  Iterators over disjoint page ranges may be used by
+     * different threads to scan the file in parallel.
+     */
+    public DbFileIterator iterator(TransactionId tid, int firstPage, int endPage) {
+        return new HeapFileIterator(this, tid, firstPage, endPage);
+    }
     
 }
 
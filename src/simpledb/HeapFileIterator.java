@@ -6,17 +6,30 @@ import java.util.Iterator;
 import java.util.NoSuchElementException;
 
 /**
- * Helper class that implements the Java Iterator for tuples on a HeapFile
+ * Helper class that implements the Java Iterator for tuples on a HeapFile,
+ * or on a contiguous range of its pages.
  */
 public class HeapFileIterator implements DbFileIterator {
     private final HeapFile heapFile;
     private final TransactionId transactionId;
+    private final int firstPageNo;
+    private final int endPageNo;
     private int currentPageNo;
     private Iterator<Tuple> pageIterator;
 
     public HeapFileIterator(HeapFile hf, TransactionId tid) {
+        this(hf, tid, 0, -1);
+    }
+
+    /**
+     * Creates an iterator over the tuples on pages [firstPage, endPage) of hf.
+     * @param endPage the page after the last one to read, or -1 to read to the end of the file
+     */
+    public HeapFileIterator(HeapFile hf, TransactionId tid, int firstPage, int endPage) {
         heapFile = hf;
         transactionId = tid;
+        firstPageNo = firstPage;
+        endPageNo = endPage;
     }
 
     /**
@@ -25,8 +38,7 @@ public class HeapFileIterator implements DbFileIterator {
      */
     public void open()
             throws DbException, TransactionAbortedException {
-        currentPageNo = 0;
-        pageIterator = getTupleIteratorByPageNo(currentPageNo);
+        rewind();
     }
 
     /** @return true if there are more tuples available. */
@@ -37,7 +49,7 @@ public class HeapFileIterator implements DbFileIterator {
         }
         while (!pageIterator.hasNext()) {
             ++currentPageNo;
-            if (currentPageNo >= heapFile.numPages()) {
+            if (currentPageNo >= endPage()) {
                 return false;
             }
             pageIterator = getTupleIteratorByPageNo(currentPageNo);
@@ -65,8 +77,12 @@ public class HeapFileIterator implements DbFileIterator {
      * @throws DbException When rewind is unsupported.
      */
     public void rewind() throws DbException, TransactionAbortedException {
-        currentPageNo = 0;
-        pageIterator = getTupleIteratorByPageNo(currentPageNo);
+        currentPageNo = firstPageNo;
+        if (endPageNo >= 0 && firstPageNo >= endPageNo) {
+            pageIterator = null;
+        } else {
+            pageIterator = getTupleIteratorByPageNo(currentPageNo);
+        }
     }
 
     /**
@@ -76,6 +92,10 @@ public class HeapFileIterator implements DbFileIterator {
         pageIterator = null;
     }
 
+    private int endPage() {
+        return endPageNo < 0 ? heapFile.numPages() : Math.min(endPageNo, heapFile.numPages());
+    }
+
     private Iterator<Tuple> getTupleIteratorByPageNo(int pageNo)
             throws NoSuchElementException, TransactionAbortedException, DbException {
         HeapPage page;
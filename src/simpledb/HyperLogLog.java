@@ -0,0 +1,116 @@
+package simpledb;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * A HyperLogLog sketch, which estimates the number of distinct values added
+ * to it in a fixed, small amount of memory.
+ * <p>
+ * Each value is hashed to 64 bits; the first {@link #PRECISION} bits pick
+ * one of 2<sup>PRECISION</sup> registers, which keeps the largest number of
+ * leading zeros (plus one) seen in the remaining bits.  The estimate is the
+ * bias-corrected harmonic mean of the registers, falling back to linear
+ * counting of the empty registers when few values have been added.  With
+ * the default precision the standard error is about 1.6%.
+ * <p>
+ * Sketches with the same precision can be merged, taking the maximum of
+ * each register, so a sketch can be built in parallel over parts of a table
+ * and kept up to date as values are added.
+ */
+public class HyperLogLog {
+
+    /** Number of hash bits that select a register. */
+    public static final int PRECISION = 12;
+
+    private final byte[] registers;
+
+    /** Creates an empty sketch with 2^PRECISION registers. */
+    public HyperLogLog() {
+        this.registers = new byte[1 << PRECISION];
+    }
+
+    /** Adds a value to the sketch. */
+    public void add(Field f) {
+        addHash(hash(f));
+    }
+
+    /** Adds a value, given by its 64 bit hash, to the sketch. */
+    public void addHash(long hash) {
+        int register = (int) (hash >>> (64 - PRECISION));
+        // the rest of the hash, with a 1 bit below it so that the rank is at most 64 - PRECISION + 1
+        long rest = (hash << PRECISION) | (1L << (PRECISION - 1));
+        byte rank = (byte) (Long.numberOfLeadingZeros(rest) + 1);
+        if (rank > registers[register]) {
+            registers[register] = rank;
+        }
+    }
+
+    /** Adds the values of another sketch to this one. */
+    public void merge(HyperLogLog other) {
+        for (int i = 0; i < registers.length; i++) {
+            if (other.registers[i] > registers[i]) {
+                registers[i] = other.registers[i];
+            }
+        }
+    }
+
+    /** @return the estimated number of distinct values added to the sketch */
+    public long estimate() {
+        int m = registers.length;
+        double sum = 0;
+        int zeros = 0;
+        for (byte r : registers) {
+            sum += 1.0 / (1L << r);
+            if (r == 0) {
+                zeros++;
+            }
+        }
+        double alpha = 0.7213 / (1 + 1.079 / m);
+        double estimate = alpha * m * m / sum;
+        if (estimate <= 2.5 * m && zeros > 0) {
+            estimate = m * Math.log((double) m / zeros);
+        }
+        return Math.round(estimate);
+    }
+
+    /** @return a 64 bit hash of f whose bits are all evenly distributed */
+    static long hash(Field f) {
+        long h;
+        if (f instanceof IntField) {
+            h = ((IntField) f).getValue();
+        } else {
+            // FNV-1a over the characters
+            String s = ((StringField) f).getValue();
+            h = 0xcbf29ce484222325L;
+            for (int i = 0; i < s.length(); i++) {
+                h ^= s.charAt(i);
+                h *= 0x100000001b3L;
+            }
+        }
+        return mix(h);
+    }
+
+    /** The finalizer of MurmurHash3, which spreads every input bit over the output. */
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /** Writes the sketch to out, to be read back with {@link #read}. */
+    void write(DataOutputStream out) throws IOException {
+        out.write(registers);
+    }
+
+    /** Reads a sketch written by {@link #write}. */
+    static HyperLogLog read(DataInputStream in) throws IOException {
+        HyperLogLog h = new HyperLogLog();
+        in.readFully(h.registers);
+        return h;
+    }
+}
@@ -1,61 +0,0 @@
-package simpledb;
-
-import java.util.ArrayList;
-
-/** A class to represent a fixed-width histogram over a single integer-based field.
- */
-public class IntHistogram {
-
-    /**
-     * Create a new IntHistogram.
-     * 
-     * This IntHistogram should maintain a histogram of integer values that it receives.
-     * It should split the histogram into "buckets" buckets.
-     * 
-     * The values that are being histogrammed will be provided one-at-a-time through the "addValue()" function.
-     * 
-     * Your implementation should use space and have execution time that are both
-     * constant with respect to the number of values being histogrammed.  For example, you shouldn't 
-     * simply store every value that you see in a sorted list.
-     * 
-     * @param buckets The number of buckets to split the input value into.
-     * @param min The minimum integer value that will ever be passed to this class for histogramming
-     * @param max The maximum integer value that will ever be passed to this class for histogramming
-     */
-    public IntHistogram(int buckets, int min, int max) {
-    	// some code goes here
-    }
-
-    /**
-     * Add a value to the set of values that you are keeping a histogram of.
-     * @param v Value to add to the histogram
-     */
-    public void addValue(int v) {
-    	// some code goes here
-    }
-
-    /**
-     * Estimate the selectivity of a particular predicate and operand on this table.
-     * 
-     * For example, if "op" is "GREATER_THAN" and "v" is 5, 
-     * return your estimate of the fraction of elements that are greater than 5.
-     * 
-     * @param op Operator
-     * @param v Value
-     * @return Predicted selectivity of this particular operator and value
-     */
-    public double estimateSelectivity(Predicate.Op op, int v) {
-
-    	// some code goes here
-        return -1.0;
-    }
-    
-    /**
-     * @return A string describing this histogram, for debugging purposes
-     */
-    public String toString() {
-
-        // some code goes here
-        return null;
-    }
-}
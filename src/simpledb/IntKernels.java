@@ -0,0 +1,204 @@
+package simpledb;
+
+/**
+ * IntKernels holds the loops that filters and aggregates run over the int
+ * columns of a {@link TupleBatch}.
+ * <p>
+ * Each kernel comes in two forms: a dense one over physical rows
+ * [0, size), for batches without a selection vector, and one over the rows
+ * listed in a selection vector.  The operator is dispatched once per call,
+ * and each loop is a plain counted loop over a primitive array with no
+ * calls in it, which is the shape HotSpot's C2 compiler unrolls and, where
+ * the host supports it, vectorizes.  Hand-written tricks (branch-free
+ * selection, several accumulators) measured slower than these loops, as
+ * they keep the compiler from recognizing them.
+ * <p>
+ * Where the jdk.incubator.vector module is present, the dense sum, min
+ * and max run on {@code IntVectorKernels} instead, as C2 does not
+ * vectorize those loops itself.  That class is loaded by name, and these
+ * loops remain the fallback on JDKs without the module or when it was not
+ * added to the command line.
+ */
+public class IntKernels {
+
+    /** The dense reductions, as implemented with the Vector API. */
+    interface Vectorized {
+        long sum(int[] column, int size);
+
+        int min(int[] column, int size);
+
+        int max(int[] column, int size);
+    }
+
+    /** The Vector API kernels, or null if jdk.incubator.vector is not available */
+    static final Vectorized VECTORIZED = loadVectorized();
+
+    private IntKernels() {
+    }
+
+    private static Vectorized loadVectorized() {
+        try {
+            return (Vectorized) Class.forName("simpledb.IntVectorKernels").getDeclaredConstructor().newInstance();
+        } catch (Exception e) {
+            return null;
+        } catch (LinkageError e) {
+            // compiled, but jdk.incubator.vector is not in the boot layer
+            return null;
+        }
+    }
+
+    /**
+     * Writes the rows r in [0, size) for which column[r] op v holds to out,
+     * in increasing order, and returns their number.  LIKE is treated as
+     * EQUALS, as {@link IntField#compare} does.
+     */
+    public static int select(int[] column, int size, Predicate.Op op, int v, int[] out) {
+        int n = 0;
+        switch (op) {
+            case EQUALS:
+            case LIKE:
+                for (int r = 0; r < size; ++r) {
+                    if (column[r] == v) out[n++] = r;
+                }
+                break;
+            case NOT_EQUALS:
+                for (int r = 0; r < size; ++r) {
+                    if (column[r] != v) out[n++] = r;
+                }
+                break;
+            case GREATER_THAN:
+                for (int r = 0; r < size; ++r) {
+                    if (column[r] > v) out[n++] = r;
+                }
+                break;
+            case GREATER_THAN_OR_EQ:
+                for (int r = 0; r < size; ++r) {
+                    if (column[r] >= v) out[n++] = r;
+                }
+                break;
+            case LESS_THAN:
+                for (int r = 0; r < size; ++r) {
+                    if (column[r] < v) out[n++] = r;
+                }
+                break;
+            case LESS_THAN_OR_EQ:
+                for (int r = 0; r < size; ++r) {
+                    if (column[r] <= v) out[n++] = r;
+                }
+                break;
+        }
+        return n;
+    }
+
+    /**
+     * Writes the rows sel[0..size) for which column[r] op v holds to out,
+     * in the order they appear in sel, and returns their number.  out may
+     * be sel, since each row is written no later than it is read.
+     */
+    public static int select(int[] column, int[] sel, int size, Predicate.Op op, int v, int[] out) {
+        int n = 0;
+        switch (op) {
+            case EQUALS:
+            case LIKE:
+                for (int i = 0; i < size; ++i) {
+                    int r = sel[i];
+                    if (column[r] == v) out[n++] = r;
+                }
+                break;
+            case NOT_EQUALS:
+                for (int i = 0; i < size; ++i) {
+                    int r = sel[i];
+                    if (column[r] != v) out[n++] = r;
+                }
+                break;
+            case GREATER_THAN:
+                for (int i = 0; i < size; ++i) {
+                    int r = sel[i];
+                    if (column[r] > v) out[n++] = r;
+                }
+                break;
+            case GREATER_THAN_OR_EQ:
+                for (int i = 0; i < size; ++i) {
+                    int r = sel[i];
+                    if (column[r] >= v) out[n++] = r;
+                }
+                break;
+            case LESS_THAN:
+                for (int i = 0; i < size; ++i) {
+                    int r = sel[i];
+                    if (column[r] < v) out[n++] = r;
+                }
+                break;
+            case LESS_THAN_OR_EQ:
+                for (int i = 0; i < size; ++i) {
+                    int r = sel[i];
+                    if (column[r] <= v) out[n++] = r;
+                }
+                break;
+        }
+        return n;
+    }
+
+    /** @return the sum of column[0..size) */
+    public static long sum(int[] column, int size) {
+        if (VECTORIZED != null) {
+            return VECTORIZED.sum(column, size);
+        }
+        long sum = 0;
+        for (int r = 0; r < size; ++r) {
+            sum += column[r];
+        }
+        return sum;
+    }
+
+    /** @return the sum of column[r] over the rows r in sel[0..size) */
+    public static long sum(int[] column, int[] sel, int size) {
+        long sum = 0;
+        for (int i = 0; i < size; ++i) {
+            sum += column[sel[i]];
+        }
+        return sum;
+    }
+
+    /** @return the minimum of column[0..size), which must not be empty */
+    public static int min(int[] column, int size) {
+        if (VECTORIZED != null) {
+            return VECTORIZED.min(column, size);
+        }
+        int m = column[0];
+        for (int r = 1; r < size; ++r) {
+            m = Math.min(m, column[r]);
+        }
+        return m;
+    }
+
+    /** @return the minimum of column[r] over the rows r in sel[0..size), which must not be empty */
+    public static int min(int[] column, int[] sel, int size) {
+        int m = column[sel[0]];
+        for (int i = 1; i < size; ++i) {
+            m = Math.min(m, column[sel[i]]);
+        }
+        return m;
+    }
+
+    /** @return the maximum of column[0..size), which must not be empty */
+    public static int max(int[] column, int size) {
+        if (VECTORIZED != null) {
+            return VECTORIZED.max(column, size);
+        }
+        int m = column[0];
+        for (int r = 1; r < size; ++r) {
+            m = Math.max(m, column[r]);
+        }
+        return m;
+    }
+
+    /** @return the maximum of column[r] over the rows r in sel[0..size), which must not be empty */
+    public static int max(int[] column, int[] sel, int size) {
+        int m = column[sel[0]];
+        for (int i = 1; i < size; ++i) {
+            m = Math.max(m, column[sel[i]]);
+        }
+        return m;
+    }
+}
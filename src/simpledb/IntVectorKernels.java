@@ -0,0 +1,63 @@
+package simpledb;
+
+import jdk.incubator.vector.*;
+
+/**
+ * IntVectorKernels implements the dense {@link IntKernels} reductions with
+ * the incubating Vector API, a vector of the host's preferred width at a
+ * time.  C2 does not vectorize the scalar loops for these on its own.
+ * Selection is not here: a vector version, one loop per operator and
+ * masked writes, only matched IntKernels' scalar loop.
+ * <p>
+ * It needs the jdk.incubator.vector module, both to compile and to run
+ * (java --add-modules jdk.incubator.vector).  IntKernels loads it by name,
+ * so that the rest of SimpleDB neither depends on the module nor on a JDK
+ * that has it, and keeps its own loops where it is missing.
+ */
+final class IntVectorKernels implements IntKernels.Vectorized {
+
+    private static final VectorSpecies<Integer> INTS = IntVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Long> LONGS = LongVector.SPECIES_PREFERRED;
+
+    /** Widens each vector of ints into two of longs, so that the sum cannot overflow. */
+    public long sum(int[] column, int size) {
+        LongVector acc = LongVector.zero(LONGS);
+        int r = 0;
+        for (int bound = INTS.loopBound(size); r < bound; r += INTS.length()) {
+            IntVector values = IntVector.fromArray(INTS, column, r);
+            acc = acc.add((LongVector) values.convertShape(VectorOperators.I2L, LONGS, 0))
+                    .add((LongVector) values.convertShape(VectorOperators.I2L, LONGS, 1));
+        }
+        long sum = acc.reduceLanes(VectorOperators.ADD);
+        for (; r < size; ++r) {
+            sum += column[r];
+        }
+        return sum;
+    }
+
+    public int min(int[] column, int size) {
+        IntVector acc = IntVector.broadcast(INTS, column[0]);
+        int r = 0;
+        for (int bound = INTS.loopBound(size); r < bound; r += INTS.length()) {
+            acc = acc.min(IntVector.fromArray(INTS, column, r));
+        }
+        int m = acc.reduceLanes(VectorOperators.MIN);
+        for (; r < size; ++r) {
+            m = Math.min(m, column[r]);
+        }
+        return m;
+    }
+
+    public int max(int[] column, int size) {
+        IntVector acc = IntVector.broadcast(INTS, column[0]);
+        int r = 0;
+        for (int bound = INTS.loopBound(size); r < bound; r += INTS.length()) {
+            acc = acc.max(IntVector.fromArray(INTS, column, r));
+        }
+        int m = acc.reduceLanes(VectorOperators.MAX);
+        for (; r < size; ++r) {
+            m = Math.max(m, column[r]);
+        }
+        return m;
+    }
+}
@@ -1,23 +1,45 @@
 package simpledb;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 
-import static simpledb.Type.INT_TYPE;
-
 /**
  * Knows how to compute some aggregate over a set of IntFields.
+ * <p>
+ * Groups are assigned dense ids, and the running count and sum (or min/max)
+ * of each group live in primitive arrays indexed by that id, so merging a
+ * tuple boxes nothing.  Integer group values are looked up in a
+ * {@link LongHashTable}; string group values are dictionary-encoded, which
+ * allocates only when a new group is seen.  Without grouping the aggregate
+ * is kept in plain scalars.
+ * <p>
+ * Sums are accumulated in a long and AVG is computed from that sum, so
+ * neither overflows part way through; the final SUM is narrowed to an int
+ * since that is the only numeric type tuples can hold.  Because AVG is kept
+ * as a sum and a count until the end, aggregators that each saw part of the
+ * input can be combined exactly with {@link #merge}.
  */
 public class IntegerAggregator implements Aggregator {
 
+    private static final int INITIAL_GROUPS = 16;
+
     private final int gbFieldNo;
     private final Type gbFieldType;
     private final int aggregateFieldNo;
     private final Op what;
 
-    private final Map<Field, Integer> countGroupedBy;
-    private final Map<Field, Integer> valueGroupedBy;
+    // no grouping
+    private long count;
+    private long value;
+
+    // grouping: per-group state, indexed by group id
+    private final LongHashTable intGroups;
+    private final Map<Field, Integer> stringGroups;
+    private final ArrayList<Field> stringGroupValues;
+    private long[] counts;
+    private long[] values;
 
     private String groupFieldName;
 
@@ -34,8 +56,21 @@ public class IntegerAggregator implements Aggregator {
         this.gbFieldType = gbfieldtype;
         this.aggregateFieldNo = aggregateFieldNo;
         this.what = what;
-        this.countGroupedBy = new HashMap<Field, Integer>();
-        this.valueGroupedBy = new HashMap<Field, Integer>();
+        if (gbFieldNo == NO_GROUPING) {
+            this.intGroups = null;
+            this.stringGroups = null;
+            this.stringGroupValues = null;
+        } else if (gbfieldtype == Type.INT_TYPE) {
+            this.intGroups = new LongHashTable(INITIAL_GROUPS);
+            this.stringGroups = null;
+            this.stringGroupValues = null;
+        } else {
+            this.intGroups = null;
+            this.stringGroups = new HashMap<Field, Integer>();
+            this.stringGroupValues = new ArrayList<Field>();
+        }
+        this.counts = new long[INITIAL_GROUPS];
+        this.values = new long[INITIAL_GROUPS];
     }
 
     /**
@@ -43,34 +78,138 @@ public class IntegerAggregator implements Aggregator {
      * @param tup the Tuple containing an aggregate field and a group-by field
      */
     public void mergeTupleIntoGroup(Tuple tup) {
-        Field groupField = gbFieldNo == NO_GROUPING ? new IntField(0): tup.getField(gbFieldNo);
-        groupFieldName = gbFieldNo == NO_GROUPING ? null : tup.getTupleDesc().getFieldName(gbFieldNo);
-        IntField aggregateField = (IntField) tup.getField(aggregateFieldNo);
-        if (!countGroupedBy.containsKey(groupField)) {
-            countGroupedBy.put(groupField, 1);
-            valueGroupedBy.put(groupField, aggregateField.getValue());
-        } else {
-            countGroupedBy.put(groupField, countGroupedBy.get(groupField)+1);
-            Integer value = valueGroupedBy.get(groupField);
-            Integer aggregateValue = aggregateField.getValue();
+        int aggregateValue = ((IntField) tup.getField(aggregateFieldNo)).getValue();
+        if (gbFieldNo == NO_GROUPING) {
+            value = count == 0 ? aggregateValue : mergeValues(value, aggregateValue);
+            count++;
+            return;
+        }
+        if (groupFieldName == null) {
+            groupFieldName = tup.getTupleDesc().getFieldName(gbFieldNo);
+        }
+        int group = groupOf(tup.getField(gbFieldNo));
+        values[group] = counts[group] == 0 ? aggregateValue : mergeValues(values[group], aggregateValue);
+        counts[group]++;
+    }
+
+    /**
+     * Merge the selected rows of a batch into the aggregate.  Without
+     * grouping the batch is reduced by one of the {@link IntKernels}, which
+     * does not check the operator per row.
+     */
+    public void mergeBatch(TupleBatch batch) {
+        int size = batch.size();
+        if (size == 0) {
+            return;
+        }
+        int[] column = batch.intColumn(aggregateFieldNo);
+        if (gbFieldNo == NO_GROUPING) {
+            int[] selection = batch.getSelection();
+            long batchValue;
             switch (what) {
-                case AVG:
-                    valueGroupedBy.put(groupField, value + aggregateValue);
-                    break;
-                case SUM:
-                    valueGroupedBy.put(groupField, value + aggregateValue);
+                case MIN:
+                    batchValue = selection == null ? IntKernels.min(column, size)
+                            : IntKernels.min(column, selection, size);
                     break;
                 case MAX:
-                    valueGroupedBy.put(groupField, Math.max(value, aggregateValue));
+                    batchValue = selection == null ? IntKernels.max(column, size)
+                            : IntKernels.max(column, selection, size);
                     break;
-                case MIN:
-                    valueGroupedBy.put(groupField, Math.min(value, aggregateValue));
-                    break;
-                case COUNT:
+                case SUM:
+                case AVG:
+                    batchValue = selection == null ? IntKernels.sum(column, size)
+                            : IntKernels.sum(column, selection, size);
                     break;
                 default:
+                    // COUNT only needs the number of rows
+                    batchValue = column[batch.row(0)];
                     break;
             }
+            value = count == 0 ? batchValue : mergeValues(value, batchValue);
+            count += size;
+            return;
+        }
+        if (groupFieldName == null) {
+            groupFieldName = batch.getTupleDesc().getFieldName(gbFieldNo);
+        }
+        int[] groupColumn = intGroups != null ? batch.intColumn(gbFieldNo) : null;
+        for (int i = 0; i < size; ++i) {
+            int r = batch.row(i);
+            int group = groupColumn != null
+                    ? ensureCapacity(intGroups.getOrAdd(groupColumn[r]))
+                    : groupOf(batch.getField(gbFieldNo, r));
+            values[group] = counts[group] == 0 ? column[r] : mergeValues(values[group], column[r]);
+            counts[group]++;
+        }
+    }
+
+    /**
+     * Merge the partial aggregates of another IntegerAggregator into this one.
+     * @see Aggregator#merge
+     */
+    public void merge(Aggregator other) {
+        if (!(other instanceof IntegerAggregator)
+                || ((IntegerAggregator) other).gbFieldNo != gbFieldNo
+                || ((IntegerAggregator) other).aggregateFieldNo != aggregateFieldNo
+                || ((IntegerAggregator) other).what != what) {
+            throw new IllegalArgumentException("can only merge an aggregator computing the same aggregate");
+        }
+        IntegerAggregator o = (IntegerAggregator) other;
+        if (gbFieldNo == NO_GROUPING) {
+            if (o.count > 0) {
+                value = count == 0 ? o.value : mergeValues(value, o.value);
+                count += o.count;
+            }
+            return;
+        }
+        if (groupFieldName == null) {
+            groupFieldName = o.groupFieldName;
+        }
+        int groups = o.intGroups != null ? o.intGroups.size() : o.stringGroupValues.size();
+        for (int g = 0; g < groups; ++g) {
+            int group = o.intGroups != null
+                    ? ensureCapacity(intGroups.getOrAdd(o.intGroups.keyAt(g)))
+                    : groupOf(o.stringGroupValues.get(g));
+            values[group] = counts[group] == 0 ? o.values[g] : mergeValues(values[group], o.values[g]);
+            counts[group] += o.counts[g];
+        }
+    }
+
+    /** @return the dense id of the group, adding the group if it is new */
+    private int groupOf(Field groupField) {
+        if (intGroups != null) {
+            return ensureCapacity(intGroups.getOrAdd(((IntField) groupField).getValue()));
+        }
+        Integer id = stringGroups.get(groupField);
+        if (id == null) {
+            id = stringGroupValues.size();
+            stringGroups.put(groupField, id);
+            stringGroupValues.add(groupField);
+        }
+        return ensureCapacity(id);
+    }
+
+    /** Grows the per-group arrays so that group is a valid index. */
+    private int ensureCapacity(int group) {
+        if (group == counts.length) {
+            counts = Arrays.copyOf(counts, group * 2);
+            values = Arrays.copyOf(values, group * 2);
+        }
+        return group;
+    }
+
+    /** Combines two (partial) aggregate values; counts are added separately. */
+    private long mergeValues(long v1, long v2) {
+        switch (what) {
+            case MIN:
+                return Math.min(v1, v2);
+            case MAX:
+                return Math.max(v1, v2);
+            case SUM:
+            case AVG:
+                return v1 + v2;
+            default:
+                return v1;
         }
     }
 
@@ -87,12 +226,14 @@ public class IntegerAggregator implements Aggregator {
             TupleDesc tupleDesc = new TupleDesc(
                     new Type[]{gbFieldType, Type.INT_TYPE},
                     new String[]{groupFieldName, what.toString()});
-            ArrayList<Tuple> tuples = new ArrayList<Tuple>();
-            for (Field group : countGroupedBy.keySet()) {
-
+            int groups = intGroups != null ? intGroups.size() : stringGroupValues.size();
+            ArrayList<Tuple> tuples = new ArrayList<Tuple>(groups);
+            for (int group = 0; group < groups; ++group) {
                 Tuple tuple = new Tuple(tupleDesc);
-                tuple.setField(0, group);
-                tuple.setField(1, new IntField(getAggregateValue(group)));
+                tuple.setField(0, intGroups != null
+                        ? new IntField((int) intGroups.keyAt(group))
+                        : stringGroupValues.get(group));
+                tuple.setField(1, new IntField(getAggregateValue(counts[group], values[group])));
                 tuples.add(tuple);
             }
             return new TupleIterator(tupleDesc, tuples);
@@ -101,35 +242,23 @@ public class IntegerAggregator implements Aggregator {
                     new Type[]{Type.INT_TYPE},
                     new String[]{what.toString()});
             ArrayList<Tuple> tuples = new ArrayList<Tuple>();
-            for (Field group : countGroupedBy.keySet()) {
+            if (count > 0) {
                 Tuple tuple = new Tuple(tupleDesc);
-                tuple.setField(0, new IntField(getAggregateValue(group)));
+                tuple.setField(0, new IntField(getAggregateValue(count, value)));
                 tuples.add(tuple);
             }
             return new TupleIterator(tupleDesc, tuples);
         }
     }
 
-    private Integer getAggregateValue(Field group) {
-        Integer aggregateValue = null;
+    private int getAggregateValue(long groupCount, long groupValue) {
         switch (what) {
             case AVG:
-                aggregateValue = valueGroupedBy.get(group) / countGroupedBy.get(group);
-                break;
+                return (int) (groupValue / groupCount);
             case COUNT:
-                aggregateValue = countGroupedBy.get(group);
-                break;
-            case MAX:
-                aggregateValue = valueGroupedBy.get(group);
-                break;
-            case MIN:
-                aggregateValue = valueGroupedBy.get(group);
-                break;
-            case SUM:
-                aggregateValue = valueGroupedBy.get(group);
+                return (int) groupCount;
             default:
-                break;
+                return (int) groupValue;
         }
-        return aggregateValue;
     }
 }
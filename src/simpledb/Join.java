@@ -3,14 +3,31 @@ import java.util.*;
 
 /**
  * The Join operator implements the relational join operation.
+ * <p>
+ * When read a batch at a time, Join is a nested loops join over batches:
+ * the inner relation is rewound once per batch of the outer relation rather
+ * than once per outer tuple, and every pair of rows from the two batches is
+ * compared directly on the batches' columns.
  */
-public class Join extends Operator {
+public class Join extends Operator implements BatchDbIterator {
 
     private JoinPredicate predicate;
     private DbIterator child1;
     private DbIterator child2;
+    private BatchDbIterator batchChild1;
+    private BatchDbIterator batchChild2;
+    private final TupleDesc tupleDesc;
+    private final PredicateCompiler.CompiledJoin compiled;
     private Tuple tuple1;
 
+    // batch state: the current outer and inner batches and the next pair of rows to compare
+    private TupleBatch out;
+    private TupleBatch batch1;
+    private TupleBatch batch2;
+    private int pos1;
+    private int pos2;
+    private boolean rewindInner;
+
     /**
      * Constructor.  Accepts to children to join and the predicate
      * to join them on
@@ -23,14 +40,22 @@ public class Join extends Operator {
         this.predicate = p;
         this.child1 = child1;
         this.child2 = child2;
+        this.batchChild1 = BatchAdapter.of(child1);
+        this.batchChild2 = BatchAdapter.of(child2);
+        this.tupleDesc = TupleDesc.combine(child1.getTupleDesc(), child2.getTupleDesc());
+        this.compiled = PredicateCompiler.compile(p, child1.getTupleDesc(), child2.getTupleDesc());
         this.tuple1 = null;
     }
 
+    public JoinPredicate getJoinPredicate() {
+        return predicate;
+    }
+
     /**
      * @see simpledb.TupleDesc#combine(TupleDesc, TupleDesc) for possible implementation logic.
      */
     public TupleDesc getTupleDesc() {
-        return TupleDesc.combine(child1.getTupleDesc(), child2.getTupleDesc());
+        return tupleDesc;
     }
 
     public void open()
@@ -38,6 +63,9 @@ public class Join extends Operator {
         child1.open();
         child2.open();
         tuple1 = null;
+        batch1 = null;
+        batch2 = null;
+        rewindInner = false;
     }
 
     public void close() {
@@ -70,14 +98,17 @@ public class Join extends Operator {
      * @see JoinPredicate#filter
      */
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
-        if (tuple1 == null && child1.hasNext()) {
+        if (tuple1 == null) {
+            if (!child1.hasNext()) {
+                return null;
+            }
             tuple1 = child1.next();
         }
         while (true) {
             while (child2.hasNext()) {
                 Tuple tuple2 = child2.next();
-                if (predicate.filter(tuple1, tuple2)) {
-                    return Tuple.combine(tuple1, tuple2);
+                if (compiled.test(tuple1, tuple2)) {
+                    return Tuple.combine(tuple1, tuple2, tupleDesc);
                 }
             }
             if (child1.hasNext()) {
@@ -89,4 +120,72 @@ public class Join extends Operator {
         }
         return null;
     }
+
+    /**
+     * Returns the next batch of tuples generated by the join, as fetchNext()
+     * does, or null if there are no more tuples.
+     */
+    public TupleBatch nextBatch() throws TransactionAbortedException, DbException {
+        if (out == null) {
+            out = new TupleBatch(tupleDesc);
+        }
+        out.clear();
+        while (!out.isFull()) {
+            if (batch1 == null) {
+                batch1 = batchChild1.nextBatch();
+                if (batch1 == null) {
+                    break;
+                }
+                if (rewindInner) {
+                    child2.rewind();
+                }
+                rewindInner = true;
+            }
+            if (batch2 == null) {
+                batch2 = batchChild2.nextBatch();
+                if (batch2 == null) {
+                    batch1 = null;
+                    continue;
+                }
+                pos1 = 0;
+                pos2 = 0;
+            }
+            if (joinBatches()) {
+                batch2 = null;
+            }
+        }
+        return out.size() == 0 ? null : out;
+    }
+
+    /**
+     * Adds the matching pairs of rows of batch1 and batch2 to out, starting
+     * from pos1 and pos2, until out is full.
+     *
+     * @return true if every pair has been compared
+     */
+    private boolean joinBatches() {
+        int field1 = predicate.getField1();
+        int field2 = predicate.getField2();
+        Predicate.Op op = predicate.getOperator();
+        int[] ints1 = batch1.intColumn(field1);
+        int[] ints2 = batch2.intColumn(field2);
+        int size1 = batch1.size();
+        int size2 = batch2.size();
+        for (; pos1 < size1; ++pos1, pos2 = 0) {
+            int r1 = batch1.row(pos1);
+            while (pos2 < size2) {
+                if (out.isFull()) {
+                    return false;
+                }
+                int r2 = batch2.row(pos2++);
+                boolean match = ints1 != null && ints2 != null ?
+                        Predicate.compare(ints1[r1], op, ints2[r2]) :
+                        batch1.getField(field1, r1).compare(op, batch2.getField(field2, r2));
+                if (match) {
+                    out.addCombined(batch1, r1, batch2, r2);
+                }
+            }
+        }
+        return true;
+    }
 }
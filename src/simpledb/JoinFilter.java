@@ -0,0 +1,71 @@
+package simpledb;
+import java.util.*;
+
+/**
+ * JoinFilter applies a {@link JoinPredicate} to two fields of the same
+ * tuple.  It stands in for a join whose two sides have already been joined
+ * by other predicates, as happens when the join graph has a cycle: the
+ * predicate only has to be checked on the tuples that join already
+ * produced.
+ */
+public class JoinFilter extends Operator {
+
+    private final JoinPredicate predicate;
+    private final DbIterator child;
+    private final PredicateCompiler.CompiledJoin compiled;
+
+    /**
+     * Constructor.
+     *
+     * @param p the predicate to apply; both of its fields index the child's tuples
+     * @param child the child operator
+     */
+    public JoinFilter(JoinPredicate p, DbIterator child) {
+        this.predicate = p;
+        this.child = child;
+        this.compiled = PredicateCompiler.compile(p, child.getTupleDesc(), child.getTupleDesc());
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return predicate;
+    }
+
+    public DbIterator getChild() {
+        return child;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void open()
+        throws DbException, NoSuchElementException, TransactionAbortedException {
+        child.open();
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        super.close();
+        child.rewind();
+    }
+
+    /**
+     * Operator.fetchNext implementation.
+     *
+     * @return The next tuple whose fields satisfy the predicate, or null if there are no more tuples
+     */
+    protected Tuple fetchNext()
+        throws NoSuchElementException, TransactionAbortedException, DbException {
+        while (child.hasNext()) {
+            Tuple tuple = child.next();
+            if (compiled.test(tuple, tuple)) {
+                return tuple;
+            }
+        }
+        return null;
+    }
+}
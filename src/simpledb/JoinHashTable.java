@@ -0,0 +1,188 @@
+package simpledb;
+
+import java.util.*;
+import java.util.concurrent.Callable;
+
+/**
+ * JoinHashTable holds the build side of a hash join: the tuples of one input
+ * indexed by the value of a join field.  It is built once, on the first call
+ * to {@link #build}, and is read-only afterwards, so any number of
+ * {@link HashJoin} probes may share it across threads.
+ * <p>
+ * If the build input is an {@link Exchange}, the table is built in parallel
+ * without locking: each of the exchange's inputs is read on its own worker
+ * thread and radix partitioned by the hash of the join field, then each
+ * partition's hash table is built on its own worker from that partition's
+ * tuples.  Lookups go to the partition the value hashes to.
+ */
+public class JoinHashTable {
+
+    /** Number of partitions a table built in parallel is split into. */
+    static final int PARALLEL_PARTITIONS = 16;
+
+    private final DbIterator input;
+    private final int field;
+    private volatile List<HashMap<Field, ArrayList<Tuple>>> partitions;
+    private int numTuples;
+    // why the last build failed, or null
+    private Exception failure;
+
+    /**
+     * Constructor.
+     *
+     * @param input the tuples to index
+     * @param field the index of the join field in input's tuples
+     */
+    public JoinHashTable(DbIterator input, int field) {
+        this.input = input;
+        this.field = field;
+    }
+
+    /** @return the schema of the indexed tuples */
+    public TupleDesc getTupleDesc() {
+        return input.getTupleDesc();
+    }
+
+    /** @return the index of the join field in the indexed tuples */
+    public int getField() {
+        return field;
+    }
+
+    /** @return the input the table is built from */
+    public DbIterator getInput() {
+        return input;
+    }
+
+    /** @return the number of tuples in the table, or 0 if it has not been built */
+    public synchronized int size() {
+        return numTuples;
+    }
+
+    /**
+     * Reads the input into the table, unless that has already been done.
+     * Concurrent callers wait for the first one to finish building.  If it
+     * failed, they fail the same way instead of reading the input again,
+     * so that no probe returns tuples of a query that is being stopped,
+     * for instance to be re-planned by a {@link Checkpoint}.
+     */
+    public synchronized void build() throws DbException, TransactionAbortedException {
+        if (partitions != null) {
+            return;
+        }
+        Exchange.rethrow(failure);
+        try {
+            read();
+        } catch (DbException e) {
+            failure = e;
+            throw e;
+        } catch (TransactionAbortedException e) {
+            failure = e;
+            throw e;
+        } catch (RuntimeException e) {
+            failure = e;
+            throw e;
+        }
+    }
+
+    private void read() throws DbException, TransactionAbortedException {
+        if (input instanceof Exchange) {
+            buildInParallel(((Exchange) input).getChildren());
+        } else {
+            HashMap<Field, ArrayList<Tuple>> table = new HashMap<Field, ArrayList<Tuple>>();
+            input.open();
+            try {
+                while (input.hasNext()) {
+                    add(table, input.next());
+                }
+            } finally {
+                input.close();
+            }
+            partitions = Collections.singletonList(table);
+        }
+        numTuples = 0;
+        for (HashMap<Field, ArrayList<Tuple>> table : partitions) {
+            for (ArrayList<Tuple> matches : table.values()) {
+                numTuples += matches.size();
+            }
+        }
+    }
+
+    /** Discards the table; the next call to {@link #build} reads the input again. */
+    public synchronized void clear() {
+        partitions = null;
+        numTuples = 0;
+        failure = null;
+    }
+
+    /**
+     * @return the tuples whose join field equals value, or an empty list
+     * @throws IllegalStateException if the table has not been built
+     */
+    public List<Tuple> lookup(Field value) {
+        List<HashMap<Field, ArrayList<Tuple>>> p = partitions;
+        if (p == null) {
+            throw new IllegalStateException("hash table has not been built");
+        }
+        ArrayList<Tuple> matches = p.get(partitionOf(value, p.size())).get(value);
+        return matches == null ? Collections.<Tuple>emptyList() : matches;
+    }
+
+    private static int partitionOf(Field value, int numPartitions) {
+        return LongHashTable.hash(value.hashCode()) & (numPartitions - 1);
+    }
+
+    private void add(HashMap<Field, ArrayList<Tuple>> table, Tuple t) {
+        Field key = t.getField(field);
+        ArrayList<Tuple> matches = table.get(key);
+        if (matches == null) {
+            matches = new ArrayList<Tuple>(1);
+            table.put(key, matches);
+        }
+        matches.add(t);
+    }
+
+    private void buildInParallel(DbIterator[] inputs) throws DbException, TransactionAbortedException {
+        // phase 1: each input is split into per-partition runs on its own thread
+        ArrayList<Callable<List<ArrayList<Tuple>>>> scans = new ArrayList<Callable<List<ArrayList<Tuple>>>>();
+        for (final DbIterator in : inputs) {
+            scans.add(new Callable<List<ArrayList<Tuple>>>() {
+                public List<ArrayList<Tuple>> call() throws Exception {
+                    ArrayList<ArrayList<Tuple>> runs = new ArrayList<ArrayList<Tuple>>(PARALLEL_PARTITIONS);
+                    for (int i = 0; i < PARALLEL_PARTITIONS; ++i) {
+                        runs.add(new ArrayList<Tuple>());
+                    }
+                    in.open();
+                    try {
+                        while (in.hasNext()) {
+                            Tuple t = in.next();
+                            runs.get(partitionOf(t.getField(field), PARALLEL_PARTITIONS)).add(t);
+                        }
+                    } finally {
+                        in.close();
+                    }
+                    return runs;
+                }
+            });
+        }
+        final List<List<ArrayList<Tuple>>> runs = Exchange.runAll(scans);
+
+        // phase 2: each partition's table is built on its own thread
+        ArrayList<Callable<HashMap<Field, ArrayList<Tuple>>>> builds =
+            new ArrayList<Callable<HashMap<Field, ArrayList<Tuple>>>>();
+        for (int i = 0; i < PARALLEL_PARTITIONS; ++i) {
+            final int p = i;
+            builds.add(new Callable<HashMap<Field, ArrayList<Tuple>>>() {
+                public HashMap<Field, ArrayList<Tuple>> call() {
+                    HashMap<Field, ArrayList<Tuple>> table = new HashMap<Field, ArrayList<Tuple>>();
+                    for (List<ArrayList<Tuple>> inputRuns : runs) {
+                        for (Tuple t : inputRuns.get(p)) {
+                            add(table, t);
+                        }
+                    }
+                    return table;
+                }
+            });
+        }
+        partitions = Exchange.runAll(builds);
+    }
+}
@@ -8,8 +8,41 @@ import javax.swing.tree.*;
  *    join for a given logical plan.
 */
 public class JoinOptimizer {
+    /** Fraction of the cross product a join on an inequality is assumed to return. */
+    static final double RANGE_JOIN_SELECTIVITY = 0.3;
+
+    /** The most relations {@link #orderJoins} can order, one per bit of a long. */
+    static final int MAX_RELATIONS = 64;
+
+    /** By default, the most joins {@link #orderJoins} orders by dynamic programming. */
+    public static final int DEFAULT_DP_JOIN_LIMIT = 15;
+
+    /** By default, the most milliseconds {@link #orderJoins} spends planning. */
+    public static final long DEFAULT_PLANNING_MILLIS = 200;
+
+    /** The milliseconds {@link #orderJoins} may always spend planning, however cheap the query. */
+    static final long MIN_PLANNING_MILLIS = 10;
+
+    /** Rough nanoseconds taken to run one unit of estimated join cost. */
+    static final double NANOS_PER_COST = 10;
+
+    /** By default, the pages of memory each join may use for a hash table, a sorted run or a block. */
+    public static final int DEFAULT_JOIN_MEMORY_PAGES = 1024;
+
+    private static final LogicalJoinNode.Algorithm[] ALGORITHMS = LogicalJoinNode.Algorithm.values();
+
     LogicalPlan p;
     Vector<LogicalJoinNode> joins;
+    private int dpJoinLimit = DEFAULT_DP_JOIN_LIMIT;
+    private long planningMillis = DEFAULT_PLANNING_MILLIS;
+    private int memoryPages = DEFAULT_JOIN_MEMORY_PAGES;
+    // the estimated cardinality of each join returned by orderJoins
+    private final IdentityHashMap<LogicalJoinNode, Integer> cardinalities = new IdentityHashMap<LogicalJoinNode, Integer>();
+    // the tables already joined into a result, and the result each is in
+    private final HashMap<String, String> materializedAs = new HashMap<String, String>();
+    // the tables and cardinality of each such result
+    private final HashMap<String, List<String>> materializedTables = new HashMap<String, List<String>>();
+    private final HashMap<String, Integer> materializedCards = new HashMap<String, Integer>();
 
     /** Constructor
         @param p the logical plan being optimized
@@ -20,6 +53,89 @@ public class JoinOptimizer {
         this.joins = joins;
     }
 
+    /**
+     * Set the most joins {@link #orderJoins} orders by dynamic programming;
+     * larger join graphs are ordered heuristically.
+     *
+     * @throws IllegalArgumentException if joins is negative
+     */
+    public void setDpJoinLimit(int joins) {
+        if (joins < 0) {
+            throw new IllegalArgumentException("join limit must not be negative: " + joins);
+        }
+        this.dpJoinLimit = joins;
+    }
+
+    /**
+     * Set the most milliseconds {@link #orderJoins} spends planning.
+     *
+     * @throws IllegalArgumentException if millis is less than 1
+     */
+    public void setPlanningBudget(long millis) {
+        if (millis < 1) {
+            throw new IllegalArgumentException("planning budget must be at least 1 ms: " + millis);
+        }
+        this.planningMillis = millis;
+    }
+
+    /**
+     * Return the number of tuples the optimizer expects a join returned by
+     * {@link #orderJoins} to produce, or -1 if it did not estimate it.
+     */
+    public int estimatedCardinality(LogicalJoinNode j) {
+        Integer card = cardinalities.get(j);
+        return card == null ? -1 : card;
+    }
+
+    /**
+     * Treat tables as a single relation, called name, whose tuples have
+     * already been computed and are held in memory, for instance by a
+     * {@link Checkpoint} of an earlier plan for the same query.  The joins
+     * given to the constructor must not include those between these
+     * tables, and any others that refer to them are made to the relation.
+     *
+     * @param name what the joins refer to the relation as; one of tables
+     * @param tables the aliases of the tables joined in the relation
+     * @param card the number of tuples in the relation
+     * @throws IllegalArgumentException if name is not one of tables
+     */
+    public void setMaterialized(String name, List<String> tables, int card) {
+        if (!tables.contains(name)) {
+            throw new IllegalArgumentException(name + " is not one of " + tables);
+        }
+        for (String t : tables) {
+            materializedAs.put(t, name);
+        }
+        materializedTables.put(name, new ArrayList<String>(tables));
+        materializedCards.put(name, card);
+    }
+
+    /** @return the relation the specified table is joined as: its materialized result, or the table itself */
+    private String relation(String table) {
+        String name = table == null ? null : materializedAs.get(table);
+        return name == null ? table : name;
+    }
+
+    /** @return whether the specified table has been joined to others in a materialized result */
+    private boolean joinedAlready(String table) {
+        String name = relation(table);
+        return materializedTables.containsKey(name) && materializedTables.get(name).size() > 1;
+    }
+
+    /**
+     * Set the pages of memory each join may use: a hash join's table must
+     * fit in them, sort-merge joins sort runs of this many pages, and block
+     * nested loop joins hold at most this many pages of outer tuples.
+     *
+     * @throws IllegalArgumentException if pages is less than 1
+     */
+    public void setJoinMemory(int pages) {
+        if (pages < 1) {
+            throw new IllegalArgumentException("join memory must be at least 1 page: " + pages);
+        }
+        this.memoryPages = pages;
+    }
+
     /** Return best iterator for computing a given logical join, given
      *   the specified statistics, and the provided left and right
      *   subplans.  Note that there is insufficient information to
@@ -27,6 +143,13 @@ public class JoinOptimizer {
      *   because DbIterator's don't provide any cardinality estimates,
      *   and stats only has information about the base tables.  For
      *   this reason, the plan1
+     *   <p>
+     *   Joins ordered by {@link #orderJoins} use the algorithm it chose for
+     *   them.  Other equality joins with an input that is scanned in
+     *   parallel (an {@link Exchange}) use a {@link HashJoin}, and the rest
+     *   a {@link BlockNestedLoopJoin}.  When a hash join's outer side is
+     *   partitioned, each partition probes a shared hash table on its own
+     *   worker and the result stays partitioned.
      * 
      *  @param lj The join being considered
      *  @param plan1 The left join node's child
@@ -54,8 +177,34 @@ public class JoinOptimizer {
         }
         
         JoinPredicate p = new JoinPredicate(t1id,lj.p,t2id);
-       
-        j = new Join(p,plan1,plan2);
+        LogicalJoinNode.Algorithm algorithm = lj.algorithm;
+        if (algorithm == null || lj instanceof LogicalSubplanJoinNode) {
+            boolean parallel = plan1 instanceof Exchange || plan2 instanceof Exchange;
+            algorithm = lj.p == Predicate.Op.EQUALS && parallel ? LogicalJoinNode.Algorithm.HASH
+                    : LogicalJoinNode.Algorithm.BLOCK_NESTED_LOOP;
+        }
+
+        if (algorithm == LogicalJoinNode.Algorithm.HASH && plan1 instanceof Exchange) {
+            // probe each partition of the outer side on its own worker against
+            // one shared table, keeping the result partitioned for later joins
+            JoinHashTable table = new JoinHashTable(plan2, t2id);
+            DbIterator[] parts = ((Exchange) plan1).getChildren();
+            DbIterator[] probes = new DbIterator[parts.length];
+            for (int i = 0; i < parts.length; i++) {
+                probes[i] = new HashJoin(p, parts[i], table);
+            }
+            j = new Exchange(probes);
+        } else if (algorithm == LogicalJoinNode.Algorithm.HASH) {
+            j = new HashJoin(p,plan1,plan2);
+        } else if (algorithm == LogicalJoinNode.Algorithm.SORT_MERGE) {
+            DbIterator sorted1 = new OrderBy(new int[] { t1id }, new boolean[] { true }, plan1, memoryPages);
+            DbIterator sorted2 = new OrderBy(new int[] { t2id }, new boolean[] { true }, plan2, memoryPages);
+            j = new SortMergeJoin(p,sorted1,sorted2);
+        } else if (algorithm == LogicalJoinNode.Algorithm.NESTED_LOOP) {
+            j = new Join(p,plan1,plan2);
+        } else {
+            j = new BlockNestedLoopJoin(p,plan1,plan2,blockPages());
+        }
         
         return j;
 
@@ -70,8 +219,13 @@ public class JoinOptimizer {
      * over the course of the query, as well as the number of CPU opertions
      * performed by your join.  Assume that the cost of a single predicate application
      * is roughly 1.
+     * <p>
+     * The cost modelled is that of {@link BlockNestedLoopJoin}, which is what
+     * {@link #instantiateJoin} produces for serial plans when no algorithm
+     * has been chosen: the outer side is read once, the inner
+     * side is scanned once per block of outer tuples, and the predicate is
+     * applied to every pair of tuples.
      *
-     * 
      * @param j A LogicalJoinNode representing the join operation being performed.
      * @param card1 Estimated cardinality of the left-hand side of the query
      * @param card2 Estimated cardinality of the right-hand side of the query
@@ -85,16 +239,62 @@ public class JoinOptimizer {
         	// You do not need to implement proper support for these for Lab 4.
         	return card1 + cost1 + cost2;
         } else {
-            // Insert your code here.
-            // HINT:  You may need to use the variable "j" if you implemented a join
-            //        algorithm that's more complicated than a basic nested-loops join.
-            return -1.0;
+            return joinCost(card1, card2, cost1, cost2, blockTuples(j.t1));
         }
     }
 
+    /** {@link #estimateJoinCost} of a join whose outer table has blockTuples tuples per block */
+    private static double joinCost(int card1, int card2, double cost1, double cost2, int blockTuples) {
+        double blocks = Math.ceil((double) card1 / blockTuples);
+        return cost1 + blocks * cost2 + (double) card1 * (double) card2;
+    }
+
+    /** Return the pages of outer tuples the block nested loop joins
+        chosen by {@link #orderJoins} hold */
+    private int blockPages() {
+        return Math.min(BlockNestedLoopJoin.DEFAULT_BLOCK_PAGES, memoryPages);
+    }
+
+    /** Return the number of outer tuples of the specified table cached in one
+        block by {@link BlockNestedLoopJoin}, or 1 if the table is unknown */
+    private int blockTuples(String table) {
+        Integer tableId = p == null ? null : p.getTableAliasToIdMapping().get(table);
+        if (tableId == null) {
+            return 1;
+        }
+        TupleDesc td = Database.getCatalog().getTupleDesc(tableId);
+        return BlockNestedLoopJoin.tuplesPerBlock(td, BlockNestedLoopJoin.DEFAULT_BLOCK_PAGES);
+    }
+
+    /** Return the size in bytes of a tuple of the specified table, or a
+        page if the table is unknown */
+    private int tupleSize(String table) {
+        Integer tableId = p == null ? null : p.getTableAliasToIdMapping().get(table);
+        if (tableId == null) {
+            return BufferPool.PAGE_SIZE;
+        }
+        return Database.getCatalog().getTupleDesc(tableId).getSize();
+    }
+
+    /** Return the number of tuples of tupleSize bytes that fit on a page,
+        using the same slot layout as {@link HeapPage} */
+    private static int tuplesPerPage(int tupleSize) {
+        return Math.max(1, BufferPool.PAGE_SIZE * 8 / (tupleSize * 8 + 1));
+    }
+
+    /** Return the number of pages card tuples of tupleSize bytes fill */
+    private static double pages(int card, int tupleSize) {
+        return Math.ceil((double) card / tuplesPerPage(tupleSize));
+    }
+
     /**
      * Estimate the cardinality of a join.  The cardinality of a join
      * is the number of tuples produced by the join.
+     * <p>
+     * Without statistics on the joined columns, an equality join on a
+     * primary key returns a tuple for each tuple on the other side, and
+     * other equality joins as many as the larger side; range joins return
+     * {@link #RANGE_JOIN_SELECTIVITY} of the cross product.
      * 
      * @param j A LogicalJoinNode representing the join operation
      *   being performed.
@@ -105,12 +305,72 @@ public class JoinOptimizer {
      * @return The cardinality of the join
      */
     public int estimateJoinCardinality(LogicalJoinNode j, int card1, int card2, boolean t1pkey, boolean t2pkey) {
+        return estimateJoinCardinality(j, card1, card2, t1pkey, t2pkey, null);
+    }
+
+    /**
+     * Estimate the cardinality of a join, using the number of distinct
+     * values of the joined columns where stats has them.
+     * <p>
+     * An equality join is assumed to match each value of the side with
+     * fewer distinct values to one on the other side, which gives
+     * card1 * card2 / max(ndv1, ndv2) tuples; each side's distinct count is
+     * capped at its cardinality, as filters leave fewer values behind.
+     *
+     * @param stats Statistics for each table in the join, referenced by
+     *   alias; may be null
+     * @see #estimateJoinCardinality(LogicalJoinNode, int, int, boolean, boolean)
+     */
+    public int estimateJoinCardinality(LogicalJoinNode j, int card1, int card2, boolean t1pkey, boolean t2pkey,
+            HashMap<String, TableStats> stats) {
         if (j instanceof LogicalSubplanJoinNode) {
             // A LogicalSubplanJoinNode represents a subquery.
             // You do not need to implement proper support for these for Lab 4.
             return card1;
+        }
+        int ndv1 = j.p == Predicate.Op.EQUALS ? distinctValues(j.t1, j.f1, stats) : -1;
+        int ndv2 = j.p == Predicate.Op.EQUALS ? distinctValues(j.t2, j.f2, stats) : -1;
+        return joinCardinality(j.p, card1, card2, t1pkey, t2pkey, ndv1, ndv2);
+    }
+
+    /** {@link #estimateJoinCardinality} of a join whose columns have ndv1
+        and ndv2 distinct values, or -1 where that is not known */
+    private static int joinCardinality(Predicate.Op op, int card1, int card2, boolean t1pkey, boolean t2pkey,
+            int ndv1, int ndv2) {
+        double card;
+        if (op == Predicate.Op.EQUALS) {
+            if (ndv1 > 0 && ndv2 > 0) {
+                double ndv = Math.max(Math.min(ndv1, card1), Math.min(ndv2, card2));
+                card = ndv == 0 ? 0 : (double) card1 * card2 / ndv;
+            } else if (t1pkey && t2pkey) {
+                card = Math.min(card1, card2);
+            } else if (t1pkey) {
+                card = card2;
+            } else if (t2pkey) {
+                card = card1;
+            } else {
+                card = Math.max(card1, card2);
+            }
+        } else if (op == Predicate.Op.NOT_EQUALS) {
+            card = (double) card1 * card2;
         } else {
-            // some code goes here
+            card = RANGE_JOIN_SELECTIVITY * card1 * card2;
+        }
+        return (int) Math.min(Integer.MAX_VALUE, Math.round(card));
+    }
+
+    /** Return the number of distinct values of field in the specified table,
+        or -1 if stats does not have them */
+    private int distinctValues(String table, String field, HashMap<String, TableStats> stats) {
+        TableStats s = stats == null || table == null ? null : stats.get(table);
+        Integer tableId = s == null || p == null ? null : p.getTableAliasToIdMapping().get(table);
+        if (tableId == null) {
+            return -1;
+        }
+        String name = field.startsWith(table + ".") ? field.substring(table.length() + 1) : field;
+        try {
+            return s.numDistinct(Database.getCatalog().getTupleDesc(tableId).fieldNameToIndex(name));
+        } catch (NoSuchElementException e) {
             return -1;
         }
     }
@@ -147,6 +407,41 @@ public class JoinOptimizer {
     /**
      * Compute a logical, reasonably efficient join on the specified
      *   tables.  See PS4 for hints on how this should be implemented.
+     * <p>
+     * The tables are the vertices of a join graph whose edges are the
+     * joins, and sets of them are longs with one bit per table.  Plans are
+     * found by dynamic programming over the pairs of disjoint connected
+     * subgraphs that some join connects, enumerated as in DPccp (Moerkotte
+     * and Neumann, "Analysis of Two Existing and One New Dynamic
+     * Programming Algorithm for the Generation of Optimal Bushy Join Trees
+     * without Cross Products"), which visits each such pair once and never
+     * considers a cross product; the cheapest plan for each set is kept in
+     * a {@link JoinPlanTable}.  Plans may be bushy, joining the results of
+     * two other joins, and each join of a table to a subquery is done
+     * right after the table is scanned.
+     * <p>
+     * Each join is costed with every algorithm that can evaluate its
+     * predicate, each way around, and the cheapest is kept; see
+     * {@link LogicalJoinNode.Algorithm}.  Sizes in pages are estimated from
+     * the cardinality and tuple size of each side, and a hash join is only
+     * considered if its inner side fits in {@link #setJoinMemory}.
+     * <p>
+     * As the number of connected subgraphs grows exponentially, dynamic
+     * programming is only used for at most {@link #setDpJoinLimit} joins,
+     * and is abandoned if it runs out of planning time.  Planning time is
+     * bounded by {@link #setPlanningBudget}, and by the estimated time to
+     * run the plan found greedily (at least {@link #MIN_PLANNING_MILLIS}),
+     * so that planning never takes longer than the query.  Other join
+     * graphs are given left-deep plans, ordered greedily, starting from
+     * each table in turn and adding whichever neighbouring table is
+     * cheapest to join next, and the best such order is then improved by
+     * randomly moving tables within it until time runs out or no move
+     * helps.
+     * <p>
+     * Joins that are not needed to connect the tables, such as a second
+     * join between two tables, are returned after the others, as are all
+     * joins when the graph is not connected or has more than
+     * {@link #MAX_RELATIONS} tables.
      * 
      * @param stats Statistics for each table involved in the join,
      *    referenced by table name
@@ -156,7 +451,9 @@ public class JoinOptimizer {
      * @param explain Indicates whether your code should explain its
      *    query plan or simply execute it
      * @return A Vector<LogicalJoinNode> that stores joins in the
-     *    left-deep order in which they should be executed.
+     *    order in which they should be executed, each with the algorithm
+     *    to execute it with; both sides of a join may be the result of
+     *    earlier joins.
      * @throws ParsingException when stats or filter selectivities is
      *    missing a table in the join, or or when another internal
      *    error occurs
@@ -165,13 +462,564 @@ public class JoinOptimizer {
                                               HashMap<String, Double> filterSelectivities,  
                                               boolean explain) throws ParsingException 
     {
-        //Not necessary for labs 1--3
+        long start = System.nanoTime();
+        JoinGraph g = new JoinGraph(stats, filterSelectivities);
+        if (g.numRelations() == 0 || g.numRelations() > MAX_RELATIONS) {
+            return joins;
+        }
+        int[] sequence = g.greedySequence();
+        if (sequence == null) {
+            return joins;
+        }
+        double greedyCost = g.planSequence(sequence);
+        double budget = Math.min(planningMillis * 1e6, Math.max(MIN_PLANNING_MILLIS * 1e6, greedyCost * NANOS_PER_COST));
+        long deadline = start + (long) budget;
+        String method;
+        if (joins.size() <= dpJoinLimit && g.enumerate(deadline)) {
+            method = "dynamic programming";
+        } else {
+            g.planSequence(g.improveSequence(sequence, greedyCost, deadline));
+            method = joins.size() <= dpJoinLimit ? "greedy search, out of time" : "greedy search";
+        }
+        Vector<LogicalJoinNode> order = g.bestOrder();
+        if (order == null) {
+            return joins;
+        }
+        if (explain) {
+            int id = g.table.find(g.all);
+            StringBuilder joinList = new StringBuilder();
+            for (LogicalJoinNode j : order) {
+                joinList.append(joinList.length() == 0 ? "[" : ", ").append(j);
+                if (j.algorithm != null) {
+                    joinList.append(" by ").append(j.algorithm);
+                }
+            }
+            joinList.append("]");
+            System.out.println("The join order is " + joinList + " (cost = " + g.table.cost(id)
+                    + ", card = " + g.table.card(id) + ", " + g.table.size() + " table sets planned by "
+                    + method + " in " + (System.nanoTime() - start) / 1000000 + " ms)");
+        }
+        return order;
+    }
+
+    /**
+     * The tables and joins of the query, and the plans {@link #orderJoins}
+     * finds for them.  Table i is bit i of a set; join k is joins[k], and
+     * plans refer to it as 2k when its t1 is on the outer side and 2k + 1
+     * when it is swapped.
+     */
+    private class JoinGraph {
+        final HashMap<String, TableStats> stats;
+        // the tables, and for each the tables it joins
+        final ArrayList<String> relations = new ArrayList<String>();
+        final HashMap<String, Integer> relationIds = new HashMap<String, Integer>();
+        long[] neighbors;
+        long all;
+        // the ends of each join, or -1 for joins to a subquery, and whether each end is a primary key
+        int[] ends1;
+        int[] ends2;
+        boolean[] pkey1;
+        boolean[] pkey2;
+        // each join as it is, and with its inner and outer swapped, with the
+        // distinct values of its outer and inner columns
+        LogicalJoinNode[] oriented;
+        int[] ndvOuter;
+        int[] ndvInner;
+        // the size of each table's tuples, and the cost of a page of I/O
+        int[] tupleSizes;
+        double ioCostPerPage;
+        // the joins each table is an end of
+        int[][] incident;
+        // the joins to subqueries of each table
+        ArrayList<Vector<LogicalJoinNode>> subqueryJoins = new ArrayList<Vector<LogicalJoinNode>>();
+        // the cost and cardinality of scanning each table
+        double[] scanCosts;
+        int[] scanCards;
+        JoinPlanTable table;
+        // when enumerate must give up, and whether it has; other plans are made in full
+        long deadline = Long.MAX_VALUE;
+        boolean timedOut;
+        int pairs;
+
+        JoinGraph(HashMap<String, TableStats> stats, HashMap<String, Double> filterSelectivities)
+                throws ParsingException {
+            this.stats = stats;
+            int n = joins.size();
+            ends1 = new int[n];
+            ends2 = new int[n];
+            pkey1 = new boolean[n];
+            pkey2 = new boolean[n];
+            oriented = new LogicalJoinNode[2 * n];
+            ndvOuter = new int[2 * n];
+            ndvInner = new int[2 * n];
+            // number the tables breadth first, as DPccp expects
+            ArrayDeque<String> queue = new ArrayDeque<String>();
+            for (int k = 0; k < n; k++) {
+                LogicalJoinNode j = joins.get(k);
+                if (!relationIds.containsKey(relation(j.t1))) {
+                    queue.add(relation(j.t1));
+                    addRelation(relation(j.t1));
+                }
+                while (!queue.isEmpty()) {
+                    String t = queue.poll();
+                    for (LogicalJoinNode j2 : joins) {
+                        String r1 = relation(j2.t1);
+                        String r2 = relation(j2.t2);
+                        String other = t.equals(r1) ? r2 : t.equals(r2) ? r1 : null;
+                        if (other != null && !relationIds.containsKey(other)) {
+                            queue.add(other);
+                            addRelation(other);
+                        }
+                    }
+                }
+            }
+            if (relations.size() > MAX_RELATIONS) {
+                return;
+            }
+
+            neighbors = new long[relations.size()];
+            all = relations.size() == 64 ? -1L : (1L << relations.size()) - 1;
+            double[] costs = scanCosts = new double[relations.size()];
+            int[] cards = scanCards = new int[relations.size()];
+            tupleSizes = new int[relations.size()];
+            for (int i = 0; i < relations.size(); i++) {
+                String t = relations.get(i);
+                if (stats.get(t) == null || filterSelectivities.get(t) == null) {
+                    throw new ParsingException("Unknown table " + t);
+                }
+                ioCostPerPage = Math.max(ioCostPerPage, stats.get(t).ioCostPerPage());
+                if (materializedTables.containsKey(t)) {
+                    // already in memory: reading it costs as much as handling its tuples
+                    for (String member : materializedTables.get(t)) {
+                        tupleSizes[i] += tupleSize(member);
+                    }
+                    cards[i] = materializedCards.get(t);
+                    costs[i] = cards[i];
+                } else {
+                    tupleSizes[i] = tupleSize(t);
+                    costs[i] = stats.get(t).estimateScanCost();
+                    cards[i] = stats.get(t).estimateTableCardinality(filterSelectivities.get(t));
+                }
+                subqueryJoins.add(new Vector<LogicalJoinNode>());
+            }
+            for (int k = 0; k < n; k++) {
+                LogicalJoinNode j = joins.get(k);
+                int a = relationIds.get(relation(j.t1));
+                ends1[k] = a;
+                // a key of a table is not a key of a join result it is already in
+                pkey1[k] = isPkey(j.t1, j.f1) && !joinedAlready(j.t1);
+                oriented[2 * k] = j;
+                oriented[2 * k + 1] = j.swapInnerOuter();
+                for (int o = 2 * k; o <= 2 * k + 1; o++) {
+                    LogicalJoinNode jo = oriented[o];
+                    boolean equi = jo.p == Predicate.Op.EQUALS && !(jo instanceof LogicalSubplanJoinNode);
+                    ndvOuter[o] = equi ? distinctValues(jo.t1, jo.f1, stats) : -1;
+                    ndvInner[o] = equi ? distinctValues(jo.t2, jo.f2, stats) : -1;
+                }
+                if (j instanceof LogicalSubplanJoinNode) {
+                    ends2[k] = -1;
+                    subqueryJoins.get(a).add(j);
+                    costs[a] = estimateJoinCost(j, cards[a], 0, costs[a], 0);
+                    cards[a] = estimateJoinCardinality(j, cards[a], 0, false, false, stats);
+                } else {
+                    int b = relationIds.get(relation(j.t2));
+                    ends2[k] = b;
+                    pkey2[k] = isPkey(j.t2, j.f2) && !joinedAlready(j.t2);
+                    if (a != b) {
+                        neighbors[a] |= 1L << b;
+                        neighbors[b] |= 1L << a;
+                    }
+                }
+            }
+            incident = new int[relations.size()][];
+            for (int i = 0; i < relations.size(); i++) {
+                int count = 0;
+                for (int k = 0; k < n; k++) {
+                    if (ends2[k] >= 0 && (ends1[k] == i || ends2[k] == i)) {
+                        count++;
+                    }
+                }
+                incident[i] = new int[count];
+                for (int k = 0; k < n; k++) {
+                    if (ends2[k] >= 0 && (ends1[k] == i || ends2[k] == i)) {
+                        incident[i][--count] = k;
+                    }
+                }
+            }
+            clear();
+        }
+
+        /** Forgets every plan but the scans of the tables. */
+        private void clear() {
+            table = new JoinPlanTable(4 * relations.size());
+            for (int i = 0; i < relations.size(); i++) {
+                table.offer(1L << i, scanCosts[i], scanCards[i], 0, -1, null, false);
+            }
+        }
+
+        private void addRelation(String t) {
+            relationIds.put(t, relations.size());
+            relations.add(t);
+        }
+
+        int numRelations() {
+            return relations.size();
+        }
+
+        /** @return the tables joined to some table in s, but not in s */
+        long neighborhood(long s) {
+            long n = 0;
+            for (long rest = s; rest != 0; rest &= rest - 1) {
+                n |= neighbors[Long.numberOfTrailingZeros(rest)];
+            }
+            return n & ~s;
+        }
+
+        /**
+         * Plans every connected set of tables, from the tables up.
+         *
+         * @param deadline the System.nanoTime() by which to give up
+         * @return false if it gave up
+         */
+        boolean enumerate(long deadline) {
+            clear();
+            this.deadline = deadline;
+            timedOut = false;
+            for (int i = relations.size() - 1; i >= 0 && !timedOut; i--) {
+                long v = 1L << i;
+                emitCsg(v);
+                enumerateCsgRec(v, v | (v - 1));
+            }
+            this.deadline = Long.MAX_VALUE;
+            return !timedOut;
+        }
+
+        /** Enumerates the connected sets that grow s with tables not in x. */
+        private void enumerateCsgRec(long s, long x) {
+            long n = neighborhood(s) & ~x;
+            // subsets in increasing order, so each set is planned before its supersets
+            for (long sub = n & -n; sub != 0 && !timedOut; sub = (sub - n) & n) {
+                emitCsg(s | sub);
+            }
+            for (long sub = n & -n; sub != 0 && !timedOut; sub = (sub - n) & n) {
+                enumerateCsgRec(s | sub, x | n);
+            }
+        }
+
+        /** Joins s1 to each connected set of later tables that a join connects it to. */
+        private void emitCsg(long s1) {
+            long min = s1 & -s1;
+            long x = s1 | min | (min - 1);
+            long n = neighborhood(s1) & ~x;
+            for (long rest = n; rest != 0 && !timedOut; ) {
+                long v = Long.highestOneBit(rest);
+                rest ^= v;
+                emitPair(s1, v);
+                enumerateCmpRec(s1, v, x | (n & (v | (v - 1))));
+            }
+        }
+
+        /** Joins s1 to each connected set that grows s2 with tables not in x. */
+        private void enumerateCmpRec(long s1, long s2, long x) {
+            long n = neighborhood(s2) & ~x;
+            for (long sub = n; sub != 0 && !timedOut; sub = (sub - 1) & n) {
+                emitPair(s1, s2 | sub);
+            }
+            for (long sub = n; sub != 0 && !timedOut; sub = (sub - 1) & n) {
+                enumerateCmpRec(s1, s2 | sub, x | n);
+            }
+        }
+
+        /** Considers joining the plans for s1 and s2, each way around and with each algorithm. */
+        private void emitPair(long s1, long s2) {
+            if ((++pairs & 1023) == 0 && System.nanoTime() > deadline) {
+                timedOut = true;
+                return;
+            }
+            int id1 = find(s1);
+            int id2 = find(s2);
+            if (id1 < 0 || id2 < 0) {
+                return;
+            }
+            int k = connectingJoin(s1, s2);
+            int o = (s1 & (1L << ends1[k])) != 0 ? 2 * k : 2 * k + 1;
+            int card = cardinality(s1, id1, s2, id2, o);
+            int width1 = width(s1);
+            int width2 = width(s2);
+            // s1 outer, then s2 outer with the join swapped
+            double best = Double.POSITIVE_INFINITY;
+            boolean swap = false;
+            LogicalJoinNode.Algorithm algorithm = null;
+            for (LogicalJoinNode.Algorithm a : ALGORITHMS) {
+                double c = cost(id1, width1, id2, width2, o, card, a);
+                if (c < best) {
+                    best = c;
+                    algorithm = a;
+                }
+            }
+            for (LogicalJoinNode.Algorithm a : ALGORITHMS) {
+                double c = cost(id2, width2, id1, width1, o ^ 1, card, a);
+                if (c < best) {
+                    best = c;
+                    swap = true;
+                    algorithm = a;
+                }
+            }
+            if (swap) {
+                offer(s2, id2, s1, id1, o ^ 1, best, card, algorithm);
+            } else {
+                offer(s1, id1, s2, id2, o, best, card, algorithm);
+            }
+        }
+
+        /** @return the first join with one end in s1 and the other in s2 */
+        private int connectingJoin(long s1, long s2) {
+            if (Long.bitCount(s1) > Long.bitCount(s2)) {
+                long t = s1;
+                s1 = s2;
+                s2 = t;
+            }
+            int first = Integer.MAX_VALUE;
+            for (long rest = s1; rest != 0; rest &= rest - 1) {
+                int i = Long.numberOfTrailingZeros(rest);
+                for (int k : incident[i]) {
+                    int other = ends1[k] == i ? ends2[k] : ends1[k];
+                    if (k < first && (s2 & (1L << other)) != 0) {
+                        first = k;
+                    }
+                }
+            }
+            return first;
+        }
+
+        /** @return the id of the plan for s; table i's scan was the i-th plan added */
+        private int find(long s) {
+            return (s & (s - 1)) == 0 ? Long.numberOfTrailingZeros(s) : table.find(s);
+        }
+
+        /** @return the size in bytes of the tuples of the plan for s */
+        private int width(long s) {
+            int width = 0;
+            for (long rest = s; rest != 0; rest &= rest - 1) {
+                width += tupleSizes[Long.numberOfTrailingZeros(rest)];
+            }
+            return width;
+        }
+
+        /** @return the cardinality of joining the plans outerId and innerId on oriented join o */
+        private int cardinality(long outer, int outerId, long inner, int innerId, int o) {
+            int k = o / 2;
+            boolean forward = o % 2 == 0;
+            boolean outerPkey = Long.bitCount(outer) == 1 ? (forward ? pkey1[k] : pkey2[k]) : table.pkey(outerId);
+            boolean innerPkey = Long.bitCount(inner) == 1 ? (forward ? pkey2[k] : pkey1[k]) : table.pkey(innerId);
+            return joinCardinality(oriented[o].p, table.card(outerId), table.card(innerId), outerPkey, innerPkey,
+                    ndvOuter[o], ndvInner[o]);
+        }
+
+        /**
+         * @return the cost of joining the plans outerId and innerId, whose
+         *   tuples are width1 and width2 bytes, on oriented join o with the
+         *   specified algorithm, or infinity if it cannot be used; the join
+         *   returns card tuples
+         */
+        private double cost(int outerId, int width1, int innerId, int width2, int o, int card,
+                LogicalJoinNode.Algorithm a) {
+            int card1 = table.card(outerId);
+            int card2 = table.card(innerId);
+            double cost1 = table.cost(outerId);
+            double cost2 = table.cost(innerId);
+            Predicate.Op op = oriented[o].p;
+            switch (a) {
+            case NESTED_LOOP:
+                // the inner side is run again for each outer tuple
+                return cost1 + (double) card1 * cost2 + (double) card1 * card2;
+            case BLOCK_NESTED_LOOP:
+                return joinCost(card1, card2, cost1, cost2, tuplesPerPage(width1) * blockPages());
+            case HASH:
+                if (op != Predicate.Op.EQUALS || pages(card2, width2) > memoryPages) {
+                    return Double.POSITIVE_INFINITY;
+                }
+                // build, probe and emit once each
+                return cost1 + cost2 + card1 + card2 + card;
+            default:
+                if (op == Predicate.Op.NOT_EQUALS || op == Predicate.Op.LIKE) {
+                    return Double.POSITIVE_INFINITY;
+                }
+                return cost1 + cost2 + sortCost(card1, width1) + sortCost(card2, width2)
+                        + card1 + card2 + card;
+            }
+        }
+
+        /**
+         * @return the cost of sorting card tuples of width bytes with
+         *   {@link OrderBy}, which writes out sorted runs of the join memory
+         *   and reads them back, merging up to its fan in at a time
+         */
+        private double sortCost(int card, int width) {
+            double cpu = card <= 1 ? 0 : card * (Math.log(card) / Math.log(2));
+            double pages = pages(card, width);
+            if (pages <= memoryPages) {
+                return cpu;
+            }
+            double runs = Math.ceil(pages / memoryPages);
+            double passes = Math.max(1, Math.ceil(Math.log(runs) / Math.log(OrderBy.MAX_MERGE_FAN_IN)));
+            return cpu + 2 * pages * ioCostPerPage * passes;
+        }
+
+        /** Offers the plan joining outer to inner on oriented join o with algorithm a, which costs cost. */
+        private void offer(long outer, int outerId, long inner, int innerId, int o, double cost, int card,
+                LogicalJoinNode.Algorithm a) {
+            int k = o / 2;
+            boolean pkey = table.pkey(outerId) || table.pkey(innerId) || pkey1[k] || pkey2[k];
+            table.offer(outer | inner, cost, card, outer, o, a, pkey);
+        }
+
+        /**
+         * Plans joining the tables in the order seq, each to the tables
+         * before it, replacing any other plans.
+         *
+         * @return the cost of the plan, or infinity if some table in seq
+         *   does not join any of the tables before it
+         */
+        double planSequence(int[] seq) {
+            clear();
+            long set = 1L << seq[0];
+            for (int i = 1; i < seq.length; i++) {
+                long v = 1L << seq[i];
+                if ((neighbors[seq[i]] & set) == 0) {
+                    return Double.POSITIVE_INFINITY;
+                }
+                emitPair(set, v);
+                set |= v;
+            }
+            return table.cost(find(set));
+        }
+
+        /**
+         * Orders the tables greedily: starting from each table in turn,
+         * repeatedly join whichever neighbouring table makes the cheapest
+         * plan.
+         *
+         * @return the cheapest order found, or null if the tables are not connected
+         */
+        int[] greedySequence() {
+            int n = relations.size();
+            int[] best = null;
+            double bestCost = Double.POSITIVE_INFINITY;
+            for (int first = 0; first < n; first++) {
+                clear();
+                int[] seq = new int[n];
+                seq[0] = first;
+                long set = 1L << first;
+                for (int i = 1; i < n; i++) {
+                    long next = 0;
+                    double nextCost = Double.POSITIVE_INFINITY;
+                    for (long rest = neighborhood(set); rest != 0; rest &= rest - 1) {
+                        long v = rest & -rest;
+                        emitPair(set, v);
+                        double c = table.cost(table.find(set | v));
+                        if (next == 0 || c < nextCost) {
+                            next = v;
+                            nextCost = c;
+                        }
+                    }
+                    if (next == 0) {
+                        return null;
+                    }
+                    seq[i] = Long.numberOfTrailingZeros(next);
+                    set |= next;
+                }
+                double c = table.cost(find(set));
+                if (best == null || c < bestCost) {
+                    best = seq;
+                    bestCost = c;
+                }
+            }
+            return best;
+        }
+
+        /**
+         * Improves an order of the tables by moving a random table to a
+         * random place in it, keeping each move that makes a cheaper plan,
+         * until the deadline or until many moves in a row do not help.
+         *
+         * @param seq the order to improve, which is left as it is
+         * @param cost the cost of joining the tables in the order seq
+         * @param deadline the System.nanoTime() by which to stop
+         * @return the cheapest order found
+         */
+        int[] improveSequence(int[] seq, double cost, long deadline) {
+            int n = seq.length;
+            // the same query gets the same plan, time permitting
+            Random random = new Random(n);
+            int[] best = seq.clone();
+            int[] candidate = new int[n];
+            int failures = 0;
+            while (n > 2 && failures < n * n && System.nanoTime() < deadline) {
+                int from = random.nextInt(n);
+                int to = random.nextInt(n - 1);
+                if (to >= from) {
+                    to++;
+                }
+                System.arraycopy(best, 0, candidate, 0, n);
+                int moved = candidate[from];
+                if (from < to) {
+                    System.arraycopy(candidate, from + 1, candidate, from, to - from);
+                } else {
+                    System.arraycopy(candidate, to, candidate, to + 1, from - to);
+                }
+                candidate[to] = moved;
+                double c = planSequence(candidate);
+                if (c < cost) {
+                    int[] t = best;
+                    best = candidate;
+                    candidate = t;
+                    cost = c;
+                    failures = 0;
+                } else {
+                    failures++;
+                }
+            }
+            return best;
+        }
+
+        /**
+         * @return the joins of the best plan for all the tables, followed
+         *   by those it does not use, or null if the tables are not connected;
+         *   the plan already joins both ends of each of those, which close
+         *   cycles in the join graph, so they only filter its result
+         */
+        Vector<LogicalJoinNode> bestOrder() {
+            if (table.find(all) < 0) {
+                return null;
+            }
+            Vector<LogicalJoinNode> order = new Vector<LogicalJoinNode>();
+            boolean[] used = new boolean[joins.size()];
+            addJoins(all, order, used);
+            for (int k = 0; k < joins.size(); k++) {
+                if (!used[k] && !(joins.get(k) instanceof LogicalSubplanJoinNode)) {
+                    order.add(joins.get(k));
+                }
+            }
+            return order;
+        }
+
+        /** Adds the joins of the plan for set to order, in the order they are done. */
+        private void addJoins(long set, Vector<LogicalJoinNode> order, boolean[] used) {
+            int id = table.find(set);
+            if (table.join(id) < 0) {
+                order.addAll(subqueryJoins.get(Long.numberOfTrailingZeros(set)));
+                return;
+            }
+            addJoins(table.outer(id), order, used);
+            addJoins(table.inner(id), order, used);
+            LogicalJoinNode j = oriented[table.join(id)].withAlgorithm(table.algorithm(id));
+            cardinalities.put(j, table.card(id));
+            order.add(j);
+            used[table.join(id) / 2] = true;
+        }
+    }
 
-        // some code goes here
-        //Replace the following
-        return joins;
-    } 
- 
     //===================== Private Methods =================================
 
     /** This is a helper method that computes the cost and cardinality
@@ -283,7 +1131,7 @@ public class JoinOptimizer {
             return null;
 
         CostCard cc = new CostCard();
-        cc.card = estimateJoinCardinality(j, t1card, t2card, leftPkey, rightPkey);
+        cc.card = estimateJoinCardinality(j, t1card, t2card, leftPkey, rightPkey, stats);
         cc.cost = cost1;
         cc.plan = (Vector<LogicalJoinNode>)prevBest.clone();
         cc.plan.addElement(j);  //prevbest is left -- add new join to end
@@ -0,0 +1,132 @@
+package simpledb;
+
+import java.util.Arrays;
+
+/**
+ * The cheapest plan found so far for each set of relations being joined,
+ * used by {@link JoinOptimizer#orderJoins}.
+ * <p>
+ * A set of relations is a long with one bit per relation, and each set is
+ * given a dense id by a {@link LongHashTable}; a plan's cost, cardinality
+ * and shape are kept in plain arrays indexed by that id, so that neither
+ * the sets nor their plans are objects.  The plan for a single relation is
+ * a scan of it; the plan for a larger set joins the plans for two disjoint
+ * sets, the outer and the inner, on one of the optimizer's joins, with one
+ * of the join algorithms.
+ */
+class JoinPlanTable {
+    private final LongHashTable ids;
+    private double[] costs;
+    private int[] cards;
+    private long[] outers;
+    private int[] joins;
+    private LogicalJoinNode.Algorithm[] algorithms;
+    private boolean[] pkeys;
+
+    /** @param expectedSize the number of sets expected to be added */
+    public JoinPlanTable(int expectedSize) {
+        ids = new LongHashTable(expectedSize);
+        int capacity = Math.max(16, expectedSize);
+        costs = new double[capacity];
+        cards = new int[capacity];
+        outers = new long[capacity];
+        joins = new int[capacity];
+        algorithms = new LogicalJoinNode.Algorithm[capacity];
+        pkeys = new boolean[capacity];
+    }
+
+    /** @return the number of sets with a plan */
+    public int size() {
+        return ids.size();
+    }
+
+    /**
+     * @return the id of the plan for set, or -1 if it has none.  Sets are
+     *   given ids in the order their first plans are offered, so offering
+     *   the scans of tables 0, 1, 2, ... first gives them ids 0, 1, 2, ...
+     */
+    public int find(long set) {
+        return ids.get(set);
+    }
+
+    /**
+     * Records a plan for set, unless it already has one that is no more
+     * expensive.
+     *
+     * @param set the relations the plan joins
+     * @param cost the estimated cost of the plan
+     * @param card the estimated number of tuples the plan returns
+     * @param outer the relations on the outer side of the plan's last
+     *   join, or 0 for the scan of a single relation
+     * @param join the optimizer's number for the plan's last join, or -1
+     *   for the scan of a single relation
+     * @param algorithm how the plan's last join is done, or null for the
+     *   scan of a single relation
+     * @param pkey whether any join in the plan is on a primary key
+     * @return whether the plan was recorded
+     */
+    public boolean offer(long set, double cost, int card, long outer, int join,
+            LogicalJoinNode.Algorithm algorithm, boolean pkey) {
+        int size = ids.size();
+        int id = ids.getOrAdd(set);
+        if (id < size && costs[id] <= cost) {
+            return false;
+        }
+        if (id == costs.length) {
+            int capacity = costs.length * 2;
+            costs = Arrays.copyOf(costs, capacity);
+            cards = Arrays.copyOf(cards, capacity);
+            outers = Arrays.copyOf(outers, capacity);
+            joins = Arrays.copyOf(joins, capacity);
+            algorithms = Arrays.copyOf(algorithms, capacity);
+            pkeys = Arrays.copyOf(pkeys, capacity);
+        }
+        costs[id] = cost;
+        cards[id] = card;
+        outers[id] = outer;
+        joins[id] = join;
+        algorithms[id] = algorithm;
+        pkeys[id] = pkey;
+        return true;
+    }
+
+    /** @return the relations the plan with the specified id joins */
+    public long set(int id) {
+        return ids.keyAt(id);
+    }
+
+    /** @return the estimated cost of the plan with the specified id */
+    public double cost(int id) {
+        return costs[id];
+    }
+
+    /** @return the estimated cardinality of the plan with the specified id */
+    public int card(int id) {
+        return cards[id];
+    }
+
+    /** @return the relations on the outer side of the plan's last join, or 0 for a scan */
+    public long outer(int id) {
+        return outers[id];
+    }
+
+    /** @return the relations on the inner side of the plan's last join, or 0 for a scan */
+    public long inner(int id) {
+        return outers[id] == 0 ? 0 : set(id) ^ outers[id];
+    }
+
+    /** @return the optimizer's number for the plan's last join, or -1 for a scan */
+    public int join(int id) {
+        return joins[id];
+    }
+
+    /** @return how the plan's last join is done, or null for a scan */
+    public LogicalJoinNode.Algorithm algorithm(int id) {
+        return algorithms[id];
+    }
+
+    /** @return whether any join in the plan with the specified id is on a primary key */
+    public boolean pkey(int id) {
+        return pkeys[id];
+    }
+}
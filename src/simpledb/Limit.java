@@ -0,0 +1,92 @@
+package simpledb;
+import java.util.*;
+
+/**
+ * Limit is an operator that implements LIMIT ... OFFSET ...: it skips the
+ * first offset tuples of its child and returns at most limit of the
+ * following ones.  Once limit tuples have been returned, no further tuples
+ * are pulled from the child.
+ */
+public class Limit extends Operator {
+
+    private final DbIterator child;
+    private final int limit;
+    private final int offset;
+
+    private int returned;
+    private boolean skipped;
+
+    /**
+     * Constructor.
+     *
+     * @param limit the maximum number of tuples to return
+     * @param offset the number of leading tuples of the child to skip
+     * @param child the child operator
+     */
+    public Limit(int limit, int offset, DbIterator child) {
+        if (limit < 0 || offset < 0) {
+            throw new IllegalArgumentException("limit and offset must not be negative");
+        }
+        this.child = child;
+        this.limit = limit;
+        this.offset = offset;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    public int getOffset() {
+        return offset;
+    }
+
+    public DbIterator getChild() {
+        return child;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void open()
+        throws DbException, NoSuchElementException, TransactionAbortedException {
+        child.open();
+        returned = 0;
+        skipped = false;
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        super.close();
+        child.rewind();
+        returned = 0;
+        skipped = false;
+    }
+
+    /**
+     * Operator.fetchNext implementation.
+     *
+     * @return The next tuple within the limit, or null if there are no more tuples
+     */
+    protected Tuple fetchNext()
+        throws NoSuchElementException, TransactionAbortedException, DbException {
+        if (returned >= limit) {
+            return null;
+        }
+        if (!skipped) {
+            for (int i = 0; i < offset && child.hasNext(); ++i) {
+                child.next();
+            }
+            skipped = true;
+        }
+        if (!child.hasNext()) {
+            return null;
+        }
+        returned++;
+        return child.next();
+    }
+}
@@ -4,6 +4,18 @@ package simpledb;
  * tables in a LogicalQueryPlan */
 public class LogicalJoinNode {
 
+    /** The ways a join can be executed. */
+    public enum Algorithm {
+        /** {@link Join}, which scans the inner side once per outer tuple */
+        NESTED_LOOP,
+        /** {@link BlockNestedLoopJoin}, which scans the inner side once per block of outer tuples */
+        BLOCK_NESTED_LOOP,
+        /** {@link HashJoin}, which builds a hash table over the inner side */
+        HASH,
+        /** {@link SortMergeJoin} over both sides sorted by {@link OrderBy} */
+        SORT_MERGE
+    }
+
     /** The first table to join (may be null)*/
     public String t1;
 
@@ -19,6 +31,10 @@ public class LogicalJoinNode {
     /** The join predicate */
     public Predicate.Op p;
 
+    /** The algorithm chosen by the optimizer, or null to let
+        {@link JoinOptimizer#instantiateJoin} decide */
+    public Algorithm algorithm;
+
     public LogicalJoinNode() {
     }
 
@@ -35,17 +51,26 @@ public class LogicalJoinNode {
     public LogicalJoinNode swapInnerOuter() {
         Predicate.Op newp;
         if (p == Predicate.Op.GREATER_THAN)
-            newp = Predicate.Op.LESS_THAN_OR_EQ;
-        else if (p == Predicate.Op.GREATER_THAN_OR_EQ)
             newp = Predicate.Op.LESS_THAN;
+        else if (p == Predicate.Op.GREATER_THAN_OR_EQ)
+            newp = Predicate.Op.LESS_THAN_OR_EQ;
         else if (p == Predicate.Op.LESS_THAN)
-            newp = Predicate.Op.GREATER_THAN_OR_EQ;
-        else if (p == Predicate.Op.LESS_THAN_OR_EQ)
             newp = Predicate.Op.GREATER_THAN;
+        else if (p == Predicate.Op.LESS_THAN_OR_EQ)
+            newp = Predicate.Op.GREATER_THAN_OR_EQ;
         else 
             newp = p;
         
         LogicalJoinNode j2 = new LogicalJoinNode(t2,t1,f2,f1, newp);
+        j2.algorithm = algorithm;
+        return j2;
+    }
+
+    /** Return a new LogicalJoinNode like this one, to be executed with the
+        specified algorithm. */
+    public LogicalJoinNode withAlgorithm(Algorithm a) {
+        LogicalJoinNode j2 = new LogicalJoinNode(t1,t2,f1,f2, p);
+        j2.algorithm = a;
         return j2;
     }
     
@@ -8,6 +8,11 @@ import java.io.IOException;
 import java.util.NoSuchElementException;
 import java.util.Set;
 import java.util.HashSet;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 
 import java.awt.*;
 
@@ -16,9 +21,9 @@ import java.awt.*;
  * the parser and is ready to be processed by the optimizer.
  * <p>
  * A LogicalPlan consits of a collection of table scan nodes, join
- * nodes, filter nodes, a select list, and a group by field.
- * LogicalPlans can only represent queries with one aggregation field
- * and one group by field.
+ * nodes, filter nodes, a select list, and a list of group by fields.
+ * LogicalPlans can represent queries with any number of aggregates and
+ * group by fields.
  * <p>
  * LogicalPlans can be converted to physical (optimized) plans using
  * the {@link #physicalPlan} method, which uses the
@@ -34,12 +39,26 @@ public  class LogicalPlan {
     private HashMap<String,Integer> tableMap;
 
     private Vector<LogicalSelectListNode> selectList;
-    private String groupByField = null;
+    private Vector<String> groupByFields;
     private boolean hasAgg = false;
-    private String aggOp;
-    private String aggField;
+    private Vector<String> aggOps;
+    private Vector<String> aggFields;
     private boolean oByAsc, hasOrderBy = false;
     private String oByField;
+    private boolean hasLimit = false;
+    private int limit, offset;
+    private int degreeOfParallelism = 1;
+    private int dpJoinLimit = JoinOptimizer.DEFAULT_DP_JOIN_LIMIT;
+    private long planningMillis = JoinOptimizer.DEFAULT_PLANNING_MILLIS;
+    private int joinMemoryPages = JoinOptimizer.DEFAULT_JOIN_MEMORY_PAGES;
+    private boolean profiled = false;
+    // while building a profiled physical plan, the profile of each operator in it
+    private IdentityHashMap<DbIterator, ProfiledIterator> profiles;
+    private double reoptimizationFactor = 0;
+    // the subplans of the last physical plan that checkpoints watch
+    private ArrayList<Subplan> watched = new ArrayList<Subplan>();
+    // the subplans of earlier physical plans whose results later ones start from
+    private ArrayList<Subplan> materialized = new ArrayList<Subplan>();
     private String query;
 
     /** Constructor -- generate an empty logical plan */
@@ -51,6 +70,9 @@ public  class LogicalPlan {
         tableMap = new HashMap<String,Integer>();
 
         selectList = new Vector<LogicalSelectListNode>();
+        groupByFields = new Vector<String>();
+        aggOps = new Vector<String>();
+        aggFields = new Vector<String>();
         this.query = "";
     }
 
@@ -80,6 +102,13 @@ public  class LogicalPlan {
         return tableMap.get(alias);
     }
 
+    /** Return the mapping from table alias to table id for every scan added
+        via {@link #addScan}.
+     */
+    public HashMap<String,Integer> getTableAliasToIdMapping() {
+        return tableMap;
+    }
+
     /** Add a new filter to the logical plan
      *   @param field The name of the over which the filter applies;
      *   this can be a fully qualified field (tablename.field or
@@ -178,19 +207,31 @@ public  class LogicalPlan {
     }
     
     /** Add an aggregate over the field with the specified grouping to
-        the query.  SimpleDb only supports a single aggregate
-        expression and GROUP BY field.
+        the query.  May be called once per aggregate expression; each
+        call adds gfield to the GROUP BY fields if it is not already there.
         @param op the aggregation operator
         @param afield the field to aggregate over
-        @param gfield the field to group by
+        @param gfield the field to group by, or null for none
     */
     public void addAggregate(String op, String afield, String gfield) {
-        aggOp = op;
-        aggField = afield;
-        groupByField = gfield;
+        aggOps.addElement(op);
+        aggFields.addElement(afield);
+        if (gfield != null) {
+            addGroupByField(gfield);
+        }
         hasAgg = true;
     }
 
+    /** Add a GROUP BY field to the query.  Output groups are formed from the
+        GROUP BY fields in the order they were added.
+        @param gfield the field to group by
+    */
+    public void addGroupByField(String gfield) {
+        if (!groupByFields.contains(gfield)) {
+            groupByFields.addElement(gfield);
+        }
+    }
+
     /** Add an ORDER BY expression in the specified order on the specified field.  SimpleDb only supports
         a single ORDER BY field.
         @param field the field to order by
@@ -202,6 +243,140 @@ public  class LogicalPlan {
         hasOrderBy = true;
     }
 
+    /** Add a LIMIT (and OFFSET) to the query: skip the first offset result
+        tuples, then return at most limit tuples.  When the query also has an
+        ORDER BY, only the first offset + limit tuples in sort order are kept
+        while sorting.
+        @param limit the maximum number of tuples to return
+        @param offset the number of leading tuples to skip
+    */
+    public void addLimit(int limit, int offset) {
+        this.limit = limit;
+        this.offset = offset;
+        hasLimit = true;
+    }
+
+    /** Set the number of worker threads each base table is scanned with.  When
+        greater than one, every scan is split into that many page ranges, the
+        table's filters are applied to each range on its own thread, and the
+        results are gathered by an {@link Exchange}.
+        @param dop the degree of parallelism; 1 runs the whole plan on the calling thread
+    */
+    public void setDegreeOfParallelism(int dop) {
+        if (dop < 1) {
+            throw new IllegalArgumentException("degree of parallelism must be at least 1");
+        }
+        degreeOfParallelism = dop;
+    }
+
+    /** @return the number of worker threads each base table is scanned with */
+    public int getDegreeOfParallelism() {
+        return degreeOfParallelism;
+    }
+
+    /** Set the most joins ordered by dynamic programming; queries with more
+        are ordered heuristically.  See {@link JoinOptimizer#orderJoins}.
+        @param joins the join limit
+    */
+    public void setDpJoinLimit(int joins) {
+        if (joins < 0) {
+            throw new IllegalArgumentException("join limit must not be negative");
+        }
+        dpJoinLimit = joins;
+    }
+
+    /** Set the most milliseconds spent ordering the joins.
+        @param millis the planning budget, at least 1
+    */
+    public void setPlanningBudget(long millis) {
+        if (millis < 1) {
+            throw new IllegalArgumentException("planning budget must be at least 1 ms");
+        }
+        planningMillis = millis;
+    }
+
+    /** Set the pages of memory each join may use.  See {@link JoinOptimizer#setJoinMemory}.
+        @param pages the join memory, at least 1
+    */
+    public void setJoinMemory(int pages) {
+        if (pages < 1) {
+            throw new IllegalArgumentException("join memory must be at least 1 page");
+        }
+        joinMemoryPages = pages;
+    }
+
+    /** Set whether {@link #physicalPlan} wraps each operator in a
+        {@link ProfiledIterator}, for EXPLAIN ANALYZE.  The root of the plan
+        is then a ProfiledIterator whose {@link ProfiledIterator#explain}
+        describes the whole plan.
+        @param profiled true to profile the plan
+    */
+    public void setProfiled(boolean profiled) {
+        this.profiled = profiled;
+    }
+
+    /** Set how many times larger or smaller than estimated an input that a
+        join reads in full must be for the query to be planned again.  The
+        physical plan then watches such inputs with {@link Checkpoint}s, and
+        throws a {@link Checkpoint.Deviation} from open() or next() when one
+        deviates, which {@link Query} handles by calling {@link #reoptimize}
+        and building a new physical plan.
+        @param factor the deviation factor, at least 1, or 0 to place no checkpoints
+    */
+    public void setReoptimizationFactor(double factor) {
+        if (factor != 0 && factor < 1) {
+            throw new IllegalArgumentException("reoptimization factor must be 0 or at least 1");
+        }
+        reoptimizationFactor = factor;
+    }
+
+    /** Make the physical plans built from now on start from the tuples
+        checkpoint kept, and order only the joins not done to compute them,
+        knowing how many there are.  Also records the selectivities the last
+        physical plan observed; see {@link #recordFeedback}.
+        @param c a checkpoint of the last physical plan built that kept its input
+        @throws IllegalArgumentException if c is not such a checkpoint
+    */
+    public void reoptimize(Checkpoint c) {
+        Subplan done = null;
+        for (Subplan s : watched) {
+            if (s.checkpoint == c) {
+                done = s;
+            }
+        }
+        if (done == null || !c.hasTuples()) {
+            throw new IllegalArgumentException("not a checkpoint of the last plan that kept its input");
+        }
+        recordFeedback();
+        Iterator<Subplan> it = materialized.iterator();
+        while (it.hasNext()) {
+            if (done.tables.containsAll(it.next().tables)) {
+                it.remove();
+            }
+        }
+        materialized.add(done);
+    }
+
+    /** Record the selectivity of the filters on each table that a
+        checkpoint of the last physical plan counted in full, in the
+        database's {@link SelectivityFeedback}, for later queries to use. */
+    public void recordFeedback() {
+        SelectivityFeedback feedback = Database.getSelectivityFeedback();
+        for (Subplan s : watched) {
+            if (s.feedbackKey != null && s.tableRows > 0 && s.checkpoint.isComplete()) {
+                feedback.record(s.feedbackKey, s.checkpoint.getRows() / s.tableRows, s.stats);
+            }
+        }
+    }
+
+    /** Stop the checkpoints of the last physical plan from throwing a
+        {@link Checkpoint.Deviation}, once the query has returned tuples. */
+    public void disarmCheckpoints() {
+        for (Subplan s : watched) {
+            s.checkpoint.disarm();
+        }
+    }
+
     /** Given a name of a field, try to figure out what table it belongs to by looking
      *   through all of the tables added via {@link #addScan}. 
      *  @return A fully qualified name of the form table.name.  If the name parameter is already qualified
@@ -243,6 +418,89 @@ public  class LogicalPlan {
 
     }
 
+    /** @return the position of the select list aggregate si among the aggregates
+        added via {@link #addAggregate}
+        @throws ParsingException if no matching aggregate was added
+    */
+    private int aggregateIndex(LogicalSelectListNode si) throws ParsingException {
+        String fname = disambiguateName(si.fname);
+        for (int i = 0; i < aggFields.size(); i++) {
+            if (aggOps.elementAt(i).equalsIgnoreCase(si.aggOp)
+                    && disambiguateName(aggFields.elementAt(i)).equals(fname)) {
+                return i;
+            }
+        }
+        throw new ParsingException("Aggregate " + si.aggOp + "(" + si.fname + ") was not added to the plan");
+    }
+
+    /** @return the position of fname among the GROUP BY fields, or -1 if it is not one */
+    private int groupByIndex(String fname) throws ParsingException {
+        String name = disambiguateName(fname);
+        for (int i = 0; i < groupByFields.size(); i++) {
+            if (disambiguateName(groupByFields.elementAt(i)).equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /** @return the columns of table's base table that the plan references through
+        table's alias, in increasing order, or null if it may reference all of them
+        (a select list with *, or a name that cannot be resolved here).  Columns
+        referenced only by filters are left out, as a column scan evaluates filters
+        without returning their columns.
+    */
+    private int[] referencedColumns(LogicalScanNode table) {
+        ArrayList<String> names = new ArrayList<String>();
+        for (LogicalSelectListNode si : selectList) {
+            names.add(si.fname);
+        }
+        for (LogicalJoinNode lj : joins) {
+            names.add(lj.f1);
+            if (!(lj instanceof LogicalSubplanJoinNode)) {
+                names.add(lj.f2);
+            }
+        }
+        names.addAll(groupByFields);
+        names.addAll(aggFields);
+        if (hasOrderBy) {
+            names.add(oByField);
+        }
+
+        TupleDesc td = Database.getCatalog().getTupleDesc(table.t);
+        java.util.TreeSet<Integer> columns = new java.util.TreeSet<Integer>();
+        for (String name : names) {
+            String qualified;
+            try {
+                qualified = disambiguateName(name);
+            } catch (ParsingException e) {
+                return null;
+            }
+            int dot = qualified.indexOf('.');
+            String field = qualified.substring(dot + 1);
+            if (field.equals("*")) {
+                return null;
+            }
+            if (dot < 0 || qualified.substring(0, dot).equals(table.alias)) {
+                try {
+                    columns.add(td.fieldNameToIndex(field));
+                } catch (NoSuchElementException e) {
+                    return null;
+                }
+            }
+        }
+        if (columns.isEmpty()) {
+            // something must still be read to count the rows
+            columns.add(0);
+        }
+        int[] result = new int[columns.size()];
+        int i = 0;
+        for (int c : columns) {
+            result[i++] = c;
+        }
+        return result;
+    }
+
     /** Convert the aggregate operator name s into an Aggregator.op operation.
      *  @throws ParsingException if s is not a valid operator name 
      */
@@ -274,37 +532,85 @@ public  class LogicalPlan {
         HashMap<String,String> equivMap = new HashMap<String,String>();
         HashMap<String,Double> filterSelectivities = new HashMap<String, Double>();
         HashMap<String,TableStats> statsMap = new HashMap<String,TableStats>();
+        HashMap<String,DbIterator[]> partitionMap = new HashMap<String,DbIterator[]>();
+        profiles = profiled ? new IdentityHashMap<DbIterator, ProfiledIterator>() : null;
+        subplanMap.clear();
+        watched = new ArrayList<Subplan>();
+        // what each subplan computes, and the tables whose results an earlier plan kept
+        HashMap<String,Subplan> subplans = new HashMap<String,Subplan>();
+        HashMap<String,Subplan> materializedTables = new HashMap<String,Subplan>();
+        for (Subplan m : materialized) {
+            for (String alias : m.tables) {
+                materializedTables.put(alias, m);
+            }
+        }
 
         while (tableIt.hasNext()) {
             LogicalScanNode table = tableIt.next();
-            SeqScan ss = null;
+            if (materializedTables.containsKey(table.alias)) {
+                statsMap.put(table.alias, baseTableStats.get(Database.getCatalog().getTableName(table.t)));
+                filterSelectivities.put(table.alias, 1.0);
+                continue;
+            }
+            DbIterator ss = null;
             try {
-                 ss = new SeqScan(t, Database.getCatalog().getDbFile(table.t).getId(), table.alias);
+                DbFile file = Database.getCatalog().getDbFile(table.t);
+                int[] columns = file instanceof ColumnFile ? referencedColumns(table) : null;
+                if (columns != null) {
+                    ss = new ColumnScan(t, file.getId(), table.alias, columns);
+                } else {
+                    ss = new SeqScan(t, file.getId(), table.alias);
+                }
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown table " + table.t);
             }
-            
-            subplanMap.put(table.alias,ss);
             String baseTableName = Database.getCatalog().getTableName(table.t);
-            statsMap.put(table.alias, baseTableStats.get(baseTableName));
+            TableStats tableStats = baseTableStats.get(baseTableName);
+            double rows = tableStats == null ? -1 : tableStats.estimateTableCardinality(1.0);
+            
+            subplanMap.put(table.alias, profile(ss, ss.getClass().getSimpleName() + " " + table.alias, rows));
+            if (degreeOfParallelism > 1) {
+                SeqScan[] parts = SeqScan.partitioned(t, table.t, table.alias, degreeOfParallelism);
+                if (parts.length > 1) {
+                    DbIterator[] profiledParts = new DbIterator[parts.length];
+                    for (int i = 0; i < parts.length; i++) {
+                        profiledParts[i] = profile(parts[i], "SeqScan " + table.alias + " (part " + (i + 1) + " of "
+                                + parts.length + ")", rows < 0 ? rows : rows / parts.length);
+                    }
+                    partitionMap.put(table.alias, profiledParts);
+                }
+            }
+            statsMap.put(table.alias, tableStats);
             filterSelectivities.put(table.alias, 1.0);
 
         }
 
+        HashMap<String,ArrayList<String>> conditions = filterConditions();
+        HashMap<String,Integer> filtersLeft = new HashMap<String,Integer>();
+        for (Map.Entry<String,ArrayList<String>> e : conditions.entrySet()) {
+            filtersLeft.put(e.getKey(), e.getValue().size());
+        }
+
         Iterator<LogicalFilterNode> filterIt = filters.iterator();        
         while (filterIt.hasNext()) {
             LogicalFilterNode lf = filterIt.next();
             DbIterator subplan = subplanMap.get(lf.t);
-            if (subplan == null) {
+            boolean done = materializedTables.containsKey(lf.t);
+            if (subplan == null && !done) {
                 throw new ParsingException("Unknown table in WHERE clause " + lf.t);
             }
 
             Field f;
             Type ftyp;
-            TupleDesc td = subplanMap.get(lf.t).getTupleDesc();
+            // look the field up in the base table: a column scan returns only
+            // some of its columns, and need not return the filtered ones
+            TupleDesc td = Database.getCatalog().getTupleDesc(getTableId(lf.t));
+            String fname = disambiguateName(lf.f);
+            int baseField;
             
             try {
-                ftyp = td.getFieldType(td.fieldNameToIndex(disambiguateName(lf.f)));
+                baseField = td.fieldNameToIndex(fname.substring(fname.indexOf('.') + 1));
+                ftyp = td.getFieldType(baseField);
             } catch (java.util.NoSuchElementException e) {
                 throw new ParsingException("Unknown field in filter expression " + lf.f);
             }
@@ -313,27 +619,109 @@ public  class LogicalPlan {
             else
                 f = new StringField(lf.c, Type.STRING_LEN);
 
-            Predicate p = null;
-            try {
-                p = new Predicate(subplan.getTupleDesc().fieldNameToIndex(disambiguateName(lf.f)), lf.p,f);
-            } catch (NoSuchElementException e) {
-                throw new ParsingException("Unknown field " + lf.f);
-            }
-            subplanMap.put(lf.t, new Filter(p, subplan));
-
             TableStats s = statsMap.get(lf.t);
             
-            double sel= s.estimateSelectivity(subplan.getTupleDesc().fieldNameToIndex(disambiguateName(lf.f)), lf.p, f);
+            double sel= s.estimateSelectivity(baseField, lf.p, f);
             filterSelectivities.put(lf.t, filterSelectivities.get(lf.t) * sel);
+            filtersLeft.put(lf.t, filtersLeft.get(lf.t) - 1);
+            if (filtersLeft.get(lf.t) == 0) {
+                // all of the table's filters together select what earlier
+                // queries saw them select, unless the table has changed since
+                Double observed = Database.getSelectivityFeedback().lookup(feedbackKey(lf.t, conditions), s);
+                if (observed != null) {
+                    filterSelectivities.put(lf.t, observed);
+                }
+            }
+            if (done) {
+                // already applied to the kept tuples
+                continue;
+            }
+            double rows = s.estimateTableCardinality(filterSelectivities.get(lf.t));
+            String condition = lf.f + " " + lf.p.symbol() + " " + lf.c;
+
+            DbIterator scan = subplan instanceof ProfiledIterator ? ((ProfiledIterator) subplan).getChild() : subplan;
+            if (scan instanceof ColumnScan) {
+                // evaluate the filter on the encoded pages of the column
+                String label = subplan instanceof ProfiledIterator ? ((ProfiledIterator) subplan).getLabel() : "";
+                subplanMap.put(lf.t, profile(((ColumnScan) scan).withFilter(new Predicate(baseField, lf.p, f)),
+                        label + (label.contains(" where ") ? " and " : " where ") + condition, rows));
+            } else {
+                Predicate p = null;
+                try {
+                    p = new Predicate(subplan.getTupleDesc().fieldNameToIndex(fname), lf.p,f);
+                } catch (NoSuchElementException e) {
+                    throw new ParsingException("Unknown field " + lf.f);
+                }
+                subplanMap.put(lf.t, profile(new Filter(p, subplan), "Filter " + condition, rows, subplan));
+                DbIterator[] parts = partitionMap.get(lf.t);
+                if (parts != null) {
+                    for (int i = 0; i < parts.length; i++) {
+                        parts[i] = profile(new Filter(p, parts[i]), "Filter " + condition, rows / parts.length,
+                                parts[i]);
+                    }
+                }
+            }
 
             //s.addSelectivityFactor(estimateFilterSelectivity(lf,statsMap));
         }
         
-        JoinOptimizer jo = new JoinOptimizer(this,joins);
+        // scan (and filter) each partitioned table on several threads
+        for (java.util.Map.Entry<String,DbIterator[]> e : partitionMap.entrySet()) {
+            TableStats s = statsMap.get(e.getKey());
+            double rows = s == null ? -1 : s.estimateTableCardinality(filterSelectivities.get(e.getKey()));
+            subplanMap.put(e.getKey(), profile(new Exchange(e.getValue()), "Exchange " + e.getKey(), rows,
+                    e.getValue()));
+        }
+
+        for (LogicalScanNode table : tables) {
+            if (!materializedTables.containsKey(table.alias)) {
+                Subplan sub = new Subplan();
+                sub.tables.add(table.alias);
+                TableStats s = statsMap.get(table.alias);
+                sub.card = s == null ? -1 : s.estimateTableCardinality(filterSelectivities.get(table.alias));
+                if (s != null && conditions.containsKey(table.alias)) {
+                    sub.feedbackKey = feedbackKey(table.alias, conditions);
+                    sub.tableRows = s.estimateTableCardinality(1.0);
+                    sub.stats = s;
+                }
+                subplans.put(table.alias, sub);
+            }
+        }
+        // start from the results earlier plans kept, in place of their tables
+        Set<LogicalJoinNode> doneJoins = Collections.newSetFromMap(new IdentityHashMap<LogicalJoinNode,Boolean>());
+        for (Subplan m : materialized) {
+            String name = m.tables.get(0);
+            subplanMap.put(name, profile(m.checkpoint.replay(), "Materialized " + m.tables, m.checkpoint.getRows()));
+            for (String alias : m.tables) {
+                if (!alias.equals(name)) {
+                    equivMap.put(alias, name);
+                }
+            }
+            subplans.put(name, m);
+            doneJoins.addAll(m.joins);
+        }
+        Vector<LogicalJoinNode> pending = new Vector<LogicalJoinNode>();
+        for (LogicalJoinNode lj : joins) {
+            if (!doneJoins.contains(lj)) {
+                pending.add(lj);
+            }
+        }
 
-        joins = jo.orderJoins(statsMap,filterSelectivities,explain);
+        JoinOptimizer jo = new JoinOptimizer(this,pending);
+        jo.setDpJoinLimit(dpJoinLimit);
+        jo.setPlanningBudget(planningMillis);
+        jo.setJoinMemory(joinMemoryPages);
+        for (Subplan m : materialized) {
+            jo.setMaterialized(m.tables.get(0), m.tables, (int) Math.min(Integer.MAX_VALUE, m.checkpoint.getRows()));
+        }
 
-        Iterator<LogicalJoinNode> joinIt = joins.iterator();
+        Vector<LogicalJoinNode> ordered = jo.orderJoins(statsMap,filterSelectivities,explain);
+        joins = new Vector<LogicalJoinNode>(ordered);
+        for (Subplan m : materialized) {
+            joins.addAll(m.joins);
+        }
+
+        Iterator<LogicalJoinNode> joinIt = ordered.iterator();
         while (joinIt.hasNext()) {
             LogicalJoinNode lj = joinIt.next();
             DbIterator plan1;
@@ -365,12 +753,56 @@ public  class LogicalPlan {
                 throw new ParsingException("Unknown table in WHERE clause " + lj.t1);
             if (plan2 == null)
                 throw new ParsingException("Unknown table in WHERE clause " + lj.t2);
-            
+
+            Subplan sub1 = subplans.get(t1name);
+            if (!isSubqueryJoin && t1name.equals(t2name)) {
+                // the join graph has a cycle, and other joins already joined
+                // both tables: check the predicate on what they produced
+                JoinPredicate p;
+                try {
+                    p = new JoinPredicate(plan1.getTupleDesc().fieldNameToIndex(disambiguateName(lj.f1)), lj.p,
+                            plan1.getTupleDesc().fieldNameToIndex(disambiguateName(lj.f2)));
+                } catch (NoSuchElementException e) {
+                    throw new ParsingException("Unknown field in join " + lj.f1 + " " + lj.p + " " + lj.f2);
+                }
+                subplanMap.put(t1name, profile(new JoinFilter(p, plan1),
+                        "JoinFilter " + lj.f1 + " " + lj.p.symbol() + " " + lj.f2, jo.estimatedCardinality(lj), plan1));
+                Subplan filtered = new Subplan();
+                filtered.tables.addAll(sub1.tables);
+                filtered.joins.addAll(sub1.joins);
+                filtered.joins.add(lj);
+                filtered.card = jo.estimatedCardinality(lj) < 0 ? sub1.card : jo.estimatedCardinality(lj);
+                subplans.put(t1name, filtered);
+                continue;
+            }
+            Subplan sub2 = isSubqueryJoin ? null : subplans.get(t2name);
+            if (reoptimizationFactor > 0 && lj.algorithm == LogicalJoinNode.Algorithm.HASH) {
+                // the hash table holds all of the build side anyway
+                plan2 = watch(plan2, sub2, Integer.MAX_VALUE);
+            } else if (reoptimizationFactor > 0 && lj.algorithm == LogicalJoinNode.Algorithm.SORT_MERGE) {
+                plan1 = watch(plan1, sub1, memoryTuples(plan1));
+                plan2 = watch(plan2, sub2, memoryTuples(plan2));
+            }
+
             DbIterator j;
             j = jo.instantiateJoin(lj,plan1,plan2, statsMap);
+            String joinName = j instanceof Exchange ? "HashJoin" : j.getClass().getSimpleName();
+            j = profile(j, joinName + " " + lj.f1 + " " + lj.p.symbol() + " " + (isSubqueryJoin ? "subquery" : lj.f2),
+                    jo.estimatedCardinality(lj), plan1, plan2);
             subplanMap.put(t1name, j);
+            Subplan joined = new Subplan();
+            joined.tables.addAll(sub1.tables);
+            joined.joins.addAll(sub1.joins);
+            if (sub2 != null) {
+                joined.tables.addAll(sub2.tables);
+                joined.joins.addAll(sub2.joins);
+            }
+            joined.joins.add(lj);
+            joined.card = jo.estimatedCardinality(lj);
+            subplans.put(t1name, joined);
 
             if (!isSubqueryJoin) {
+                subplans.remove(t2name);
                 subplanMap.remove(t2name);
                 equivMap.put(t2name,t1name);  //keep track of the fact that this new node contains both tables
                     //make sure anything that was equiv to lj.t2 (which we are just removed) is
@@ -399,27 +831,27 @@ public  class LogicalPlan {
         for (int i = 0; i < selectList.size(); i++) {
             LogicalSelectListNode si = selectList.elementAt(i);
             if (si.aggOp != null) {
-                outFields.add(groupByField!=null?1:0);
                 TupleDesc td = node.getTupleDesc();
-                int  id;
                 try {
-                    id = td.fieldNameToIndex(disambiguateName(si.fname));
+                    td.fieldNameToIndex(disambiguateName(si.fname));
                 } catch (NoSuchElementException e) {
                     throw new ParsingException("Unknown field " +  si.fname + " in SELECT list");
                 }
+                outFields.add(groupByFields.size() + aggregateIndex(si));
                 outTypes.add(Type.INT_TYPE);  //the type of all aggregate functions is INT
 
             } else if (hasAgg) {
-                    if (groupByField == null) {
+                    int g = groupByIndex(si.fname);
+                    if (g < 0) {
                         throw new ParsingException("Field " + si.fname + " does not appear in GROUP BY list");
                     }
-                    outFields.add(0);
+                    outFields.add(g);
                     TupleDesc td = node.getTupleDesc();
                     int  id;
                     try {
-                        id = td.fieldNameToIndex(disambiguateName(groupByField));
+                        id = td.fieldNameToIndex(disambiguateName(groupByFields.elementAt(g)));
                     } catch (NoSuchElementException e) {
-                        throw new ParsingException("Unknown field " +  groupByField + " in GROUP BY statement");
+                        throw new ParsingException("Unknown field " +  groupByFields.elementAt(g) + " in GROUP BY statement");
                     }
                     outTypes.add(td.getFieldType(id));
             } else if (si.fname.equals("null.*")) {
@@ -444,25 +876,204 @@ public  class LogicalPlan {
 
         if (hasAgg) {
             TupleDesc td = node.getTupleDesc();
-            Aggregate aggNode;
+            DbIterator aggNode;
+            int groups;
             try {
-                aggNode = new Aggregate(node,
-                                        td.fieldNameToIndex(disambiguateName(aggField)),
-                                        groupByField == null?Aggregator.NO_GROUPING:td.fieldNameToIndex(disambiguateName(groupByField)),
-                                getAggOp(aggOp));
+                int[] gfields = new int[groupByFields.size()];
+                for (int i = 0; i < gfields.length; i++) {
+                    gfields[i] = td.fieldNameToIndex(disambiguateName(groupByFields.elementAt(i)));
+                }
+                int[] afields = new int[aggFields.size()];
+                Aggregator.Op[] aops = new Aggregator.Op[afields.length];
+                for (int i = 0; i < afields.length; i++) {
+                    afields[i] = td.fieldNameToIndex(disambiguateName(aggFields.elementAt(i)));
+                    aops[i] = getAggOp(aggOps.elementAt(i));
+                }
+                // Aggregate keeps every group in memory, so groupings expected
+                // to outgrow HashAggregate's budget go to HashAggregate, which spills
+                groups = gfields.length == 0 ? 1 : estimateGroups(statsMap, filterSelectivities);
+                if (afields.length == 1 && gfields.length <= 1 && groups <= HashAggregate.groupCapacity(
+                        td, gfields, afields.length, HashAggregate.DEFAULT_MEMORY_PAGES)) {
+                    aggNode = new Aggregate(node, afields[0],
+                                            gfields.length == 0 ? Aggregator.NO_GROUPING : gfields[0],
+                                            aops[0]);
+                } else {
+                    aggNode = new HashAggregate(node, gfields, afields, aops,
+                                                HashAggregate.DEFAULT_MEMORY_PAGES, groups);
+                }
             } catch (NoSuchElementException e) {
                 throw new simpledb.ParsingException(e);
             } catch (IllegalArgumentException e) {
                 throw new simpledb.ParsingException(e);
             }
-            node = aggNode;
+            node = profile(aggNode, aggNode.getClass().getSimpleName() + " " + aggOps + " " + aggFields
+                    + (groupByFields.isEmpty() ? "" : " by " + groupByFields),
+                    groups, node);
         }
 
         if (hasOrderBy) {
-            node = new OrderBy(node.getTupleDesc().fieldNameToIndex(disambiguateName(oByField)), oByAsc, node);
+            int oByFieldId = node.getTupleDesc().fieldNameToIndex(disambiguateName(oByField));
+            int n = (int) Math.min(Integer.MAX_VALUE, (long) limit + offset);
+            if (hasLimit && TopN.fits(n, node.getTupleDesc(), OrderBy.DEFAULT_RUN_PAGES)) {
+                node = profile(new TopN(n, new int[]{oByFieldId}, new boolean[]{oByAsc}, node),
+                        "TopN " + n + " by " + oByField, Math.min(n, estimateOf(node)), node);
+            } else {
+                // too many tuples to keep in a heap: sort them externally, and let Limit skip and cut them
+                node = profile(new OrderBy(oByFieldId, oByAsc, node), "OrderBy " + oByField, estimateOf(node), node);
+            }
+        }
+
+        if (hasLimit) {
+            node = profile(new Limit(limit, offset, node), "Limit " + limit + " offset " + offset,
+                    estimateOf(node) < 0 ? -1 : Math.min(limit, Math.max(0, estimateOf(node) - offset)), node);
+        }
+
+        DbIterator project = profile(new Project(outFields, outTypes, node), "Project", estimateOf(node), node);
+        profiles = null;
+        return project;
+    }
+
+    /**
+     * When the plan is profiled, wraps op in a {@link ProfiledIterator} whose
+     * inputs are the profiles of inputs; otherwise returns op.  An
+     * {@link Exchange} is returned unwrapped, so that the operators above it
+     * can still read its children in parallel, and is given a profile that
+     * adds up those of its children, which are wrapped if they are not yet.
+     *
+     * @param label what to call op in EXPLAIN ANALYZE
+     * @param estimate the estimated number of tuples op returns, or -1
+     */
+    private DbIterator profile(DbIterator op, String label, double estimate, DbIterator... inputs) {
+        if (profiles == null) {
+            return op;
+        }
+        ArrayList<ProfiledIterator> inputProfiles = new ArrayList<ProfiledIterator>();
+        for (DbIterator input : inputs) {
+            if (profiles.containsKey(input)) {
+                inputProfiles.add(profiles.get(input));
+            }
         }
+        if (op instanceof Exchange) {
+            DbIterator[] children = ((Exchange) op).getChildren();
+            ArrayList<ProfiledIterator> parts = new ArrayList<ProfiledIterator>();
+            boolean wrapped = false;
+            for (int i = 0; i < children.length; i++) {
+                ProfiledIterator part = profiles.get(children[i]);
+                if (part == null) {
+                    part = new ProfiledIterator(children[i], label + " (part " + (i + 1) + ")", -1,
+                            new ArrayList<ProfiledIterator>());
+                    children[i] = part;
+                    wrapped = true;
+                }
+                parts.add(part);
+            }
+            if (wrapped) {
+                op = new Exchange(children);
+            }
+            profiles.put(op, ProfiledIterator.gather(label, estimate, inputProfiles, parts));
+            return op;
+        }
+        ProfiledIterator profile = new ProfiledIterator(op, label, estimate, inputProfiles);
+        profiles.put(profile, profile);
+        return profile;
+    }
 
-        return new Project(outFields, outTypes, node);
+    /**
+     * When the subplan computing input has a cardinality estimate, and is
+     * not already watched or the result of an earlier plan, watches it
+     * with a {@link Checkpoint} that keeps up to maxTuples of its tuples.
+     *
+     * @return input, or the iterator counting its tuples
+     */
+    private DbIterator watch(DbIterator input, Subplan sub, int maxTuples) {
+        if (sub == null || sub.card < 0 || sub.checkpoint != null || materialized.contains(sub)) {
+            return input;
+        }
+        sub.checkpoint = new Checkpoint(sub.tables, sub.card, reoptimizationFactor, maxTuples);
+        DbIterator counted = sub.checkpoint.wrap(input);
+        if (profiles != null && profiles.containsKey(input)) {
+            profiles.put(counted, profiles.get(input));
+        }
+        watched.add(sub);
+        return counted;
+    }
+
+    /** @return the number of tuples of plan that fit in the join memory */
+    private int memoryTuples(DbIterator plan) {
+        int perPage = Math.max(1, BufferPool.PAGE_SIZE * 8 / (plan.getTupleDesc().getSize() * 8 + 1));
+        return (int) Math.min(Integer.MAX_VALUE, (long) joinMemoryPages * perPage);
+    }
+
+    /** @return the filters on each table alias that has any, as conditions
+        on unqualified field names, for {@link SelectivityFeedback#key} */
+    private HashMap<String,ArrayList<String>> filterConditions() {
+        HashMap<String,ArrayList<String>> conditions = new HashMap<String,ArrayList<String>>();
+        for (LogicalFilterNode lf : filters) {
+            ArrayList<String> c = conditions.get(lf.t);
+            if (c == null) {
+                c = new ArrayList<String>();
+                conditions.put(lf.t, c);
+            }
+            c.add(lf.f.substring(lf.f.indexOf('.') + 1) + " " + lf.p.symbol() + " " + lf.c);
+        }
+        return conditions;
+    }
+
+    /** @return the key of the filters on the table with the specified alias in the {@link SelectivityFeedback} */
+    private String feedbackKey(String alias, HashMap<String,ArrayList<String>> conditions) {
+        return SelectivityFeedback.key(Database.getCatalog().getTableName(getTableId(alias)), conditions.get(alias));
+    }
+
+    /** @return the estimated number of tuples of a profiled operator, or -1 */
+    private double estimateOf(DbIterator op) {
+        ProfiledIterator profile = profiles == null ? null : profiles.get(op);
+        return profile == null ? -1 : profile.getEstimate();
+    }
+
+    /**
+     * Estimate the number of groups the GROUP BY clause produces: the
+     * product of the number of distinct values of each grouped column, each
+     * capped at the filtered cardinality of its table, and the product
+     * capped at the product of those cardinalities.
+     *
+     * @param statsMap statistics of each table, referenced by alias
+     * @param filterSelectivities selectivity of the filters on each table, referenced by alias
+     * @return the estimated number of groups, or 0 if statistics are missing
+     */
+    private int estimateGroups(HashMap<String,TableStats> statsMap, HashMap<String,Double> filterSelectivities) {
+        double groups = 1;
+        HashMap<String,Double> cards = new HashMap<String,Double>();
+        for (String g : groupByFields) {
+            String name;
+            try {
+                name = disambiguateName(g);
+            } catch (ParsingException e) {
+                return 0;
+            }
+            if (name.indexOf('.') < 0) {
+                return 0;
+            }
+            String alias = name.substring(0, name.indexOf('.'));
+            TableStats s = statsMap.get(alias);
+            Integer tableId = tableMap.get(alias);
+            if (s == null || tableId == null) {
+                return 0;
+            }
+            int field;
+            try {
+                field = Database.getCatalog().getTupleDesc(tableId).fieldNameToIndex(name.substring(alias.length() + 1));
+            } catch (NoSuchElementException e) {
+                return 0;
+            }
+            double card = s.estimateTableCardinality(filterSelectivities.get(alias));
+            cards.put(alias, card);
+            groups *= Math.min(s.numDistinct(field), card);
+        }
+        double cap = 1;
+        for (double card : cards.values()) {
+            cap *= card;
+        }
+        return (int) Math.min(Integer.MAX_VALUE, Math.min(groups, cap));
     }
 
     public static void main(String argv[]) {
@@ -527,4 +1138,20 @@ public  class LogicalPlan {
        
     }
 
-}
\ No newline at end of file
+
+    /** What a subplan of a physical plan computes, for re-optimization. */
+    private static class Subplan {
+        // the aliases of the tables it joins, and the joins it does
+        final ArrayList<String> tables = new ArrayList<String>();
+        final ArrayList<LogicalJoinNode> joins = new ArrayList<LogicalJoinNode>();
+        // its estimated cardinality, or -1 if it is not known
+        double card;
+        // for a filtered table, the key of its filters in the
+        // SelectivityFeedback, its cardinality before filtering, and its statistics
+        String feedbackKey;
+        double tableRows;
+        TableStats stats;
+        // the checkpoint watching it, or null
+        Checkpoint checkpoint;
+    }
+}
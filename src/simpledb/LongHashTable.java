@@ -0,0 +1,116 @@
+package simpledb;
+
+import java.util.Arrays;
+
+/**
+ * An open-addressing hash table that assigns dense ids (0, 1, 2, ...) to
+ * primitive long keys in the order they are first added.  Callers keep their
+ * per-key state in plain arrays indexed by the id, so neither keys nor values
+ * are ever boxed.
+ * <p>
+ * The table uses linear probing over a power-of-two sized slot array that
+ * holds id + 1 for occupied slots and 0 for empty ones, so every long value
+ * (including 0 and -1) is a valid key.
+ */
+class LongHashTable {
+    private static final int MIN_CAPACITY = 16;
+
+    private int[] slots;
+    private long[] keys;
+    private int size;
+    private int mask;
+
+    public LongHashTable() {
+        this(MIN_CAPACITY);
+    }
+
+    /** @param expectedSize the number of keys expected to be added */
+    public LongHashTable(int expectedSize) {
+        int capacity = MIN_CAPACITY;
+        while (capacity < expectedSize * 2 && capacity < (1 << 30)) {
+            capacity <<= 1;
+        }
+        slots = new int[capacity];
+        keys = new long[capacity / 2];
+        mask = capacity - 1;
+        size = 0;
+    }
+
+    /** @return the number of distinct keys in the table */
+    public int size() {
+        return size;
+    }
+
+    /** @return the key that was assigned the specified id */
+    public long keyAt(int id) {
+        return keys[id];
+    }
+
+    /** @return the id of key, or -1 if the key has not been added */
+    public int get(long key) {
+        int pos = hash(key) & mask;
+        while (true) {
+            int slot = slots[pos];
+            if (slot == 0) {
+                return -1;
+            }
+            if (keys[slot - 1] == key) {
+                return slot - 1;
+            }
+            pos = (pos + 1) & mask;
+        }
+    }
+
+    /** @return the id of key, assigning the next unused id if it has not been added */
+    public int getOrAdd(long key) {
+        int pos = hash(key) & mask;
+        while (true) {
+            int slot = slots[pos];
+            if (slot == 0) {
+                break;
+            }
+            if (keys[slot - 1] == key) {
+                return slot - 1;
+            }
+            pos = (pos + 1) & mask;
+        }
+        int id = size++;
+        if (id == keys.length) {
+            keys = Arrays.copyOf(keys, keys.length * 2);
+        }
+        keys[id] = key;
+        slots[pos] = id + 1;
+        if (size * 2 > slots.length) {
+            rehash();
+        }
+        return id;
+    }
+
+    /** Removes every key; ids are reassigned from 0. */
+    public void clear() {
+        Arrays.fill(slots, 0);
+        size = 0;
+    }
+
+    private void rehash() {
+        slots = new int[slots.length * 2];
+        mask = slots.length - 1;
+        for (int id = 0; id < size; ++id) {
+            int pos = hash(keys[id]) & mask;
+            while (slots[pos] != 0) {
+                pos = (pos + 1) & mask;
+            }
+            slots[pos] = id + 1;
+        }
+    }
+
+    /** Mixes all bits of the key into the low bits used to pick a slot. */
+    static int hash(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return (int) key;
+    }
+}
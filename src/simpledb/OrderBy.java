@@ -3,14 +3,31 @@ import java.util.*;
 
 /**
  * OrderBy is an operator that implements a relational ORDER BY.
+ * <p>
+ * The sort is an external merge sort: tuples from the child are collected
+ * into memory-bounded runs, each run is sorted and, if the input does not fit
+ * in a single run, written to a {@link SpillFile}.  The runs are then merged
+ * with a heap.  Inputs that fit in one run are sorted entirely in memory.
  */
 public class OrderBy extends Operator {
-    DbIterator child;
-    TupleDesc td;
-    ArrayList<Tuple> childTups = new ArrayList<Tuple>();
-    int orderByField;
-    Iterator<Tuple> it;
-    boolean asc;
+
+    /** Default number of pages' worth of tuples sorted in memory per run. */
+    public static final int DEFAULT_RUN_PAGES = BufferPool.DEFAULT_PAGES;
+
+    /** Maximum number of runs merged at once; more runs are merged in several passes. */
+    static final int MAX_MERGE_FAN_IN = 64;
+
+    private final DbIterator child;
+    private final TupleDesc td;
+    private final int[] orderByFields;
+    private final boolean[] asc;
+    private final TupleComparator comparator;
+    private final int runTuples;
+
+    private final ArrayList<Tuple> memoryRun = new ArrayList<Tuple>();
+    private final ArrayList<SpillFile> runs = new ArrayList<SpillFile>();
+    private Iterator<Tuple> memoryIt;
+    private RunMerger merger;
 
     /**
      * Creates a new OrderBy node over the tuples from the iterator.
@@ -20,32 +37,110 @@ public class OrderBy extends Operator {
      * @param child the tuples to sort.
      */
     public OrderBy(int orderbyField,  boolean asc, DbIterator child) {
+        this(new int[]{orderbyField}, new boolean[]{asc}, child);
+    }
+
+    /**
+     * Creates a new OrderBy node sorting on several fields.
+     *
+     * @param orderByFields the fields to which the sort is applied, most significant first.
+     * @param asc for each field, true if the sort order is ascending.
+     * @param child the tuples to sort.
+     */
+    public OrderBy(int[] orderByFields, boolean[] asc, DbIterator child) {
+        this(orderByFields, asc, child, DEFAULT_RUN_PAGES);
+    }
+
+    /**
+     * Creates a new OrderBy node sorting on several fields with a memory bound.
+     *
+     * @param orderByFields the fields to which the sort is applied, most significant first.
+     * @param asc for each field, true if the sort order is ascending.
+     * @param child the tuples to sort.
+     * @param runPages the number of pages' worth of tuples sorted in memory at once.
+     */
+    public OrderBy(int[] orderByFields, boolean[] asc, DbIterator child, int runPages) {
+        if (runPages < 1) {
+            throw new IllegalArgumentException("a run must hold at least one page");
+        }
         this.child = child;
-        td= child.getTupleDesc();
-        this.orderByField = orderbyField;
-        this.asc = asc;
+        this.td = child.getTupleDesc();
+        this.orderByFields = orderByFields.clone();
+        this.asc = asc.clone();
+        this.comparator = new TupleComparator(orderByFields, asc, td);
+        this.runTuples = runTuples(td, runPages);
+    }
+
+    /** @return the number of tuples with schema td sorted in memory in a run of runPages pages */
+    static int runTuples(TupleDesc td, int runPages) {
+        return (int) Math.max(1, Math.min(Integer.MAX_VALUE, (long) runPages * BufferPool.PAGE_SIZE / td.getSize()));
     }
 
     public TupleDesc getTupleDesc() {
         return td;
     }
 
+    /** @return the fields the output is sorted on, most significant first */
+    public int[] getOrderByFields() {
+        return orderByFields.clone();
+    }
+
+    /** @return for each sort field, true if it is sorted in ascending order */
+    public boolean[] getAscending() {
+        return asc.clone();
+    }
+
+    /** @return the tuples to sort */
+    public DbIterator getChild() {
+        return child;
+    }
+
     public void open()
         throws DbException, NoSuchElementException, TransactionAbortedException {
+        discardRuns();
         child.open();
-        //load all the tuples in a collection, and sort it
-        while (child.hasNext())
-            childTups.add((Tuple)child.next());
-        Collections.sort(childTups, new TupleComparator(orderByField, asc));
-        it = childTups.iterator();
+        while (child.hasNext()) {
+            addInput(child.next());
+        }
+        finishInput();
+    }
+
+    /**
+     * Adds a tuple to the input to be sorted.  open() reads the child with
+     * this; {@link PushExecutor} pushes the child's tuples into it instead,
+     * then calls {@link #finishInput} and reads the sorted output with next().
+     */
+    void addInput(Tuple t) throws DbException {
+        memoryRun.add(t);
+        if (memoryRun.size() >= runTuples) {
+            spillRun();
+        }
+    }
+
+    /** Sorts the tuples added with {@link #addInput} and starts returning them. */
+    void finishInput() throws DbException {
+        if (runs.isEmpty()) {
+            Collections.sort(memoryRun, comparator);
+        } else {
+            if (!memoryRun.isEmpty()) {
+                spillRun();
+            }
+            while (runs.size() > MAX_MERGE_FAN_IN) {
+                mergePass();
+            }
+        }
+        startOutput();
     }
 
     public void close() {
-        it = null;
+        super.close();
+        child.close();
+        discardRuns();
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
-        it = childTups.iterator();
+        super.close();
+        startOutput();
     }
 
     /**
@@ -56,31 +151,128 @@ public class OrderBy extends Operator {
      */
     protected Tuple fetchNext()
         throws NoSuchElementException, TransactionAbortedException, DbException {
-        if (it != null && it.hasNext()) {
-            return it.next();
-        } else
-            return null;
+        if (memoryIt != null) {
+            return memoryIt.hasNext() ? memoryIt.next() : null;
+        }
+        if (merger != null) {
+            return merger.next();
+        }
+        return null;
+    }
+
+    private void startOutput() throws DbException {
+        if (merger != null) {
+            merger.close();
+            merger = null;
+        }
+        if (runs.isEmpty()) {
+            memoryIt = memoryRun.iterator();
+        } else {
+            memoryIt = null;
+            merger = new RunMerger(runs);
+        }
     }
-}
 
- class TupleComparator implements Comparator<Tuple> {
-     int field;
-     boolean asc;
-
-     public TupleComparator(int field, boolean asc) {
-         this.field = field;
-     this.asc = asc;
-     }
-
-     public int compare(Tuple o1, Tuple o2) {
-         Field t1 = (o1).getField(field);
-         Field t2 = (o2).getField(field);
-         if (t1.compare(Predicate.Op.EQUALS, t2))
-             return 0;
-         if (t1.compare(Predicate.Op.GREATER_THAN, t2))
-             return asc?1:-1;
-         else
-             return asc?-1:1;
-     }
+    /** Sorts the in-memory run and writes it out to a new spill file. */
+    private void spillRun() throws DbException {
+        Collections.sort(memoryRun, comparator);
+        SpillFile run = new SpillFile(td);
+        for (Tuple t : memoryRun) {
+            run.add(t);
+        }
+        run.finish();
+        runs.add(run);
+        memoryRun.clear();
+    }
 
+    /** Merges groups of MAX_MERGE_FAN_IN runs into single, longer runs. */
+    private void mergePass() throws DbException {
+        ArrayList<SpillFile> merged = new ArrayList<SpillFile>();
+        for (int i = 0; i < runs.size(); i += MAX_MERGE_FAN_IN) {
+            List<SpillFile> group = runs.subList(i, Math.min(runs.size(), i + MAX_MERGE_FAN_IN));
+            SpillFile out = new SpillFile(td);
+            RunMerger m = new RunMerger(group);
+            Tuple t;
+            while ((t = m.next()) != null) {
+                out.add(t);
+            }
+            out.finish();
+            for (SpillFile run : group) {
+                run.delete();
+            }
+            merged.add(out);
+        }
+        runs.clear();
+        runs.addAll(merged);
+    }
+
+    /** Deletes any sorted runs, in memory or on disk. */
+    void discardRuns() {
+        if (merger != null) {
+            merger.close();
+            merger = null;
+        }
+        for (SpillFile run : runs) {
+            run.delete();
+        }
+        runs.clear();
+        memoryRun.clear();
+        memoryIt = null;
+    }
+
+    /** K-way merge of sorted runs using a heap keyed on each run's current tuple. */
+    private class RunMerger {
+        private final PriorityQueue<RunCursor> heap;
+        private final ArrayList<RunCursor> cursors;
+
+        RunMerger(List<SpillFile> sortedRuns) throws DbException {
+            heap = new PriorityQueue<RunCursor>(Math.max(1, sortedRuns.size()), new Comparator<RunCursor>() {
+                public int compare(RunCursor c1, RunCursor c2) {
+                    return comparator.compare(c1.head, c2.head);
+                }
+            });
+            cursors = new ArrayList<RunCursor>();
+            for (SpillFile run : sortedRuns) {
+                RunCursor cursor = new RunCursor(run.reader());
+                cursors.add(cursor);
+                if (cursor.advance()) {
+                    heap.add(cursor);
+                }
+            }
+        }
+
+        /** @return the next tuple in sort order, or null when all runs are exhausted */
+        Tuple next() throws DbException {
+            RunCursor cursor = heap.poll();
+            if (cursor == null) {
+                return null;
+            }
+            Tuple result = cursor.head;
+            if (cursor.advance()) {
+                heap.add(cursor);
+            }
+            return result;
+        }
+
+        void close() {
+            for (RunCursor cursor : cursors) {
+                cursor.reader.close();
+            }
+            heap.clear();
+        }
+    }
+
+    private static class RunCursor {
+        final SpillFile.Reader reader;
+        Tuple head;
+
+        RunCursor(SpillFile.Reader reader) {
+            this.reader = reader;
+        }
+
+        boolean advance() throws DbException {
+            head = reader.hasNext() ? reader.next() : null;
+            return head != null;
+        }
+    }
 }
@@ -3,6 +3,8 @@ package simpledb;
 import Zql.*;
 import java.io.*;
 import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import jline.ArgumentCompletor;
 import jline.ConsoleReader;
@@ -10,12 +12,77 @@ import jline.SimpleCompletor;
 
 public class Parser {
     static boolean explain = false;
+    static int degreeOfParallelism = 1;
+    static int dpJoinLimit = JoinOptimizer.DEFAULT_DP_JOIN_LIMIT;
+    static long planningMillis = JoinOptimizer.DEFAULT_PLANNING_MILLIS;
+    static int joinMemoryPages = JoinOptimizer.DEFAULT_JOIN_MEMORY_PAGES;
+    static boolean pushExecution = false;
+    static double reoptimizationFactor = 0;
      static HashMap<String, TableStats> statsMap = new HashMap<String,TableStats>();
     private static final int IOCOSTPERPAGE = 1000;
     
     public static void setStatsMap(HashMap<String, TableStats> _statsMap) {
     	statsMap = _statsMap;
     }
+
+    /** Matches a trailing "LIMIT n [OFFSET m]" clause, which ZQL cannot parse */
+    private static final Pattern LIMIT_CLAUSE = Pattern.compile(
+            "\\s+LIMIT\\s+(\\d+)(?:\\s+OFFSET\\s+(\\d+))?\\s*(;?)\\s*$", Pattern.CASE_INSENSITIVE);
+
+    /** Matches "ANALYZE [table] [SAMPLE p PERCENT]", which ZQL cannot parse */
+    private static final Pattern ANALYZE_STATEMENT = Pattern.compile(
+            "^\\s*ANALYZE(?:\\s+(\\w+))?(?:\\s+SAMPLE\\s+(\\d+(?:\\.\\d*)?)\\s+PERCENT)?\\s*;?\\s*$",
+            Pattern.CASE_INSENSITIVE);
+
+    /** Matches the "EXPLAIN ANALYZE" prefix of a query that is run with its operators profiled */
+    private static final Pattern EXPLAIN_ANALYZE = Pattern.compile(
+            "^\\s*EXPLAIN\\s+ANALYZE\\s+", Pattern.CASE_INSENSITIVE);
+
+    /** The file table statistics are saved in, or null if they are not saved */
+    static File statsFile = null;
+
+    /** A statement with its trailing LIMIT clause, which ZQL cannot parse, taken off */
+    static class LimitedStatement {
+        /** The statement without its LIMIT clause */
+        final String text;
+        /** The LIMIT and OFFSET values; limit is -1 if there is no LIMIT clause */
+        final int limit;
+        final int offset;
+
+        /** No LIMIT clause, for queries run without going through {@link #extractLimit} */
+        static final LimitedStatement NONE = new LimitedStatement(null, -1, 0);
+
+        LimitedStatement(String text, int limit, int offset) {
+            this.text = text;
+            this.limit = limit;
+            this.offset = offset;
+        }
+
+        /** Add the LIMIT clause, if there is one, to the plan of the statement */
+        void apply(LogicalPlan lp) {
+            if (limit >= 0) {
+                lp.addLimit(limit, offset);
+            }
+        }
+    }
+
+    /** Remove a trailing LIMIT clause from the statement s.
+        @return s without its LIMIT clause, along with the clause's values
+        @throws ParsingException if the LIMIT or OFFSET value is out of range
+    */
+    static LimitedStatement extractLimit(String s) throws simpledb.ParsingException {
+        Matcher m = LIMIT_CLAUSE.matcher(s);
+        if (!m.find()) {
+            return new LimitedStatement(s, -1, 0);
+        }
+        try {
+            int limit = Integer.parseInt(m.group(1));
+            int offset = m.group(2) == null ? 0 : Integer.parseInt(m.group(2));
+            return new LimitedStatement(s.substring(0, m.start()) + m.group(3), limit, offset);
+        } catch (NumberFormatException e) {
+            throw new simpledb.ParsingException("Invalid LIMIT clause: " + m.group().trim());
+        }
+    }
     
     static Predicate.Op getOp(String s) throws simpledb.ParsingException {
         if (s.equals("=")) return Predicate.Op.EQUALS;
@@ -114,6 +181,9 @@ public class Parser {
         Vector<ZFromItem> from = q.getFrom();
         LogicalPlan lp = new LogicalPlan();
         lp.setQuery(q.toString());
+        lp.setDpJoinLimit(dpJoinLimit);
+        lp.setPlanningBudget(planningMillis);
+        lp.setJoinMemory(joinMemoryPages);
         //walk through tables in the FROM clause
         for (int i = 0; i < from.size(); i++) {
             ZFromItem fromIt = from.elementAt(i);
@@ -150,20 +220,18 @@ public class Parser {
 
         // now look for group by fields
         ZGroupBy gby = q.getGroupBy();
-        String groupByField = null;
+        Vector<String> groupByFields = new Vector<String>();
         if (gby != null) {
             @SuppressWarnings("unchecked")
             Vector<ZExp> gbs = gby.getGroupBy();
-            if (gbs.size() > 1) {
-                throw new simpledb.ParsingException("At most one grouping field expression supported.");
-            }
-            if (gbs.size() == 1) {
-                ZExp gbe = gbs.elementAt(0);
+            for (ZExp gbe : gbs) {
                 if (! (gbe instanceof ZConstant)) {
                     throw new simpledb.ParsingException("Complex grouping expressions (" + gbe + ") not supported.");
                 }
-                groupByField = ((ZConstant)gbe).getValue();
+                String groupByField = ((ZConstant)gbe).getValue();
                 System.out.println ("GROUP BY FIELD : " + groupByField);
+                groupByFields.addElement(groupByField);
+                lp.addGroupByField(groupByField);
             }
 
         }
@@ -171,8 +239,7 @@ public class Parser {
         // walk the select list, pick out aggregates, and check for query validity
         @SuppressWarnings("unchecked")
         Vector<ZSelectItem> selectList = q.getSelect();
-        String aggField = null;
-        String aggFun = null;
+        boolean hasAggregate = false;
 
         for (int i = 0; i < selectList.size(); i++) {
             ZSelectItem si = selectList.elementAt(i);
@@ -180,28 +247,23 @@ public class Parser {
                 throw new simpledb.ParsingException("Expressions in SELECT list are not supported.");
             }
             if (si.getAggregate() != null) {
-                if (aggField != null) {
-                    throw new simpledb.ParsingException("Aggregates over multiple fields not supported.");
-                }
-                aggField = ((ZConstant)((ZExpression)si.getExpression()).getOperand(0)).getValue();
-                aggFun = si.getAggregate();
+                String aggField = ((ZConstant)((ZExpression)si.getExpression()).getOperand(0)).getValue();
+                String aggFun = si.getAggregate();
                 System.out.println ("Aggregate field is " + aggField + ", agg fun is : " + aggFun);
                 lp.addProjectField(aggField, aggFun);
+                lp.addAggregate(aggFun, aggField, null);
+                hasAggregate = true;
             } else {
-                if (groupByField != null && ! (groupByField.equals(si.getTable() + "." + si.getColumn()) || groupByField.equals(si.getColumn()))) {
+                if (!groupByFields.isEmpty() && ! (groupByFields.contains(si.getTable() + "." + si.getColumn()) || groupByFields.contains(si.getColumn()))) {
                     throw new simpledb.ParsingException("Non-aggregate field " + si.getColumn() + " does not appear in GROUP BY list.");
                 }
                 lp.addProjectField(si.getTable() + "." + si.getColumn(), null);
             }
         }
 
-        if (groupByField != null && aggFun == null) {
+        if (!groupByFields.isEmpty() && !hasAggregate) {
             throw new simpledb.ParsingException("GROUP BY without aggregation.");
         }
-        
-        if (aggFun != null) {
-            lp.addAggregate(aggFun, aggField, groupByField);
-        }
         // sort the data
 
         if (q.getOrderBy() != null) {
@@ -229,11 +291,21 @@ public class Parser {
     static Transaction curtrans = null;
 
     public static void handleQueryStatement(ZQuery s) throws TransactionAbortedException, DbException, IOException, simpledb.ParsingException, Zql.ParseException  {
+        handleQueryStatement(s, LimitedStatement.NONE);
+    }
+
+    /** Run the query s, returning the rows its LIMIT clause, taken off by
+        {@link #extractLimit}, selects. */
+    static void handleQueryStatement(ZQuery s, LimitedStatement limited) throws TransactionAbortedException, DbException, IOException, simpledb.ParsingException, Zql.ParseException  {
         // and run it
         DbIterator node;
-        node = parseQuery(curtrans.getId(), s);
-
-        Query sdbq = new Query(node, curtrans.getId());
+        LogicalPlan lp = parseQueryLogicalPlan(curtrans.getId(), s);
+        limited.apply(lp);
+        Query sdbq = new Query(lp, statsMap, explain, curtrans.getId());
+        sdbq.setDegreeOfParallelism(degreeOfParallelism);
+        sdbq.setReoptimizationFactor(reoptimizationFactor);
+        sdbq.setPushExecution(pushExecution);
+        node = sdbq.getPhysicalPlan();
         TupleDesc td = node.getTupleDesc();
 
         String names = "";
@@ -257,6 +329,41 @@ public class Parser {
         sdbq.close();
     }
 
+    /** Run the query s with every operator profiled, discarding its
+        result, and print the plan with the estimated and actual number of
+        tuples each operator returned and the time and pages it took. */
+    public static void handleExplainAnalyzeStatement(ZQuery s) throws TransactionAbortedException, DbException, IOException, simpledb.ParsingException, Zql.ParseException  {
+        handleExplainAnalyzeStatement(s, LimitedStatement.NONE);
+    }
+
+    static void handleExplainAnalyzeStatement(ZQuery s, LimitedStatement limited) throws TransactionAbortedException, DbException, IOException, simpledb.ParsingException, Zql.ParseException  {
+        LogicalPlan lp = parseQueryLogicalPlan(curtrans.getId(), s);
+        limited.apply(lp);
+        lp.setProfiled(true);
+        Query sdbq = new Query(lp, statsMap, explain, curtrans.getId());
+        sdbq.setDegreeOfParallelism(degreeOfParallelism);
+        sdbq.setReoptimizationFactor(reoptimizationFactor);
+
+        long start = System.nanoTime();
+        sdbq.start();
+        int cnt = 0;
+        while (sdbq.hasNext()) {
+            sdbq.next();
+            cnt++;
+        }
+        sdbq.close();
+        long nanos = System.nanoTime() - start;
+
+        // the plan that ran to the end, after any re-planning
+        DbIterator node = sdbq.getPhysicalPlan();
+        System.out.print(((ProfiledIterator)node).explain());
+        System.out.printf("\n %d rows in %.3f ms", cnt, nanos / 1e6);
+        if (sdbq.getReoptimizations() > 0) {
+            System.out.printf(", re-planned %d times", sdbq.getReoptimizations());
+        }
+        System.out.println(".");
+    }
+
     public static void handleInsertStatement(ZInsert s) throws TransactionAbortedException, DbException, IOException, simpledb.ParsingException, Zql.ParseException  {
         int id;
         try {
@@ -355,6 +462,7 @@ public class Parser {
             curtrans.transactionComplete(false);
             curtrans = null;
             System.out.println("Transaction committed.");
+            flushStats();
         } else if (s.getStmtType().equals("ROLLBACK")) {
             curtrans.transactionComplete(true);
             curtrans = null;
@@ -365,13 +473,62 @@ public class Parser {
         }
     }
 
+    /** Save the table statistics if inserts and deletes have changed them
+        since they were last saved. */
+    static void flushStats() {
+        try {
+            TableStats.flush();
+        } catch (IOException e) {
+            System.out.println("Cannot save statistics to " + statsFile + ": " + e.getMessage());
+        }
+    }
+
+    /** Recompute the statistics of one table, or of every table if table
+        is null, from a sample of percent percent of their pages, and print
+        what was estimated along with its standard error.
+    */
+    public static void handleAnalyzeStatement(String table, double percent) throws simpledb.ParsingException {
+        if (!(percent > 0 && percent <= 100)) {
+            throw new simpledb.ParsingException("Sample rate must be between 0 and 100 percent: " + percent);
+        }
+        ArrayList<Integer> tableIds = new ArrayList<Integer>();
+        if (table == null) {
+            Iterator<Integer> it = Database.getCatalog().tableIdIterator();
+            while (it.hasNext()) {
+                tableIds.add(it.next());
+            }
+        } else {
+            try {
+                tableIds.add(Database.getCatalog().getTableId(table));
+            } catch (NoSuchElementException e) {
+                throw new simpledb.ParsingException("Unknown table " + table);
+            }
+        }
+        for (int tableId : tableIds) {
+            String name = Database.getCatalog().getTableName(tableId);
+            TableStats s = new TableStats(tableId, IOCOSTPERPAGE, percent / 100);
+            statsMap.put(name, s);
+            System.out.printf("%s: %d rows (+/- %.0f at 95%%), %d pages, %.1f%% of pages sampled, %d tuples in histograms\n",
+                    name, s.numTuples(), 2 * s.cardinalityError(), s.numPages(), 100 * s.sampleRate(), s.sampleSize());
+        }
+        if (statsFile != null) {
+            try {
+                TableStats.save(statsFile, statsMap);
+            } catch (IOException e) {
+                System.out.println("Cannot save statistics to " + statsFile + ": " + e.getMessage());
+            }
+        }
+    }
+
     public static LogicalPlan generateLogicalPlan(TransactionId tid, String s) throws simpledb.ParsingException {
-        ByteArrayInputStream bis = new ByteArrayInputStream(s.getBytes());
+        LimitedStatement limited = extractLimit(s);
+        ByteArrayInputStream bis = new ByteArrayInputStream(limited.text.getBytes());
         ZqlParser p = new ZqlParser(bis);
         try {
             ZStatement stmt = p.readStatement();
             if (stmt instanceof ZQuery) {
                     LogicalPlan lp = parseQueryLogicalPlan(tid, (ZQuery)stmt);
+                    limited.apply(lp);
                     return lp;
             }
         }
@@ -404,17 +561,37 @@ public class Parser {
     
     public static void processNextStatement(InputStream is) {
         try {
-            ZqlParser p = new ZqlParser(is);
+            String text = readStatementText(is);
+            Matcher analyze = ANALYZE_STATEMENT.matcher(text);
+            if (analyze.matches()) {
+                handleAnalyzeStatement(analyze.group(1),
+                        analyze.group(2) == null ? 100 : Double.parseDouble(analyze.group(2)));
+                return;
+            }
+            Matcher explainAnalyze = EXPLAIN_ANALYZE.matcher(text);
+            boolean analyzed = explainAnalyze.lookingAt();
+            if (analyzed) {
+                text = text.substring(explainAnalyze.end());
+            }
+            LimitedStatement limited = extractLimit(text);
+            ZqlParser p = new ZqlParser(new ByteArrayInputStream(limited.text.getBytes("UTF-8")));
             ZStatement s = p.readStatement();
 
+            if (limited.limit >= 0 && !(s instanceof ZQuery))
+                throw new simpledb.ParsingException("LIMIT is only supported in SELECT statements.");
+            if (analyzed && !(s instanceof ZQuery))
+                throw new simpledb.ParsingException("EXPLAIN ANALYZE is only supported for SELECT statements.");
+
             if (s instanceof ZTransactStmt)
                 handleTransactStatement((ZTransactStmt)s);
             else if (s instanceof ZInsert)
                 handleInsertStatement((ZInsert)s);
             else if (s instanceof ZDelete)
                 handleDeleteStatement((ZDelete)s);
+            else if (s instanceof ZQuery && analyzed)
+                handleExplainAnalyzeStatement((ZQuery)s, limited);
             else if (s instanceof ZQuery)
-                handleQueryStatement((ZQuery)s);
+                handleQueryStatement((ZQuery)s, limited);
             else {
                 System.out.println("Can't parse " + s + "\n -- parser only handles SQL transactions, insert, delete, and select statements");
             }
@@ -434,6 +611,18 @@ public class Parser {
         }
     }
 
+    /** Read the remaining contents of is, so that clauses ZQL does not
+        understand can be removed before it parses the statement. */
+    private static String readStatementText(InputStream is) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        byte[] buf = new byte[4096];
+        int n;
+        while ((n = is.read(buf)) > 0) {
+            bos.write(buf, 0, n);
+        }
+        return bos.toString("UTF-8");
+    }
+
     // Basic SQL completions
     static final String[] SQL_COMMANDS = {
         "select",
@@ -449,14 +638,20 @@ public class Parser {
         "insert",
         "delete",
         "values",
-        "into"
+        "into",
+        "limit",
+        "offset",
+        "analyze",
+        "explain analyze",
+        "sample",
+        "percent"
     };
 
     public static void main(String argv[]) throws IOException {
 
-        String usage = "Usage: parser catalogFile [-explain] [-f queryFile]";
+        String usage = "Usage: parser catalogFile [-explain] [-parallel threads] [-dpjoins joins] [-planms millis] [-joinpages pages] [-reopt factor] [-push] [-f queryFile]";
 
-        if (argv.length < 1 || argv.length > 4) {
+        if (argv.length < 1 || argv.length > 15) {
             System.out.println("Invalid number of arguments.\n" + usage);
             System.exit(0);
         }
@@ -464,14 +659,10 @@ public class Parser {
         //first add tables to database
         Database.getCatalog().loadSchema(argv[0]);
 
-        Iterator<Integer> tableIt = Database.getCatalog().tableIdIterator();
-
         System.out.println("Computing table stats.");
-        while (tableIt.hasNext()) {
-            int tableid = tableIt.next();
-            TableStats s = new TableStats(tableid, IOCOSTPERPAGE);
-            statsMap.put(Database.getCatalog().getTableName(tableid), s);
-        }
+        statsFile = new File(argv[0] + ".stats");
+        statsMap = TableStats.loadOrCompute(statsFile, IOCOSTPERPAGE);
+        TableStats.maintain(statsMap, statsFile);
         System.out.println("Done.");
 
         boolean interactive = true;
@@ -490,6 +681,78 @@ public class Parser {
                     }
                     queryFile = argv[i];
 
+                } else if (argv[i].equals("-parallel")) {
+                    if (++i == argv.length) {
+                        System.out.println("Expected thread count after -parallel\n" + usage);
+                        System.exit(0);
+                    }
+                    try {
+                        degreeOfParallelism = Math.max(1, Integer.parseInt(argv[i]));
+                    } catch (NumberFormatException e) {
+                        System.out.println("Invalid thread count " + argv[i] + "\n" + usage);
+                        System.exit(0);
+                    }
+                    System.out.println("Scanning tables with " + degreeOfParallelism + " threads.");
+                } else if (argv[i].equals("-dpjoins")) {
+                    if (++i == argv.length) {
+                        System.out.println("Expected join count after -dpjoins\n" + usage);
+                        System.exit(0);
+                    }
+                    try {
+                        dpJoinLimit = Math.max(0, Integer.parseInt(argv[i]));
+                    } catch (NumberFormatException e) {
+                        System.out.println("Invalid join count " + argv[i] + "\n" + usage);
+                        System.exit(0);
+                    }
+                    System.out.println("Ordering up to " + dpJoinLimit + " joins by dynamic programming.");
+                } else if (argv[i].equals("-planms")) {
+                    if (++i == argv.length) {
+                        System.out.println("Expected milliseconds after -planms\n" + usage);
+                        System.exit(0);
+                    }
+                    try {
+                        planningMillis = Math.max(1, Long.parseLong(argv[i]));
+                    } catch (NumberFormatException e) {
+                        System.out.println("Invalid milliseconds " + argv[i] + "\n" + usage);
+                        System.exit(0);
+                    }
+                    System.out.println("Planning joins for at most " + planningMillis + " ms.");
+                } else if (argv[i].equals("-joinpages")) {
+                    if (++i == argv.length) {
+                        System.out.println("Expected page count after -joinpages\n" + usage);
+                        System.exit(0);
+                    }
+                    try {
+                        joinMemoryPages = Math.max(1, Integer.parseInt(argv[i]));
+                    } catch (NumberFormatException e) {
+                        System.out.println("Invalid page count " + argv[i] + "\n" + usage);
+                        System.exit(0);
+                    }
+                    System.out.println("Joining with at most " + joinMemoryPages + " pages of memory each.");
+                } else if (argv[i].equals("-reopt")) {
+                    if (++i == argv.length) {
+                        System.out.println("Expected deviation factor after -reopt\n" + usage);
+                        System.exit(0);
+                    }
+                    try {
+                        reoptimizationFactor = Double.parseDouble(argv[i]);
+                    } catch (NumberFormatException e) {
+                        System.out.println("Invalid deviation factor " + argv[i] + "\n" + usage);
+                        System.exit(0);
+                    }
+                    if (reoptimizationFactor != 0 && reoptimizationFactor < 1) {
+                        System.out.println("Invalid deviation factor " + argv[i] + "\n" + usage);
+                        System.exit(0);
+                    }
+                    if (reoptimizationFactor == 0) {
+                        System.out.println("Re-planning disabled.");
+                    } else {
+                        System.out.println("Re-planning joins whose inputs are " + reoptimizationFactor
+                                + " times off their estimates.");
+                    }
+                } else if (argv[i].equals("-push")) {
+                    pushExecution = true;
+                    System.out.println("Push-based execution enabled.");
                 } else {
                     System.out.println("Unknown argument " + argv[i] + "\n " + usage);
                 }
@@ -542,6 +805,7 @@ public class Parser {
                 }
             }
         }
+        flushStats();
     }
 }
 
@@ -29,6 +29,19 @@ public class Predicate {
         public static Op getOp(int i) {
             return values()[i];
         }
+
+        /** @return the SQL operator for this op, such as "<=" */
+        public String symbol() {
+            switch (this) {
+            case EQUALS: return "=";
+            case GREATER_THAN: return ">";
+            case LESS_THAN: return "<";
+            case LESS_THAN_OR_EQ: return "<=";
+            case GREATER_THAN_OR_EQ: return ">=";
+            case LIKE: return "LIKE";
+            default: return "<>";
+            }
+        }
     }
 
     private final int fieldNo;
@@ -48,6 +61,45 @@ public class Predicate {
         this.operand = operand;
     }
 
+    /** @return the field number of passed in tuples the predicate compares */
+    public int getField() {
+        return fieldNo;
+    }
+
+    /** @return the comparison operator */
+    public Op getOperator() {
+        return op;
+    }
+
+    /** @return the value tuples are compared to */
+    public Field getOperand() {
+        return operand;
+    }
+
+    /**
+     * Compares two int values with op, with the same result as
+     * {@link IntField#compare}.
+     */
+    static boolean compare(int v1, Op op, int v2) {
+        switch (op) {
+            case EQUALS:
+            case LIKE:
+                return v1 == v2;
+            case NOT_EQUALS:
+                return v1 != v2;
+            case GREATER_THAN:
+                return v1 > v2;
+            case GREATER_THAN_OR_EQ:
+                return v1 >= v2;
+            case LESS_THAN:
+                return v1 < v2;
+            case LESS_THAN_OR_EQ:
+                return v1 <= v2;
+            default:
+                return false;
+        }
+    }
+
     /**
      * Compares the field number of t specified in the constructor to the
      * operand field specified in the constructor using the operator specific
@@ -0,0 +1,262 @@
+package simpledb;
+
+import java.io.*;
+import java.lang.constant.ConstantDescs;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+/**
+ * PredicateCompiler turns a {@link Predicate} or {@link JoinPredicate} into
+ * code specialized for one schema, so that evaluating it on a tuple does not
+ * go through Field.compare's switch on the operator.
+ * <p>
+ * A method handle is composed when the operator is constructed.  When the
+ * compared fields are integers, it reads the int values out of the tuples
+ * and calls a comparison method for just that operator, with a constant
+ * operand bound in.  Other comparisons fall back to Field.compare with the
+ * operator and operand bound in.
+ * <p>
+ * The JIT only inlines a method handle it knows to be constant, which one
+ * held in an operator's field is not.  So each handle is bound into a class
+ * of its own: a hidden copy of {@link CompiledPredicateTemplate} or
+ * {@link CompiledJoinPredicateTemplate} whose static final field holds it.
+ * The operator calls that class through {@link Compiled} or
+ * {@link CompiledJoin}, and the JIT compiles the call into straight-line
+ * code once it is hot.
+ */
+public class PredicateCompiler {
+
+    /** A predicate compiled by {@link #compile(Predicate, TupleDesc)}. */
+    public interface Compiled {
+        /** @return the same result as Predicate.filter(t) */
+        boolean test(Tuple t);
+    }
+
+    /** A join predicate compiled by {@link #compile(JoinPredicate, TupleDesc, TupleDesc)}. */
+    public interface CompiledJoin {
+        /** @return the same result as JoinPredicate.filter(t1, t2) */
+        boolean test(Tuple t1, Tuple t2);
+    }
+
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+    // the class files of the templates, or null if they cannot be read
+    private static final byte[] PREDICATE_TEMPLATE = classFile(CompiledPredicateTemplate.class.getSimpleName());
+    private static final byte[] JOIN_TEMPLATE = classFile(CompiledJoinPredicateTemplate.class.getSimpleName());
+
+    private static final MethodType INT_COMPARISON =
+        MethodType.methodType(boolean.class, int.class, int.class);
+
+    private static final MethodHandle INT_VALUE;
+    private static final MethodHandle GET_FIELD;
+    private static final MethodHandle COMPARE;
+
+    static {
+        try {
+            INT_VALUE = LOOKUP.findStatic(PredicateCompiler.class, "intValue",
+                MethodType.methodType(int.class, Tuple.class, int.class));
+            GET_FIELD = LOOKUP.findVirtual(Tuple.class, "getField",
+                MethodType.methodType(Field.class, int.class));
+            COMPARE = LOOKUP.findVirtual(Field.class, "compare",
+                MethodType.methodType(boolean.class, Predicate.Op.class, Field.class));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private PredicateCompiler() {
+    }
+
+    /** Compiles a predicate over tuples with the given schema. */
+    public static Compiled compile(Predicate p, TupleDesc td) {
+        final MethodHandle handle = handle(p, td);
+        Compiled c = (Compiled) bind(PREDICATE_TEMPLATE, handle);
+        if (c != null) {
+            return c;
+        }
+        return new Compiled() {
+            public boolean test(Tuple t) {
+                try {
+                    return (boolean) handle.invokeExact(t);
+                } catch (Throwable e) {
+                    throw unchecked(e);
+                }
+            }
+        };
+    }
+
+    /** Compiles a join predicate over pairs of tuples with the given schemas. */
+    public static CompiledJoin compile(JoinPredicate p, TupleDesc td1, TupleDesc td2) {
+        final MethodHandle handle = handle(p, td1, td2);
+        CompiledJoin c = (CompiledJoin) bind(JOIN_TEMPLATE, handle);
+        if (c != null) {
+            return c;
+        }
+        return new CompiledJoin() {
+            public boolean test(Tuple t1, Tuple t2) {
+                try {
+                    return (boolean) handle.invokeExact(t1, t2);
+                } catch (Throwable e) {
+                    throw unchecked(e);
+                }
+            }
+        };
+    }
+
+    /**
+     * @return a handle of type (Tuple)boolean that returns the same result as p.filter
+     */
+    static MethodHandle handle(Predicate p, TupleDesc td) {
+        Predicate.Op op = p.getOperator();
+        if (td.getFieldType(p.getField()) == Type.INT_TYPE && p.getOperand() instanceof IntField) {
+            // (int, int)boolean -> (int)boolean -> (Tuple)boolean
+            MethodHandle test = MethodHandles.insertArguments(
+                intComparison(op), 1, ((IntField) p.getOperand()).getValue());
+            return MethodHandles.filterArguments(test, 0, intField(p.getField()));
+        }
+        // (Field, Op, Field)boolean -> (Field)boolean -> (Tuple)boolean
+        MethodHandle test = MethodHandles.insertArguments(COMPARE, 1, op, p.getOperand());
+        return MethodHandles.filterArguments(test, 0, field(p.getField()));
+    }
+
+    /**
+     * @return a handle of type (Tuple, Tuple)boolean that returns the same result as p.filter
+     */
+    static MethodHandle handle(JoinPredicate p, TupleDesc td1, TupleDesc td2) {
+        if (td1.getFieldType(p.getField1()) == Type.INT_TYPE
+                && td2.getFieldType(p.getField2()) == Type.INT_TYPE) {
+            return MethodHandles.filterArguments(intComparison(p.getOperator()), 0,
+                intField(p.getField1()), intField(p.getField2()));
+        }
+        MethodHandle test = MethodHandles.insertArguments(COMPARE, 1, p.getOperator());
+        return MethodHandles.filterArguments(test, 0, field(p.getField1()), field(p.getField2()));
+    }
+
+    /**
+     * Defines a hidden class from a template's class file whose HANDLE is
+     * handle, and returns a new instance of it, or null if the template
+     * could not be read.
+     */
+    private static Object bind(byte[] template, MethodHandle handle) {
+        if (template == null) {
+            return null;
+        }
+        try {
+            MethodHandles.Lookup hidden = LOOKUP.defineHiddenClassWithClassData(template, handle, true);
+            return hidden.findConstructor(hidden.lookupClass(), MethodType.methodType(void.class)).invoke();
+        } catch (Throwable e) {
+            throw unchecked(e);
+        }
+    }
+
+    /** @return the class file of the class with the specified name in this package, or null if it cannot be read */
+    private static byte[] classFile(String name) {
+        InputStream in = PredicateCompiler.class.getResourceAsStream(name + ".class");
+        if (in == null) {
+            return null;
+        }
+        try {
+            try {
+                return in.readAllBytes();
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /** @return the handle a template's hidden class was defined with; called by the templates */
+    static MethodHandle classData(MethodHandles.Lookup lookup) {
+        try {
+            return MethodHandles.classData(lookup, ConstantDescs.DEFAULT_NAME, MethodHandle.class);
+        } catch (IllegalAccessException e) {
+            // a class defined without class data, as the template itself would be
+            // if it were ever initialized
+            return null;
+        }
+    }
+
+    /** @return e, or e wrapped if it is checked, for rethrowing from a compiled predicate */
+    static RuntimeException unchecked(Throwable e) {
+        if (e instanceof RuntimeException) {
+            return (RuntimeException) e;
+        }
+        if (e instanceof Error) {
+            throw (Error) e;
+        }
+        return new RuntimeException(e);
+    }
+
+    /** @return a handle of type (Tuple)int reading integer field i */
+    private static MethodHandle intField(int i) {
+        return MethodHandles.insertArguments(INT_VALUE, 1, i);
+    }
+
+    /** @return a handle of type (Tuple)Field reading field i */
+    private static MethodHandle field(int i) {
+        return MethodHandles.insertArguments(GET_FIELD, 1, i);
+    }
+
+    /** @return a handle of type (int, int)boolean comparing its arguments with op */
+    private static MethodHandle intComparison(Predicate.Op op) {
+        String name;
+        switch (op) {
+            case EQUALS:
+            case LIKE:
+                name = "eq";
+                break;
+            case NOT_EQUALS:
+                name = "ne";
+                break;
+            case GREATER_THAN:
+                name = "gt";
+                break;
+            case GREATER_THAN_OR_EQ:
+                name = "ge";
+                break;
+            case LESS_THAN:
+                name = "lt";
+                break;
+            case LESS_THAN_OR_EQ:
+                name = "le";
+                break;
+            default:
+                throw new IllegalArgumentException("unknown operator " + op);
+        }
+        try {
+            return LOOKUP.findStatic(PredicateCompiler.class, name, INT_COMPARISON);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static int intValue(Tuple t, int i) {
+        return ((IntField) t.getField(i)).getValue();
+    }
+
+    private static boolean eq(int v1, int v2) {
+        return v1 == v2;
+    }
+
+    private static boolean ne(int v1, int v2) {
+        return v1 != v2;
+    }
+
+    private static boolean gt(int v1, int v2) {
+        return v1 > v2;
+    }
+
+    private static boolean ge(int v1, int v2) {
+        return v1 >= v2;
+    }
+
+    private static boolean lt(int v1, int v2) {
+        return v1 < v2;
+    }
+
+    private static boolean le(int v1, int v2) {
+        return v1 <= v2;
+    }
+}
@@ -0,0 +1,259 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * ProfiledIterator wraps one operator of a query plan for EXPLAIN ANALYZE,
+ * counting the tuples it returns, the time spent opening it and reading
+ * from it, and the pages it requested from the {@link BufferPool}: how many
+ * were already cached, how many had to be read, and how long it waited for
+ * their locks.
+ * <p>
+ * The counters include the work of the operator's inputs that runs on the
+ * same thread, as the inputs are called from within the operator.  The
+ * profiles form a tree, built by {@link LogicalPlan#physicalPlan}, which
+ * {@link #explain} prints with the optimizer's estimate of each operator's
+ * cardinality next to the actual one.
+ * <p>
+ * An {@link Exchange} is not wrapped, as the operators above it may read
+ * its children directly on their own workers.  It is represented instead
+ * by a profile that is not called at all, and that adds up the counters of
+ * the profiles of its children; see {@link #gather}.
+ */
+public class ProfiledIterator implements BatchDbIterator {
+
+    private final DbIterator child;
+    private final BatchDbIterator batchChild;
+    private final String label;
+    private final double estimate;
+    private final List<ProfiledIterator> inputs;
+    // the profiles whose counters a gathering profile adds up, or null
+    private final List<ProfiledIterator> parts;
+
+    // the counters, indexed by the constants below
+    private final long[] counters = new long[7];
+    private static final int ROWS = 0;
+    private static final int LOOPS = 1;
+    private static final int OPEN_NANOS = 2;
+    private static final int NEXT_NANOS = 3;
+    private static final int HITS = 4;
+    private static final int MISSES = 5;
+    private static final int LOCK_WAIT_NANOS = 6;
+
+    // the thread's counters when the current call started
+    private long startNanos;
+    private long startHits;
+    private long startMisses;
+    private long startLockWaitNanos;
+
+    /**
+     * Constructor.
+     *
+     * @param child the operator to profile
+     * @param label what to call the operator in {@link #explain}
+     * @param estimate the estimated number of tuples the operator returns,
+     *   or a negative number if it is not known
+     * @param inputs the profiles of the operator's inputs
+     */
+    public ProfiledIterator(DbIterator child, String label, double estimate, List<ProfiledIterator> inputs) {
+        this(child, label, estimate, inputs, null);
+    }
+
+    private ProfiledIterator(DbIterator child, String label, double estimate, List<ProfiledIterator> inputs,
+            List<ProfiledIterator> parts) {
+        this.child = child;
+        this.batchChild = child == null ? null : BatchAdapter.of(child);
+        this.label = label;
+        this.estimate = estimate;
+        this.inputs = new ArrayList<ProfiledIterator>(inputs);
+        this.parts = parts == null ? null : new ArrayList<ProfiledIterator>(parts);
+    }
+
+    /**
+     * Returns a profile for an operator that is not called through a
+     * ProfiledIterator, such as an {@link Exchange}, whose counters are the
+     * sums of those of parts.  It must not be opened or read.
+     *
+     * @param label what to call the operator in {@link #explain}
+     * @param estimate the estimated number of tuples the operator returns
+     * @param inputs the profiles of the operator's inputs
+     * @param parts the profiles the operator's work is done in
+     */
+    public static ProfiledIterator gather(String label, double estimate, List<ProfiledIterator> inputs,
+            List<ProfiledIterator> parts) {
+        return new ProfiledIterator(null, label, estimate, inputs, parts);
+    }
+
+    /** @return the profiled operator, or null for a gathering profile */
+    public DbIterator getChild() {
+        return child;
+    }
+
+    /** @return what the operator is called in {@link #explain} */
+    public String getLabel() {
+        return label;
+    }
+
+    /** @return the estimated number of tuples the operator returns, or a negative number if it is not known */
+    public double getEstimate() {
+        return estimate;
+    }
+
+    /** @return the number of tuples the operator has returned */
+    public long getRows() {
+        return total(ROWS);
+    }
+
+    /** @return the number of times the operator was opened or rewound */
+    public long getLoops() {
+        return total(LOOPS);
+    }
+
+    /** @return the nanoseconds spent opening and rewinding the operator */
+    public long getOpenNanos() {
+        return total(OPEN_NANOS);
+    }
+
+    /** @return the nanoseconds spent reading tuples from the operator */
+    public long getNextNanos() {
+        return total(NEXT_NANOS);
+    }
+
+    /** @return the number of pages the operator requested that were already cached */
+    public long getHits() {
+        return total(HITS);
+    }
+
+    /** @return the number of pages the operator requested that had to be read */
+    public long getMisses() {
+        return total(MISSES);
+    }
+
+    /** @return the nanoseconds the operator waited for page locks */
+    public long getLockWaitNanos() {
+        return total(LOCK_WAIT_NANOS);
+    }
+
+    /** @return the counter with the specified index, added up over the parts of a gathering profile */
+    private long total(int counter) {
+        long n = counters[counter];
+        if (parts != null) {
+            for (ProfiledIterator p : parts) {
+                n += p.total(counter);
+            }
+        }
+        return n;
+    }
+
+    /** @return the profiles of the operator's inputs */
+    public List<ProfiledIterator> getInputs() {
+        return Collections.unmodifiableList(inputs);
+    }
+
+    /**
+     * Returns the profile tree as text, one operator per line, each
+     * indented below the operator that reads it.
+     */
+    public String explain() {
+        StringBuilder out = new StringBuilder();
+        explain(out, "");
+        return out.toString();
+    }
+
+    private void explain(StringBuilder out, String indent) {
+        out.append(indent).append(indent.length() == 0 ? "" : "-> ").append(label).append("  (rows ");
+        out.append(estimate < 0 ? "?" : String.valueOf(Math.round(estimate))).append(" estimated, ");
+        out.append(getRows()).append(" actual");
+        if (getLoops() > 1) {
+            out.append(" in ").append(getLoops()).append(" loops");
+        }
+        out.append("; ");
+        out.append(String.format("open %.3f ms, next %.3f ms; ", getOpenNanos() / 1e6, getNextNanos() / 1e6));
+        out.append(getHits() + getMisses()).append(" pages, ").append(getHits()).append(" hits, ");
+        out.append(getMisses()).append(" misses; ");
+        out.append(String.format("lock wait %.3f ms)", getLockWaitNanos() / 1e6)).append("\n");
+        for (ProfiledIterator input : inputs) {
+            input.explain(out, indent.length() == 0 ? "  " : indent + "   ");
+        }
+    }
+
+    /** Notes the thread's counters at the start of a call. */
+    private void begin() {
+        BufferPool.PageCounters c = BufferPool.threadCounters();
+        startHits = c.hits;
+        startMisses = c.misses;
+        startLockWaitNanos = c.lockWaitNanos;
+        startNanos = System.nanoTime();
+    }
+
+    /** Adds what the thread did since {@link #begin} to the counters, and returns the time it took. */
+    private long end() {
+        long nanos = System.nanoTime() - startNanos;
+        BufferPool.PageCounters c = BufferPool.threadCounters();
+        counters[HITS] += c.hits - startHits;
+        counters[MISSES] += c.misses - startMisses;
+        counters[LOCK_WAIT_NANOS] += c.lockWaitNanos - startLockWaitNanos;
+        return nanos;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        begin();
+        try {
+            batchChild.open();
+            counters[LOOPS]++;
+        } finally {
+            counters[OPEN_NANOS] += end();
+        }
+    }
+
+    public boolean hasNext() throws DbException, TransactionAbortedException {
+        begin();
+        try {
+            return batchChild.hasNext();
+        } finally {
+            counters[NEXT_NANOS] += end();
+        }
+    }
+
+    public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
+        begin();
+        try {
+            Tuple t = batchChild.next();
+            counters[ROWS]++;
+            return t;
+        } finally {
+            counters[NEXT_NANOS] += end();
+        }
+    }
+
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        begin();
+        try {
+            TupleBatch batch = batchChild.nextBatch();
+            if (batch != null) {
+                counters[ROWS] += batch.size();
+            }
+            return batch;
+        } finally {
+            counters[NEXT_NANOS] += end();
+        }
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        begin();
+        try {
+            batchChild.rewind();
+            counters[LOOPS]++;
+        } finally {
+            counters[OPEN_NANOS] += end();
+        }
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void close() {
+        batchChild.close();
+    }
+}
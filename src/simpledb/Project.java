@@ -3,11 +3,16 @@ import java.util.*;
 
 /**
  * Project is an operator that implements a relational projection.
+ * <p>
+ * A batch returned by nextBatch() is a view of the child's batch: its
+ * columns share the child's column arrays, so projecting copies no rows.
  */
-public class Project extends Operator {
+public class Project extends Operator implements BatchDbIterator {
     DbIterator child;
+    BatchDbIterator batchChild;
     TupleDesc td;
     ArrayList<Integer> outFieldIds;
+    TupleBatch view;
 
     /**
      * Constructor accepts a child
@@ -20,6 +25,7 @@ public class Project extends Operator {
      */
     public Project(ArrayList<Integer> fieldList, ArrayList<Type> typesList,  DbIterator child) {
         this.child = child;
+        batchChild = BatchAdapter.of(child);
         outFieldIds = fieldList;
         String[] fieldAr = new String[fieldList.size()];
         TupleDesc childtd = child.getTupleDesc();
@@ -30,6 +36,15 @@ public class Project extends Operator {
         td= new TupleDesc(typesList.toArray(new Type[0]), fieldAr);
     }
 
+    public DbIterator getChild() {
+        return child;
+    }
+
+    /** @return the ids of the child's fields that are projected out, in output order */
+    public List<Integer> getOutFieldIds() {
+        return Collections.unmodifiableList(outFieldIds);
+    }
+
     public TupleDesc getTupleDesc() {
         return td;
     }
@@ -65,4 +80,19 @@ public class Project extends Operator {
         }
         return null;
     }
+
+    public TupleBatch nextBatch()
+        throws NoSuchElementException, TransactionAbortedException, DbException {
+        TupleBatch batch = batchChild.nextBatch();
+        if (batch == null) {
+            return null;
+        }
+        if (view == null || view.capacity() != batch.capacity()) {
+            view = TupleBatch.view(td, batch.capacity());
+        }
+        for (int i = 0; i < td.numFields(); i++) {
+            view.setColumn(i, batch, outFieldIds.get(i));
+        }
+        return view;
+    }
 }
@@ -0,0 +1,189 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * PushExecutor runs a physical plan built for the pull (iterator) engine
+ * with push-based, produce/consume execution instead.
+ * <p>
+ * The plan is split into pipelines at its pipeline breakers.  Each pipeline
+ * is driven by its source, which pushes tuples through a chain of
+ * {@link TupleSink}s, one per streaming operator, into the breaker or the
+ * final sink; the sinks of a pipeline call each other directly, so the JIT
+ * can inline the whole pipeline into the source's loop.
+ * <ul>
+ * <li>{@link Filter}, {@link Project} and {@link Limit} become sinks.  Limit
+ * stops its pipeline's source once it has passed enough tuples.
+ * <li>{@link HashJoin} builds its hash table, then becomes a sink that the
+ * outer relation's tuples are pushed into.
+ * <li>{@link Aggregate} and {@link OrderBy} are breakers: the child's
+ * pipeline is pushed into the aggregator or sort, and its result is the
+ * source of the next pipeline.
+ * <li>Any other operator, including scans, exchanges, the other join
+ * operators and inserts and deletes, is a source: it is opened and read with
+ * the pull protocol, and its tuples are pushed into the pipeline above it.
+ * </ul>
+ * An Aggregate over an {@link Exchange} is also run as a source, so it keeps
+ * its parallel partial aggregation.
+ */
+public class PushExecutor {
+
+    private final DbIterator plan;
+
+    /**
+     * Constructor.
+     *
+     * @param plan the root of the physical plan to run; it must not be open
+     */
+    public PushExecutor(DbIterator plan) {
+        this.plan = plan;
+    }
+
+    /**
+     * Runs the plan to completion, or until the sink returns false, pushing
+     * each output tuple into sink.  All operators the executor opened are
+     * closed before this returns.
+     */
+    public void run(TupleSink sink) throws DbException, TransactionAbortedException {
+        produce(plan, sink);
+    }
+
+    /** Pushes the output of op into sink. */
+    private void produce(DbIterator op, TupleSink sink) throws DbException, TransactionAbortedException {
+        if (op instanceof Filter) {
+            produceFilter((Filter) op, sink);
+        } else if (op instanceof Project) {
+            produceProject((Project) op, sink);
+        } else if (op instanceof Limit) {
+            produceLimit((Limit) op, sink);
+        } else if (op instanceof HashJoin) {
+            produceHashJoin((HashJoin) op, sink);
+        } else if (op instanceof Aggregate && !(((Aggregate) op).getChild() instanceof Exchange)) {
+            produceAggregate((Aggregate) op, sink);
+        } else if (op instanceof OrderBy) {
+            produceOrderBy((OrderBy) op, sink);
+        } else {
+            op.open();
+            try {
+                drain(op, sink);
+            } finally {
+                op.close();
+            }
+        }
+    }
+
+    /** Pushes the remaining tuples of an open iterator into sink. */
+    private static void drain(DbIterator it, TupleSink sink) throws DbException, TransactionAbortedException {
+        while (it.hasNext()) {
+            if (!sink.consume(it.next())) {
+                return;
+            }
+        }
+    }
+
+    private void produceFilter(Filter filter, final TupleSink sink)
+        throws DbException, TransactionAbortedException {
+        final PredicateCompiler.Compiled predicate =
+            PredicateCompiler.compile(filter.getPredicate(), filter.getChild().getTupleDesc());
+        produce(filter.getChild(), new TupleSink() {
+            public boolean consume(Tuple t) throws DbException, TransactionAbortedException {
+                return !predicate.test(t) || sink.consume(t);
+            }
+        });
+    }
+
+    private void produceProject(Project project, final TupleSink sink)
+        throws DbException, TransactionAbortedException {
+        final TupleDesc td = project.getTupleDesc();
+        final int[] fields = new int[td.numFields()];
+        for (int i = 0; i < fields.length; i++) {
+            fields[i] = project.getOutFieldIds().get(i);
+        }
+        produce(project.getChild(), new TupleSink() {
+            public boolean consume(Tuple t) throws DbException, TransactionAbortedException {
+                Tuple out = new Tuple(td);
+                out.setRecordId(t.getRecordId());
+                for (int i = 0; i < fields.length; i++) {
+                    out.setField(i, t.getField(fields[i]));
+                }
+                return sink.consume(out);
+            }
+        });
+    }
+
+    private void produceLimit(Limit limit, final TupleSink sink)
+        throws DbException, TransactionAbortedException {
+        final int offset = limit.getOffset();
+        final int end = offset + limit.getLimit();
+        if (limit.getLimit() == 0) {
+            return;
+        }
+        produce(limit.getChild(), new TupleSink() {
+            private int seen;
+
+            public boolean consume(Tuple t) throws DbException, TransactionAbortedException {
+                if (seen++ < offset) {
+                    return true;
+                }
+                return sink.consume(t) && seen < end;
+            }
+        });
+    }
+
+    private void produceHashJoin(final HashJoin join, final TupleSink sink)
+        throws DbException, TransactionAbortedException {
+        final JoinHashTable table = join.getHashTable();
+        final int field1 = join.getJoinPredicate().getField1();
+        final TupleDesc td = join.getTupleDesc();
+        table.build();
+        try {
+            produce(join.getChild1(), new TupleSink() {
+                public boolean consume(Tuple t) throws DbException, TransactionAbortedException {
+                    for (Tuple match : table.lookup(t.getField(field1))) {
+                        if (!sink.consume(Tuple.combine(t, match, td))) {
+                            return false;
+                        }
+                    }
+                    return true;
+                }
+            });
+        } finally {
+            join.releaseTable();
+        }
+    }
+
+    private void produceAggregate(Aggregate aggregate, TupleSink sink)
+        throws DbException, TransactionAbortedException {
+        final Aggregator aggregator = aggregate.newAggregator();
+        produce(aggregate.getChild(), new TupleSink() {
+            public boolean consume(Tuple t) {
+                aggregator.mergeTupleIntoGroup(t);
+                return true;
+            }
+        });
+        DbIterator result = aggregator.iterator();
+        result.open();
+        try {
+            drain(result, sink);
+        } finally {
+            result.close();
+        }
+    }
+
+    private void produceOrderBy(final OrderBy orderBy, TupleSink sink)
+        throws DbException, TransactionAbortedException {
+        orderBy.discardRuns();
+        try {
+            produce(orderBy.getChild(), new TupleSink() {
+                public boolean consume(Tuple t) throws DbException {
+                    orderBy.addInput(t);
+                    return true;
+                }
+            });
+            orderBy.finishInput();
+            drain(orderBy, sink);
+        } finally {
+            orderBy.discardRuns();
+        }
+    }
+}
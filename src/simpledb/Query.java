@@ -2,11 +2,19 @@ package simpledb;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.*;
 
 /** Query is a wrapper class to manage the execution of queries.
     It takes a query plan in the form of a high level DbIterator
-    (built by initiating the constructors of query plans)
-    and runs it as a part of a specified transaction.
+    (built by initiating the constructors of query plans), or a
+    {@link LogicalPlan} that is optimized when the query is started,
+    and runs it as a part of a specified transaction.  If the root of the
+    plan is a {@link BatchDbIterator}, the plan is run a batch at a time
+    and the batches are turned back into tuples here.  Alternatively, the
+    plan can be run with the push engine, {@link PushExecutor}; see
+    {@link #setPushExecution}.  A query from a logical plan can also
+    re-plan its joins while it runs, when the optimizer's estimates turn
+    out to be far off; see {@link #setReoptimizationFactor}.
 
     @author Sam Madden
 */
@@ -16,21 +24,223 @@ public class Query {
     TransactionId tid;
     boolean started = false;
 
+    LogicalPlan plan;
+    HashMap<String,TableStats> baseTableStats;
+    boolean explain;
+    int degreeOfParallelism = 1;
+
+    BatchDbIterator batchOp;
+    TupleBatch batch;
+    int batchPos;
+    boolean batchesDone;
+
+    boolean pushExecution;
+    Pushed pushed;
+
+    double reoptimizationFactor;
+    int reoptimizations;
+    volatile boolean returning;
+
+    /** Number of batches of tuples the push engine runs ahead of the client. */
+    static final int PUSH_QUEUE_BATCHES = 16;
+
     public Query(DbIterator root, TransactionId t) {
         op = root;
         tid = t;
     }
 
+    /** Create a query from a logical plan; the physical plan is built on
+        the first call to {@link #getPhysicalPlan} or {@link #start}.
+        @param lp the logical plan to run
+        @param baseTableStats statistics for each base table, as for {@link LogicalPlan#physicalPlan}
+        @param explain flag indicating whether the chosen plan should be printed
+        @param t the transaction to run as a part of
+    */
+    public Query(LogicalPlan lp, HashMap<String,TableStats> baseTableStats, boolean explain, TransactionId t) {
+        plan = lp;
+        this.baseTableStats = baseTableStats;
+        this.explain = explain;
+        tid = t;
+    }
+
+    /** Set the number of worker threads used to scan each base table.  Only
+        applies to queries created from a {@link LogicalPlan} whose physical
+        plan has not been built yet.
+        @param dop the degree of parallelism; 1 runs the whole query on the calling thread
+    */
+    public void setDegreeOfParallelism(int dop) {
+        if (dop < 1) {
+            throw new IllegalArgumentException("degree of parallelism must be at least 1");
+        }
+        if (op != null) {
+            throw new IllegalStateException("the physical plan has already been built");
+        }
+        degreeOfParallelism = dop;
+    }
+
+    public int getDegreeOfParallelism() {
+        return degreeOfParallelism;
+    }
+
+    /** Choose between the pull (iterator) engine, the default, and the
+        push engine.  With the push engine, start() runs the plan on a worker
+        thread, which hands its output to hasNext() and next() through a
+        bounded queue as it is produced; the worker waits while the queue is
+        full, so the result is never held in full.
+        @param push true to run the query with {@link PushExecutor}
+    */
+    public void setPushExecution(boolean push) {
+        if (started) {
+            throw new IllegalStateException("the query has already been started");
+        }
+        pushExecution = push;
+    }
+
+    public boolean isPushExecution() {
+        return pushExecution;
+    }
+
+    /** Re-plan the joins not yet done whenever an input that a join reads
+        in full before returning anything, such as the build side of a hash
+        join, turns out to be more than factor times larger or smaller than
+        the optimizer estimated, until the query returns its first tuple.
+        The new plan starts from the tuples of that input.  Only applies to
+        queries created from a {@link LogicalPlan} whose physical plan has
+        not been built yet.
+        @param factor the deviation factor, at least 1, or 0 to never re-plan
+    */
+    public void setReoptimizationFactor(double factor) {
+        if (factor != 0 && factor < 1) {
+            throw new IllegalArgumentException("reoptimization factor must be 0 or at least 1");
+        }
+        if (op != null) {
+            throw new IllegalStateException("the physical plan has already been built");
+        }
+        reoptimizationFactor = factor;
+    }
+
+    public double getReoptimizationFactor() {
+        return reoptimizationFactor;
+    }
+
+    /** @return the number of times the query has been re-planned */
+    public int getReoptimizations() {
+        return reoptimizations;
+    }
+
+    /** @return the physical plan this query runs, building it from the logical plan if necessary
+        @throws ParsingException if the logical plan is not valid
+    */
+    public DbIterator getPhysicalPlan() throws ParsingException {
+        if (op == null) {
+            plan.setDegreeOfParallelism(degreeOfParallelism);
+            plan.setReoptimizationFactor(reoptimizationFactor);
+            op = plan.physicalPlan(tid, baseTableStats, explain);
+        }
+        return op;
+    }
+
     public void start()
         throws IOException, DbException, TransactionAbortedException {
+        while (true) {
+            try {
+                run();
+                return;
+            } catch (Checkpoint.Deviation d) {
+                replan(d);
+            }
+        }
+    }
+
+    /** Builds the physical plan if necessary, and opens or runs it. */
+    private void run() throws DbException, TransactionAbortedException {
+        try {
+            getPhysicalPlan();
+        } catch (ParsingException e) {
+            throw new DbException("invalid query plan: " + e.getMessage());
+        }
+        returning = false;
+        if (pushExecution) {
+            pushed = new Pushed();
+            pushed.start();
+            started = true;
+            return;
+        }
         op.open();
+        batchOp = op instanceof BatchDbIterator ? (BatchDbIterator) op : null;
+        batch = null;
+        batchPos = 0;
+        batchesDone = false;
 
         started = true;
     }
 
+    /** Makes the next physical plan start from the input of d's checkpoint,
+        which deviated from its estimate before the query returned anything. */
+    private void replan(Checkpoint.Deviation d) throws DbException {
+        if (plan == null) {
+            throw d;
+        }
+        if (explain) {
+            System.out.println("Re-planning: " + d.getMessage());
+        }
+        if (pushed != null) {
+            // the push engine closes what it opened, even when it fails
+            pushed.stop();
+        } else {
+            op.close();
+        }
+        plan.reoptimize(d.getCheckpoint());
+        op = null;
+        pushed = null;
+        started = false;
+        reoptimizations++;
+    }
+
     /** @return true if there are more tuples remaining. */
     public boolean hasNext() throws DbException, TransactionAbortedException {
-        return op.hasNext();
+        while (true) {
+            try {
+                boolean more = fetch();
+                if (more && !returning) {
+                    startReturning();
+                }
+                return more;
+            } catch (Checkpoint.Deviation d) {
+                if (returning) {
+                    throw d;
+                }
+                replan(d);
+                try {
+                    start();
+                } catch (IOException e) {
+                    throw new DbException("cannot restart query: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /** Notes that the query has produced a tuple: from here on, it cannot start over. */
+    private void startReturning() {
+        returning = true;
+        if (plan != null) {
+            plan.disarmCheckpoints();
+        }
+    }
+
+    private boolean fetch() throws DbException, TransactionAbortedException {
+        if (pushed != null) {
+            return pushed.hasNext();
+        }
+        if (batchOp == null) {
+            return op.hasNext();
+        }
+        while (!batchesDone && (batch == null || batchPos == batch.size())) {
+            batch = batchOp.nextBatch();
+            batchPos = 0;
+            batchesDone = batch == null;
+        }
+        return !batchesDone;
     }
 
     /** Returns the next tuple, or throws NoSuchElementException if the
@@ -43,12 +253,128 @@ public class Query {
     public Tuple next() throws DbException, NoSuchElementException, TransactionAbortedException {
         if (!started) throw new DbException("Database not started.");
 
+        if (pushed != null) {
+            return pushed.next();
+        }
+        if (batchOp != null) {
+            if (!hasNext()) throw new NoSuchElementException();
+            return batch.getTuple(batchPos++);
+        }
         return op.next();
     }
 
     /** Close the iterator */
     public void close() throws IOException {
+        if (plan != null && op != null) {
+            plan.recordFeedback();
+        }
+        if (pushed != null) {
+            // the push engine closes every operator it opened
+            pushed.stop();
+            pushed = null;
+            started = false;
+            return;
+        }
         op.close();
+        batchOp = null;
+        batch = null;
         started = false;
     }
+
+    /**
+     * The output of the plan, run with the push engine on a worker thread.
+     * The worker hands tuples over in batches; it passes on what it has
+     * whenever the client has caught up, so that the first tuples arrive
+     * as soon as they are produced.
+     */
+    private class Pushed {
+        private final BlockingQueue<List<Tuple>> queue =
+            new ArrayBlockingQueue<List<Tuple>>(PUSH_QUEUE_BATCHES);
+        private volatile boolean cancelled;
+        private volatile Exception failure;
+        private Future<?> worker;
+        private Iterator<Tuple> batch;
+        private boolean done;
+
+        void start() {
+            final PushExecutor executor = new PushExecutor(op);
+            worker = Exchange.workers().submit(new Runnable() {
+                public void run() {
+                    final ArrayList<Tuple> buffer = new ArrayList<Tuple>();
+                    try {
+                        executor.run(new TupleSink() {
+                            public boolean consume(Tuple t) throws DbException {
+                                if (!returning) {
+                                    // disarm the checkpoints before the client can see a tuple
+                                    startReturning();
+                                }
+                                buffer.add(t);
+                                if (buffer.size() == Exchange.BATCH_SIZE || queue.isEmpty()) {
+                                    put(new ArrayList<Tuple>(buffer));
+                                    buffer.clear();
+                                }
+                                return !cancelled;
+                            }
+                        });
+                        if (!buffer.isEmpty()) {
+                            put(buffer);
+                        }
+                    } catch (Exception e) {
+                        failure = e;
+                    } finally {
+                        try {
+                            put(Exchange.END);
+                        } catch (DbException e) {
+                            // cancelled
+                        }
+                    }
+                }
+            });
+        }
+
+        /** Blocks until the batch is queued or the client stops the query. */
+        private void put(List<Tuple> b) throws DbException {
+            try {
+                while (!cancelled) {
+                    if (queue.offer(b, Exchange.POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+                        return;
+                    }
+                }
+            } catch (InterruptedException e) {
+                throw new DbException("interrupted while handing over query results");
+            }
+        }
+
+        boolean hasNext() throws DbException, TransactionAbortedException {
+            while (!done && (batch == null || !batch.hasNext())) {
+                List<Tuple> next;
+                try {
+                    next = queue.take();
+                } catch (InterruptedException e) {
+                    throw new DbException("interrupted while waiting for query results");
+                }
+                if (next == Exchange.END) {
+                    done = true;
+                    Exchange.rethrow(failure);
+                } else {
+                    batch = next.iterator();
+                }
+            }
+            return !done;
+        }
+
+        Tuple next() throws DbException, TransactionAbortedException {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return batch.next();
+        }
+
+        /** Stops the worker, which closes the operators it opened, and waits for it. */
+        void stop() {
+            cancelled = true;
+            Exchange.awaitAll(Collections.<Future<?>>singletonList(worker));
+            queue.clear();
+        }
+    }
 }
@@ -0,0 +1,231 @@
+package simpledb;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * RepartitionExchange redistributes the tuples of several inputs across a
+ * number of outputs by the hash of one field, so that all tuples with equal
+ * values of that field end up in the same output.  Each input runs on its
+ * own worker thread; each output is a {@link DbIterator} reading from its
+ * own bounded queue.
+ * <p>
+ * The workers start when the first output is opened and stop once every
+ * output has been closed.  Because the queues are bounded, the outputs must
+ * be consumed concurrently, typically by making each of them (or an
+ * operator over it) one child of a gather {@link Exchange}.
+ */
+public class RepartitionExchange {
+
+    private final DbIterator[] children;
+    private final int field;
+    private final int queueCapacity;
+    private final Output[] outputs;
+
+    private final ArrayList<Future<?>> workers = new ArrayList<Future<?>>();
+    private volatile boolean cancelled;
+    private volatile Exception failure;
+    private int openOutputs;
+
+    /**
+     * Constructor.
+     *
+     * @param children the inputs to redistribute; all must have the same TupleDesc
+     * @param field the index of the field to partition on
+     * @param partitions the number of outputs
+     */
+    public RepartitionExchange(DbIterator[] children, int field, int partitions) {
+        this(children, field, partitions, Exchange.DEFAULT_QUEUE_CAPACITY);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param children the inputs to redistribute; all must have the same TupleDesc
+     * @param field the index of the field to partition on
+     * @param partitions the number of outputs
+     * @param queueCapacity the number of tuple batches buffered for each output
+     */
+    public RepartitionExchange(DbIterator[] children, int field, int partitions, int queueCapacity) {
+        if (children.length == 0 || partitions < 1) {
+            throw new IllegalArgumentException("a repartition needs at least one child and one output");
+        }
+        this.children = children.clone();
+        this.field = field;
+        this.queueCapacity = queueCapacity;
+        this.outputs = new Output[partitions];
+        for (int i = 0; i < partitions; ++i) {
+            outputs[i] = new Output();
+        }
+    }
+
+    /** @return the inputs this exchange redistributes */
+    public DbIterator[] getChildren() {
+        return children.clone();
+    }
+
+    /** @return the index of the field tuples are partitioned on */
+    public int getField() {
+        return field;
+    }
+
+    /** @return the number of outputs */
+    public int numPartitions() {
+        return outputs.length;
+    }
+
+    /** @return the output receiving the tuples whose partitioning field hashes to partition i */
+    public DbIterator getPartition(int i) {
+        return outputs[i];
+    }
+
+    /** @return the output a tuple with the given partitioning field value is sent to */
+    public int partitionOf(Field f) {
+        return (LongHashTable.hash(f.hashCode()) & Integer.MAX_VALUE) % outputs.length;
+    }
+
+    private synchronized void outputOpened() {
+        if (openOutputs++ > 0) {
+            return;
+        }
+        cancelled = false;
+        failure = null;
+        for (Output o : outputs) {
+            o.reset(children.length);
+        }
+        for (final DbIterator child : children) {
+            workers.add(Exchange.workers().submit(new Runnable() {
+                public void run() {
+                    produce(child);
+                }
+            }));
+        }
+    }
+
+    private synchronized void outputClosed() {
+        if (--openOutputs > 0) {
+            return;
+        }
+        cancelled = true;
+        Exchange.awaitAll(workers);
+        workers.clear();
+        for (Output o : outputs) {
+            o.queue.clear();
+        }
+    }
+
+    private void produce(DbIterator child) {
+        ArrayList<ArrayList<Tuple>> buffers = new ArrayList<ArrayList<Tuple>>(outputs.length);
+        for (int i = 0; i < outputs.length; ++i) {
+            buffers.add(new ArrayList<Tuple>(Exchange.BATCH_SIZE));
+        }
+        try {
+            child.open();
+            while (!cancelled && child.hasNext()) {
+                Tuple t = child.next();
+                int p = partitionOf(t.getField(field));
+                ArrayList<Tuple> buffer = buffers.get(p);
+                buffer.add(t);
+                if (buffer.size() == Exchange.BATCH_SIZE) {
+                    outputs[p].put(buffer);
+                    buffers.set(p, new ArrayList<Tuple>(Exchange.BATCH_SIZE));
+                }
+            }
+            for (int i = 0; i < outputs.length; ++i) {
+                if (!buffers.get(i).isEmpty()) {
+                    outputs[i].put(buffers.get(i));
+                }
+            }
+        } catch (InterruptedException e) {
+            // cancelled
+        } catch (Exception e) {
+            if (failure == null) {
+                failure = e;
+            }
+        } finally {
+            child.close();
+            try {
+                for (Output o : outputs) {
+                    o.put(Exchange.END);
+                }
+            } catch (InterruptedException e) {
+                // cancelled
+            }
+        }
+    }
+
+    /** One partition of the redistributed tuples. */
+    private class Output extends Operator {
+        final BlockingQueue<List<Tuple>> queue = new ArrayBlockingQueue<List<Tuple>>(queueCapacity);
+        private boolean open;
+        private volatile boolean closed;
+        private int running;
+        private Iterator<Tuple> batch;
+
+        void reset(int producers) {
+            queue.clear();
+            closed = false;
+            running = producers;
+            batch = null;
+        }
+
+        /** Blocks until the batch is queued, or drops it if this output or the exchange is closed. */
+        void put(List<Tuple> b) throws InterruptedException {
+            while (!cancelled && !closed) {
+                if (queue.offer(b, Exchange.POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+                    return;
+                }
+            }
+        }
+
+        public TupleDesc getTupleDesc() {
+            return children[0].getTupleDesc();
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            if (open) {
+                return;
+            }
+            open = true;
+            outputOpened();
+        }
+
+        public void close() {
+            super.close();
+            if (!open) {
+                return;
+            }
+            open = false;
+            closed = true;
+            batch = null;
+            outputClosed();
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            throw new DbException("a repartitioned stream cannot be rewound");
+        }
+
+        protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+            while (true) {
+                if (batch != null && batch.hasNext()) {
+                    return batch.next();
+                }
+                if (!open || running == 0) {
+                    return null;
+                }
+                List<Tuple> next;
+                try {
+                    next = queue.take();
+                } catch (InterruptedException e) {
+                    throw new DbException("interrupted while waiting for exchange workers");
+                }
+                if (next == Exchange.END) {
+                    running--;
+                    Exchange.rethrow(failure);
+                } else {
+                    batch = next.iterator();
+                }
+            }
+        }
+    }
+}
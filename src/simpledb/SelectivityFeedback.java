@@ -0,0 +1,122 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * SelectivityFeedback remembers the selectivities that queries observed
+ * for the filters on a table, so that later queries with the same filters
+ * can use them in place of the estimates of {@link TableStats}.  Queries
+ * observe them with {@link Checkpoint}s, and {@link LogicalPlan} records
+ * and looks them up by the name of the table and its filters; see
+ * {@link #key}.  Once there are more than its capacity, the least recently
+ * used entries are forgotten.
+ * <p>
+ * Each selectivity is kept along with the {@link TableStats} it was observed
+ * against, and is forgotten once those statistics are replaced, as
+ * ANALYZE or recomputing them does, or once more than
+ * {@link TableStats#REFRESH_THRESHOLD} of the table has been inserted or
+ * deleted since; see {@link TableStats#changes}.  A table whose data has
+ * changed that much is planned with its statistics again.
+ */
+public class SelectivityFeedback {
+
+    /** By default, the most selectivities remembered. */
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    /** A selectivity, and the statistics of the table when it was observed. */
+    private static class Observation {
+        final double selectivity;
+        final TableStats stats;
+        final long changes;
+        final int tuples;
+
+        Observation(double selectivity, TableStats stats) {
+            this.selectivity = selectivity;
+            this.stats = stats;
+            this.changes = stats.changes();
+            this.tuples = stats.numTuples();
+        }
+
+        /** @return whether the table has changed too much since, as stats describe it now */
+        boolean isStale(TableStats current) {
+            return current != stats
+                || current.changes() - changes > TableStats.REFRESH_THRESHOLD * Math.max(tuples, 1);
+        }
+    }
+
+    private final LinkedHashMap<String, Observation> selectivities;
+
+    /** Constructor: remember up to {@link #DEFAULT_CAPACITY} selectivities. */
+    public SelectivityFeedback() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /** @param capacity the most selectivities to remember */
+    public SelectivityFeedback(final int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be at least 1");
+        }
+        selectivities = new LinkedHashMap<String, Observation>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override protected boolean removeEldestEntry(Map.Entry<String, Observation> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * Returns the key of the filters on a table: the table's name and the
+     * filters, in an order that does not depend on the query.
+     *
+     * @param table the name of the table in the catalog
+     * @param conditions the filters on the table, such as "a < 10", with
+     *   unqualified field names
+     */
+    public static String key(String table, Collection<String> conditions) {
+        ArrayList<String> sorted = new ArrayList<String>(conditions);
+        Collections.sort(sorted);
+        StringBuilder key = new StringBuilder(table);
+        for (int i = 0; i < sorted.size(); i++) {
+            key.append(i == 0 ? " where " : " and ").append(sorted.get(i));
+        }
+        return key.toString();
+    }
+
+    /**
+     * Remember that the filters with the specified key selected the
+     * fraction selectivity of their table.
+     *
+     * @param stats the statistics of the table the query was planned with
+     */
+    public synchronized void record(String key, double selectivity, TableStats stats) {
+        selectivities.put(key, new Observation(Math.max(0, Math.min(1, selectivity)), stats));
+    }
+
+    /**
+     * @param stats the current statistics of the table
+     * @return the selectivity observed for the filters with the specified
+     *   key, or null if none was or the table has changed since
+     */
+    public synchronized Double lookup(String key, TableStats stats) {
+        Observation o = selectivities.get(key);
+        if (o == null) {
+            return null;
+        }
+        if (o.isStale(stats)) {
+            selectivities.remove(key);
+            return null;
+        }
+        return o.selectivity;
+    }
+
+    /** @return the number of selectivities remembered */
+    public synchronized int size() {
+        return selectivities.size();
+    }
+
+    /** Forget every selectivity. */
+    public synchronized void clear() {
+        selectivities.clear();
+    }
+}
@@ -4,15 +4,16 @@ import java.util.*;
 /**
  * SeqScan is an implementation of a sequential scan access method that reads
  * each tuple of a table in no particular order (e.g., as they are laid out on
- * disk).
+ * disk).  It can also return its tuples a {@link TupleBatch} at a time.
  */
-public class SeqScan implements DbIterator {
+public class SeqScan implements BatchDbIterator {
 
     private final TransactionId transactionId;
     private final int tableId;
     private final String tableAlias;
 
     private DbFileIterator tableIterator;
+    private TupleBatch batch;
     /**
      * Creates a sequential scan over the specified table as a part of the
      * specified transaction.
@@ -32,6 +33,64 @@ public class SeqScan implements DbIterator {
         tableIterator = Database.getCatalog().getDbFile(tableId).iterator(transactionId);
     }
 
+    /**
+     * Creates a sequential scan over pages [firstPage, endPage) of the
+     * specified table, which must be stored in a {@link HeapFile}.
+     *
+     * @param transactionId The transaction this scan is running as a part of.
+     * @param tableId the table to scan.
+     * @param tableAlias the alias of this table (needed by the parser)
+     * @param firstPage the first page to scan
+     * @param endPage the page after the last one to scan
+     * @throws IllegalArgumentException if the table is not a HeapFile
+     */
+    public SeqScan(TransactionId transactionId, int tableId, String tableAlias, int firstPage, int endPage) {
+        DbFile file = Database.getCatalog().getDbFile(tableId);
+        if (!(file instanceof HeapFile)) {
+            throw new IllegalArgumentException("page range scans require a HeapFile");
+        }
+        this.transactionId = transactionId;
+        this.tableId = tableId;
+        this.tableAlias = tableAlias;
+        tableIterator = ((HeapFile) file).iterator(transactionId, firstPage, endPage);
+    }
+
+    /**
+     * Splits a scan of the specified table into at most partitions scans over
+     * disjoint, contiguous page ranges that together cover the table.  Tables
+     * that are not stored in a HeapFile, or that have fewer pages than
+     * partitions, get fewer (but at least one) scans.
+     *
+     * @return the scans, in page order
+     */
+    public static SeqScan[] partitioned(TransactionId transactionId, int tableId, String tableAlias,
+            int partitions) {
+        DbFile file = Database.getCatalog().getDbFile(tableId);
+        int numPages = file instanceof HeapFile ? ((HeapFile) file).numPages() : 0;
+        int n = Math.max(1, Math.min(partitions, numPages));
+        if (n == 1) {
+            return new SeqScan[]{ new SeqScan(transactionId, tableId, tableAlias) };
+        }
+        SeqScan[] scans = new SeqScan[n];
+        for (int i = 0; i < n; ++i) {
+            int first = (int) ((long) numPages * i / n);
+            int end = (int) ((long) numPages * (i + 1) / n);
+            // the last scan also picks up pages appended after planning
+            scans[i] = new SeqScan(transactionId, tableId, tableAlias, first, i == n - 1 ? -1 : end);
+        }
+        return scans;
+    }
+
+    /** @return the id of the table this scans */
+    public int getTableId() {
+        return tableId;
+    }
+
+    /** @return the alias of the table this scans */
+    public String getAlias() {
+        return tableAlias;
+    }
+
     public void open()
         throws DbException, TransactionAbortedException {
         tableIterator.open();
@@ -48,7 +107,8 @@ public class SeqScan implements DbIterator {
         Type[] fieldTypes = new Type[tupleDesc.numFields()];
         String[] fieldNames = new String[tupleDesc.numFields()];
         for (int i = 0; i < tupleDesc.numFields(); ++i) {
-            fieldNames[i] = tableAlias + tupleDesc.getFieldName(i);
+            fieldNames[i] = tableAlias == null || tableAlias.isEmpty() ?
+                    tupleDesc.getFieldName(i) : tableAlias + "." + tupleDesc.getFieldName(i);
             fieldTypes[i] = tupleDesc.getFieldType(i);
         }
         return new TupleDesc(fieldTypes, fieldNames);
@@ -66,6 +126,20 @@ public class SeqScan implements DbIterator {
         return tableIterator.next();
     }
 
+    public TupleBatch nextBatch() throws TransactionAbortedException, DbException {
+        if (tableIterator == null) {
+            return null;
+        }
+        if (batch == null) {
+            batch = new TupleBatch(getTupleDesc());
+        }
+        batch.clear();
+        while (!batch.isFull() && tableIterator.hasNext()) {
+            batch.add(tableIterator.next());
+        }
+        return batch.size() == 0 ? null : batch;
+    }
+
     public void close() {
         tableIterator.close();
     }
@@ -0,0 +1,161 @@
+package simpledb;
+import java.util.*;
+
+/**
+ * The SortMergeJoin operator joins two children that are already sorted in
+ * ascending order on their join fields (for example, by placing an
+ * {@link OrderBy} beneath each of them).
+ * <p>
+ * Unlike {@link Join}, neither child is ever rewound: both inputs are
+ * advanced monotonically and only a buffer of matching tuples from one side
+ * is kept in memory.  For an equality predicate the buffer holds the current
+ * group of duplicate keys; for a range predicate it holds the prefix of the
+ * buffered side that satisfies the predicate, which only grows as the
+ * driving side advances.
+ */
+public class SortMergeJoin extends Operator {
+
+    private final JoinPredicate predicate;
+    private final DbIterator child1;
+    private final DbIterator child2;
+    private final TupleDesc tupleDesc;
+
+    /** True if child1 drives the merge and child2 is buffered. */
+    private final boolean outerDrives;
+    private final DbIterator driver;
+    private final DbIterator buffered;
+    private final int driverField;
+    private final int bufferedField;
+
+    private final ArrayList<Tuple> buffer;
+    private Tuple current;
+    private int bufferPos;
+    private Tuple pending;
+
+    /**
+     * Constructor.  Accepts two children, sorted ascending on their join
+     * fields, and the predicate to join them on.
+     *
+     * @param p The predicate to use to join the children; one of
+     *   EQUALS, GREATER_THAN, GREATER_THAN_OR_EQ, LESS_THAN or LESS_THAN_OR_EQ
+     * @param child1 Iterator for the left(outer) relation to join
+     * @param child2 Iterator for the right(inner) relation to join
+     * @throws IllegalArgumentException if the predicate cannot be evaluated
+     *   by merging sorted inputs
+     */
+    public SortMergeJoin(JoinPredicate p, DbIterator child1, DbIterator child2) {
+        this.predicate = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.tupleDesc = TupleDesc.combine(child1.getTupleDesc(), child2.getTupleDesc());
+        switch (p.getOperator()) {
+            case EQUALS:
+            case GREATER_THAN:
+            case GREATER_THAN_OR_EQ:
+                // t1 > t2 matches a growing prefix of child2
+                outerDrives = true;
+                break;
+            case LESS_THAN:
+            case LESS_THAN_OR_EQ:
+                // t1 < t2 matches a growing prefix of child1
+                outerDrives = false;
+                break;
+            default:
+                throw new IllegalArgumentException(
+                        "sort-merge join does not support " + p.getOperator());
+        }
+        this.driver = outerDrives ? child1 : child2;
+        this.buffered = outerDrives ? child2 : child1;
+        this.driverField = outerDrives ? p.getField1() : p.getField2();
+        this.bufferedField = outerDrives ? p.getField2() : p.getField1();
+        this.buffer = new ArrayList<Tuple>();
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return predicate;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return tupleDesc;
+    }
+
+    public void open()
+        throws DbException, NoSuchElementException, TransactionAbortedException {
+        child1.open();
+        child2.open();
+        buffer.clear();
+        current = null;
+        bufferPos = 0;
+        pending = buffered.hasNext() ? buffered.next() : null;
+    }
+
+    public void close() {
+        super.close();
+        child1.close();
+        child2.close();
+        buffer.clear();
+        current = null;
+        pending = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        close();
+        open();
+    }
+
+    /**
+     * Returns the next tuple generated by the join, or null if there are no
+     * more tuples.  As with {@link Join}, returned tuples are the
+     * concatenation of the joining tuples from child1 and child2.
+     *
+     * @return The next matching tuple.
+     * @see JoinPredicate#filter
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (true) {
+            if (current != null && bufferPos < buffer.size()) {
+                Tuple match = buffer.get(bufferPos++);
+                return outerDrives ?
+                    Tuple.combine(current, match, tupleDesc) : Tuple.combine(match, current, tupleDesc);
+            }
+            if (!driver.hasNext()) {
+                return null;
+            }
+            current = driver.next();
+            bufferPos = 0;
+            if (predicate.getOperator() == Predicate.Op.EQUALS) {
+                advanceGroup();
+            } else {
+                extendPrefix();
+            }
+        }
+    }
+
+    /** Replaces the buffer with the group of buffered tuples equal to current. */
+    private void advanceGroup() throws DbException, TransactionAbortedException {
+        if (!buffer.isEmpty() && matches(current, buffer.get(0))) {
+            return;
+        }
+        buffer.clear();
+        Field key = current.getField(driverField);
+        while (pending != null && pending.getField(bufferedField).compare(Predicate.Op.LESS_THAN, key)) {
+            pending = buffered.hasNext() ? buffered.next() : null;
+        }
+        while (pending != null && matches(current, pending)) {
+            buffer.add(pending);
+            pending = buffered.hasNext() ? buffered.next() : null;
+        }
+    }
+
+    /** Appends every buffered tuple that now satisfies the range predicate. */
+    private void extendPrefix() throws DbException, TransactionAbortedException {
+        while (pending != null && matches(current, pending)) {
+            buffer.add(pending);
+            pending = buffered.hasNext() ? buffered.next() : null;
+        }
+    }
+
+    private boolean matches(Tuple drive, Tuple buf) {
+        return outerDrives ? predicate.filter(drive, buf) : predicate.filter(buf, drive);
+    }
+}
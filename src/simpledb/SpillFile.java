@@ -0,0 +1,150 @@
+package simpledb;
+
+import java.io.*;
+import java.util.NoSuchElementException;
+
+/**
+ * SpillFile is a temporary file of tuples written by operators that run out
+ * of memory (external sort runs, hash aggregation partitions).
+ * <p>
+ * Tuples are stored in a compact binary format rather than the fixed-size
+ * page format of {@link HeapPage}: integers take four bytes and strings are
+ * written with their actual length, without padding to
+ * {@link Type#STRING_LEN}.  A SpillFile is written once, then read back any
+ * number of times, and must be deleted by its owner.
+ */
+public class SpillFile {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final TupleDesc td;
+    private final File file;
+    private DataOutputStream out;
+    private int numTuples;
+
+    /**
+     * Creates a new, empty spill file for tuples with the given schema.
+     * @throws DbException if the temporary file cannot be created
+     */
+    public SpillFile(TupleDesc td) throws DbException {
+        this.td = td;
+        try {
+            file = File.createTempFile("simpledb-spill", ".tmp");
+            file.deleteOnExit();
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE));
+        } catch (IOException e) {
+            throw new DbException("unable to create spill file: " + e.getMessage());
+        }
+        numTuples = 0;
+    }
+
+    /** @return the schema of the tuples in this file */
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /** @return the number of tuples written to this file */
+    public int size() {
+        return numTuples;
+    }
+
+    /** Appends a tuple to the file.  Must not be called after {@link #finish}. */
+    public void add(Tuple t) throws DbException {
+        try {
+            for (int i = 0; i < td.numFields(); ++i) {
+                Field f = t.getField(i);
+                if (td.getFieldType(i) == Type.INT_TYPE) {
+                    out.writeInt(((IntField) f).getValue());
+                } else {
+                    out.writeUTF(((StringField) f).getValue());
+                }
+            }
+        } catch (IOException e) {
+            throw new DbException("unable to write spill file: " + e.getMessage());
+        }
+        numTuples++;
+    }
+
+    /** Flushes and closes the file for writing.  Called implicitly by {@link #reader}. */
+    public void finish() throws DbException {
+        if (out == null) {
+            return;
+        }
+        try {
+            out.close();
+        } catch (IOException e) {
+            throw new DbException("unable to write spill file: " + e.getMessage());
+        }
+        out = null;
+    }
+
+    /** @return a new reader positioned at the first tuple of the file */
+    public Reader reader() throws DbException {
+        finish();
+        try {
+            return new Reader(new DataInputStream(new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE)));
+        } catch (IOException e) {
+            throw new DbException("unable to read spill file: " + e.getMessage());
+        }
+    }
+
+    /** Closes and removes the underlying file. */
+    public void delete() {
+        try {
+            finish();
+        } catch (DbException e) {
+            // the file is being discarded anyway
+        }
+        file.delete();
+    }
+
+    /** Sequential reader over the tuples of a SpillFile. */
+    public class Reader {
+        private final DataInputStream in;
+        private int remaining;
+
+        private Reader(DataInputStream in) {
+            this.in = in;
+            this.remaining = numTuples;
+        }
+
+        /** @return true if there are more tuples to read */
+        public boolean hasNext() {
+            return remaining > 0;
+        }
+
+        /**
+         * @return the next tuple in the file
+         * @throws NoSuchElementException if the file is exhausted
+         */
+        public Tuple next() throws DbException, NoSuchElementException {
+            if (remaining <= 0) {
+                throw new NoSuchElementException();
+            }
+            Tuple t = new Tuple(td);
+            try {
+                for (int i = 0; i < td.numFields(); ++i) {
+                    if (td.getFieldType(i) == Type.INT_TYPE) {
+                        t.setField(i, new IntField(in.readInt()));
+                    } else {
+                        t.setField(i, new StringField(in.readUTF(), Type.STRING_LEN));
+                    }
+                }
+            } catch (IOException e) {
+                throw new DbException("unable to read spill file: " + e.getMessage());
+            }
+            if (--remaining == 0) {
+                close();
+            }
+            return t;
+        }
+
+        /** Releases the file handle held by this reader. */
+        public void close() {
+            try {
+                in.close();
+            } catch (IOException e) {
+                // nothing left to read
+            }
+        }
+    }
+}
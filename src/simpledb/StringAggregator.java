@@ -59,6 +59,43 @@ public class StringAggregator implements Aggregator {
         }
     }
 
+    /**
+     * Merge the selected rows of a batch into the aggregate.
+     */
+    public void mergeBatch(TupleBatch batch) {
+        if (gbFieldNo == NO_GROUPING) {
+            noGroupCount += batch.size();
+            return;
+        }
+        groupFieldName = batch.getTupleDesc().getFieldName(gbFieldNo);
+        for (int i = 0, size = batch.size(); i < size; ++i) {
+            Field groupField = batch.getField(gbFieldNo, batch.row(i));
+            Integer count = countGroupedBy.get(groupField);
+            countGroupedBy.put(groupField, count == null ? 1 : count + 1);
+        }
+    }
+
+    /**
+     * Merge the counts of another StringAggregator into this one.
+     * @see Aggregator#merge
+     */
+    public void merge(Aggregator other) {
+        if (!(other instanceof StringAggregator)
+                || ((StringAggregator) other).gbFieldNo != gbFieldNo
+                || ((StringAggregator) other).aggregateFieldNo != aggregateFieldNo) {
+            throw new IllegalArgumentException("can only merge an aggregator over the same fields");
+        }
+        StringAggregator o = (StringAggregator) other;
+        noGroupCount += o.noGroupCount;
+        if (groupFieldName == null) {
+            groupFieldName = o.groupFieldName;
+        }
+        for (Map.Entry<Field, Integer> e : o.countGroupedBy.entrySet()) {
+            Integer count = countGroupedBy.get(e.getKey());
+            countGroupedBy.put(e.getKey(), count == null ? e.getValue() : count + e.getValue());
+        }
+    }
+
     /**
      * Create a DbIterator over group aggregate results.
      *
@@ -1,8 +1,41 @@
 package simpledb;
 
-/** TableStats represents statistics (e.g., histograms) about base tables in a query */
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.Callable;
+
+/**
+ * TableStats represents statistics (e.g., histograms) about base tables in a query.
+ * <p>
+ * The statistics of a table are gathered in a single pass over it.  A
+ * HeapFile is split into page ranges that are scanned in parallel, each
+ * worker building a summary of its range (tuple count, per column the
+ * minimum, maximum and a {@link HyperLogLog} sketch of its distinct values,
+ * and a reservoir sample of its tuples) that is merged into the table's
+ * once all workers are done.  Each
+ * column's {@link EquiDepthHistogram} and most-common-value list are then
+ * built from the merged sample.
+ * <p>
+ * For large tables, statistics can instead be estimated from a random
+ * sample of pages; see {@link #TableStats(int, int, double)}.
+ * <p>
+ * Statistics can be saved with {@link #write} and read back, and
+ * {@link #loadOrCompute} keeps a file of them for a whole catalog, so that
+ * they are only recomputed for tables that are new or have changed size.
+ * <p>
+ * Statistics handed to {@link #maintain} are kept up to date as the buffer
+ * pool inserts and deletes tuples: the tuple and page counts, minimum and
+ * maximum, histograms and sketches are updated in place, and the distinct
+ * value counts are re-estimated from the sketches when next asked for.
+ * Since neither sketches nor minima and maxima can forget a value, a delete
+ * only lowers the counts.  A transaction's inserts and deletes are applied
+ * when it commits and dropped when it aborts, so that the statistics, and
+ * the file {@link #flush} writes them to, never include aborted work.
+ * Changes are written to the statistics file only when flush is called,
+ * rather than on every update.
+ */
 public class TableStats {
-    
+
     /**
      * Number of bins for the histogram.
      * Feel free to increase this value over 100,
@@ -10,40 +43,441 @@ public class TableStats {
      */
     static final int NUM_HIST_BINS = 100;
 
+    /**
+     * Fraction by which a table's page count may differ from the one its
+     * saved statistics were computed at before {@link #loadOrCompute}
+     * recomputes them.
+     */
+    public static final double REFRESH_THRESHOLD = 0.1;
+
+    /** Number of most common values kept for each column. */
+    static final int NUM_MCVS = 20;
+
+    /** The most tuples a table's histograms are built from. */
+    public static final int SAMPLE_TUPLES = 30000;
+
+    /** Written at the start of a statistics file, and changed whenever its format does. */
+    private static final int FILE_VERSION = 5;
+
+    // the statistics kept up to date by tupleInserted and tupleDeleted,
+    // keyed by table name, the file flush saves them to, and whether they
+    // have changed since they were last saved
+    private static Map<String, TableStats> maintained = null;
+    private static File maintainedFile = null;
+    private static boolean maintainedChanged = false;
+    // the inserts and deletes of each running transaction, in order, to be
+    // applied to the maintained statistics when it commits
+    private static final Map<TransactionId, List<Change>> pending =
+        new HashMap<TransactionId, List<Change>>();
+
+    /** A tuple a transaction inserted into or deleted from a table. */
+    private static class Change {
+        final int tableid;
+        final Tuple tuple;
+        final boolean inserted;
+
+        Change(int tableid, Tuple tuple, boolean inserted) {
+            this.tableid = tableid;
+            this.tuple = tuple;
+            this.inserted = inserted;
+        }
+    }
+
+    /**
+     * Statistics gathered over part of a table, and the sample of its
+     * tuples the histograms are built from.
+     */
+    private static class Summary {
+        int tuples;
+        final Field[] min;
+        final Field[] max;
+        final HyperLogLog[] sketches;
+        final Sample sample;
+        // when reading sampled pages, how many there were and the tuples on them
+        int pages;
+        double pageTuplesSquared;
+
+        Summary(TupleDesc td, Sample sample) {
+            int n = td.numFields();
+            min = new Field[n];
+            max = new Field[n];
+            sketches = new HyperLogLog[n];
+            for (int i = 0; i < n; i++) {
+                sketches[i] = new HyperLogLog();
+            }
+            this.sample = sample;
+        }
+
+        void addPage(Iterator<Tuple> tuples) {
+            int n = 0;
+            while (tuples.hasNext()) {
+                add(tuples.next());
+                n++;
+            }
+            pages++;
+            pageTuplesSquared += (double) n * n;
+        }
+
+        void add(Tuple t) {
+            tuples++;
+            for (int i = 0; i < min.length; i++) {
+                Field f = t.getField(i);
+                if (min[i] == null || f.compare(Predicate.Op.LESS_THAN, min[i])) {
+                    min[i] = f;
+                }
+                if (max[i] == null || f.compare(Predicate.Op.GREATER_THAN, max[i])) {
+                    max[i] = f;
+                }
+                sketches[i].add(f);
+            }
+            if (sample != null) {
+                sample.add(t);
+            }
+        }
+
+        void merge(Summary other) {
+            tuples += other.tuples;
+            pages += other.pages;
+            pageTuplesSquared += other.pageTuplesSquared;
+            for (int i = 0; i < min.length; i++) {
+                if (other.min[i] != null && (min[i] == null || other.min[i].compare(Predicate.Op.LESS_THAN, min[i]))) {
+                    min[i] = other.min[i];
+                }
+                if (other.max[i] != null && (max[i] == null || other.max[i].compare(Predicate.Op.GREATER_THAN, max[i]))) {
+                    max[i] = other.max[i];
+                }
+                sketches[i].merge(other.sketches[i]);
+            }
+            if (sample != null) {
+                sample.merge(other.sample);
+            }
+        }
+    }
+
+    /**
+     * A uniform random sample of at most SAMPLE_TUPLES of the tuples one
+     * worker read, kept with reservoir sampling.
+     */
+    private static class Sample {
+        final Random random;
+        final ArrayList<Tuple> reservoir = new ArrayList<Tuple>();
+        long seen;
+
+        Sample(long seed) {
+            random = new Random(seed);
+        }
+
+        void add(Tuple t) {
+            seen++;
+            if (reservoir.size() < SAMPLE_TUPLES) {
+                reservoir.add(t);
+            } else {
+                long j = (long) (random.nextDouble() * seen);
+                if (j < SAMPLE_TUPLES) {
+                    reservoir.set((int) j, t);
+                }
+            }
+        }
+
+        /**
+         * Merges another worker's sample into this one.  Each slot of the
+         * merged reservoir is drawn from one of the two in proportion to the
+         * tuples they stand for that are not drawn yet, which keeps it a
+         * uniform sample of the tuples of both.
+         */
+        void merge(Sample other) {
+            ArrayList<Tuple> a = reservoir;
+            ArrayList<Tuple> b = other.reservoir;
+            long restA = seen;
+            long restB = other.seen;
+            int size = (int) Math.min(SAMPLE_TUPLES, restA + restB);
+            ArrayList<Tuple> merged = new ArrayList<Tuple>(size);
+            while (merged.size() < size) {
+                ArrayList<Tuple> from;
+                if (random.nextDouble() * (restA + restB) < restA) {
+                    from = a;
+                    restA--;
+                } else {
+                    from = b;
+                    restB--;
+                }
+                int i = random.nextInt(from.size());
+                merged.add(from.get(i));
+                from.set(i, from.get(from.size() - 1));
+                from.remove(from.size() - 1);
+            }
+            reservoir.clear();
+            reservoir.addAll(merged);
+            seen += other.seen;
+        }
+    }
+
+    private final String tableName;
+    private final TupleDesc td;
+    private int ioCostPerPage;
+    private int numPages;
+    private int numTuples;
+    private Field[] min;
+    private Field[] max;
+    private int[] distinct;
+    private HyperLogLog[] sketches;
+    private EquiDepthHistogram[] histograms;
+    // the fraction of pages read, the tuples the histograms were built
+    // from, and the standard error of numTuples
+    private double sampleRate;
+    private int sampleSize;
+    private double cardinalityError;
+    // whether tuples were added since distinct was estimated from the sketches
+    private boolean distinctStale;
+    // the tuples inserted and deleted since the statistics were computed
+    private long changes;
+
     /**
      * Create a new TableStats object, that keeps track of statistics on each column of a table
-     * 
+     *
      * @param tableid The table over which to compute statistics
-     * @param ioCostPerPage The cost per page of IO.  
+     * @param ioCostPerPage The cost per page of IO.
      * 		                This doesn't differentiate between sequential-scan IO and disk seeks.
      */
     public TableStats (int tableid, int ioCostPerPage) {
-        // For this function, you'll have to get the DbFile for the table in question,
-    	// then scan through its tuples and calculate the values that you need.
-    	// You should try to do this reasonably efficiently, but you don't necessarily
-    	// have to (for example) do everything in a single scan of the table.
-    	// some code goes here
+        this(tableid, ioCostPerPage, 1.0);
+    }
+
+    /**
+     * Create a new TableStats object from a sample of the pages of a table.
+     * <p>
+     * The sampled pages of a HeapFile are chosen at random and read through
+     * the buffer pool; the tuple count is scaled up from their average
+     * number of tuples, and the histograms are built from a uniform sample
+     * of at most {@link #SAMPLE_TUPLES} of their tuples.  Other files, and
+     * a sample rate of 1, are scanned in full.
+     *
+     * @param tableid The table over which to compute statistics
+     * @param ioCostPerPage The cost per page of IO.
+     * @param sampleRate The fraction of the table's pages to read, in (0, 1].
+     */
+    public TableStats(int tableid, int ioCostPerPage, double sampleRate) {
+        if (!(sampleRate > 0 && sampleRate <= 1)) {
+            throw new IllegalArgumentException("sample rate must be in (0, 1]: " + sampleRate);
+        }
+        DbFile file = Database.getCatalog().getDbFile(tableid);
+        this.tableName = Database.getCatalog().getTableName(tableid);
+        this.td = file.getTupleDesc();
+        this.ioCostPerPage = ioCostPerPage;
+        this.numPages = numPages(file);
+
+        int samplePages = (int) Math.ceil(sampleRate * numPages);
+        TransactionId tid = new TransactionId();
+        try {
+            try {
+                if (file instanceof HeapFile && samplePages < numPages) {
+                    sample((HeapFile) file, tid, samplePages);
+                } else {
+                    scan(file, tid);
+                }
+            } finally {
+                Database.getBufferPool().transactionComplete(tid);
+            }
+        } catch (DbException e) {
+            throw new RuntimeException("cannot compute statistics of " + tableName, e);
+        } catch (TransactionAbortedException e) {
+            throw new RuntimeException("cannot compute statistics of " + tableName, e);
+        } catch (IOException e) {
+            throw new RuntimeException("cannot compute statistics of " + tableName, e);
+        }
+    }
+
+    /** Computes the statistics from every tuple of file. */
+    private void scan(DbFile file, TransactionId tid) throws DbException, TransactionAbortedException {
+        ArrayList<DbFileIterator> parts = new ArrayList<DbFileIterator>();
+        if (file instanceof HeapFile && numPages > 1) {
+            int workers = Math.min(Runtime.getRuntime().availableProcessors(), numPages);
+            for (int i = 0; i < workers; i++) {
+                int first = (int) ((long) numPages * i / workers);
+                int end = i == workers - 1 ? -1 : (int) ((long) numPages * (i + 1) / workers);
+                parts.add(((HeapFile) file).iterator(tid, first, end));
+            }
+        } else {
+            parts.add(file.iterator(tid));
+        }
+        Random random = new Random();
+        ArrayList<Callable<Summary>> tasks = new ArrayList<Callable<Summary>>();
+        for (final DbFileIterator it : parts) {
+            final long seed = random.nextLong();
+            tasks.add(new Callable<Summary>() {
+                public Summary call() throws Exception {
+                    Summary s = new Summary(td, new Sample(seed));
+                    it.open();
+                    try {
+                        while (it.hasNext()) {
+                            s.add(it.next());
+                        }
+                    } finally {
+                        it.close();
+                    }
+                    return s;
+                }
+            });
+        }
+
+        Summary total = null;
+        for (Summary s : Exchange.runAll(tasks)) {
+            if (total == null) {
+                total = s;
+            } else {
+                total.merge(s);
+            }
+        }
+        numTuples = total.tuples;
+        min = total.min;
+        max = total.max;
+        sketches = total.sketches;
+        distinct = new int[td.numFields()];
+        for (int i = 0; i < distinct.length; i++) {
+            distinct[i] = (int) Math.min(numTuples, sketches[i].estimate());
+        }
+        sampleRate = 1;
+        sampleSize = total.sample.reservoir.size();
+        cardinalityError = 0;
+        buildHistograms(total.sample.reservoir);
     }
 
-    /** 
+    /** Estimates the statistics from samplePages random pages of file. */
+    private void sample(HeapFile file, final TransactionId tid, int samplePages)
+            throws DbException, TransactionAbortedException {
+        Random random = new Random();
+        // Floyd's algorithm picks samplePages distinct pages without listing them all
+        HashSet<Integer> chosen = new HashSet<Integer>();
+        for (int j = numPages - samplePages; j < numPages; j++) {
+            int p = random.nextInt(j + 1);
+            chosen.add(chosen.contains(p) ? j : p);
+        }
+        ArrayList<Integer> pages = new ArrayList<Integer>(chosen);
+        Collections.sort(pages);
+
+        final int tableId = file.getId();
+        int workers = Math.min(Runtime.getRuntime().availableProcessors(), samplePages);
+        ArrayList<Callable<Summary>> tasks = new ArrayList<Callable<Summary>>();
+        for (int i = 0; i < workers; i++) {
+            final List<Integer> part = pages.subList(samplePages * i / workers, samplePages * (i + 1) / workers);
+            final long seed = random.nextLong();
+            tasks.add(new Callable<Summary>() {
+                public Summary call() throws Exception {
+                    Summary s = new Summary(td, new Sample(seed));
+                    for (int p : part) {
+                        HeapPage page = (HeapPage) Database.getBufferPool().getPage(
+                            tid, new HeapPageId(tableId, p), Permissions.READ_ONLY);
+                        s.addPage(page.iterator());
+                    }
+                    return s;
+                }
+            });
+        }
+
+        Summary total = null;
+        for (Summary s : Exchange.runAll(tasks)) {
+            if (total == null) {
+                total = s;
+            } else {
+                total.merge(s);
+            }
+        }
+
+        int k = total.pages;
+        double mean = (double) total.tuples / k;
+        double variance = k > 1 ? Math.max(0, (total.pageTuplesSquared - k * mean * mean) / (k - 1)) : 0;
+        numTuples = (int) Math.round(mean * numPages);
+        cardinalityError = numPages * Math.sqrt(variance / k * (1 - (double) k / numPages));
+        sampleRate = (double) k / numPages;
+        sampleSize = total.sample.reservoir.size();
+        min = total.min;
+        max = total.max;
+        // the sketches only hold the values of the sampled pages, a lower
+        // bound on the distinct values that the sample's estimate must meet
+        sketches = total.sketches;
+        distinct = new int[td.numFields()];
+        for (int i = 0; i < distinct.length; i++) {
+            distinct[i] = (int) Math.max(sketches[i].estimate(),
+                    estimateDistinct(total.sample.reservoir, i, Math.max(numTuples, sampleSize)));
+            distinct[i] = Math.min(distinct[i], Math.max(numTuples, sampleSize));
+        }
+        buildHistograms(total.sample.reservoir);
+    }
+
+    /** Builds the histogram of each column from a uniform sample of the table's tuples. */
+    private void buildHistograms(List<Tuple> sample) {
+        histograms = new EquiDepthHistogram[td.numFields()];
+        ArrayList<Field> values = new ArrayList<Field>(sample.size());
+        for (int i = 0; i < histograms.length; i++) {
+            values.clear();
+            for (Tuple t : sample) {
+                values.add(t.getField(i));
+            }
+            histograms[i] = EquiDepthHistogram.build(td.getFieldType(i), values, NUM_HIST_BINS, NUM_MCVS,
+                    distinct[i], numTuples);
+        }
+    }
+
+    /**
+     * Estimates the number of distinct values of a field in a table of
+     * population tuples from a uniform sample of them, with the GEE
+     * estimator of Charikar et al.: values seen once in the sample stand for
+     * sqrt(population / sample size) values each, and values seen more
+     * often are assumed to have been seen already.
+     */
+    static int estimateDistinct(List<Tuple> sample, int field, double population) {
+        if (sample.isEmpty()) {
+            return 0;
+        }
+        HashMap<Field, Integer> counts = new HashMap<Field, Integer>();
+        for (Tuple t : sample) {
+            Integer c = counts.get(t.getField(field));
+            counts.put(t.getField(field), c == null ? 1 : c + 1);
+        }
+        int once = 0;
+        for (int c : counts.values()) {
+            if (c == 1) {
+                once++;
+            }
+        }
+        double estimate = Math.sqrt(population / sample.size()) * once + counts.size() - once;
+        return (int) Math.min(population, Math.round(estimate));
+    }
+
+    private TableStats(String tableName, TupleDesc td) {
+        this.tableName = tableName;
+        this.td = td;
+    }
+
+    /** @return the number of pages of file, as of now */
+    private static int numPages(DbFile file) {
+        if (file instanceof HeapFile) {
+            return ((HeapFile) file).numPages();
+        }
+        if (file instanceof ColumnFile) {
+            return ((ColumnFile) file).numPages();
+        }
+        return 0;
+    }
+
+    /**
      * Estimates the
      * cost of sequentially scanning the file, given that the cost to read
      * a page is costPerPageIO.  You can assume that there are no
      * seeks and that no pages are in the buffer pool.
-     * 
+     *
      * Also, assume that your hard drive can only read entire pages at once,
      * so if the last page of the table only has one tuple on it, it's just as
      * expensive to read as a full page.  (Most real hard drives can't efficiently
      * address regions smaller than a page at a time.)
-     * 
+     *
      * @return The estimated cost of scanning the table.
-     */ 
-    public double estimateScanCost() {
-    	// some code goes here
-        return 0;
+     */
+    public synchronized double estimateScanCost() {
+        return (double) numPages * ioCostPerPage;
     }
 
-    /** 
+    /**
      * This method returns the number of tuples in the relation,
      * given that a predicate with selectivity selectivityFactor is
      * applied.
@@ -51,22 +485,425 @@ public class TableStats {
      * @param selectivityFactor The selectivity of any predicates over the table
      * @return The estimated cardinality of the scan with the specified selectivityFactor
      */
-    public int estimateTableCardinality(double selectivityFactor) {
-    	// some code goes here
-        return 0;
+    public synchronized int estimateTableCardinality(double selectivityFactor) {
+        return (int) (numTuples * selectivityFactor);
     }
 
-    /** 
+    /**
      * Estimate the selectivity of predicate <tt>field op constant</tt> on the table.
-     * 
+     *
      * @param field The field over which the predicate ranges
      * @param op The logical operation in the predicate
      * @param constant The value against which the field is compared
      * @return The estimated selectivity (fraction of tuples that satisfy) the predicate
      */
-    public double estimateSelectivity(int field, Predicate.Op op, Field constant) {
-    	// some code goes here
-        return 1.0;
+    public synchronized double estimateSelectivity(int field, Predicate.Op op, Field constant) {
+        refreshDistinct();
+        return histograms[field].estimateSelectivity(op, constant);
+    }
+
+    /** @return the number of tuples in the table */
+    public synchronized int numTuples() {
+        return numTuples;
+    }
+
+    /**
+     * @return the number of tuples inserted into or deleted from the table
+     *   since these statistics were computed or read
+     */
+    public synchronized long changes() {
+        return changes;
+    }
+
+    /** @return the number of pages in the table */
+    public synchronized int numPages() {
+        return numPages;
+    }
+
+    /** @return the smallest value of the field, or null if the table is empty */
+    public synchronized Field getMin(int field) {
+        return min[field];
+    }
+
+    /** @return the largest value of the field, or null if the table is empty */
+    public synchronized Field getMax(int field) {
+        return max[field];
+    }
+
+    /** @return the estimated number of distinct values of the field */
+    public synchronized int numDistinct(int field) {
+        refreshDistinct();
+        return distinct[field];
+    }
+
+    /** Re-estimates the distinct values of each field if tuples were added or removed. */
+    private void refreshDistinct() {
+        if (!distinctStale) {
+            return;
+        }
+        for (int i = 0; i < distinct.length; i++) {
+            distinct[i] = (int) Math.min(numTuples, Math.max(distinct[i], sketches[i].estimate()));
+            histograms[i].setDistinct(distinct[i]);
+        }
+        distinctStale = false;
+    }
+
+    /**
+     * @return whether t has the table's fields, in the table's order, so
+     *   that its fields can be counted in the column statistics
+     */
+    private boolean isRow(Tuple t) {
+        TupleDesc rowTd = t.getTupleDesc();
+        if (rowTd == null || rowTd.numFields() != td.numFields()) {
+            return false;
+        }
+        for (int i = 0; i < td.numFields(); i++) {
+            if (rowTd.getFieldType(i) != td.getFieldType(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Updates the statistics for a tuple added to the table, which now has
+     * numPages pages.  Only the counts are updated for a tuple that is not
+     * a whole row of the table.
+     */
+    synchronized void addTuple(Tuple t, int numPages) {
+        this.numPages = numPages;
+        numTuples++;
+        changes++;
+        if (!isRow(t)) {
+            return;
+        }
+        for (int i = 0; i < min.length; i++) {
+            Field f = t.getField(i);
+            if (min[i] == null || f.compare(Predicate.Op.LESS_THAN, min[i])) {
+                min[i] = f;
+            }
+            if (max[i] == null || f.compare(Predicate.Op.GREATER_THAN, max[i])) {
+                max[i] = f;
+            }
+            sketches[i].add(f);
+            histograms[i].addValue(f);
+        }
+        distinctStale = true;
     }
 
+    /**
+     * Updates the statistics for a tuple removed from the table.  Only the
+     * counts are updated for a tuple that is not a whole row of the table.
+     */
+    synchronized void removeTuple(Tuple t) {
+        numTuples = Math.max(0, numTuples - 1);
+        changes++;
+        if (!isRow(t)) {
+            return;
+        }
+        for (int i = 0; i < min.length; i++) {
+            histograms[i].removeValue(t.getField(i));
+        }
+        distinctStale = true;
+    }
+
+    /** @return the cost of reading one page of the table */
+    public int ioCostPerPage() {
+        return ioCostPerPage;
+    }
+
+    /** @return the fraction of the table's pages the statistics were computed from */
+    public double sampleRate() {
+        return sampleRate;
+    }
+
+    /** @return the number of tuples the histograms were built from */
+    public int sampleSize() {
+        return sampleSize;
+    }
+
+    /**
+     * @return the standard error of {@link #numTuples}, which is 0 if it
+     *   was counted rather than estimated from a sample
+     */
+    public double cardinalityError() {
+        return cardinalityError;
+    }
+
+    /**
+     * @return the standard error of a selectivity estimated from the
+     *   histograms, as a fraction of the table like the selectivity itself
+     */
+    public double selectivityError(double selectivity) {
+        if (sampleSize == 0 || sampleSize >= numTuples) {
+            return 0;
+        }
+        double p = Math.max(0, Math.min(1, selectivity));
+        return Math.sqrt(p * (1 - p) / sampleSize * (1 - (double) sampleSize / numTuples));
+    }
+
+    /** Writes these statistics to out, to be read back with {@link #read}. */
+    public synchronized void write(DataOutputStream out) throws IOException {
+        refreshDistinct();
+        out.writeUTF(tableName);
+        out.writeInt(td.numFields());
+        for (int i = 0; i < td.numFields(); i++) {
+            out.writeInt(td.getFieldType(i).ordinal());
+        }
+        out.writeInt(numPages);
+        out.writeInt(numTuples);
+        out.writeDouble(sampleRate);
+        out.writeInt(sampleSize);
+        out.writeDouble(cardinalityError);
+        for (int i = 0; i < td.numFields(); i++) {
+            out.writeBoolean(min[i] != null);
+            if (min[i] != null) {
+                min[i].serialize(out);
+                max[i].serialize(out);
+            }
+            out.writeInt(distinct[i]);
+            sketches[i].write(out);
+            histograms[i].write(out);
+        }
+    }
+
+    /**
+     * Reads statistics written by {@link #write}.
+     *
+     * @param ioCostPerPage The cost per page of IO used for scan cost estimates.
+     */
+    public static TableStats read(DataInputStream in, int ioCostPerPage) throws IOException {
+        String name = in.readUTF();
+        int n = in.readInt();
+        Type[] types = new Type[n];
+        for (int i = 0; i < n; i++) {
+            int t = in.readInt();
+            if (t < 0 || t >= Type.values().length) {
+                throw new IOException("bad field type in statistics of " + name);
+            }
+            types[i] = Type.values()[t];
+        }
+        TableStats s = new TableStats(name, new TupleDesc(types));
+        s.ioCostPerPage = ioCostPerPage;
+        s.numPages = in.readInt();
+        s.numTuples = in.readInt();
+        s.sampleRate = in.readDouble();
+        s.sampleSize = in.readInt();
+        s.cardinalityError = in.readDouble();
+        s.min = new Field[n];
+        s.max = new Field[n];
+        s.distinct = new int[n];
+        s.sketches = new HyperLogLog[n];
+        s.histograms = new EquiDepthHistogram[n];
+        for (int i = 0; i < n; i++) {
+            if (in.readBoolean()) {
+                s.min[i] = parseField(types[i], in);
+                s.max[i] = parseField(types[i], in);
+            }
+            s.distinct[i] = in.readInt();
+            s.sketches[i] = HyperLogLog.read(in);
+            s.histograms[i] = EquiDepthHistogram.read(types[i], in);
+        }
+        return s;
+    }
+
+    private static Field parseField(Type type, DataInputStream in) throws IOException {
+        try {
+            return type.parse(in);
+        } catch (java.text.ParseException e) {
+            throw new IOException("cannot parse saved field: " + e.getMessage());
+        }
+    }
+
+    /** @return whether these statistics describe the table as it is now */
+    private boolean isCurrent(int tableid) {
+        DbFile file = Database.getCatalog().getDbFile(tableid);
+        TupleDesc current = file.getTupleDesc();
+        if (current.numFields() != td.numFields()) {
+            return false;
+        }
+        for (int i = 0; i < td.numFields(); i++) {
+            if (current.getFieldType(i) != td.getFieldType(i)) {
+                return false;
+            }
+        }
+        return Math.abs(numPages(file) - numPages) <= REFRESH_THRESHOLD * Math.max(numPages, 1);
+    }
+
+    /**
+     * Returns statistics for every table in the catalog, keyed by table
+     * name.  Statistics saved in statsFile are used for tables whose schema
+     * is unchanged and whose page count is within {@link #REFRESH_THRESHOLD}
+     * of the saved one; the others are computed, and the file is rewritten
+     * if any were.  An unreadable file is ignored.
+     *
+     * @param statsFile The file the statistics are saved in.
+     * @param ioCostPerPage The cost per page of IO.
+     */
+    public static HashMap<String, TableStats> loadOrCompute(File statsFile, int ioCostPerPage) {
+        HashMap<String, TableStats> saved = new HashMap<String, TableStats>();
+        if (statsFile.exists()) {
+            try {
+                DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(statsFile)));
+                try {
+                    if (in.readInt() == FILE_VERSION) {
+                        int count = in.readInt();
+                        for (int i = 0; i < count; i++) {
+                            TableStats s = read(in, ioCostPerPage);
+                            saved.put(s.tableName, s);
+                        }
+                    }
+                } finally {
+                    in.close();
+                }
+            } catch (IOException e) {
+                System.err.println("Ignoring unreadable statistics file " + statsFile + ": " + e.getMessage());
+                saved.clear();
+            }
+        }
+
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        boolean changed = false;
+        Iterator<Integer> tableIt = Database.getCatalog().tableIdIterator();
+        while (tableIt.hasNext()) {
+            int tableid = tableIt.next();
+            String name = Database.getCatalog().getTableName(tableid);
+            TableStats s = saved.get(name);
+            if (s == null || !s.isCurrent(tableid)) {
+                s = new TableStats(tableid, ioCostPerPage);
+                changed = true;
+            }
+            stats.put(name, s);
+        }
+
+        if (changed || stats.size() != saved.size()) {
+            try {
+                save(statsFile, stats);
+            } catch (IOException e) {
+                System.err.println("Cannot save statistics to " + statsFile + ": " + e.getMessage());
+            }
+        }
+        return stats;
+    }
+
+    /**
+     * Keeps a set of statistics up to date as the buffer pool inserts and
+     * deletes tuples, in place of any set kept before.  Statistics added to
+     * or replaced in stats later are kept up to date too.
+     *
+     * @param stats Statistics keyed by table name, or null to stop keeping any up to date.
+     * @param statsFile The file {@link #flush} saves them to, or null for none.
+     */
+    public static synchronized void maintain(Map<String, TableStats> stats, File statsFile) {
+        maintained = stats;
+        maintainedFile = statsFile;
+        maintainedChanged = false;
+    }
+
+    /** @return the maintained statistics of a table, or null if there are none */
+    private static synchronized TableStats maintainedStats(int tableid) {
+        if (maintained == null) {
+            return null;
+        }
+        try {
+            return maintained.get(Database.getCatalog().getTableName(tableid));
+        } catch (NoSuchElementException e) {
+            return null;
+        }
+    }
+
+    /** @return whether the statistics of a table are being kept up to date */
+    static boolean isMaintained(int tableid) {
+        return maintainedStats(tableid) != null;
+    }
+
+    /** Records a change by tid, if the statistics of its table are being kept up to date. */
+    private static synchronized void record(TransactionId tid, Change change) {
+        if (maintainedStats(change.tableid) == null) {
+            return;
+        }
+        List<Change> changes = pending.get(tid);
+        if (changes == null) {
+            changes = new ArrayList<Change>();
+            pending.put(tid, changes);
+        }
+        changes.add(change);
+    }
+
+    /**
+     * Called by the buffer pool when tid has inserted a tuple into a table.
+     * The statistics are updated when tid commits.
+     */
+    static void tupleInserted(TransactionId tid, int tableid, Tuple t) {
+        record(tid, new Change(tableid, t, true));
+    }
+
+    /**
+     * Called by the buffer pool when tid has deleted a row from a table.
+     * The statistics are updated when tid commits.
+     *
+     * @param row the whole row that was deleted, which the tuple handed to
+     *   the buffer pool may not be
+     */
+    static void tupleDeleted(TransactionId tid, int tableid, Tuple row) {
+        record(tid, new Change(tableid, row, false));
+    }
+
+    /**
+     * Called by the buffer pool when tid commits or aborts, to apply its
+     * inserts and deletes to the statistics if it committed, and forget
+     * them if not.
+     */
+    static void transactionComplete(TransactionId tid, boolean commit) {
+        List<Change> changes;
+        synchronized (TableStats.class) {
+            changes = pending.remove(tid);
+        }
+        if (changes == null || !commit) {
+            return;
+        }
+        for (Change c : changes) {
+            TableStats s;
+            synchronized (TableStats.class) {
+                s = maintainedStats(c.tableid);
+                if (s == null) {
+                    continue;
+                }
+                maintainedChanged = true;
+            }
+            if (c.inserted) {
+                s.addTuple(c.tuple, numPages(Database.getCatalog().getDbFile(c.tableid)));
+            } else {
+                s.removeTuple(c.tuple);
+            }
+        }
+    }
+
+    /**
+     * Saves the statistics passed to {@link #maintain} to their file, if
+     * they have changed since they were last saved.
+     */
+    public static synchronized void flush() throws IOException {
+        if (maintainedChanged && maintainedFile != null) {
+            save(maintainedFile, maintained);
+            maintainedChanged = false;
+        }
+    }
+
+    /**
+     * Saves the statistics of a set of tables to statsFile, in the form
+     * {@link #loadOrCompute} reads.
+     */
+    public static void save(File statsFile, Map<String, TableStats> stats) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(statsFile)));
+        try {
+            out.writeInt(FILE_VERSION);
+            out.writeInt(stats.size());
+            for (TableStats s : stats.values()) {
+                s.write(out);
+            }
+        } finally {
+            out.close();
+        }
+    }
 }
@@ -0,0 +1,121 @@
+package simpledb;
+import java.util.*;
+
+/**
+ * TopN is an operator that returns the first n tuples of its child in sort
+ * order; it implements ORDER BY ... LIMIT n.
+ * <p>
+ * Rather than sorting the whole input as {@link OrderBy} does, it keeps a
+ * bounded heap of the best n tuples seen so far, so it needs O(n) memory no
+ * matter how large the child is.  The heap grows as tuples arrive, so a
+ * large n over a small input costs no more than the input.  When n tuples
+ * would not fit in a sort's memory, {@link LogicalPlan} plans an OrderBy
+ * and a {@link Limit} instead; see {@link #fits}.
+ */
+public class TopN extends Operator {
+
+    /** The most tuples the heap is sized for before it has seen any. */
+    static final int INITIAL_CAPACITY = 1024;
+
+    private final DbIterator child;
+    private final int n;
+    private final int[] orderByFields;
+    private final boolean[] asc;
+    private final TupleComparator comparator;
+
+    private final ArrayList<Tuple> result = new ArrayList<Tuple>();
+    private Iterator<Tuple> it;
+
+    /**
+     * Constructor.
+     *
+     * @param n the number of tuples to return
+     * @param orderByFields the fields to which the sort is applied, most significant first.
+     * @param asc for each field, true if the sort order is ascending.
+     * @param child the tuples to sort.
+     */
+    public TopN(int n, int[] orderByFields, boolean[] asc, DbIterator child) {
+        if (n < 0) {
+            throw new IllegalArgumentException("n must not be negative");
+        }
+        this.child = child;
+        this.n = n;
+        this.orderByFields = orderByFields.clone();
+        this.asc = asc.clone();
+        this.comparator = new TupleComparator(orderByFields, asc, child.getTupleDesc());
+    }
+
+    public int getN() {
+        return n;
+    }
+
+    /**
+     * @return whether n tuples with schema td fit in the memory an
+     *   {@link OrderBy} with runs of runPages pages sorts in
+     */
+    public static boolean fits(int n, TupleDesc td, int runPages) {
+        return n <= OrderBy.runTuples(td, runPages);
+    }
+
+    /** @return the fields the output is sorted on, most significant first */
+    public int[] getOrderByFields() {
+        return orderByFields.clone();
+    }
+
+    /** @return for each sort field, true if it is sorted in ascending order */
+    public boolean[] getAscending() {
+        return asc.clone();
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void open()
+        throws DbException, NoSuchElementException, TransactionAbortedException {
+        result.clear();
+        child.open();
+        if (n > 0) {
+            // the head of the heap is the worst of the n best tuples so far
+            PriorityQueue<Tuple> heap = new PriorityQueue<Tuple>(Math.min(n, INITIAL_CAPACITY),
+                Collections.reverseOrder(comparator));
+            while (child.hasNext()) {
+                Tuple t = child.next();
+                if (heap.size() < n) {
+                    heap.add(t);
+                } else if (comparator.compare(t, heap.peek()) < 0) {
+                    heap.poll();
+                    heap.add(t);
+                }
+            }
+            result.addAll(heap);
+            Collections.sort(result, comparator);
+        }
+        it = result.iterator();
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+        result.clear();
+        it = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        super.close();
+        it = result.iterator();
+    }
+
+    /**
+     * Operator.fetchNext implementation.
+     *
+     * @return The next tuple in the ordering, or null if there are no more tuples
+     */
+    protected Tuple fetchNext()
+        throws NoSuchElementException, TransactionAbortedException, DbException {
+        if (it != null && it.hasNext()) {
+            return it.next();
+        }
+        return null;
+    }
+}
@@ -19,7 +19,16 @@ public class Tuple {
     private Field fieldValues[];
 
     public static Tuple combine(Tuple t1, Tuple t2) {
-        Tuple tuple = new Tuple(TupleDesc.combine(t1.getTupleDesc(), t2.getTupleDesc()));
+        return combine(t1, t2, TupleDesc.combine(t1.getTupleDesc(), t2.getTupleDesc()));
+    }
+
+    /**
+     * Concatenates t1 and t2 into a tuple with the given schema, which must
+     * be TupleDesc.combine of their schemas.  Joins pass a TupleDesc they
+     * computed once rather than building a new one for every result tuple.
+     */
+    public static Tuple combine(Tuple t1, Tuple t2, TupleDesc td) {
+        Tuple tuple = new Tuple(td);
         tuple.recordId = null;
         System.arraycopy(t1.fieldValues, 0, tuple.fieldValues, 0, t1.getTupleDesc().numFields());
         System.arraycopy(t2.fieldValues, 0, tuple.fieldValues, t1.getTupleDesc().numFields(),
@@ -0,0 +1,205 @@
+package simpledb;
+
+/**
+ * TupleBatch is a column-oriented block of up to {@link #capacity} rows,
+ * returned by {@link BatchDbIterator#nextBatch}.
+ * <p>
+ * Integer columns are stored as int arrays, so operators that work on a
+ * batch (filters, aggregates) loop over primitive values without a virtual
+ * call or an allocation per row.  String columns are stored as arrays of
+ * their {@link StringField}s.
+ * <p>
+ * A batch has a physical size, the number of rows stored in its columns,
+ * and an optional selection vector listing the physical rows that are
+ * actually part of the batch; a filter only rewrites the selection vector
+ * instead of copying the rows that pass.  Row numbers passed to
+ * {@link #getInt} and friends are physical; use {@link #row} to map the
+ * i-th selected row to its physical row.
+ * <p>
+ * Producers reuse the same batch object from call to call, so a batch is
+ * only valid until the next call to nextBatch() on the iterator it came from.
+ */
+public class TupleBatch {
+
+    /** Default number of rows in a batch. */
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    private final TupleDesc td;
+    private final int capacity;
+    private final int[][] ints;
+    private final Field[][] strings;
+    private int size;
+    private int[] selection;
+    private int selected;
+    private final int[] selectionBuffer;
+
+    /** Creates an empty batch with the default capacity. */
+    public TupleBatch(TupleDesc td) {
+        this(td, DEFAULT_CAPACITY);
+    }
+
+    /** Creates an empty batch holding up to capacity rows. */
+    public TupleBatch(TupleDesc td, int capacity) {
+        this(td, capacity, true);
+    }
+
+    private TupleBatch(TupleDesc td, int capacity, boolean allocate) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("a batch must hold at least one row");
+        }
+        this.td = td;
+        this.capacity = capacity;
+        this.ints = new int[td.numFields()][];
+        this.strings = new Field[td.numFields()][];
+        if (allocate) {
+            for (int i = 0; i < td.numFields(); ++i) {
+                if (td.getFieldType(i) == Type.INT_TYPE) {
+                    ints[i] = new int[capacity];
+                } else {
+                    strings[i] = new Field[capacity];
+                }
+            }
+        }
+        this.selectionBuffer = new int[capacity];
+    }
+
+    /**
+     * Creates a batch whose columns are views of columns of other batches;
+     * see {@link #setColumn}.  It has no storage of its own, so rows cannot
+     * be added to it.
+     */
+    public static TupleBatch view(TupleDesc td, int capacity) {
+        return new TupleBatch(td, capacity, false);
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /** @return the maximum number of rows the batch holds */
+    public int capacity() {
+        return capacity;
+    }
+
+    /** @return the number of selected rows in the batch */
+    public int size() {
+        return selection == null ? size : selected;
+    }
+
+    /** @return the number of rows stored in the columns, selected or not */
+    public int physicalSize() {
+        return size;
+    }
+
+    /** @return true if no more rows can be added */
+    public boolean isFull() {
+        return size == capacity;
+    }
+
+    /** Removes all rows and the selection vector. */
+    public void clear() {
+        size = 0;
+        selection = null;
+        selected = 0;
+    }
+
+    /** @return the physical row number of the i-th selected row */
+    public int row(int i) {
+        return selection == null ? i : selection[i];
+    }
+
+    /** @return the selection vector, or null if every physical row is selected */
+    public int[] getSelection() {
+        return selection;
+    }
+
+    /**
+     * Restricts the batch to the given physical rows, which must be a subset
+     * of the currently selected rows, in increasing order.  The array may be
+     * the one returned by {@link #selectionBuffer}.
+     */
+    public void setSelection(int[] rows, int n) {
+        selection = rows;
+        selected = n;
+    }
+
+    /** @return a scratch array of length capacity() for building a selection vector */
+    public int[] selectionBuffer() {
+        return selectionBuffer;
+    }
+
+    /** Appends a tuple's fields as a new physical row; the batch must have no selection vector. */
+    public void add(Tuple t) {
+        if (selection != null) {
+            throw new IllegalStateException("cannot add rows to a batch with a selection vector");
+        }
+        for (int i = 0; i < ints.length; ++i) {
+            if (ints[i] != null) {
+                ints[i][size] = ((IntField) t.getField(i)).getValue();
+            } else {
+                strings[i][size] = t.getField(i);
+            }
+        }
+        size++;
+    }
+
+    /**
+     * Appends a row made of physical row r1 of b1 followed by physical row
+     * r2 of b2, as {@link Tuple#combine} does for tuples.
+     */
+    public void addCombined(TupleBatch b1, int r1, TupleBatch b2, int r2) {
+        int n1 = b1.ints.length;
+        for (int i = 0; i < n1; ++i) {
+            if (ints[i] != null) {
+                ints[i][size] = b1.ints[i][r1];
+            } else {
+                strings[i][size] = b1.strings[i][r1];
+            }
+        }
+        for (int i = 0; i < b2.ints.length; ++i) {
+            if (ints[n1 + i] != null) {
+                ints[n1 + i][size] = b2.ints[i][r2];
+            } else {
+                strings[n1 + i][size] = b2.strings[i][r2];
+            }
+        }
+        size++;
+    }
+
+    /**
+     * Makes column col of this (view) batch share the storage of column
+     * srcCol of src, and copies src's size and selection vector.
+     */
+    public void setColumn(int col, TupleBatch src, int srcCol) {
+        ints[col] = src.ints[srcCol];
+        strings[col] = src.strings[srcCol];
+        size = src.size;
+        selection = src.selection;
+        selected = src.selected;
+    }
+
+    /** @return the int column col; physical rows [0, physicalSize()) are valid */
+    public int[] intColumn(int col) {
+        return ints[col];
+    }
+
+    /** @return the value of integer column col in physical row r */
+    public int getInt(int col, int r) {
+        return ints[col][r];
+    }
+
+    /** @return the value of column col in physical row r, as a Field */
+    public Field getField(int col, int r) {
+        return ints[col] != null ? new IntField(ints[col][r]) : strings[col][r];
+    }
+
+    /** @return the i-th selected row, as a new Tuple */
+    public Tuple getTuple(int i) {
+        int r = row(i);
+        Tuple t = new Tuple(td);
+        for (int col = 0; col < ints.length; ++col) {
+            t.setField(col, getField(col, r));
+        }
+        return t;
+    }
+}
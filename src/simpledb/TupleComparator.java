@@ -0,0 +1,55 @@
+package simpledb;
+
+import java.util.Comparator;
+
+/**
+ * Compares tuples on one or more sort key fields, each in ascending or
+ * descending order.  Key types are resolved once from the TupleDesc, so each
+ * comparison works directly on the int or String values of the fields rather
+ * than going through {@link Field#compare} with a {@link Predicate.Op}.
+ */
+class TupleComparator implements Comparator<Tuple> {
+    private final int[] fields;
+    private final boolean[] asc;
+    private final boolean[] isInt;
+
+    /**
+     * @param fields the sort key fields, most significant first
+     * @param asc for each key field, true if it sorts in ascending order
+     * @param td the schema of the tuples being compared
+     */
+    public TupleComparator(int[] fields, boolean[] asc, TupleDesc td) {
+        if (fields.length != asc.length) {
+            throw new IllegalArgumentException("one sort direction is required per key field");
+        }
+        this.fields = fields.clone();
+        this.asc = asc.clone();
+        this.isInt = new boolean[fields.length];
+        for (int i = 0; i < fields.length; ++i) {
+            isInt[i] = td.getFieldType(fields[i]) == Type.INT_TYPE;
+        }
+    }
+
+    public TupleComparator(int field, boolean asc, TupleDesc td) {
+        this(new int[]{field}, new boolean[]{asc}, td);
+    }
+
+    public int compare(Tuple o1, Tuple o2) {
+        for (int i = 0; i < fields.length; ++i) {
+            int cmp;
+            if (isInt[i]) {
+                int v1 = ((IntField) o1.getField(fields[i])).getValue();
+                int v2 = ((IntField) o2.getField(fields[i])).getValue();
+                cmp = v1 < v2 ? -1 : (v1 == v2 ? 0 : 1);
+            } else {
+                String v1 = ((StringField) o1.getField(fields[i])).getValue();
+                String v2 = ((StringField) o2.getField(fields[i])).getValue();
+                cmp = v1.compareTo(v2);
+            }
+            if (cmp != 0) {
+                return asc[i] ? cmp : -cmp;
+            }
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,17 @@
+package simpledb;
+
+/**
+ * TupleSink is the consumer side of push-based execution: a producer hands
+ * each of its tuples to a sink, rather than the consumer pulling them with
+ * next().  See {@link PushExecutor}.
+ */
+public interface TupleSink {
+
+    /**
+     * Consumes one tuple.
+     *
+     * @param t the tuple; the sink may keep a reference to it
+     * @return true if the sink wants more tuples, false if the producer should stop
+     */
+    public boolean consume(Tuple t) throws DbException, TransactionAbortedException;
+}
@@ -110,6 +110,15 @@ public class AggregateTest extends SimpleDbTestBase {
     TestUtil.matchAllTuples(min, op);
   }
 
+  /**
+   * Unit test for Aggregate.close() when open() failed, as when a query is
+   * re-planned while its aggregate is reading its input
+   */
+  @Test public void closeUnopened() throws Exception {
+    Aggregate op = new Aggregate(scan1, 1, 0, Aggregator.Op.MIN);
+    op.close();
+  }
+
   /**
    * Unit test for Aggregate.getNext() using a count aggregate with string types
    */
@@ -176,6 +185,25 @@ public class AggregateTest extends SimpleDbTestBase {
     TestUtil.matchAllTuples(min, op);
   }
 
+  /**
+   * Unit test for two-phase aggregation over the inputs of an Exchange
+   */
+  @Test public void parallelAggregate() throws Exception {
+    Exchange child = new Exchange(new DbIterator[] {
+        TestUtil.createTupleList(width1, new int[] { 1, 2, 3, 2, 1, 4 }),
+        TestUtil.createTupleList(width1, new int[] { 1, 6, 3, 4 }),
+        TestUtil.createTupleList(width1, new int[] { 3, 6, 5, 7 }) });
+    Aggregate op = new Aggregate(child, 1, 0, Aggregator.Op.AVG);
+    op.open();
+    avg.open();
+    TestUtil.matchAllTuples(avg, op);
+
+    Aggregate total = new Aggregate(new Exchange(child.getChildren()), 1,
+        Aggregator.NO_GROUPING, Aggregator.Op.SUM);
+    total.open();
+    TestUtil.matchAllTuples(TestUtil.createTupleList(1, new int[] { 31 }), total);
+  }
+
   /**
    * JUnit suite target
    */
@@ -0,0 +1,175 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class CheckpointTest extends SimpleDbTestBase {
+
+  private static void drain(DbIterator it) throws Exception {
+    it.open();
+    while (it.hasNext()) {
+      it.next();
+    }
+    it.close();
+  }
+
+  /**
+   * A checkpoint throws once an input far larger than estimated is read, and keeps its tuples
+   */
+  @Test public void deviation() throws Exception {
+    Checkpoint c = new Checkpoint(Arrays.asList("t"), 10, 2, Integer.MAX_VALUE);
+    DbIterator it = c.wrap(new TestUtil.MockScan(0, 100, 1));
+    it.open();
+    try {
+      while (it.hasNext()) {
+        it.next();
+      }
+      fail("expected the input to deviate");
+    } catch (Checkpoint.Deviation d) {
+      assertTrue(d.getCheckpoint() == c);
+    }
+    assertEquals(100, c.getRows());
+    assertTrue(c.hasTuples());
+    DbIterator replay = c.replay();
+    replay.open();
+    TestUtil.compareDbIterators(new TestUtil.MockScan(0, 100, 1), replay);
+    replay.rewind();
+    TestUtil.compareDbIterators(new TestUtil.MockScan(0, 100, 1), replay);
+  }
+
+  /**
+   * A checkpoint does not throw for an input close to its estimate, once
+   * disarmed, or when it could not keep the input
+   */
+  @Test public void noDeviation() throws Exception {
+    Checkpoint close = new Checkpoint(Arrays.asList("t"), 60, 2, Integer.MAX_VALUE);
+    drain(close.wrap(new TestUtil.MockScan(0, 100, 1)));
+    assertEquals(100, close.getRows());
+    assertFalse(close.deviates());
+
+    Checkpoint disarmed = new Checkpoint(Arrays.asList("t"), 10, 2, Integer.MAX_VALUE);
+    DbIterator it = disarmed.wrap(new TestUtil.MockScan(0, 100, 1));
+    disarmed.disarm();
+    drain(it);
+    assertTrue(disarmed.deviates());
+
+    Checkpoint full = new Checkpoint(Arrays.asList("t"), 10, 2, 50);
+    drain(full.wrap(new TestUtil.MockScan(0, 100, 1)));
+    assertEquals(100, full.getRows());
+    assertFalse(full.hasTuples());
+  }
+
+  /**
+   * Only the first complete pass over an input is counted
+   */
+  @Test public void rewind() throws Exception {
+    Checkpoint c = new Checkpoint(Arrays.asList("t"), 10, 2, Integer.MAX_VALUE);
+    DbIterator it = c.wrap(new TestUtil.MockScan(0, 10, 1));
+    it.open();
+    it.next();
+    it.rewind();
+    assertEquals(-1, c.getRows());
+    TestUtil.compareDbIterators(new TestUtil.MockScan(0, 10, 1), it);
+    it.rewind();
+    TestUtil.compareDbIterators(new TestUtil.MockScan(0, 10, 1), it);
+    assertEquals(10, c.getRows());
+  }
+
+  /**
+   * An exchange is still read in parallel, and its children's tuples are added up
+   */
+  @Test public void exchange() throws Exception {
+    Checkpoint c = new Checkpoint(Arrays.asList("t"), 100, 2, Integer.MAX_VALUE);
+    DbIterator it = c.wrap(new Exchange(new DbIterator[] {
+        new TestUtil.MockScan(0, 30, 1), new TestUtil.MockScan(30, 100, 1) }));
+    assertTrue(it instanceof Exchange);
+    drain(it);
+    assertEquals(100, c.getRows());
+    assertTrue(c.hasTuples());
+  }
+
+  /**
+   * A hash table shared by several probes fails every build once its input
+   * has deviated, rather than letting a later probe read the input again
+   */
+  @Test public void sharedHashTable() throws Exception {
+    Checkpoint c = new Checkpoint(Arrays.asList("t"), 10, 2, Integer.MAX_VALUE);
+    JoinHashTable table = new JoinHashTable(c.wrap(new TestUtil.MockScan(0, 100, 1)), 0);
+    for (int i = 0; i < 2; i++) {
+      try {
+        table.build();
+        fail("expected the input to deviate");
+      } catch (Checkpoint.Deviation d) {
+        assertTrue(d.getCheckpoint() == c);
+      }
+    }
+  }
+
+  /**
+   * A query whose statistics are far off is re-planned from the tuples it
+   * has, returns what it would have without re-planning, and leaves the
+   * selectivity it observed for later queries
+   */
+  @Test public void reoptimizeQuery() throws Exception {
+    HeapFile r = SystemTestUtil.createRandomHeapFile(2, 2000, 1000, null, new ArrayList<ArrayList<Integer>>(), "c");
+    HeapFile s = SystemTestUtil.createRandomHeapFile(2, 2000, 1000, null, new ArrayList<ArrayList<Integer>>(), "c");
+    HeapFile small = SystemTestUtil.createRandomHeapFile(2, 20, 1000, null, new ArrayList<ArrayList<Integer>>(), "c");
+    String rName = "r" + SystemTestUtil.getUUID();
+    String sName = "s" + SystemTestUtil.getUUID();
+    Database.getCatalog().addTable(r, rName);
+    Database.getCatalog().addTable(s, sName);
+    Database.getCatalog().addTable(small, "small" + SystemTestUtil.getUUID());
+    HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+    stats.put(rName, new TableStats(r.getId(), 1000));
+    // s looks a hundred times smaller than it is
+    stats.put(sName, new TableStats(small.getId(), 1000));
+
+    int[] counts = new int[2];
+    for (int i = 0; i < 2; i++) {
+      LogicalPlan lp = new LogicalPlan();
+      lp.addScan(r.getId(), "r");
+      lp.addScan(s.getId(), "s");
+      lp.addFilter("s.c1", Predicate.Op.LESS_THAN, "500");
+      lp.addJoin("r.c0", "s.c0", Predicate.Op.EQUALS);
+      lp.addProjectField("r.c1", null);
+      // only s, as estimated, fits in a hash table
+      lp.setJoinMemory(1);
+      TransactionId tid = new TransactionId();
+      Query q = new Query(lp, stats, false, tid);
+      q.setReoptimizationFactor(i == 0 ? 0 : 10);
+      q.start();
+      while (q.hasNext()) {
+        q.next();
+        counts[i]++;
+      }
+      q.close();
+      Database.getBufferPool().transactionComplete(tid);
+      assertEquals(i, q.getReoptimizations());
+    }
+    assertTrue(counts[0] > 0);
+    assertEquals(counts[0], counts[1]);
+    assertNotNull(Database.getSelectivityFeedback().lookup(
+        SelectivityFeedback.key(sName, Arrays.asList("c1 < 500")), stats.get(sName)));
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(CheckpointTest.class);
+  }
+}
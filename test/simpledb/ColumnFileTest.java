@@ -0,0 +1,175 @@
+package simpledb;
+
+import java.io.File;
+import java.util.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class ColumnFileTest extends SimpleDbTestBase {
+    private static final int COLUMNS = 3;
+    // enough rows to span several pages of each column chain
+    private static final int ROWS = 2500;
+
+    private ArrayList<ArrayList<Integer>> tuples;
+    private File dir;
+    private ColumnFile cf;
+    private TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(COLUMNS, ROWS, null, tuples);
+        dir = File.createTempFile("table", ".col");
+        dir.delete();
+        cf = ColumnFile.fromHeapFile(hf, dir);
+        Database.getCatalog().addTable(cf, SystemTestUtil.getUUID());
+        tid = new TransactionId();
+    }
+
+    @After public void tearDown() throws Exception {
+        Database.getBufferPool().transactionComplete(tid);
+        for (File f : dir.listFiles()) {
+            f.delete();
+        }
+        dir.delete();
+    }
+
+    /** @return the rows of tuples, keeping only the given columns */
+    private static List<ArrayList<Integer>> project(List<ArrayList<Integer>> tuples, int[] columns) {
+        List<ArrayList<Integer>> result = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t : tuples) {
+            ArrayList<Integer> row = new ArrayList<Integer>();
+            for (int c : columns) {
+                row.add(t.get(c));
+            }
+            result.add(row);
+        }
+        return result;
+    }
+
+    private static List<ArrayList<Integer>> scan(DbFileIterator it) throws Exception {
+        List<ArrayList<Integer>> result = new ArrayList<ArrayList<Integer>>();
+        it.open();
+        while (it.hasNext()) {
+            result.add(SystemTestUtil.tupleToList(it.next()));
+        }
+        it.close();
+        return result;
+    }
+
+    /**
+     * Unit test for ColumnFile.fromHeapFile() and ColumnFile.iterator()
+     */
+    @Test public void readAllColumns() throws Exception {
+        assertEquals(ROWS, cf.numRows());
+        assertEquals(tuples, scan(cf.iterator(tid)));
+    }
+
+    /**
+     * Unit test for ColumnFile.iterator() over some of the columns
+     */
+    @Test public void readProjected() throws Exception {
+        int[] columns = new int[]{ 2, 0 };
+        DbFileIterator it = cf.iterator(tid, columns);
+        assertEquals(project(tuples, columns), scan(it));
+
+        ColumnScan scan = new ColumnScan(tid, cf.getId(), "t", columns);
+        assertEquals("t." + cf.getTupleDesc().getFieldName(2), scan.getTupleDesc().getFieldName(0));
+        int n = 0;
+        scan.open();
+        for (TupleBatch b = scan.nextBatch(); b != null; b = scan.nextBatch()) {
+            n += b.size();
+        }
+        scan.close();
+        assertEquals(ROWS, n);
+    }
+
+    /**
+     * Unit test for ColumnFile.iterator() with filters, on a column that is not returned
+     */
+    @Test public void readFiltered() throws Exception {
+        Database.getBufferPool().insertTuple(tid, cf.getId(), Utility.getHeapTuple(new int[]{ 1, 2, 3 }));
+        Predicate filter = new Predicate(1, Predicate.Op.LESS_THAN, new IntField(6000));
+        int[] columns = new int[]{ 0 };
+        List<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t : tuples) {
+            if (t.get(1) < 6000) {
+                expected.add(new ArrayList<Integer>(t.subList(0, 1)));
+            }
+        }
+        expected.add(new ArrayList<Integer>(Arrays.asList(1)));
+        assertEquals(expected, scan(cf.iterator(tid, columns, new Predicate[]{ filter })));
+    }
+
+    /**
+     * Unit test for ColumnFile.insertTuple()
+     */
+    @Test public void insertGoesToDelta() throws Exception {
+        Tuple t = Utility.getHeapTuple(new int[]{ -1, -2, -3 });
+        cf.insertTuple(tid, t);
+        assertEquals(ROWS, cf.numRows());
+
+        List<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>(tuples);
+        expected.add(new ArrayList<Integer>(Arrays.asList(-1, -2, -3)));
+        assertEquals(expected, scan(cf.iterator(tid)));
+        assertEquals(project(expected, new int[]{ 1 }), scan(cf.iterator(tid, new int[]{ 1 })));
+    }
+
+    /**
+     * Unit test for ColumnFile.deleteTuple() on rows of the column chains and of the delta store
+     */
+    @Test public void deleteTuples() throws Exception {
+        Database.getBufferPool().insertTuple(tid, cf.getId(), Utility.getHeapTuple(new int[]{ -1, -2, -3 }));
+
+        // delete every third row, including the inserted one, through projected tuples
+        List<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        DbFileIterator it = cf.iterator(tid, new int[]{ 1 });
+        it.open();
+        int i = 0;
+        List<Tuple> deleted = new ArrayList<Tuple>();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            if (i % 3 == 0 || i == ROWS) {
+                deleted.add(t);
+            } else if (i < ROWS) {
+                expected.add(tuples.get(i));
+            }
+            i++;
+        }
+        it.close();
+        assertEquals(ROWS + 1, i);
+        for (Tuple t : deleted) {
+            Database.getBufferPool().deleteTuple(tid, t);
+        }
+        assertEquals(expected, scan(cf.iterator(tid)));
+
+        try {
+            cf.deleteTuple(tid, deleted.get(0));
+            fail("deleting a row twice should fail");
+        } catch (DbException e) {
+            // expected
+        }
+
+        // the deletes survive a restart
+        Database.getBufferPool().transactionComplete(tid, true);
+        Database.reset();
+        cf = new ColumnFile(dir, cf.getTupleDesc());
+        Database.getCatalog().addTable(cf, SystemTestUtil.getUUID());
+        tid = new TransactionId();
+        assertEquals(expected, scan(cf.iterator(tid)));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ColumnFileTest.class);
+    }
+}
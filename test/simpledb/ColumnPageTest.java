@@ -0,0 +1,130 @@
+package simpledb;
+
+import java.io.IOException;
+import java.util.*;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class ColumnPageTest extends SimpleDbTestBase {
+
+    /** @return a page holding as many of the values as fit, in the encoding the builder picks */
+    private static ColumnPage build(Type type, List<Field> values) throws IOException {
+        ColumnPage.Builder builder = new ColumnPage.Builder(type);
+        for (Field f : values) {
+            if (!builder.add(f)) {
+                break;
+            }
+        }
+        return new ColumnPage(new ColumnPageId(0, 0, 0), type, builder.build());
+    }
+
+    /** Checks that the page holds a prefix of values, and that filter agrees with Field.compare. */
+    private static void check(ColumnPage page, List<Field> values, Field... operands) {
+        assertTrue(page.getNumValues() > 0);
+        for (int i = 0; i < page.getNumValues(); i++) {
+            assertEquals(values.get(i), page.getField(i));
+        }
+        for (Field operand : operands) {
+            for (Predicate.Op op : Predicate.Op.values()) {
+                BitSet matches = page.filter(op, operand);
+                for (int i = 0; i < page.getNumValues(); i++) {
+                    assertEquals(op + " " + operand + " at " + i,
+                            values.get(i).compare(op, operand), matches.get(i));
+                }
+                assertTrue(matches.length() <= page.getNumValues());
+            }
+        }
+    }
+
+    @Test public void plain() throws Exception {
+        List<Field> values = new ArrayList<Field>();
+        Random r = new Random(1);
+        for (int i = 0; i < 2000; i++) {
+            values.add(new IntField(r.nextInt()));
+        }
+        ColumnPage page = build(Type.INT_TYPE, values);
+        assertEquals(ColumnPage.Encoding.PLAIN, page.getEncoding());
+        assertEquals((BufferPool.PAGE_SIZE - 5) / 4, page.getNumValues());
+        check(page, values, values.get(3), new IntField(0));
+    }
+
+    @Test public void frameOfReference() throws Exception {
+        List<Field> values = new ArrayList<Field>();
+        Random r = new Random(2);
+        for (int i = 0; i < 20000; i++) {
+            values.add(new IntField(1000000 + r.nextInt(200)));
+        }
+        ColumnPage page = build(Type.INT_TYPE, values);
+        assertEquals(ColumnPage.Encoding.FRAME_OF_REFERENCE, page.getEncoding());
+        // 8 bits per value instead of 32
+        assertTrue(page.getNumValues() > 4000);
+        check(page, values, new IntField(1000100), new IntField(0), new IntField(Integer.MAX_VALUE));
+    }
+
+    @Test public void delta() throws Exception {
+        List<Field> values = new ArrayList<Field>();
+        Random r = new Random(3);
+        int v = Integer.MIN_VALUE;
+        for (int i = 0; i < 40000; i++) {
+            v += r.nextInt(4);
+            values.add(new IntField(v));
+        }
+        ColumnPage page = build(Type.INT_TYPE, values);
+        assertEquals(ColumnPage.Encoding.DELTA, page.getEncoding());
+        assertTrue(page.getNumValues() > 10000);
+        check(page, values, values.get(5000), new IntField(0));
+    }
+
+    @Test public void dictionary() throws Exception {
+        List<Field> values = new ArrayList<Field>();
+        Random r = new Random(4);
+        for (int i = 0; i < 20000; i++) {
+            values.add(new StringField("value " + r.nextInt(5), Type.STRING_LEN));
+        }
+        ColumnPage page = build(Type.STRING_TYPE, values);
+        assertEquals(ColumnPage.Encoding.DICTIONARY, page.getEncoding());
+        assertTrue(page.getNumValues() > 5000);
+        check(page, values, new StringField("value 2", Type.STRING_LEN),
+                new StringField("value", Type.STRING_LEN), new StringField("other", Type.STRING_LEN));
+
+        // widely spread ints with few distinct values
+        values = new ArrayList<Field>();
+        for (int i = 0; i < 20000; i++) {
+            values.add(new IntField(i % 7 * 100000));
+        }
+        page = build(Type.INT_TYPE, values);
+        assertEquals(ColumnPage.Encoding.DICTIONARY, page.getEncoding());
+        check(page, values, new IntField(300000));
+    }
+
+    @Test public void runLength() throws Exception {
+        List<Field> values = new ArrayList<Field>();
+        for (int i = 0; i < ColumnPage.MAX_ROWS + 10; i++) {
+            values.add(new StringField("run " + (i / 5000), Type.STRING_LEN));
+        }
+        ColumnPage page = build(Type.STRING_TYPE, values);
+        assertEquals(ColumnPage.Encoding.RUN_LENGTH, page.getEncoding());
+        assertEquals(ColumnPage.MAX_ROWS, page.getNumValues());
+        check(page, values, new StringField("run 3", Type.STRING_LEN));
+
+        values = new ArrayList<Field>();
+        for (int i = 0; i < ColumnPage.MAX_ROWS; i++) {
+            values.add(new IntField(i / 1000 * 1000));
+        }
+        page = build(Type.INT_TYPE, values);
+        assertEquals(ColumnPage.Encoding.RUN_LENGTH, page.getEncoding());
+        check(page, values, new IntField(7000), new IntField(7001));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ColumnPageTest.class);
+    }
+}
@@ -0,0 +1,164 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class EquiDepthHistogramTest extends SimpleDbTestBase {
+    private static final int N = 20000;
+    private static final double EPSILON = 0.02;
+
+    private static double actual(List<Field> values, Predicate.Op op, Field v) {
+        int n = 0;
+        for (Field f : values) {
+            if (f.compare(op, v)) {
+                n++;
+            }
+        }
+        return (double) n / values.size();
+    }
+
+    private static int distinct(List<Field> values) {
+        return new HashSet<Field>(values).size();
+    }
+
+    /** 60% of the values are 7; the rest are spread over [0, 10000) */
+    private static List<Field> skewedValues() {
+        Random random = new Random(1);
+        ArrayList<Field> values = new ArrayList<Field>();
+        for (int i = 0; i < N; i++) {
+            values.add(new IntField(random.nextInt(10) < 6 ? 7 : random.nextInt(10000)));
+        }
+        return values;
+    }
+
+    /**
+     * Unit test for estimates over a skewed int column: the frequent value
+     * is in the MCV list, and range estimates are not thrown off by it
+     */
+    @Test public void skewedInts() {
+        List<Field> values = skewedValues();
+        EquiDepthHistogram h = EquiDepthHistogram.build(Type.INT_TYPE, new ArrayList<Field>(values), 100, 20,
+                distinct(values));
+        assertTrue(h.numMcvs() >= 1);
+        assertEquals(actual(values, Predicate.Op.EQUALS, new IntField(7)),
+                h.estimateSelectivity(Predicate.Op.EQUALS, new IntField(7)), 1e-9);
+        for (Predicate.Op op : new Predicate.Op[] {Predicate.Op.LESS_THAN, Predicate.Op.LESS_THAN_OR_EQ,
+                Predicate.Op.GREATER_THAN, Predicate.Op.GREATER_THAN_OR_EQ, Predicate.Op.NOT_EQUALS}) {
+            for (int v = -100; v <= 10100; v += 97) {
+                IntField f = new IntField(v);
+                assertEquals(op + " " + v, actual(values, op, f), h.estimateSelectivity(op, f), EPSILON);
+            }
+            assertEquals(actual(values, op, new IntField(7)), h.estimateSelectivity(op, new IntField(7)), EPSILON);
+        }
+        assertEquals(0, h.estimateSelectivity(Predicate.Op.EQUALS, new IntField(20000)), 0);
+        assertTrue(h.estimateSelectivity(Predicate.Op.EQUALS, new IntField(5000)) < 0.001);
+    }
+
+    /**
+     * Unit test for estimates over strings that share a prefix longer than
+     * four characters
+     */
+    @Test public void stringsWithCommonPrefix() {
+        Random random = new Random(2);
+        ArrayList<Field> values = new ArrayList<Field>();
+        for (int i = 0; i < N; i++) {
+            values.add(new StringField(String.format("customer#%06d", random.nextInt(100000)), Type.STRING_LEN));
+        }
+        EquiDepthHistogram h = EquiDepthHistogram.build(Type.STRING_TYPE, new ArrayList<Field>(values), 100, 20,
+                distinct(values));
+        for (int v = 0; v <= 100000; v += 4999) {
+            StringField f = new StringField(String.format("customer#%06d", v), Type.STRING_LEN);
+            for (Predicate.Op op : new Predicate.Op[] {Predicate.Op.LESS_THAN, Predicate.Op.GREATER_THAN}) {
+                assertEquals(op + " " + v, actual(values, op, f), h.estimateSelectivity(op, f), EPSILON);
+            }
+        }
+        assertEquals(0, h.estimateSelectivity(Predicate.Op.LESS_THAN, new StringField("a", Type.STRING_LEN)), 0);
+        assertEquals(1, h.estimateSelectivity(Predicate.Op.LESS_THAN, new StringField("d", Type.STRING_LEN)), 0);
+    }
+
+    /**
+     * Unit test for columns with few values, which are all kept in the MCV
+     * list, and for LIKE on strings
+     */
+    @Test public void fewValues() {
+        String[] names = {"red", "green", "blue", "reddish"};
+        ArrayList<Field> values = new ArrayList<Field>();
+        for (int i = 0; i < 1000; i++) {
+            values.add(new StringField(names[i % 10 < 7 ? 0 : i % 10 - 6], Type.STRING_LEN));
+        }
+        EquiDepthHistogram h = EquiDepthHistogram.build(Type.STRING_TYPE, new ArrayList<Field>(values), 100, 20, 4);
+        assertEquals(4, h.numMcvs());
+        assertEquals(0, h.numBuckets());
+        StringField red = new StringField("red", Type.STRING_LEN);
+        assertEquals(0.7, h.estimateSelectivity(Predicate.Op.EQUALS, red), 1e-9);
+        assertEquals(0.8, h.estimateSelectivity(Predicate.Op.LIKE, red), 1e-9);
+        assertEquals(0, h.estimateSelectivity(Predicate.Op.EQUALS, new StringField("pink", Type.STRING_LEN)), 0);
+    }
+
+    /**
+     * Unit test for writing a histogram and reading it back
+     */
+    @Test public void writeAndRead() throws IOException {
+        List<Field> values = skewedValues();
+        EquiDepthHistogram h = EquiDepthHistogram.build(Type.INT_TYPE, new ArrayList<Field>(values), 100, 20,
+                distinct(values));
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        h.write(new DataOutputStream(bytes));
+        EquiDepthHistogram read = EquiDepthHistogram.read(Type.INT_TYPE,
+                new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        assertEquals(h.toString(), read.toString());
+        IntField v = new IntField(1234);
+        assertEquals(h.estimateSelectivity(Predicate.Op.EQUALS, v), read.estimateSelectivity(Predicate.Op.EQUALS, v), 0);
+    }
+
+    /**
+     * Unit test for keeping a histogram up to date: values added beyond its
+     * bounds stretch the end buckets, and removed values are uncounted
+     */
+    @Test public void addAndRemove() {
+        List<Field> values = skewedValues();
+        EquiDepthHistogram h = EquiDepthHistogram.build(Type.INT_TYPE, new ArrayList<Field>(values), 100, 20,
+                distinct(values));
+        assertEquals(N, h.numRows(), 1e-6);
+        ArrayList<Field> added = new ArrayList<Field>();
+        for (int i = 0; i < N / 2; i++) {
+            added.add(new IntField(i % 2 == 0 ? 7 : 10000 + i));
+        }
+        for (Field f : added) {
+            h.addValue(f);
+            values.add(f);
+        }
+        h.setDistinct(distinct(values));
+        assertEquals(values.size(), h.numRows(), 1e-6);
+        assertEquals(actual(values, Predicate.Op.EQUALS, new IntField(7)),
+                h.estimateSelectivity(Predicate.Op.EQUALS, new IntField(7)), 1e-9);
+        for (int v = 0; v <= 20000; v += 1000) {
+            IntField f = new IntField(v);
+            assertEquals("< " + v, actual(values, Predicate.Op.LESS_THAN, f),
+                    h.estimateSelectivity(Predicate.Op.LESS_THAN, f), 0.05);
+        }
+
+        for (Field f : added) {
+            h.removeValue(f);
+        }
+        assertEquals(N, h.numRows(), 1e-6);
+        assertEquals(0.6, h.estimateSelectivity(Predicate.Op.EQUALS, new IntField(7)), EPSILON);
+        // a value below the bounds is uncounted from the first bucket
+        h.removeValue(new IntField(-5));
+        assertEquals(N - 1, h.numRows(), 1e-6);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(EquiDepthHistogramTest.class);
+    }
+}
@@ -0,0 +1,165 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class ExchangeTest extends SimpleDbTestBase {
+
+  private static int drainDistinct(DbIterator it, HashSet<Integer> seen) throws Exception {
+    int count = 0;
+    while (it.hasNext()) {
+      Tuple t = it.next();
+      assertTrue(seen.add(((IntField) t.getField(0)).getValue()));
+      count++;
+    }
+    return count;
+  }
+
+  /**
+   * Unit test for gathering several children, with rewind
+   */
+  @Test public void gather() throws Exception {
+    DbIterator[] children = new DbIterator[4];
+    for (int i = 0; i < children.length; i++) {
+      children[i] = TestUtil.createRangeList(i * 10000, (i + 1) * 10000, 1);
+    }
+    Exchange op = new Exchange(children, 2);
+    op.open();
+    assertEquals(40000, drainDistinct(op, new HashSet<Integer>()));
+    op.rewind();
+    assertEquals(40000, drainDistinct(op, new HashSet<Integer>()));
+    op.close();
+  }
+
+  /**
+   * Unit test for closing an exchange before its workers have finished
+   */
+  @Test public void closeEarly() throws Exception {
+    Exchange op = new Exchange(new DbIterator[] {
+        new TestUtil.MockScan(0, 1000000, 1), new TestUtil.MockScan(0, 1000000, 1) }, 1);
+    op.open();
+    assertTrue(op.hasNext());
+    op.next();
+    op.close();
+  }
+
+  /**
+   * Unit test for errors raised by a worker being rethrown to the consumer
+   */
+  @Test public void workerFailure() throws Exception {
+    DbIterator failing = new TestUtil.MockScan(0, 10, 1) {
+      public void open() {
+        throw new IllegalStateException("no table");
+      }
+    };
+    Exchange op = new Exchange(new DbIterator[] { new TestUtil.MockScan(0, 10, 1), failing });
+    op.open();
+    try {
+      while (op.hasNext()) {
+        op.next();
+      }
+      fail("expected the worker's exception");
+    } catch (IllegalStateException e) {
+      // expected
+    }
+    op.close();
+  }
+
+  /**
+   * Unit test for RepartitionExchange: every tuple lands in exactly one
+   * output, the one its partitioning field hashes to
+   */
+  @Test public void repartition() throws Exception {
+    final RepartitionExchange rx = new RepartitionExchange(
+        new DbIterator[] {
+          TestUtil.createRangeList(0, 5000, 1), TestUtil.createRangeList(2500, 7500, 1) }, 0, 3, 2);
+    final int[] counts = new int[rx.numPartitions()];
+    final boolean[] misrouted = new boolean[rx.numPartitions()];
+    Thread[] consumers = new Thread[rx.numPartitions()];
+    for (int i = 0; i < consumers.length; i++) {
+      final int p = i;
+      consumers[i] = new Thread() {
+        public void run() {
+          DbIterator out = rx.getPartition(p);
+          try {
+            out.open();
+            while (out.hasNext()) {
+              if (rx.partitionOf(out.next().getField(0)) != p) {
+                misrouted[p] = true;
+              }
+              counts[p]++;
+            }
+          } catch (Exception e) {
+            misrouted[p] = true;
+          }
+          out.close();
+        }
+      };
+      consumers[i].start();
+    }
+    int total = 0;
+    for (int i = 0; i < consumers.length; i++) {
+      consumers[i].join();
+      assertTrue(!misrouted[i]);
+      total += counts[i];
+    }
+    assertEquals(10000, total);
+
+    DbIterator[] outputs = new DbIterator[rx.numPartitions()];
+    for (int i = 0; i < outputs.length; i++) {
+      outputs[i] = rx.getPartition(i);
+    }
+    Exchange op = new Exchange(outputs);
+    op.open();
+    int count = 0;
+    while (op.hasNext()) {
+      op.next();
+      count++;
+    }
+    op.close();
+    assertEquals(10000, count);
+  }
+
+  /**
+   * Unit test for scanning a heap file in page ranges on several threads
+   */
+  @Test public void partitionedScan() throws Exception {
+    ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+    HeapFile f = SystemTestUtil.createRandomHeapFile(2, 5000, null, tuples);
+    TransactionId tid = new TransactionId();
+    SeqScan[] scans = SeqScan.partitioned(tid, f.getId(), "t", 4);
+    assertEquals(4, scans.length);
+    SystemTestUtil.matchTuples(new Exchange(scans), tuples);
+
+    ArrayList<ArrayList<Integer>> copy = new ArrayList<ArrayList<Integer>>(tuples);
+    int total = 0;
+    for (SeqScan s : SeqScan.partitioned(tid, f.getId(), "t", 3)) {
+      s.open();
+      while (s.hasNext()) {
+        assertTrue(copy.remove(SystemTestUtil.tupleToList(s.next())));
+        total++;
+      }
+      s.close();
+    }
+    assertEquals(5000, total);
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(ExchangeTest.class);
+  }
+}
@@ -0,0 +1,123 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class HashAggregateTest extends SimpleDbTestBase {
+
+  private static final Aggregator.Op[] OPS = {
+    Aggregator.Op.COUNT, Aggregator.Op.SUM, Aggregator.Op.MIN,
+    Aggregator.Op.MAX, Aggregator.Op.AVG };
+
+  /**
+   * Unit test for grouping on two columns with several aggregates
+   */
+  @Test public void twoGroupColumns() throws Exception {
+    DbIterator child = TestUtil.createTupleList(3,
+        new int[] { 1, 1, 10,
+                    1, 2, 5,
+                    1, 1, 4,
+                    2, 1, 7,
+                    1, 2, 1 });
+    HashAggregate op = new HashAggregate(child, new int[] { 0, 1 },
+        new int[] { 2, 2, 2, 2, 2 }, OPS);
+    assertEquals(7, op.getTupleDesc().numFields());
+    op.open();
+    TestUtil.matchAllTuples(TestUtil.createTupleList(7,
+        new int[] { 1, 1, 2, 14, 4, 10, 7,
+                    1, 2, 2, 6, 1, 5, 3,
+                    2, 1, 1, 7, 7, 7, 7 }), op);
+  }
+
+  /**
+   * Unit test for aggregating without grouping
+   */
+  @Test public void noGrouping() throws Exception {
+    HashAggregate op = new HashAggregate(new TestUtil.MockScan(1, 11, 1), new int[0],
+        new int[] { 0, 0, 0, 0, 0 }, OPS);
+    op.open();
+    TestUtil.compareDbIterators(TestUtil.createTupleList(5,
+        new int[] { 10, 55, 1, 10, 5 }), op);
+  }
+
+  /**
+   * Unit test for COUNT over a string field, grouped by a string field
+   */
+  @Test public void stringFields() throws Exception {
+    DbIterator child = TestUtil.createTupleList(2,
+        new Object[] { 1, "a",
+                       2, "b",
+                       3, "a" });
+    HashAggregate op = new HashAggregate(child, new int[] { 1 },
+        new int[] { 1, 0 }, new Aggregator.Op[] { Aggregator.Op.COUNT, Aggregator.Op.SUM });
+    op.open();
+    TestUtil.matchAllTuples(TestUtil.createTupleList(3,
+        new Object[] { "a", 2, 4,
+                       "b", 1, 2 }), op);
+  }
+
+  /**
+   * Unit test for grouping with more groups than fit in memory
+   */
+  @Test public void spillPartitions() throws Exception {
+    Random rand = new Random(6830);
+    int rows = 60000;
+    int[] data = new int[rows * 2];
+    HashMap<Integer, long[]> expected = new HashMap<Integer, long[]>();
+    for (int i = 0; i < rows; i++) {
+      data[2 * i] = rand.nextInt(20000);
+      data[2 * i + 1] = rand.nextInt(1000);
+      long[] e = expected.get(data[2 * i]);
+      if (e == null) {
+        e = new long[2];
+        expected.put(data[2 * i], e);
+      }
+      e[0]++;
+      e[1] += data[2 * i + 1];
+    }
+    HashAggregate op = new HashAggregate(TestUtil.createTupleList(2, data), new int[] { 0 },
+        new int[] { 1, 1 }, new Aggregator.Op[] { Aggregator.Op.COUNT, Aggregator.Op.SUM }, 1);
+    for (int pass = 0; pass < 2; pass++) {
+      if (pass == 0) {
+        op.open();
+      } else {
+        op.rewind();
+      }
+      int groups = 0;
+      while (op.hasNext()) {
+        Tuple t = op.next();
+        long[] e = expected.get(((IntField) t.getField(0)).getValue());
+        assertTrue(e != null);
+        assertEquals(e[0], ((IntField) t.getField(1)).getValue());
+        assertEquals(e[1], ((IntField) t.getField(2)).getValue());
+        groups++;
+      }
+      assertEquals(expected.size(), groups);
+    }
+    op.close();
+  }
+
+  /**
+   * Unit test for rejecting SUM over a string field
+   */
+  @Test(expected = IllegalArgumentException.class) public void stringSum() {
+    DbIterator child = TestUtil.createTupleList(1, new Object[] { "a" });
+    new HashAggregate(child, new int[0], new int[] { 0 }, new Aggregator.Op[] { Aggregator.Op.SUM });
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(HashAggregateTest.class);
+  }
+}
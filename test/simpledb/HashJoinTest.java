@@ -0,0 +1,124 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class HashJoinTest extends SimpleDbTestBase {
+
+  int width1 = 2;
+  int width2 = 3;
+  DbIterator scan1;
+  DbIterator scan2;
+  DbIterator eqJoin;
+
+  /**
+   * Initialize each unit test
+   */
+  @Before public void createTupleLists() throws Exception {
+    this.scan1 = TestUtil.createTupleList(width1,
+        new int[] { 1, 2,
+                    3, 4,
+                    5, 6,
+                    7, 8 });
+    this.scan2 = TestUtil.createTupleList(width2,
+        new int[] { 1, 2, 3,
+                    2, 3, 4,
+                    3, 4, 5,
+                    4, 5, 6,
+                    5, 6, 7,
+                    5, 0, 0 });
+    this.eqJoin = TestUtil.createTupleList(width1 + width2,
+        new int[] { 1, 2, 1, 2, 3,
+                    3, 4, 3, 4, 5,
+                    5, 6, 5, 6, 7,
+                    5, 6, 5, 0, 0 });
+  }
+
+  /**
+   * Unit test for HashJoin.getTupleDesc()
+   */
+  @Test public void getTupleDesc() {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    HashJoin op = new HashJoin(pred, scan1, scan2);
+    TupleDesc expected = Utility.getTupleDesc(width1 + width2);
+    TupleDesc actual = op.getTupleDesc();
+    assertEquals(expected, actual);
+  }
+
+  /**
+   * Unit test for HashJoin.rewind()
+   */
+  @Test public void rewind() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    HashJoin op = new HashJoin(pred, scan1, scan2);
+    op.open();
+    while (op.hasNext()) {
+      assertNotNull(op.next());
+    }
+    assertTrue(TestUtil.checkExhausted(op));
+    op.rewind();
+
+    eqJoin.open();
+    Tuple expected = eqJoin.next();
+    Tuple actual = op.next();
+    assertTrue(TestUtil.compareTuples(expected, actual));
+  }
+
+  /**
+   * Unit test for HashJoin.getNext() with duplicate keys on the inner side
+   */
+  @Test public void eqJoin() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    HashJoin op = new HashJoin(pred, scan1, scan2);
+    op.open();
+    eqJoin.open();
+    TestUtil.matchAllTuples(eqJoin, op);
+  }
+
+  /**
+   * Unit test for rejecting non-equality predicates
+   */
+  @Test(expected = IllegalArgumentException.class) public void gtJoin() {
+    new HashJoin(new JoinPredicate(0, Predicate.Op.GREATER_THAN, 0), scan1, scan2);
+  }
+
+  /**
+   * Unit test for a table built in parallel and probed from several workers
+   */
+  @Test public void parallelBuildAndProbe() throws Exception {
+    // inner: 0..2999 twice over three inputs; outer: 0..5999 over two inputs
+    Exchange inner = new Exchange(new DbIterator[] {
+        TestUtil.createRangeList(0, 1000, 2), TestUtil.createRangeList(1000, 2000, 2),
+        TestUtil.createRangeList(2000, 3000, 2) });
+    JoinHashTable table = new JoinHashTable(inner, 0);
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    Exchange op = new Exchange(new DbIterator[] {
+        new HashJoin(pred, TestUtil.createRangeList(0, 3000, 1), table),
+        new HashJoin(pred, TestUtil.createRangeList(3000, 6000, 1), table) });
+    op.open();
+    int count = 0;
+    while (op.hasNext()) {
+      Tuple t = op.next();
+      assertEquals(t.getField(0), t.getField(1));
+      assertTrue(((IntField) t.getField(0)).getValue() < 3000);
+      count++;
+    }
+    op.close();
+    assertEquals(6000, count);
+    assertEquals(6000, table.size());
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(HashJoinTest.class);
+  }
+}
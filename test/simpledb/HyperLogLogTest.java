@@ -0,0 +1,69 @@
+package simpledb;
+
+import java.io.*;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class HyperLogLogTest extends SimpleDbTestBase {
+
+    private static void assertClose(long expected, long estimate) {
+        assertEquals((double) expected, (double) estimate, Math.max(2, expected * 0.05));
+    }
+
+    /**
+     * Unit test for estimates over int and string values, repeated or not
+     */
+    @Test public void estimate() {
+        assertEquals(0, new HyperLogLog().estimate());
+        for (int n : new int[] {1, 10, 1000, 100000}) {
+            HyperLogLog ints = new HyperLogLog();
+            HyperLogLog strings = new HyperLogLog();
+            for (int rep = 0; rep < 3; rep++) {
+                for (int i = 0; i < n; i++) {
+                    ints.add(new IntField(i * 7));
+                    strings.add(new StringField("value " + i, Type.STRING_LEN));
+                }
+            }
+            assertClose(n, ints.estimate());
+            assertClose(n, strings.estimate());
+        }
+    }
+
+    /**
+     * Unit test for HyperLogLog.merge(): overlapping sketches merge to the
+     * sketch of their union
+     */
+    @Test public void merge() throws IOException {
+        HyperLogLog a = new HyperLogLog();
+        HyperLogLog b = new HyperLogLog();
+        HyperLogLog both = new HyperLogLog();
+        for (int i = 0; i < 30000; i++) {
+            a.add(new IntField(i));
+            both.add(new IntField(i));
+        }
+        for (int i = 20000; i < 50000; i++) {
+            b.add(new IntField(i));
+            both.add(new IntField(i));
+        }
+        a.merge(b);
+        assertEquals(both.estimate(), a.estimate());
+        assertClose(50000, a.estimate());
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        a.write(new DataOutputStream(bytes));
+        HyperLogLog read = HyperLogLog.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        assertEquals(a.estimate(), read.estimate());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(HyperLogLogTest.class);
+    }
+}
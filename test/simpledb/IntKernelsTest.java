@@ -0,0 +1,108 @@
+package simpledb;
+
+import java.util.*;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class IntKernelsTest extends SimpleDbTestBase {
+    private static final int SIZE = 1000;
+
+    private final Random random = new Random(5);
+
+    private int[] column() {
+        int[] column = new int[SIZE];
+        for (int i = 0; i < SIZE; i++) {
+            column[i] = random.nextInt(100) - 50;
+        }
+        return column;
+    }
+
+    /** @return every other row, starting from a random one */
+    private int[] selection() {
+        int[] sel = new int[SIZE / 2];
+        int start = random.nextInt(2);
+        for (int i = 0; i < sel.length; i++) {
+            sel[i] = start + 2 * i;
+        }
+        return sel;
+    }
+
+    /**
+     * Unit test for IntKernels.select(), dense and through a selection vector
+     */
+    @Test public void select() {
+        int[] column = column();
+        for (Predicate.Op op : Predicate.Op.values()) {
+            for (int v : new int[]{ -60, -1, 0, 7, 60 }) {
+                int[] out = new int[SIZE];
+                int n = IntKernels.select(column, SIZE, op, v, out);
+                int expected = 0;
+                for (int r = 0; r < SIZE; r++) {
+                    if (Predicate.compare(column[r], op, v)) {
+                        assertEquals(r, out[expected++]);
+                    }
+                }
+                assertEquals(expected, n);
+
+                // select in place, as Filter does with a batch's selection vector
+                int[] sel = selection();
+                int[] original = sel.clone();
+                n = IntKernels.select(column, sel, sel.length, op, v, sel);
+                expected = 0;
+                for (int r : original) {
+                    if (Predicate.compare(column[r], op, v)) {
+                        assertEquals(r, sel[expected++]);
+                    }
+                }
+                assertEquals(expected, n);
+            }
+        }
+    }
+
+    /**
+     * Unit test for IntKernels.sum(), min() and max()
+     */
+    @Test public void reductions() {
+        int[] column = column();
+        column[17] = Integer.MAX_VALUE;
+        column[18] = Integer.MAX_VALUE;
+        for (int size : new int[]{ 1, 2, 3, 5, 37, SIZE }) {
+            long sum = 0;
+            int min = Integer.MAX_VALUE, max = Integer.MIN_VALUE;
+            for (int r = 0; r < size; r++) {
+                sum += column[r];
+                min = Math.min(min, column[r]);
+                max = Math.max(max, column[r]);
+            }
+            assertEquals(sum, IntKernels.sum(column, size));
+            assertEquals(min, IntKernels.min(column, size));
+            assertEquals(max, IntKernels.max(column, size));
+        }
+
+        int[] sel = selection();
+        for (int size : new int[]{ 1, 2, 3, sel.length }) {
+            long sum = 0;
+            int min = Integer.MAX_VALUE, max = Integer.MIN_VALUE;
+            for (int i = 0; i < size; i++) {
+                sum += column[sel[i]];
+                min = Math.min(min, column[sel[i]]);
+                max = Math.max(max, column[sel[i]]);
+            }
+            assertEquals(sum, IntKernels.sum(column, sel, size));
+            assertEquals(min, IntKernels.min(column, sel, size));
+            assertEquals(max, IntKernels.max(column, sel, size));
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(IntKernelsTest.class);
+    }
+}
@@ -178,6 +178,52 @@ public class IntegerAggregatorTest extends SimpleDbTestBase {
     }
   }
 
+  /**
+   * Test that AVG accumulates its sum without overflowing an int
+   */
+  @Test public void avgDoesNotOverflow() throws Exception {
+    DbIterator scan = TestUtil.createTupleList(width1,
+        new int[] { 1, Integer.MAX_VALUE,
+                    1, Integer.MAX_VALUE - 2,
+                    2, Integer.MIN_VALUE,
+                    2, Integer.MIN_VALUE + 2 });
+    scan.open();
+    IntegerAggregator agg = new IntegerAggregator(0, Type.INT_TYPE, 1, Aggregator.Op.AVG);
+    while (scan.hasNext()) {
+      agg.mergeTupleIntoGroup(scan.next());
+    }
+    DbIterator it = agg.iterator();
+    it.open();
+    TestUtil.matchAllTuples(TestUtil.createTupleList(width1,
+        new int[] { 1, Integer.MAX_VALUE - 1, 2, Integer.MIN_VALUE + 1 }), it);
+  }
+
+  /**
+   * Test IntegerAggregator.merge() of partial aggregates
+   */
+  @Test public void mergePartials() throws Exception {
+    scan1.open();
+    IntegerAggregator[] parts = new IntegerAggregator[2];
+    for (Aggregator.Op op : new Aggregator.Op[] { Aggregator.Op.MIN, Aggregator.Op.AVG,
+        Aggregator.Op.COUNT }) {
+      scan1.rewind();
+      parts[0] = new IntegerAggregator(0, Type.INT_TYPE, 1, op);
+      parts[1] = new IntegerAggregator(0, Type.INT_TYPE, 1, op);
+      IntegerAggregator whole = new IntegerAggregator(0, Type.INT_TYPE, 1, op);
+      for (int i = 0; scan1.hasNext(); i++) {
+        Tuple t = scan1.next();
+        parts[i % 2].mergeTupleIntoGroup(t);
+        whole.mergeTupleIntoGroup(t);
+      }
+      parts[0].merge(parts[1]);
+      DbIterator expected = whole.iterator();
+      expected.open();
+      DbIterator it = parts[0].iterator();
+      it.open();
+      TestUtil.matchAllTuples(expected, it);
+    }
+  }
+
   /**
    * JUnit suite target
    */
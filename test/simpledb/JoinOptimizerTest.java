@@ -0,0 +1,336 @@
+package simpledb;
+
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class JoinOptimizerTest extends SimpleDbTestBase {
+    private static final int IO_COST = 1000;
+
+    private HashMap<String, TableStats> stats;
+    private JoinOptimizer jo;
+
+    /** r has 1000 rows with 100 values in c0; s has 500 rows with 50 values in c0 */
+    @Before public void setUp() throws Exception {
+        HeapFile r = SystemTestUtil.createRandomHeapFile(2, 1000, 100, null, new ArrayList<ArrayList<Integer>>(), "c");
+        HeapFile s = SystemTestUtil.createRandomHeapFile(2, 500, 50, null, new ArrayList<ArrayList<Integer>>(), "c");
+        Database.getCatalog().addTable(r, "r" + SystemTestUtil.getUUID());
+        Database.getCatalog().addTable(s, "s" + SystemTestUtil.getUUID());
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(r.getId(), "r");
+        lp.addScan(s.getId(), "s");
+        stats = new HashMap<String, TableStats>();
+        stats.put("r", new TableStats(r.getId(), IO_COST));
+        stats.put("s", new TableStats(s.getId(), IO_COST));
+        jo = new JoinOptimizer(lp, new Vector<LogicalJoinNode>());
+    }
+
+    /**
+     * Unit test for equality join cardinality from the distinct values of
+     * the joined columns, capped at each side's cardinality
+     */
+    @Test public void equalityJoinCardinality() {
+        LogicalJoinNode j = new LogicalJoinNode("r", "s", "r.c0", "s.c0", Predicate.Op.EQUALS);
+        int ndv = Math.max(stats.get("r").numDistinct(0), stats.get("s").numDistinct(0));
+        assertEquals(100, ndv, 5);
+        assertEquals(1000 * 500 / ndv, jo.estimateJoinCardinality(j, 1000, 500, false, false, stats), 1);
+        // filters leave at most 20 values on r's side
+        assertEquals(20 * 500 / 50, jo.estimateJoinCardinality(j, 20, 500, false, false, stats), 2);
+
+        // without statistics, the larger side
+        assertEquals(1000, jo.estimateJoinCardinality(j, 1000, 500, false, false));
+        assertEquals(1000, jo.estimateJoinCardinality(j, 1000, 500, false, true));
+    }
+
+    /**
+     * Unit test for the cardinality of joins on inequalities
+     */
+    @Test public void rangeJoinCardinality() {
+        LogicalJoinNode j = new LogicalJoinNode("r", "s", "r.c0", "s.c0", Predicate.Op.LESS_THAN);
+        assertEquals((int) (JoinOptimizer.RANGE_JOIN_SELECTIVITY * 1000 * 500),
+                jo.estimateJoinCardinality(j, 1000, 500, false, false, stats));
+    }
+
+    /**
+     * Creates n tables t0 ... t(n-1) with the specified numbers of rows, and
+     * returns statistics for them keyed by alias
+     */
+    private HashMap<String, TableStats> addTables(LogicalPlan lp, HashMap<String, Double> selectivities,
+            int... rows) throws Exception {
+        HashMap<String, TableStats> tableStats = new HashMap<String, TableStats>();
+        for (int i = 0; i < rows.length; i++) {
+            HeapFile f = SystemTestUtil.createRandomHeapFile(2, rows[i], 1000, null,
+                    new ArrayList<ArrayList<Integer>>(), "c");
+            Database.getCatalog().addTable(f, "t" + i + SystemTestUtil.getUUID());
+            lp.addScan(f.getId(), "t" + i);
+            tableStats.put("t" + i, new TableStats(f.getId(), IO_COST));
+            selectivities.put("t" + i, 1.0);
+        }
+        return tableStats;
+    }
+
+    /**
+     * Asserts that order holds each of the joins, maybe swapped, and that
+     * each of its first tables - 1 joins a new table to the ones before it
+     */
+    private static void assertLinear(Vector<LogicalJoinNode> joins, Vector<LogicalJoinNode> order, int tables) {
+        assertEquals(joins.size(), order.size());
+        HashSet<String> names = new HashSet<String>();
+        for (LogicalJoinNode j : joins) {
+            names.add(j.t1 + "." + j.f1 + "=" + j.t2 + "." + j.f2);
+        }
+        for (LogicalJoinNode j : order) {
+            assertTrue(names.remove(j.t1 + "." + j.f1 + "=" + j.t2 + "." + j.f2)
+                    || names.remove(j.t2 + "." + j.f2 + "=" + j.t1 + "." + j.f1));
+        }
+        HashSet<String> joined = new HashSet<String>();
+        for (LogicalJoinNode j : order.subList(0, tables - 1)) {
+            if (!joined.isEmpty()) {
+                assertTrue(order + " joins a new table", joined.contains(j.t1) != joined.contains(j.t2));
+            }
+            joined.add(j.t1);
+            joined.add(j.t2);
+        }
+    }
+
+    /**
+     * Unit test for orderJoins() on a chain: the small tables are joined first
+     */
+    @Test public void orderChain() throws Exception {
+        LogicalPlan lp = new LogicalPlan();
+        HashMap<String, Double> selectivities = new HashMap<String, Double>();
+        HashMap<String, TableStats> tableStats = addTables(lp, selectivities, 5000, 2000, 50, 10);
+        Vector<LogicalJoinNode> joins = new Vector<LogicalJoinNode>();
+        joins.add(new LogicalJoinNode("t0", "t1", "t0.c0", "t1.c0", Predicate.Op.EQUALS));
+        joins.add(new LogicalJoinNode("t1", "t2", "t1.c1", "t2.c0", Predicate.Op.EQUALS));
+        joins.add(new LogicalJoinNode("t2", "t3", "t2.c1", "t3.c0", Predicate.Op.EQUALS));
+        Vector<LogicalJoinNode> order = new JoinOptimizer(lp, joins).orderJoins(tableStats, selectivities, false);
+        assertLinear(joins, order, 4);
+        assertEquals(new HashSet<String>(Arrays.asList("t2", "t3")),
+                new HashSet<String>(Arrays.asList(order.get(0).t1, order.get(0).t2)));
+        assertTrue(order.get(2).t1.equals("t0") || order.get(2).t2.equals("t0"));
+    }
+
+    /**
+     * Unit test for orderJoins() with tables already joined: they are one
+     * relation of the size they turned out to be, reached through any of them
+     */
+    @Test public void orderAroundMaterialized() throws Exception {
+        LogicalPlan lp = new LogicalPlan();
+        HashMap<String, Double> selectivities = new HashMap<String, Double>();
+        HashMap<String, TableStats> tableStats = addTables(lp, selectivities, 5000, 2000, 50, 10);
+        Vector<LogicalJoinNode> joins = new Vector<LogicalJoinNode>();
+        joins.add(new LogicalJoinNode("t0", "t1", "t0.c0", "t1.c0", Predicate.Op.EQUALS));
+        joins.add(new LogicalJoinNode("t1", "t3", "t1.c1", "t3.c1", Predicate.Op.EQUALS));
+        JoinOptimizer jo = new JoinOptimizer(lp, joins);
+        jo.setMaterialized("t2", Arrays.asList("t2", "t3"), 1000000);
+        Vector<LogicalJoinNode> order = jo.orderJoins(tableStats, selectivities, false);
+        assertLinear(joins, order, 3);
+        // the huge result is joined last
+        assertEquals(new HashSet<String>(Arrays.asList("t0", "t1")),
+                new HashSet<String>(Arrays.asList(order.get(0).t1, order.get(0).t2)));
+        assertTrue(jo.estimatedCardinality(order.get(1)) > 1000000);
+    }
+
+    /**
+     * Unit test for orderJoins() on a cycle of 20 tables: the join it does
+     * not need to connect them comes last
+     */
+    @Test public void orderLongCycle() throws Exception {
+        LogicalPlan lp = new LogicalPlan();
+        HashMap<String, Double> selectivities = new HashMap<String, Double>();
+        int[] rows = new int[20];
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = 10 + 37 * i % 200;
+        }
+        HashMap<String, TableStats> tableStats = addTables(lp, selectivities, rows);
+        Vector<LogicalJoinNode> joins = new Vector<LogicalJoinNode>();
+        for (int i = 1; i < rows.length; i++) {
+            joins.add(new LogicalJoinNode("t" + (i - 1), "t" + i, "t" + (i - 1) + ".c1", "t" + i + ".c0",
+                    Predicate.Op.EQUALS));
+        }
+        joins.add(new LogicalJoinNode("t0", "t19", "t0.c0", "t19.c1", Predicate.Op.EQUALS));
+        long start = System.currentTimeMillis();
+        Vector<LogicalJoinNode> order = new JoinOptimizer(lp, joins).orderJoins(tableStats, selectivities, false);
+        assertTrue(System.currentTimeMillis() - start < 1000);
+        assertLinear(joins, order, rows.length);
+    }
+
+    /**
+     * Unit test for orderJoins() on a chain with large tables in the
+     * middle: each small table is joined to its neighbour first, and the
+     * results are joined to each other
+     */
+    @Test public void orderBushy() throws Exception {
+        LogicalPlan lp = new LogicalPlan();
+        HashMap<String, Double> selectivities = new HashMap<String, Double>();
+        HashMap<String, TableStats> tableStats = addTables(lp, selectivities, 50, 2000, 2000, 50);
+        Vector<LogicalJoinNode> joins = new Vector<LogicalJoinNode>();
+        joins.add(new LogicalJoinNode("t0", "t1", "t0.c1", "t1.c0", Predicate.Op.EQUALS));
+        joins.add(new LogicalJoinNode("t1", "t2", "t1.c1", "t2.c0", Predicate.Op.EQUALS));
+        joins.add(new LogicalJoinNode("t2", "t3", "t2.c1", "t3.c0", Predicate.Op.EQUALS));
+        Vector<LogicalJoinNode> order = new JoinOptimizer(lp, joins).orderJoins(tableStats, selectivities, false);
+        assertEquals(3, order.size());
+        HashSet<String> last = new HashSet<String>(Arrays.asList(order.get(2).t1, order.get(2).t2));
+        assertEquals(new HashSet<String>(Arrays.asList("t1", "t2")), last);
+        for (LogicalJoinNode j : order) {
+            assertEquals(LogicalJoinNode.Algorithm.HASH, j.algorithm);
+        }
+    }
+
+    /**
+     * Unit test for the choice of join algorithm: hash joins need their
+     * inner side to fit in memory, and only sort-merge and nested loop
+     * joins evaluate other predicates
+     */
+    @Test public void chooseAlgorithm() throws Exception {
+        LogicalPlan lp = new LogicalPlan();
+        HashMap<String, Double> selectivities = new HashMap<String, Double>();
+        HashMap<String, TableStats> tableStats = addTables(lp, selectivities, 5000, 4000);
+        assertEquals(LogicalJoinNode.Algorithm.HASH, chosenAlgorithm(lp, tableStats, selectivities,
+                Predicate.Op.EQUALS, JoinOptimizer.DEFAULT_JOIN_MEMORY_PAGES));
+        assertEquals(LogicalJoinNode.Algorithm.SORT_MERGE, chosenAlgorithm(lp, tableStats, selectivities,
+                Predicate.Op.EQUALS, 1));
+        assertEquals(LogicalJoinNode.Algorithm.SORT_MERGE, chosenAlgorithm(lp, tableStats, selectivities,
+                Predicate.Op.LESS_THAN, JoinOptimizer.DEFAULT_JOIN_MEMORY_PAGES));
+        assertEquals(LogicalJoinNode.Algorithm.BLOCK_NESTED_LOOP, chosenAlgorithm(lp, tableStats, selectivities,
+                Predicate.Op.NOT_EQUALS, JoinOptimizer.DEFAULT_JOIN_MEMORY_PAGES));
+    }
+
+    /** Returns the algorithm orderJoins() picks to join t0 and t1 on op with memoryPages of memory */
+    private static LogicalJoinNode.Algorithm chosenAlgorithm(LogicalPlan lp, HashMap<String, TableStats> tableStats,
+            HashMap<String, Double> selectivities, Predicate.Op op, int memoryPages) throws Exception {
+        Vector<LogicalJoinNode> joins = new Vector<LogicalJoinNode>();
+        joins.add(new LogicalJoinNode("t0", "t1", "t0.c0", "t1.c0", op));
+        JoinOptimizer optimizer = new JoinOptimizer(lp, joins);
+        optimizer.setJoinMemory(memoryPages);
+        return optimizer.orderJoins(tableStats, selectivities, false).get(0).algorithm;
+    }
+
+    /**
+     * Unit test for orderJoins() on a chain ordered without dynamic
+     * programming: the greedy order also joins the small tables first
+     */
+    @Test public void orderChainGreedily() throws Exception {
+        LogicalPlan lp = new LogicalPlan();
+        HashMap<String, Double> selectivities = new HashMap<String, Double>();
+        HashMap<String, TableStats> tableStats = addTables(lp, selectivities, 5000, 2000, 50, 10);
+        Vector<LogicalJoinNode> joins = new Vector<LogicalJoinNode>();
+        joins.add(new LogicalJoinNode("t0", "t1", "t0.c0", "t1.c0", Predicate.Op.EQUALS));
+        joins.add(new LogicalJoinNode("t1", "t2", "t1.c1", "t2.c0", Predicate.Op.EQUALS));
+        joins.add(new LogicalJoinNode("t2", "t3", "t2.c1", "t3.c0", Predicate.Op.EQUALS));
+        JoinOptimizer optimizer = new JoinOptimizer(lp, joins);
+        optimizer.setDpJoinLimit(0);
+        Vector<LogicalJoinNode> order = optimizer.orderJoins(tableStats, selectivities, false);
+        assertLinear(joins, order, 4);
+        assertEquals(new HashSet<String>(Arrays.asList("t2", "t3")),
+                new HashSet<String>(Arrays.asList(order.get(0).t1, order.get(0).t2)));
+        assertTrue(order.get(2).t1.equals("t0") || order.get(2).t2.equals("t0"));
+    }
+
+    /**
+     * Unit test for orderJoins() on a star of 40 tables, far too many
+     * subsets for dynamic programming: it keeps to its planning budget
+     */
+    @Test public void orderLargeStar() throws Exception {
+        LogicalPlan lp = new LogicalPlan();
+        HashMap<String, Double> selectivities = new HashMap<String, Double>();
+        int[] rows = new int[40];
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = 10 + 37 * i % 200;
+        }
+        HashMap<String, TableStats> tableStats = addTables(lp, selectivities, rows);
+        Vector<LogicalJoinNode> joins = new Vector<LogicalJoinNode>();
+        for (int i = 1; i < rows.length; i++) {
+            joins.add(new LogicalJoinNode("t0", "t" + i, "t0.c0", "t" + i + ".c1", Predicate.Op.EQUALS));
+        }
+        JoinOptimizer optimizer = new JoinOptimizer(lp, joins);
+        optimizer.setDpJoinLimit(joins.size());
+        optimizer.setPlanningBudget(100);
+        long start = System.currentTimeMillis();
+        Vector<LogicalJoinNode> order = optimizer.orderJoins(tableStats, selectivities, false);
+        assertTrue(System.currentTimeMillis() - start < 1000);
+        assertLinear(joins, order, rows.length);
+    }
+
+    /**
+     * Unit test for physicalPlan() on join graphs with cycles: two joins
+     * between the same tables, and a triangle.  The join that closes each
+     * cycle filters what the others joined.
+     */
+    @Test public void planCycles() throws Exception {
+        ArrayList<ArrayList<ArrayList<Integer>>> data = new ArrayList<ArrayList<ArrayList<Integer>>>();
+        HashMap<String, TableStats> tableStats = new HashMap<String, TableStats>();
+        int[] ids = new int[3];
+        for (int i = 0; i < 3; i++) {
+            ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+            HeapFile f = SystemTestUtil.createRandomHeapFile(2, 200, 10, null, tuples, "c");
+            String name = "t" + i + SystemTestUtil.getUUID();
+            Database.getCatalog().addTable(f, name);
+            tableStats.put(name, new TableStats(f.getId(), IO_COST));
+            ids[i] = f.getId();
+            data.add(tuples);
+        }
+
+        int expected = 0;
+        for (ArrayList<Integer> a : data.get(0)) {
+            for (ArrayList<Integer> b : data.get(1)) {
+                if (a.get(0).equals(b.get(0)) && a.get(1).equals(b.get(1))) {
+                    expected++;
+                }
+            }
+        }
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(ids[0], "t0");
+        lp.addScan(ids[1], "t1");
+        lp.addJoin("t0.c0", "t1.c0", Predicate.Op.EQUALS);
+        lp.addJoin("t0.c1", "t1.c1", Predicate.Op.EQUALS);
+        lp.addProjectField("null.*", null);
+        assertEquals(expected, count(lp.physicalPlan(new TransactionId(), tableStats, false)));
+
+        expected = 0;
+        for (ArrayList<Integer> a : data.get(0)) {
+            for (ArrayList<Integer> b : data.get(1)) {
+                for (ArrayList<Integer> c : data.get(2)) {
+                    if (a.get(0).equals(b.get(0)) && b.get(1).equals(c.get(0)) && a.get(1).equals(c.get(1))) {
+                        expected++;
+                    }
+                }
+            }
+        }
+        lp = new LogicalPlan();
+        for (int i = 0; i < 3; i++) {
+            lp.addScan(ids[i], "t" + i);
+        }
+        lp.addJoin("t0.c0", "t1.c0", Predicate.Op.EQUALS);
+        lp.addJoin("t1.c1", "t2.c0", Predicate.Op.EQUALS);
+        lp.addJoin("t0.c1", "t2.c1", Predicate.Op.EQUALS);
+        lp.addProjectField("null.*", null);
+        assertEquals(expected, count(lp.physicalPlan(new TransactionId(), tableStats, false)));
+    }
+
+    private static int count(DbIterator it) throws Exception {
+        int n = 0;
+        it.open();
+        while (it.hasNext()) {
+            it.next();
+            n++;
+        }
+        it.close();
+        return n;
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(JoinOptimizerTest.class);
+    }
+}
@@ -105,6 +105,16 @@ public class JoinTest extends SimpleDbTestBase {
     TestUtil.matchAllTuples(eqJoin, op);
   }
 
+  /**
+   * Join.getNext() must not read the inner side when the outer side is empty
+   */
+  @Test public void emptyOuter() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    Join op = new Join(pred, TestUtil.createTupleList(width1, new int[] {}), scan2);
+    op.open();
+    assertTrue(TestUtil.checkExhausted(op));
+  }
+
   /**
    * JUnit suite target
    */
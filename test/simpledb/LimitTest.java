@@ -0,0 +1,69 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class LimitTest extends SimpleDbTestBase {
+
+  /**
+   * Unit test for Limit.getNext() with an offset
+   */
+  @Test public void limitWithOffset() throws Exception {
+    Limit op = new Limit(3, 2, new TestUtil.MockScan(0, 10, 1));
+    op.open();
+    DbIterator expected = TestUtil.createTupleList(1, new int[] { 2, 3, 4 });
+    TestUtil.compareDbIterators(expected, op);
+    assertTrue(TestUtil.checkExhausted(op));
+  }
+
+  /**
+   * Unit test for Limit.rewind() and for a limit past the end of the child
+   */
+  @Test public void rewindShortChild() throws Exception {
+    Limit op = new Limit(100, 7, new TestUtil.MockScan(0, 10, 1));
+    op.open();
+    TestUtil.compareDbIterators(TestUtil.createTupleList(1, new int[] { 7, 8, 9 }), op);
+    op.rewind();
+    TestUtil.compareDbIterators(TestUtil.createTupleList(1, new int[] { 7, 8, 9 }), op);
+  }
+
+  /**
+   * Limit must stop pulling from its child once the limit is reached
+   */
+  @Test public void stopsEarly() throws Exception {
+    TestUtil.MockScan child = new TestUtil.MockScan(0, 1000000, 1);
+    Limit op = new Limit(2, 0, child);
+    op.open();
+    TestUtil.compareDbIterators(TestUtil.createTupleList(1, new int[] { 0, 1 }), op);
+    assertEquals(2, ((IntField) child.next().getField(0)).getValue());
+  }
+
+  /**
+   * Unit test for Parser.extractLimit()
+   */
+  @Test public void parseLimitClause() throws Exception {
+    Parser.LimitedStatement limited = Parser.extractLimit("SELECT * FROM t ORDER BY t.a LIMIT 10 OFFSET 5;");
+    assertEquals("SELECT * FROM t ORDER BY t.a;", limited.text);
+    assertEquals(10, limited.limit);
+    assertEquals(5, limited.offset);
+    limited = Parser.extractLimit("select * from t limit 3");
+    assertEquals("select * from t", limited.text);
+    assertEquals(3, limited.limit);
+    assertEquals(0, limited.offset);
+    limited = Parser.extractLimit("SELECT * FROM t;");
+    assertEquals("SELECT * FROM t;", limited.text);
+    assertEquals(-1, limited.limit);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(LimitTest.class);
+  }
+}
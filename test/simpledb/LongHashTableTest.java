@@ -0,0 +1,56 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class LongHashTableTest extends SimpleDbTestBase {
+
+  /**
+   * Unit test for LongHashTable.getOrAdd() and get() across several rehashes
+   */
+  @Test public void denseIds() {
+    LongHashTable table = new LongHashTable(1);
+    int keys = 10000;
+    for (int i = 0; i < keys; i++) {
+      assertEquals(i, table.getOrAdd(i * 7919L - 5000));
+    }
+    assertEquals(keys, table.size());
+    for (int i = 0; i < keys; i++) {
+      assertEquals(i, table.getOrAdd(i * 7919L - 5000));
+      assertEquals(i, table.get(i * 7919L - 5000));
+      assertEquals(i * 7919L - 5000, table.keyAt(i));
+    }
+    assertEquals(keys, table.size());
+    assertEquals(-1, table.get(1));
+  }
+
+  /**
+   * Unit test for keys that could be mistaken for an empty slot
+   */
+  @Test public void zeroAndExtremeKeys() {
+    LongHashTable table = new LongHashTable();
+    assertEquals(-1, table.get(0));
+    assertEquals(0, table.getOrAdd(0));
+    assertEquals(1, table.getOrAdd(-1));
+    assertEquals(2, table.getOrAdd(Long.MIN_VALUE));
+    assertEquals(3, table.getOrAdd(Long.MAX_VALUE));
+    assertEquals(0, table.get(0));
+    assertEquals(2, table.get(Long.MIN_VALUE));
+    table.clear();
+    assertEquals(0, table.size());
+    assertEquals(-1, table.get(0));
+    assertEquals(0, table.getOrAdd(Long.MAX_VALUE));
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(LongHashTableTest.class);
+  }
+}
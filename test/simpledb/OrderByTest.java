@@ -0,0 +1,123 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class OrderByTest extends SimpleDbTestBase {
+
+  private static final int ROWS = 5000;
+  int[] data;
+
+  /**
+   * Initialize each unit test
+   */
+  @Before public void createData() {
+    Random rand = new Random(6830);
+    data = new int[ROWS * 2];
+    for (int i = 0; i < data.length; i++) {
+      data[i] = rand.nextInt(50);
+    }
+  }
+
+  private ArrayList<Tuple> drain(DbIterator it) throws Exception {
+    ArrayList<Tuple> result = new ArrayList<Tuple>();
+    while (it.hasNext()) {
+      result.add(it.next());
+    }
+    return result;
+  }
+
+  private void checkSorted(ArrayList<Tuple> tuples, boolean asc0, boolean asc1) {
+    for (int i = 1; i < tuples.size(); i++) {
+      int a0 = ((IntField) tuples.get(i - 1).getField(0)).getValue();
+      int b0 = ((IntField) tuples.get(i).getField(0)).getValue();
+      int a1 = ((IntField) tuples.get(i - 1).getField(1)).getValue();
+      int b1 = ((IntField) tuples.get(i).getField(1)).getValue();
+      if (a0 != b0) {
+        assertTrue(asc0 ? a0 < b0 : a0 > b0);
+      } else {
+        assertTrue(asc1 ? a1 <= b1 : a1 >= b1);
+      }
+    }
+  }
+
+  /**
+   * Unit test for OrderBy on a single field, sorted in memory
+   */
+  @Test public void inMemorySort() throws Exception {
+    OrderBy op = new OrderBy(0, true, TestUtil.createTupleList(2, data));
+    op.open();
+    ArrayList<Tuple> result = drain(op);
+    assertEquals(ROWS, result.size());
+    for (int i = 1; i < result.size(); i++) {
+      assertTrue(((IntField) result.get(i - 1).getField(0)).getValue()
+          <= ((IntField) result.get(i).getField(0)).getValue());
+    }
+  }
+
+  /**
+   * Unit test for OrderBy on two fields with runs spilled to disk
+   */
+  @Test public void externalSort() throws Exception {
+    OrderBy op = new OrderBy(new int[] { 0, 1 }, new boolean[] { false, true },
+        TestUtil.createTupleList(2, data), 1);
+    op.open();
+    ArrayList<Tuple> result = drain(op);
+    assertEquals(ROWS, result.size());
+    checkSorted(result, false, true);
+  }
+
+  /**
+   * Unit test for OrderBy.rewind() and re-opening an external sort
+   */
+  @Test public void rewindAndReopen() throws Exception {
+    OrderBy op = new OrderBy(new int[] { 1, 0 }, new boolean[] { true, true },
+        TestUtil.createTupleList(2, data), 1);
+    op.open();
+    ArrayList<Tuple> first = drain(op);
+    op.rewind();
+    ArrayList<Tuple> second = drain(op);
+    op.close();
+    op.open();
+    ArrayList<Tuple> third = drain(op);
+    assertEquals(ROWS, first.size());
+    assertEquals(ROWS, second.size());
+    assertEquals(ROWS, third.size());
+    for (int i = 0; i < ROWS; i++) {
+      assertTrue(TestUtil.compareTuples(first.get(i), second.get(i)));
+      assertTrue(TestUtil.compareTuples(first.get(i), third.get(i)));
+    }
+  }
+
+  /**
+   * Unit test for OrderBy with more runs than can be merged in one pass
+   */
+  @Test public void multiPassMerge() throws Exception {
+    int rows = (OrderBy.MAX_MERGE_FAN_IN + 2) * BufferPool.PAGE_SIZE / 4;
+    OrderBy op = new OrderBy(new int[] { 0 }, new boolean[] { false },
+        new TestUtil.MockScan(-rows, 0, 1), 1);
+    op.open();
+    ArrayList<Tuple> result = drain(op);
+    assertEquals(rows, result.size());
+    for (int i = 0; i < rows; i++) {
+      assertEquals(-1 - i, ((IntField) result.get(i).getField(0)).getValue());
+    }
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(OrderByTest.class);
+  }
+}
@@ -0,0 +1,73 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class PredicateCompilerTest extends SimpleDbTestBase {
+
+  private static Tuple stringTuple(String s) {
+    TupleDesc td = new TupleDesc(new Type[] { Type.STRING_TYPE });
+    Tuple t = new Tuple(td);
+    t.setField(0, new StringField(s, Type.STRING_LEN));
+    return t;
+  }
+
+  /**
+   * Unit test for compiled predicates over an int field, for every operator
+   */
+  @Test public void intPredicate() {
+    TupleDesc td = Utility.getTupleDesc(2);
+    for (Predicate.Op op : Predicate.Op.values()) {
+      Predicate p = new Predicate(1, op, TestUtil.getField(0));
+      PredicateCompiler.Compiled compiled = PredicateCompiler.compile(p, td);
+      for (int v = -2; v <= 2; v++) {
+        Tuple t = Utility.getHeapTuple(new int[] { 100, v });
+        assertEquals(op + " " + v, p.filter(t), compiled.test(t));
+      }
+    }
+  }
+
+  /**
+   * Unit test for compiled predicates over a string field
+   */
+  @Test public void stringPredicate() {
+    TupleDesc td = new TupleDesc(new Type[] { Type.STRING_TYPE });
+    for (Predicate.Op op : Predicate.Op.values()) {
+      Predicate p = new Predicate(0, op, new StringField("bb", Type.STRING_LEN));
+      PredicateCompiler.Compiled compiled = PredicateCompiler.compile(p, td);
+      for (String s : new String[] { "a", "bb", "abbc", "c" }) {
+        Tuple t = stringTuple(s);
+        assertEquals(op + " " + s, p.filter(t), compiled.test(t));
+      }
+    }
+  }
+
+  /**
+   * Unit test for compiled join predicates, for every operator
+   */
+  @Test public void joinPredicate() {
+    TupleDesc td1 = Utility.getTupleDesc(1);
+    TupleDesc td2 = Utility.getTupleDesc(3);
+    for (Predicate.Op op : Predicate.Op.values()) {
+      JoinPredicate p = new JoinPredicate(0, op, 2);
+      PredicateCompiler.CompiledJoin compiled = PredicateCompiler.compile(p, td1, td2);
+      for (int v = -2; v <= 2; v++) {
+        Tuple t1 = Utility.getHeapTuple(0, 1);
+        Tuple t2 = Utility.getHeapTuple(new int[] { 7, 7, v });
+        assertEquals(op + " " + v, p.filter(t1, t2), compiled.test(t1, t2));
+      }
+    }
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(PredicateCompilerTest.class);
+  }
+}
@@ -0,0 +1,87 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class ProfiledIteratorTest extends SimpleDbTestBase {
+
+  /**
+   * A profile passes its operator's tuples through and counts them
+   */
+  @Test public void countRows() throws Exception {
+    ProfiledIterator scan = new ProfiledIterator(new TestUtil.MockScan(0, 10, 1), "scan", 10,
+        Collections.<ProfiledIterator>emptyList());
+    Filter f = new Filter(new Predicate(0, Predicate.Op.LESS_THAN, new IntField(4)), scan);
+    ProfiledIterator op = new ProfiledIterator(f, "filter", 5, Arrays.asList(scan));
+    op.open();
+    TestUtil.compareDbIterators(TestUtil.createTupleList(1, new int[] { 0, 1, 2, 3 }), op);
+    assertEquals(4, op.getRows());
+    assertEquals(10, scan.getRows());
+    assertEquals(1, op.getLoops());
+    op.rewind();
+    TestUtil.compareDbIterators(TestUtil.createTupleList(1, new int[] { 0, 1, 2, 3 }), op);
+    assertEquals(8, op.getRows());
+    assertEquals(2, scan.getLoops());
+    op.close();
+
+    String text = op.explain();
+    assertTrue(text, text.startsWith("filter  (rows 5 estimated, 8 actual in 2 loops;"));
+    assertTrue(text, text.contains("\n  -> scan  (rows 10 estimated, 20 actual in 2 loops;"));
+  }
+
+  /**
+   * A profile counts the pages its operator requests from the buffer pool
+   */
+  @Test public void countPages() throws Exception {
+    HeapFile table = SystemTestUtil.createRandomHeapFile(2, 1000, null, new ArrayList<ArrayList<Integer>>());
+    ProfiledIterator op = new ProfiledIterator(new SeqScan(new TransactionId(), table.getId(), "t"), "scan",
+        -1, Collections.<ProfiledIterator>emptyList());
+    op.open();
+    while (op.hasNext()) {
+      op.next();
+    }
+    op.close();
+    assertEquals(1000, op.getRows());
+    assertEquals(table.numPages(), op.getHits() + op.getMisses());
+    assertTrue(op.explain().startsWith("scan  (rows ? estimated, 1000 actual;"));
+  }
+
+  /**
+   * A gathering profile adds up the counters of its parts
+   */
+  @Test public void gather() throws Exception {
+    ProfiledIterator a = new ProfiledIterator(new TestUtil.MockScan(0, 3, 1), "a", 3,
+        Collections.<ProfiledIterator>emptyList());
+    ProfiledIterator b = new ProfiledIterator(new TestUtil.MockScan(0, 5, 1), "b", 5,
+        Collections.<ProfiledIterator>emptyList());
+    for (ProfiledIterator p : Arrays.asList(a, b)) {
+      p.open();
+      while (p.hasNext()) {
+        p.next();
+      }
+      p.close();
+    }
+    ProfiledIterator g = ProfiledIterator.gather("exchange", 8, Arrays.asList(a, b), Arrays.asList(a, b));
+    assertEquals(8, g.getRows());
+    assertEquals(2, g.getLoops());
+    assertEquals(2, g.getInputs().size());
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(ProfiledIteratorTest.class);
+  }
+}
@@ -0,0 +1,110 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class PushExecutorTest extends SimpleDbTestBase {
+
+  /** Runs plan with the push engine and returns its output. */
+  private static TupleIterator push(DbIterator plan) throws Exception {
+    final ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+    new PushExecutor(plan).run(new TupleSink() {
+      public boolean consume(Tuple t) {
+        tuples.add(t);
+        return true;
+      }
+    });
+    // as with the pull engine, an Aggregate's tuples carry its aggregator's TupleDesc
+    TupleDesc td = tuples.isEmpty() ? plan.getTupleDesc() : tuples.get(0).getTupleDesc();
+    TupleIterator result = new TupleIterator(td, tuples);
+    result.open();
+    return result;
+  }
+
+  /**
+   * Unit test for a pipeline of Filter, Project and Limit
+   */
+  @Test public void streamingPipeline() throws Exception {
+    ArrayList<Integer> fields = new ArrayList<Integer>();
+    fields.add(1);
+    fields.add(0);
+    ArrayList<Type> types = new ArrayList<Type>();
+    types.add(Type.INT_TYPE);
+    types.add(Type.INT_TYPE);
+    Predicate pred = new Predicate(1, Predicate.Op.EQUALS, new IntField(3));
+
+    DbIterator expected =
+        new Limit(10, 5, new Project(fields, types, new Filter(pred, TestUtil.createRowList(1000))));
+    expected.open();
+    TestUtil.compareDbIterators(expected,
+        push(new Limit(10, 5,
+            new Project(fields, types, new Filter(pred, TestUtil.createRowList(1000))))));
+  }
+
+  /**
+   * Unit test for a limit stopping a large source early
+   */
+  @Test public void limitStopsSource() throws Exception {
+    DbIterator plan = new Limit(3, 0, new TestUtil.MockScan(0, Integer.MAX_VALUE, 1));
+    TupleIterator result = push(plan);
+    int count = 0;
+    while (result.hasNext()) {
+      assertEquals(new IntField(count), result.next().getField(0));
+      count++;
+    }
+    assertEquals(3, count);
+  }
+
+  /**
+   * Unit test for the Aggregate and OrderBy pipeline breakers
+   */
+  @Test public void breakers() throws Exception {
+    DbIterator expected = new OrderBy(1, false,
+        new Aggregate(TestUtil.createRowList(1000), 0, 1, Aggregator.Op.SUM));
+    expected.open();
+    TestUtil.compareDbIterators(expected, push(new OrderBy(1, false,
+        new Aggregate(TestUtil.createRowList(1000), 0, 1, Aggregator.Op.SUM))));
+  }
+
+  /**
+   * Unit test for a hash join probed by a pushed pipeline
+   */
+  @Test public void hashJoin() throws Exception {
+    JoinPredicate pred = new JoinPredicate(1, Predicate.Op.EQUALS, 0);
+    DbIterator expected = new HashJoin(pred, TestUtil.createRowList(500), TestUtil.createRowList(10));
+    expected.open();
+    TestUtil.compareDbIterators(expected,
+        push(new HashJoin(pred, TestUtil.createRowList(500), TestUtil.createRowList(10))));
+  }
+
+  /**
+   * Unit test for a push query over an endless source: its first tuples
+   * reach the client while the source is still producing, and closing the
+   * query stops it
+   */
+  @Test public void queryStreams() throws Exception {
+    Query q = new Query(new TestUtil.MockScan(0, Integer.MAX_VALUE, 1), new TransactionId());
+    q.setPushExecution(true);
+    q.start();
+    for (int i = 0; i < 10000; i++) {
+      assertTrue(q.hasNext());
+      assertEquals(new IntField(i), q.next().getField(0));
+    }
+    q.close();
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(PushExecutorTest.class);
+  }
+}
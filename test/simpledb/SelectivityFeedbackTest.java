@@ -0,0 +1,87 @@
+package simpledb;
+
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class SelectivityFeedbackTest extends SimpleDbTestBase {
+    private static final int IO_COST = 71;
+    private static final int ROWS = 1000;
+
+    private HeapFile file;
+    private String name;
+
+    @Before public void setUp() throws Exception {
+        file = SystemTestUtil.createRandomHeapFile(2, ROWS, 32, null, new ArrayList<ArrayList<Integer>>());
+        name = SystemTestUtil.getUUID();
+        Database.getCatalog().addTable(file, name);
+    }
+
+    /**
+     * Unit test for keys: the same filters in any order have the same key
+     */
+    @Test public void key() {
+        assertEquals(SelectivityFeedback.key(name, Arrays.asList("a < 1", "b = 2")),
+                SelectivityFeedback.key(name, Arrays.asList("b = 2", "a < 1")));
+        assertFalse(SelectivityFeedback.key(name, Arrays.asList("a < 1")).equals(
+                SelectivityFeedback.key(name, Arrays.asList("a < 2"))));
+    }
+
+    /**
+     * Unit test for forgetting selectivities once the table's statistics
+     * are recomputed, or the table changes by more than the refresh threshold
+     */
+    @Test public void forgetStale() {
+        SelectivityFeedback feedback = new SelectivityFeedback();
+        String key = SelectivityFeedback.key(name, Arrays.asList("a < 1"));
+        TableStats s = new TableStats(file.getId(), IO_COST);
+        feedback.record(key, 0.25, s);
+        assertEquals(0.25, feedback.lookup(key, s), 0);
+
+        // as ANALYZE does
+        assertNull(feedback.lookup(key, new TableStats(file.getId(), IO_COST)));
+        assertNull(feedback.lookup(key, s));
+
+        feedback.record(key, 0.25, s);
+        Tuple t = new Tuple(file.getTupleDesc());
+        t.setField(0, new IntField(1));
+        t.setField(1, new IntField(1));
+        int allowed = (int) (TableStats.REFRESH_THRESHOLD * ROWS);
+        for (int i = 0; i < allowed; i++) {
+            s.addTuple(t, s.numPages());
+        }
+        assertEquals(0.25, feedback.lookup(key, s), 0);
+        s.removeTuple(t);
+        assertNull(feedback.lookup(key, s));
+        assertEquals(0, feedback.size());
+    }
+
+    /**
+     * Unit test for forgetting the least recently used selectivities
+     */
+    @Test public void capacity() {
+        SelectivityFeedback feedback = new SelectivityFeedback(2);
+        TableStats s = new TableStats(file.getId(), IO_COST);
+        feedback.record("a", 0.1, s);
+        feedback.record("b", 0.2, s);
+        feedback.lookup("a", s);
+        feedback.record("c", 0.3, s);
+        assertEquals(2, feedback.size());
+        assertNotNull(feedback.lookup("a", s));
+        assertNull(feedback.lookup("b", s));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SelectivityFeedbackTest.class);
+    }
+}
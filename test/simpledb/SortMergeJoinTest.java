@@ -0,0 +1,157 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class SortMergeJoinTest extends SimpleDbTestBase {
+
+  int width1 = 2;
+  int width2 = 3;
+  DbIterator scan1;
+  DbIterator scan2;
+  DbIterator eqJoin;
+  DbIterator gtJoin;
+  DbIterator lteJoin;
+
+  /**
+   * Initialize each unit test
+   */
+  @Before public void createTupleLists() throws Exception {
+    this.scan1 = TestUtil.createTupleList(width1,
+        new int[] { 1, 2,
+                    3, 4,
+                    3, 5,
+                    7, 8 });
+    this.scan2 = TestUtil.createTupleList(width2,
+        new int[] { 1, 2, 3,
+                    2, 3, 4,
+                    3, 4, 5,
+                    3, 5, 6,
+                    5, 6, 7 });
+    this.eqJoin = TestUtil.createTupleList(width1 + width2,
+        new int[] { 1, 2, 1, 2, 3,
+                    3, 4, 3, 4, 5,
+                    3, 4, 3, 5, 6,
+                    3, 5, 3, 4, 5,
+                    3, 5, 3, 5, 6 });
+    this.gtJoin = TestUtil.createTupleList(width1 + width2,
+        new int[] { 3, 4, 1, 2, 3,
+                    3, 4, 2, 3, 4,
+                    3, 5, 1, 2, 3,
+                    3, 5, 2, 3, 4,
+                    7, 8, 1, 2, 3,
+                    7, 8, 2, 3, 4,
+                    7, 8, 3, 4, 5,
+                    7, 8, 3, 5, 6,
+                    7, 8, 5, 6, 7 });
+    this.lteJoin = TestUtil.createTupleList(width1 + width2,
+        new int[] { 1, 2, 1, 2, 3,
+                    1, 2, 2, 3, 4,
+                    1, 2, 3, 4, 5,
+                    1, 2, 3, 5, 6,
+                    1, 2, 5, 6, 7,
+                    3, 4, 3, 4, 5,
+                    3, 4, 3, 5, 6,
+                    3, 4, 5, 6, 7,
+                    3, 5, 3, 4, 5,
+                    3, 5, 3, 5, 6,
+                    3, 5, 5, 6, 7 });
+  }
+
+  private int countTuples(DbIterator it) throws Exception {
+    int count = 0;
+    it.rewind();
+    while (it.hasNext()) {
+      assertNotNull(it.next());
+      count++;
+    }
+    return count;
+  }
+
+  /**
+   * Unit test for SortMergeJoin.getTupleDesc()
+   */
+  @Test public void getTupleDesc() {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    SortMergeJoin op = new SortMergeJoin(pred, scan1, scan2);
+    TupleDesc expected = Utility.getTupleDesc(width1 + width2);
+    assertEquals(expected, op.getTupleDesc());
+  }
+
+  /**
+   * Unit test for SortMergeJoin.rewind()
+   */
+  @Test public void rewind() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    SortMergeJoin op = new SortMergeJoin(pred, scan1, scan2);
+    op.open();
+    while (op.hasNext()) {
+      assertNotNull(op.next());
+    }
+    assertTrue(TestUtil.checkExhausted(op));
+    op.rewind();
+
+    eqJoin.open();
+    Tuple expected = eqJoin.next();
+    Tuple actual = op.next();
+    assertTrue(TestUtil.compareTuples(expected, actual));
+  }
+
+  /**
+   * Unit test for SortMergeJoin.getNext() using an = predicate with
+   * duplicate keys on both sides
+   */
+  @Test public void eqJoin() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    SortMergeJoin op = new SortMergeJoin(pred, scan1, scan2);
+    op.open();
+    eqJoin.open();
+    TestUtil.matchAllTuples(eqJoin, op);
+    assertEquals(countTuples(eqJoin), countTuples(op));
+  }
+
+  /**
+   * Unit test for SortMergeJoin.getNext() using a &gt; predicate
+   */
+  @Test public void gtJoin() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.GREATER_THAN, 0);
+    SortMergeJoin op = new SortMergeJoin(pred, scan1, scan2);
+    op.open();
+    gtJoin.open();
+    TestUtil.matchAllTuples(gtJoin, op);
+    assertEquals(countTuples(gtJoin), countTuples(op));
+  }
+
+  /**
+   * Unit test for SortMergeJoin.getNext() using a &lt;= predicate
+   */
+  @Test public void lteJoin() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.LESS_THAN_OR_EQ, 0);
+    SortMergeJoin op = new SortMergeJoin(pred, scan1, scan2);
+    op.open();
+    lteJoin.open();
+    TestUtil.matchAllTuples(lteJoin, op);
+    assertEquals(countTuples(lteJoin), countTuples(op));
+  }
+
+  /**
+   * SortMergeJoin cannot evaluate a != predicate by merging
+   */
+  @Test(expected = IllegalArgumentException.class) public void notEqualsRejected() {
+    new SortMergeJoin(new JoinPredicate(0, Predicate.Op.NOT_EQUALS, 0), scan1, scan2);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(SortMergeJoinTest.class);
+  }
+}
@@ -105,6 +105,22 @@ public class StringAggregatorTest extends SimpleDbTestBase {
     }
   }
 
+  /**
+   * Test StringAggregator.merge() of partial counts
+   */
+  @Test public void mergePartials() throws Exception {
+    scan1.open();
+    StringAggregator first = new StringAggregator(0, Type.INT_TYPE, 1, Aggregator.Op.COUNT);
+    StringAggregator second = new StringAggregator(0, Type.INT_TYPE, 1, Aggregator.Op.COUNT);
+    for (int i = 0; scan1.hasNext(); i++) {
+      (i < 4 ? first : second).mergeTupleIntoGroup(scan1.next());
+    }
+    first.merge(second);
+    DbIterator it = first.iterator();
+    it.open();
+    TestUtil.matchAllTuples(TestUtil.createTupleList(width1, new int[] { 1, 3, 3, 3, 5, 1 }), it);
+  }
+
   /**
    * JUnit suite target
    */
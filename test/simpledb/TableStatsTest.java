@@ -0,0 +1,331 @@
+package simpledb;
+
+import java.io.File;
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class TableStatsTest extends SimpleDbTestBase {
+    private static final int IO_COST = 71;
+    private static final int ROWS = 10000;
+    private static final int MAX_VALUE = 32;
+
+    private ArrayList<ArrayList<Integer>> tuples;
+    private HeapFile file;
+    private String name;
+
+    @Before public void setUp() throws Exception {
+        tuples = new ArrayList<ArrayList<Integer>>();
+        file = SystemTestUtil.createRandomHeapFile(3, ROWS, MAX_VALUE, null, tuples);
+        name = SystemTestUtil.getUUID();
+        Database.getCatalog().addTable(file, name);
+    }
+
+    private int count(int column, Predicate.Op op, int v) {
+        int n = 0;
+        for (ArrayList<Integer> t : tuples) {
+            if (Predicate.compare(t.get(column), op, v)) {
+                n++;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Unit test for the counts and bounds TableStats gathers, and its estimates
+     */
+    @Test public void estimates() {
+        TableStats s = new TableStats(file.getId(), IO_COST);
+        assertEquals(ROWS, s.numTuples());
+        assertEquals(file.numPages(), s.numPages());
+        assertEquals(file.numPages() * IO_COST, s.estimateScanCost(), 0);
+        assertEquals(ROWS / 2, s.estimateTableCardinality(0.5));
+        for (int c = 0; c < 3; c++) {
+            int min = Integer.MAX_VALUE;
+            int max = Integer.MIN_VALUE;
+            HashSet<Integer> distinct = new HashSet<Integer>();
+            for (ArrayList<Integer> t : tuples) {
+                min = Math.min(min, t.get(c));
+                max = Math.max(max, t.get(c));
+                distinct.add(t.get(c));
+            }
+            assertEquals(new IntField(min), s.getMin(c));
+            assertEquals(new IntField(max), s.getMax(c));
+            assertEquals(distinct.size(), s.numDistinct(c));
+            for (int v = -1; v <= MAX_VALUE; v += 3) {
+                for (Predicate.Op op : new Predicate.Op[] {Predicate.Op.EQUALS, Predicate.Op.LESS_THAN,
+                        Predicate.Op.GREATER_THAN_OR_EQ}) {
+                    assertEquals((double) count(c, op, v) / ROWS,
+                            s.estimateSelectivity(c, op, new IntField(v)), 0.02);
+                }
+            }
+        }
+    }
+
+    /**
+     * Unit test for statistics estimated from a sample of the table's pages
+     */
+    @Test public void sampled() {
+        TableStats s = new TableStats(file.getId(), IO_COST, 0.3);
+        int samplePages = (int) Math.ceil(0.3 * file.numPages());
+        assertEquals((double) samplePages / file.numPages(), s.sampleRate(), 1e-9);
+        assertTrue(s.sampleSize() > 0 && s.sampleSize() < ROWS);
+        // every page but the last is full, so the estimate is close
+        assertEquals(ROWS, s.numTuples(), Math.max(3 * s.cardinalityError(), ROWS / 20));
+        assertEquals(file.numPages() * IO_COST, s.estimateScanCost(), 0);
+        for (int c = 0; c < 3; c++) {
+            assertEquals(MAX_VALUE + 1, s.numDistinct(c), MAX_VALUE / 4);
+            for (int v = 0; v <= MAX_VALUE; v += 4) {
+                double actual = (double) count(c, Predicate.Op.LESS_THAN, v) / ROWS;
+                assertEquals(actual, s.estimateSelectivity(c, Predicate.Op.LESS_THAN, new IntField(v)),
+                        0.02 + 4 * s.selectivityError(actual));
+            }
+        }
+
+        TableStats full = new TableStats(file.getId(), IO_COST, 1.0);
+        assertEquals(1.0, full.sampleRate(), 0);
+        assertEquals(0, full.cardinalityError(), 0);
+        assertEquals(0, full.selectivityError(0.5), 0);
+    }
+
+    /**
+     * Unit test for TableStats.estimateDistinct() on samples of columns
+     * with few and with many distinct values
+     */
+    @Test public void estimateDistinct() {
+        TupleDesc td = new TupleDesc(new Type[] {Type.INT_TYPE, Type.INT_TYPE});
+        Random random = new Random(7);
+        ArrayList<Tuple> sample = new ArrayList<Tuple>();
+        for (int i = 0; i < 1000; i++) {
+            Tuple t = new Tuple(td);
+            t.setField(0, new IntField(random.nextInt(10)));
+            t.setField(1, new IntField(i));
+            sample.add(t);
+        }
+        assertEquals(10, TableStats.estimateDistinct(sample, 0, 100000));
+        // a key: every sampled value is unique, so most of the population's are
+        int keys = TableStats.estimateDistinct(sample, 1, 100000);
+        assertTrue(keys >= 10000 && keys <= 100000);
+        assertEquals(1000, TableStats.estimateDistinct(sample, 1, 1000));
+    }
+
+    /**
+     * Unit test for TableStats.loadOrCompute(): saved statistics are reused
+     * until the table grows past the refresh threshold
+     */
+    @Test public void loadOrCompute() throws Exception {
+        File statsFile = File.createTempFile("table", ".stats");
+        statsFile.delete();
+        statsFile.deleteOnExit();
+
+        HashMap<String, TableStats> computed = TableStats.loadOrCompute(statsFile, IO_COST);
+        assertTrue(statsFile.exists());
+        TableStats s = computed.get(name);
+        assertEquals(ROWS, s.numTuples());
+
+        TableStats loaded = TableStats.loadOrCompute(statsFile, IO_COST).get(name);
+        assertNotSame(s, loaded);
+        assertEquals(s.numTuples(), loaded.numTuples());
+        assertEquals(s.numPages(), loaded.numPages());
+        assertEquals(s.getMin(1), loaded.getMin(1));
+        assertEquals(s.getMax(1), loaded.getMax(1));
+        assertEquals(s.numDistinct(2), loaded.numDistinct(2));
+        assertEquals(s.estimateSelectivity(0, Predicate.Op.LESS_THAN, new IntField(10)),
+                loaded.estimateSelectivity(0, Predicate.Op.LESS_THAN, new IntField(10)), 0);
+
+        // grow the table past the threshold
+        TransactionId tid = new TransactionId();
+        int pages = file.numPages();
+        while (file.numPages() <= pages * (1 + 2 * TableStats.REFRESH_THRESHOLD)) {
+            Tuple t = new Tuple(file.getTupleDesc());
+            for (int c = 0; c < 3; c++) {
+                t.setField(c, new IntField(1));
+            }
+            Database.getBufferPool().insertTuple(tid, file.getId(), t);
+        }
+        Database.getBufferPool().transactionComplete(tid, true);
+        TableStats refreshed = TableStats.loadOrCompute(statsFile, IO_COST).get(name);
+        assertTrue(refreshed.numTuples() > ROWS);
+        assertEquals(file.numPages(), refreshed.numPages());
+    }
+
+    /**
+     * Unit test for statistics kept up to date as tuples are inserted and
+     * deleted, and saved by TableStats.flush()
+     */
+    @Test public void maintained() throws Exception {
+        File statsFile = File.createTempFile("table", ".stats");
+        statsFile.delete();
+        statsFile.deleteOnExit();
+        HashMap<String, TableStats> stats = TableStats.loadOrCompute(statsFile, IO_COST);
+        long saved = statsFile.lastModified();
+        TableStats s = stats.get(name);
+        int distinct = s.numDistinct(1);
+        TableStats.maintain(stats, statsFile);
+        try {
+            TableStats.flush();
+            assertEquals(saved, statsFile.lastModified());
+
+            // insert values above the old maximum into column 0
+            int added = ROWS / 4;
+            TransactionId tid = new TransactionId();
+            for (int i = 0; i < added; i++) {
+                Tuple t = new Tuple(file.getTupleDesc());
+                t.setField(0, new IntField(MAX_VALUE + 1 + i));
+                t.setField(1, new IntField(1));
+                t.setField(2, new IntField(1));
+                Database.getBufferPool().insertTuple(tid, file.getId(), t);
+            }
+            Database.getBufferPool().transactionComplete(tid, true);
+            assertEquals(ROWS + added, s.numTuples());
+            assertEquals(added, s.changes());
+            assertEquals(file.numPages(), s.numPages());
+            assertEquals(new IntField(MAX_VALUE + added), s.getMax(0));
+            assertEquals(MAX_VALUE + 1 + added, s.numDistinct(0), added / 20);
+            assertEquals(distinct, s.numDistinct(1));
+            assertEquals((double) added / (ROWS + added),
+                    s.estimateSelectivity(0, Predicate.Op.GREATER_THAN, new IntField(MAX_VALUE)), 0.02);
+
+            TableStats.flush();
+            TableStats loaded = TableStats.loadOrCompute(statsFile, IO_COST).get(name);
+            assertNotSame(s, loaded);
+            assertEquals(ROWS + added, loaded.numTuples());
+            assertEquals(s.numDistinct(0), loaded.numDistinct(0));
+
+            tid = new TransactionId();
+            DbFileIterator it = file.iterator(tid);
+            it.open();
+            ArrayList<Tuple> stored = new ArrayList<Tuple>();
+            while (it.hasNext()) {
+                Tuple t = it.next();
+                if (((IntField) t.getField(0)).getValue() > MAX_VALUE) {
+                    stored.add(t);
+                }
+            }
+            it.close();
+            for (Tuple t : stored) {
+                Database.getBufferPool().deleteTuple(tid, t);
+            }
+            Database.getBufferPool().transactionComplete(tid, true);
+            assertEquals(ROWS, s.numTuples());
+            assertEquals(2 * added, s.changes());
+            assertEquals(0, s.estimateSelectivity(0, Predicate.Op.GREATER_THAN, new IntField(MAX_VALUE)), 0.01);
+        } finally {
+            TableStats.maintain(null, null);
+        }
+    }
+
+    /**
+     * Unit test for the inserts of an aborted transaction, which must not
+     * reach maintained statistics or their file
+     */
+    @Test public void maintainedAbort() throws Exception {
+        File statsFile = File.createTempFile("table", ".stats");
+        statsFile.delete();
+        statsFile.deleteOnExit();
+        HashMap<String, TableStats> stats = TableStats.loadOrCompute(statsFile, IO_COST);
+        TableStats s = stats.get(name);
+        Field max = s.getMax(0);
+        TableStats.maintain(stats, statsFile);
+        try {
+            TransactionId tid = new TransactionId();
+            for (int i = 0; i < ROWS / 4; i++) {
+                Tuple t = new Tuple(file.getTupleDesc());
+                t.setField(0, new IntField(MAX_VALUE + 1 + i));
+                t.setField(1, new IntField(1));
+                t.setField(2, new IntField(1));
+                Database.getBufferPool().insertTuple(tid, file.getId(), t);
+            }
+            // applied only at commit
+            assertEquals(ROWS, s.numTuples());
+            Database.getBufferPool().transactionComplete(tid, false);
+            assertEquals(ROWS, s.numTuples());
+            assertEquals(0, s.changes());
+            assertEquals(max, s.getMax(0));
+
+            // nothing to save
+            statsFile.setLastModified(0);
+            TableStats.flush();
+            assertEquals(0, statsFile.lastModified());
+        } finally {
+            TableStats.maintain(null, null);
+        }
+    }
+
+    /**
+     * Unit test for deleting the partial tuples a ColumnScan returns while
+     * the statistics of its table are maintained
+     */
+    @Test public void maintainedProjectedDelete() throws Exception {
+        File dir = File.createTempFile("table", ".col");
+        dir.delete();
+        ColumnFile cf = ColumnFile.fromHeapFile(file, dir);
+        String cfName = SystemTestUtil.getUUID();
+        Database.getCatalog().addTable(cf, cfName);
+        HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+        TableStats s = new TableStats(cf.getId(), IO_COST);
+        stats.put(cfName, s);
+        double below0 = s.estimateSelectivity(0, Predicate.Op.LESS_THAN, new IntField(8));
+        double below2 = s.estimateSelectivity(2, Predicate.Op.LESS_THAN, new IntField(8));
+        TableStats.maintain(stats, null);
+        try {
+            // delete the rows whose column 0 is below 8, scanning columns 2 and 0
+            TransactionId tid = new TransactionId();
+            ColumnScan scan = new ColumnScan(tid, cf.getId(), "t", new int[] { 2, 0 });
+            ArrayList<Tuple> deleted = new ArrayList<Tuple>();
+            scan.open();
+            while (scan.hasNext()) {
+                Tuple t = scan.next();
+                if (((IntField) t.getField(1)).getValue() < 8) {
+                    deleted.add(t);
+                }
+            }
+            scan.close();
+            for (Tuple t : deleted) {
+                Database.getBufferPool().deleteTuple(tid, t);
+            }
+            Database.getBufferPool().transactionComplete(tid, true);
+            int remaining = ROWS - count(0, Predicate.Op.LESS_THAN, 8);
+            assertEquals(remaining, ROWS - deleted.size());
+            assertEquals(remaining, s.numTuples());
+            // the deleted rows are taken out of column 0's histogram, not column 2's
+            assertTrue(s.estimateSelectivity(0, Predicate.Op.LESS_THAN, new IntField(8)) < below0 - 0.05);
+            assertEquals(below2, s.estimateSelectivity(2, Predicate.Op.LESS_THAN, new IntField(8)), 0.03);
+
+            // and some rows through a scan of a single column
+            tid = new TransactionId();
+            scan = new ColumnScan(tid, cf.getId(), "t", new int[] { 2 });
+            scan.open();
+            deleted.clear();
+            for (int i = 0; i < 10; i++) {
+                deleted.add(scan.next());
+            }
+            scan.close();
+            for (Tuple t : deleted) {
+                Database.getBufferPool().deleteTuple(tid, t);
+            }
+            Database.getBufferPool().transactionComplete(tid, true);
+            assertEquals(remaining - 10, s.numTuples());
+        } finally {
+            TableStats.maintain(null, null);
+            for (File f : dir.listFiles()) {
+                f.delete();
+            }
+            dir.delete();
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(TableStatsTest.class);
+    }
+}
@@ -38,6 +38,31 @@ public class TestUtil {
         return result;
     }
 
+    /**
+     * @return a DbIterator over the two-column tuples (i, i % 7) for i in
+     *   0 .. n - 1, made by createTupleList
+     */
+    public static TupleIterator createRowList(int n) {
+        int[] data = new int[n * 2];
+        for (int i = 0; i < n; i++) {
+            data[2 * i] = i;
+            data[2 * i + 1] = i % 7;
+        }
+        return createTupleList(2, data);
+    }
+
+    /**
+     * @return a DbIterator over the one-column tuples low .. high - 1, each
+     *   repeated copies times, made by createTupleList
+     */
+    public static TupleIterator createRangeList(int low, int high, int copies) {
+        int[] data = new int[(high - low) * copies];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = low + i / copies;
+        }
+        return createTupleList(1, data);
+    }
+
     /**
      * @return a DbIterator over a list of tuples constructed over the data
      *   provided in the constructor. This iterator is already open.
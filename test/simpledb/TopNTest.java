@@ -0,0 +1,83 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class TopNTest extends SimpleDbTestBase {
+
+  /**
+   * Unit test for TopN.getNext() in descending order
+   */
+  @Test public void topDescending() throws Exception {
+    TopN op = new TopN(3, new int[] { 0 }, new boolean[] { false },
+        new TestUtil.MockScan(0, 1000, 2));
+    op.open();
+    DbIterator expected = TestUtil.createTupleList(2, new int[] { 999, 999, 998, 998, 997, 997 });
+    TestUtil.compareDbIterators(expected, op);
+    assertTrue(TestUtil.checkExhausted(op));
+  }
+
+  /**
+   * Unit test for TopN on two keys, with ties on the first
+   */
+  @Test public void topTwoKeys() throws Exception {
+    DbIterator child = TestUtil.createTupleList(2,
+        new int[] { 5, 1,
+                    2, 9,
+                    2, 3,
+                    7, 0,
+                    2, 4,
+                    1, 8 });
+    TopN op = new TopN(4, new int[] { 0, 1 }, new boolean[] { true, false }, child);
+    op.open();
+    DbIterator expected = TestUtil.createTupleList(2,
+        new int[] { 1, 8,
+                    2, 9,
+                    2, 4,
+                    2, 3 });
+    TestUtil.compareDbIterators(expected, op);
+  }
+
+  /**
+   * Unit test for TopN.rewind() and for n larger than the input
+   */
+  @Test public void rewindAllTuples() throws Exception {
+    TopN op = new TopN(50, new int[] { 0 }, new boolean[] { true },
+        new TestUtil.MockScan(0, 5, 1));
+    op.open();
+    TestUtil.compareDbIterators(TestUtil.createTupleList(1, new int[] { 0, 1, 2, 3, 4 }), op);
+    op.rewind();
+    int count = 0;
+    while (op.hasNext()) {
+      op.next();
+      count++;
+    }
+    assertEquals(5, count);
+  }
+
+  /**
+   * Unit test for TopN with a huge n over a tiny input: the heap is not
+   * sized for n up front, and n tuples would not fit in sort memory
+   */
+  @Test public void hugeN() throws Exception {
+    TopN op = new TopN(Integer.MAX_VALUE, new int[] { 0 }, new boolean[] { false },
+        new TestUtil.MockScan(0, 3, 1));
+    op.open();
+    TestUtil.compareDbIterators(TestUtil.createTupleList(1, new int[] { 2, 1, 0 }), op);
+    assertTrue(TopN.fits(100, op.getTupleDesc(), 1));
+    assertFalse(TopN.fits(Integer.MAX_VALUE, op.getTupleDesc(), OrderBy.DEFAULT_RUN_PAGES));
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(TopNTest.class);
+  }
+}
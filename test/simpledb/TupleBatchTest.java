@@ -0,0 +1,133 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class TupleBatchTest extends SimpleDbTestBase {
+
+  /** Reads every batch of it and returns the selected rows as tuples. */
+  private static TupleIterator drainBatches(BatchDbIterator it) throws Exception {
+    ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+    it.open();
+    TupleBatch batch;
+    while ((batch = it.nextBatch()) != null) {
+      assertTrue(batch.size() > 0);
+      for (int i = 0; i < batch.size(); i++) {
+        tuples.add(batch.getTuple(i));
+      }
+    }
+    it.close();
+    TupleIterator result = new TupleIterator(it.getTupleDesc(), tuples);
+    result.open();
+    return result;
+  }
+
+  /**
+   * Unit test for adding tuples to a batch and selecting rows
+   */
+  @Test public void addAndSelect() throws Exception {
+    DbIterator in = TestUtil.createRowList(5);
+    TupleBatch batch = new TupleBatch(in.getTupleDesc(), 5);
+    while (in.hasNext()) {
+      batch.add(in.next());
+    }
+    assertTrue(batch.isFull());
+    assertEquals(5, batch.size());
+    assertEquals(3, batch.getInt(0, 3));
+
+    int[] rows = batch.selectionBuffer();
+    rows[0] = 1;
+    rows[1] = 4;
+    batch.setSelection(rows, 2);
+    assertEquals(2, batch.size());
+    assertEquals(5, batch.physicalSize());
+    assertEquals(4, batch.row(1));
+    assertEquals(new IntField(4), batch.getTuple(1).getField(0));
+
+    batch.clear();
+    assertEquals(0, batch.size());
+    assertNull(batch.getSelection());
+  }
+
+  /**
+   * Unit test for BatchAdapter.of
+   */
+  @Test public void adapter() throws Exception {
+    Filter filter =
+        new Filter(new Predicate(0, Predicate.Op.LESS_THAN, new IntField(0)), TestUtil.createRowList(1));
+    assertSame(filter, BatchAdapter.of(filter));
+    TestUtil.compareDbIterators(TestUtil.createRowList(3000),
+        drainBatches(BatchAdapter.of(TestUtil.createRowList(3000))));
+  }
+
+  /**
+   * Unit test for Filter.nextBatch, including a filter over a filtered batch
+   */
+  @Test public void filter() throws Exception {
+    Filter low = new Filter(new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(1000)),
+        TestUtil.createRowList(3000));
+    Filter op = new Filter(new Predicate(1, Predicate.Op.EQUALS, new IntField(3)), low);
+    Filter expected = new Filter(new Predicate(1, Predicate.Op.EQUALS, new IntField(3)),
+        new Filter(new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(1000)),
+            TestUtil.createRowList(3000)));
+    expected.open();
+    TestUtil.compareDbIterators(expected, drainBatches(op));
+  }
+
+  /**
+   * Unit test for Project.nextBatch over a filtered batch
+   */
+  @Test public void project() throws Exception {
+    ArrayList<Integer> fields = new ArrayList<Integer>();
+    fields.add(1);
+    fields.add(0);
+    ArrayList<Type> types = new ArrayList<Type>();
+    types.add(Type.INT_TYPE);
+    types.add(Type.INT_TYPE);
+    Predicate pred = new Predicate(0, Predicate.Op.LESS_THAN, new IntField(2500));
+    Project expected = new Project(fields, types, new Filter(pred, TestUtil.createRowList(3000)));
+    expected.open();
+    TestUtil.compareDbIterators(expected,
+        drainBatches(new Project(fields, types, new Filter(pred, TestUtil.createRowList(3000)))));
+  }
+
+  /**
+   * Unit test for Join.nextBatch, with output spanning several batches
+   */
+  @Test public void join() throws Exception {
+    JoinPredicate pred = new JoinPredicate(1, Predicate.Op.EQUALS, 1);
+    Join expected = new Join(pred, TestUtil.createRowList(300), TestUtil.createRowList(140));
+    expected.open();
+    ArrayList<String> expectedRows = sortedRows(expected);
+    assertEquals(300 * 20, expectedRows.size());
+    assertEquals(expectedRows,
+        sortedRows(drainBatches(new Join(pred, TestUtil.createRowList(300), TestUtil.createRowList(140)))));
+  }
+
+  private static ArrayList<String> sortedRows(DbIterator it) throws Exception {
+    ArrayList<String> rows = new ArrayList<String>();
+    while (it.hasNext()) {
+      rows.add(it.next().toString());
+    }
+    Collections.sort(rows);
+    return rows;
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(TupleBatchTest.class);
+  }
+}